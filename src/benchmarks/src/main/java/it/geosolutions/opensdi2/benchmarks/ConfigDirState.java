@@ -0,0 +1,134 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.benchmarks;
+
+import it.geosolutions.opensdi2.configurations.configdir.OpenSDIManagerConfigImpl;
+import it.geosolutions.opensdi2.configurations.dao.PropertiesDAO;
+import it.geosolutions.opensdi2.configurations.model.converters.PropertiesConfigurationConverter;
+import it.geosolutions.opensdi2.configurations.services.CachingConfigDepot;
+import it.geosolutions.opensdi2.configurations.services.PublisherConfigDepotImpl;
+import it.geosolutions.opensdi2.utils.PropertiesDirFiltersFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A temporary configuration directory holding a module with the requested number of instances,
+ * shared by all the benchmarks together with the DAO and the depots reading it.
+ */
+@State(Scope.Benchmark)
+public class ConfigDirState {
+
+    public final static String SCOPE_ID = "bench";
+
+    /**
+     * The number of keys of each configuration
+     */
+    private final static int KEYS = 20;
+
+    @Param({ "10", "100", "1000" })
+    public int instances;
+
+    public File baseDir;
+
+    public File moduleDir;
+
+    public String[] instanceIDs;
+
+    public PropertiesDAO dao;
+
+    public PublisherConfigDepotImpl depot;
+
+    public CachingConfigDepot cachingDepot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        baseDir = File.createTempFile("osdi-bench", "");
+        baseDir.delete();
+        moduleDir = new File(new File(baseDir, PropertiesDAO.PROPERTIES_CONFIG_DIR),
+                PropertiesDirFiltersFactory.MODULE_NAME_PREFIX + SCOPE_ID);
+        if (!moduleDir.mkdirs()) {
+            throw new IOException("Unable to create '" + moduleDir + "'");
+        }
+        instanceIDs = new String[instances];
+        for (int i = 0; i < instances; i++) {
+            instanceIDs[i] = "instance" + i;
+            writeConfiguration(new File(moduleDir, PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_PREFIX
+                    + instanceIDs[i] + PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_EXTENSION));
+        }
+        // a module configured with a single configuration named as the module
+        writeConfiguration(new File(moduleDir, PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_PREFIX
+                + SCOPE_ID + PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_EXTENSION));
+
+        OpenSDIManagerConfigImpl configDir = new OpenSDIManagerConfigImpl();
+        configDir.setBaseFolder(baseDir);
+        dao = new PropertiesDAO();
+        dao.setConfigDirManager(configDir);
+        dao.setConfigConverter(new PropertiesConfigurationConverter());
+        dao.init();
+
+        depot = new PublisherConfigDepotImpl();
+        depot.setDao(dao);
+
+        cachingDepot = new CachingConfigDepot();
+        cachingDepot.setDelegate(new PublisherConfigDepotImpl());
+        cachingDepot.setDao(dao);
+        // the files don't change during the benchmark
+        cachingDepot.setWatchInterval(0);
+        cachingDepot.init();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cachingDepot.destroy();
+        delete(baseDir);
+    }
+
+    private static void writeConfiguration(File file) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            for (int k = 0; k < KEYS; k++) {
+                writer.write("key" + k + " = value" + k + "\n");
+            }
+            writer.write("list = a,b,c\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.benchmarks;
+
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationException;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationNotFoundException;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Load a configuration through the DAO and the depots, cycling over all the instances of the module.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigLoadBenchmark {
+
+    private int next;
+
+    @Benchmark
+    public OSDIConfiguration propertiesDAOLoad(ConfigDirState state) throws OSDIConfigurationNotFoundException {
+        return state.dao.load(ConfigDirState.SCOPE_ID, nextInstanceID(state));
+    }
+
+    @Benchmark
+    public OSDIConfiguration publisherDepotLoad(ConfigDirState state) throws OSDIConfigurationException {
+        return state.depot.loadExistingConfiguration(ConfigDirState.SCOPE_ID, nextInstanceID(state));
+    }
+
+    @Benchmark
+    public OSDIConfiguration cachingDepotLoad(ConfigDirState state) throws OSDIConfigurationException {
+        return state.cachingDepot.loadExistingConfiguration(ConfigDirState.SCOPE_ID, nextInstanceID(state));
+    }
+
+    private String nextInstanceID(ConfigDirState state) {
+        if (next >= state.instanceIDs.length) {
+            next = 0;
+        }
+        return state.instanceIDs[next++];
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.benchmarks;
+
+import it.geosolutions.opensdi2.utils.PropertiesDirFiltersFactory;
+import it.geosolutions.opensdi2.utils.PropertiesDirFiltersFactory.FILTER_TYPE;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * List the configuration directory with the filters used by the DAO to find the modules and the instances.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirFiltersBenchmark {
+
+    private final PropertiesDirFiltersFactory factory = new PropertiesDirFiltersFactory();
+
+    @Benchmark
+    public File[] findModule(ConfigDirState state) {
+        return state.moduleDir.getParentFile().listFiles(factory.getFilter(FILTER_TYPE.MODULE, ConfigDirState.SCOPE_ID));
+    }
+
+    @Benchmark
+    public File[] findInstance(ConfigDirState state) {
+        return state.moduleDir.listFiles(factory.getFilter(FILTER_TYPE.INSTANCE,
+                state.instanceIDs[state.instanceIDs.length / 2]));
+    }
+
+    @Benchmark
+    public File[] listInstances(ConfigDirState state) {
+        return state.moduleDir.listFiles(factory.getFilter(FILTER_TYPE.INSTANCE_LIST, null));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.benchmarks;
+
+import it.geosolutions.opensdi2.configurations.controller.OSDIModuleController;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationException;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * The configuration loading performed by every module controller when a request comes in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModuleControllerBenchmark {
+
+    private BenchModule uncachedModule;
+
+    private BenchModule cachedModule;
+
+    private SingleConfigurationModule scopeModule;
+
+    private MockHttpServletRequest instanceRequest;
+
+    private MockHttpServletRequest scopeRequest;
+
+    @Setup
+    public void setUp(ConfigDirState state) {
+        uncachedModule = new BenchModule();
+        uncachedModule.setDepot(state.depot);
+        cachedModule = new BenchModule();
+        cachedModule.setDepot(state.cachingDepot);
+        scopeModule = new SingleConfigurationModule();
+        scopeModule.setDepot(state.depot);
+        instanceRequest = new MockHttpServletRequest();
+        instanceRequest.setPathInfo("/" + ConfigDirState.SCOPE_ID + "/" + state.instanceIDs[state.instanceIDs.length / 2] + "/data");
+        scopeRequest = new MockHttpServletRequest();
+        scopeRequest.setPathInfo("/" + ConfigDirState.SCOPE_ID + "/");
+    }
+
+    @Benchmark
+    public OSDIConfiguration loadInstanceConfiguration() throws OSDIConfigurationException {
+        return uncachedModule.loadConfiguration(instanceRequest);
+    }
+
+    @Benchmark
+    public OSDIConfiguration loadScopeConfiguration() throws OSDIConfigurationException {
+        return scopeModule.loadConfiguration(scopeRequest);
+    }
+
+    @Benchmark
+    public OSDIConfiguration loadCachedInstanceConfiguration() throws OSDIConfigurationException {
+        return cachedModule.loadConfiguration(instanceRequest);
+    }
+
+    /**
+     * A module taking the instanceID from the second fragment of the path
+     */
+    static class BenchModule extends OSDIModuleController {
+
+        @Override
+        public String getInstanceID(HttpServletRequest req) {
+            return getPathFragment(req, 1);
+        }
+    }
+
+    /**
+     * A module with a single configuration named as the module
+     */
+    static class SingleConfigurationModule extends OSDIModuleController {
+
+        @Override
+        public String getInstanceID(HttpServletRequest req) {
+            return null;
+        }
+    }
+}
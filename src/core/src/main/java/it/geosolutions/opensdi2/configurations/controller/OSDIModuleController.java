@@ -24,6 +24,12 @@ import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
 import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationKVP;
 import it.geosolutions.opensdi2.configurations.services.ConfigDepot;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang.StringUtils;
@@ -47,6 +53,15 @@ public abstract class OSDIModuleController{
     public static String INSTANCE_ID = "instanceID";
     public static String CONFIGURATION_OBJ_ID = "it.geosolutions.opensdi2.configurations.configuration";
     
+    /**
+     * The maximum number of ID pairs remembered, the cache is emptied when it is reached
+     */
+    private final static int MAX_CACHED_ENTRIES = 1024;
+    
+    private final static ConcurrentMap<String, Set<String>> VALIDATED_IDS = new ConcurrentHashMap<String, Set<String>>();
+    
+    private final static AtomicInteger VALIDATED_COUNT = new AtomicInteger();
+    
     /**
      * The depot, act as facade over the configuration system
      */
@@ -97,13 +112,16 @@ public abstract class OSDIModuleController{
         }
         if(StringUtils.isBlank(instanceID)){
             instanceID = scopeID;
-            LOGGER.warn("The instanceID is null or blank and it will be set as the scopeID... A configuration file called as the scopeID is expected...");
+            if(LOGGER.isDebugEnabled()){
+                LOGGER.debug("The instanceID is null or blank and it will be set as the scopeID... A configuration file called as the scopeID is expected...");
+            }
+        }
+        if(LOGGER.isDebugEnabled()){
+            LOGGER.debug("Executing module: '" + req.getPathInfo() + "' configuration with ScopeID: '" + scopeID + "' and instanceID: '" + instanceID + "'");
         }
-        LOGGER.info("Executing module: '" + req.getPathInfo() + "' configuration with ScopeID: '" + scopeID + "' and instanceID: '" + instanceID + "'");
-        OSDIConfiguration tmpConf = new OSDIConfigurationKVP(scopeID, instanceID);
-        if(!tmpConf.validateIDs()){
+        if(!validateIDs(scopeID, instanceID)){
             LOGGER.error("A scope and instance IDs are not valid... Please check your module configurations and installation");
-            throw new OSDIConfigurationException("A scope and instance IDs are not valid... Please check your module configurations and installation");
+            throw new IllegalArgumentException("ScopeID or instanceID are null, empty or contains whitespaces or non alphanumeric characters");
         }
         OSDIConfiguration conf = null;
         try {
@@ -119,7 +137,9 @@ public abstract class OSDIModuleController{
             LOGGER.error("No exceptions are occurred but the configurations is null or is not an instance of OSDIConfiguration... this should never happens...");
             throw new OSDIConfigurationException("No exceptions are occurred but the configurations is null or is not an instance of OSDIConfiguration... this should never happens...");
         }
-        LOGGER.info("Loading the configuration with ScopeID: '" + scopeID + "' and instanceID: '" + instanceID + "' DONE!");
+        if(LOGGER.isDebugEnabled()){
+            LOGGER.debug("Loading the configuration with ScopeID: '" + scopeID + "' and instanceID: '" + instanceID + "' DONE!");
+        }
         
         return conf;
     }
@@ -140,22 +160,15 @@ public abstract class OSDIModuleController{
         if(path == null){
             throw new IllegalArgumentException("The path found in the request is null... this should never happen...");
         }
-        LOGGER.debug("Extracting first part of the following path '" + path + "' in order to get the module name...");
-        String [] parts = path.split("/");
-        if(parts == null || parts.length == 0 || parts[0] == null){
-            throw new IllegalArgumentException("no scopeID is found... this should never happen...");
-        }
-        if(StringUtils.isNotEmpty(parts[0])){
-            return parts[0];
-        }
-        for(int i=0; i<parts.length; i++){
-            if(StringUtils.isNotEmpty(parts[i])){
-                return parts[i];
-            }
+        if(LOGGER.isDebugEnabled()){
+            LOGGER.debug("Extracting first part of the following path '" + path + "' in order to get the module name...");
         }
-        String scopeID = getPathFragment(req, 0);
+        String scopeID = findFragment(path, 0, path.length(), 0);
         if(scopeID == null) {
-        	throw new IllegalArgumentException("no scopeID is found after all the possible attemps... this should never happen...");
+            if(path.length() > 0){
+                throw new IllegalArgumentException("no scopeID is found... this should never happen...");
+            }
+            throw new IllegalArgumentException("no scopeID is found after all the possible attemps... this should never happen...");
         }
         return scopeID;
     }
@@ -165,20 +178,67 @@ public abstract class OSDIModuleController{
         if(path == null){
             throw new IllegalArgumentException("The path found in the request is null... this should never happen...");
         }
-        LOGGER.debug("Extracting part of the following path '" + path + "' in order to get the module name...");
-        path = StringUtils.removeStart(path, "/");
-        path = StringUtils.removeEnd(path, "/");
-        
-        String [] parts = path.split("/");
-        if(parts == null || parts.length <= index || parts[index] == null){
+        if(LOGGER.isDebugEnabled()){
+            LOGGER.debug("Extracting part of the following path '" + path + "' in order to get the module name...");
+        }
+        // skip a leading and a trailing slash
+        int begin = path.startsWith("/") ? 1 : 0;
+        int end = (path.length() > begin && path.endsWith("/")) ? path.length() - 1 : path.length();
+        String fragment = findFragment(path, begin, end, index);
+        if(fragment == null && (begin < end || index > 0)){
             throw new IllegalArgumentException("no fragment is found... this should never happen...");
         }
-        if(StringUtils.isNotEmpty(parts[index])){
-            return parts[index];
+        return fragment;
+    }
+    
+    /**
+     * Check the IDs remembering the valid pairs, so the characters of the IDs used by every request are scanned only once
+     * 
+     * @param scopeID
+     * @param instanceID
+     * @return true if both the IDs are valid
+     */
+    static boolean validateIDs(String scopeID, String instanceID){
+        Set<String> instanceIDs = VALIDATED_IDS.get(scopeID);
+        if(instanceIDs != null && instanceIDs.contains(instanceID)){
+            return true;
+        }
+        if(!OSDIConfigurationKVP.validateID(scopeID) || !OSDIConfigurationKVP.validateID(instanceID)){
+            return false;
+        }
+        if(VALIDATED_COUNT.incrementAndGet() > MAX_CACHED_ENTRIES){
+            VALIDATED_IDS.clear();
+            VALIDATED_COUNT.set(1);
         }
-        for(int i=index; i<parts.length; i++){
-            if(StringUtils.isNotEmpty(parts[i])){
-                return parts[i];
+        if(instanceIDs == null){
+            VALIDATED_IDS.putIfAbsent(scopeID, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+            instanceIDs = VALIDATED_IDS.get(scopeID);
+        }
+        if(instanceIDs != null){
+            instanceIDs.add(instanceID);
+        }
+        return true;
+    }
+    
+    /**
+     * Scan the slash separated fragments of a part of the path without splitting it
+     * 
+     * @param path
+     * @param begin the first char of the part to scan
+     * @param end the char after the last one of the part to scan
+     * @param index the position of the fragment
+     * @return the fragment at the index or, if it is empty, the first not empty fragment after it. null if no such fragment exists
+     */
+    static String findFragment(String path, int begin, int end, int index){
+        int position = 0;
+        int fragmentStart = begin;
+        for(int i = begin; i <= end; i++){
+            if(i == end || path.charAt(i) == '/'){
+                if(position >= index && i > fragmentStart){
+                    return path.substring(fragmentStart, i);
+                }
+                position++;
+                fragmentStart = i + 1;
             }
         }
         return null;
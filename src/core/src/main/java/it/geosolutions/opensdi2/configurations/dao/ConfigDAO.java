@@ -24,6 +24,8 @@ import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationInter
 import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationNotFoundException;
 import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
 
+import java.util.Set;
+
 /**
  * 
  * Basics operation to perform on the persisted configuration.
@@ -58,6 +60,15 @@ public interface ConfigDAO {
      */
     public boolean merge(OSDIConfiguration updatedConfig) throws OSDIConfigurationNotFoundException, OSDIConfigurationInternalErrorException;
     
+    /**
+     * Replace a persisted configuration with the provided one at once, readers see either the old or the new configuration
+     * 
+     * @param config
+     * @throws OSDIConfigurationNotFoundException  if no configuration with the provided scopeID and instanceID is found.
+     * @throws OSDIConfigurationInternalErrorException if an unexpected error occurs during the update operation
+     */
+    public void replace(OSDIConfiguration config) throws OSDIConfigurationNotFoundException, OSDIConfigurationInternalErrorException;
+    
     /**
      * Load the requested configuration
      * 
@@ -67,6 +78,38 @@ public interface ConfigDAO {
      */
     public OSDIConfiguration load(String scopeID, String instanceID) throws OSDIConfigurationNotFoundException;
     
+    /**
+     * List the modules having a place where their configurations can be persisted
+     * 
+     * @return the scopeIDs of the modules
+     */
+    public Set<String> listScopes();
+    
+    /**
+     * Create the place where the configurations of a module are persisted, nothing happens if it already exists
+     * 
+     * @param scopeID
+     * @throws OSDIConfigurationInternalErrorException if the module can't be created
+     */
+    public void createScope(String scopeID) throws OSDIConfigurationInternalErrorException;
+    
+    /**
+     * Remove the place where the configurations of a module are persisted, nothing happens if it doesn't exist
+     * 
+     * @param scopeID
+     * @throws OSDIConfigurationInternalErrorException if the module still holds configurations or can't be removed
+     */
+    public void deleteScope(String scopeID) throws OSDIConfigurationInternalErrorException;
+    
+    /**
+     * List the configurations persisted for a module
+     * 
+     * @param scopeID
+     * @return the instanceIDs of the configurations found
+     * @throws OSDIConfigurationNotFoundException if the module with the provided scopeID doesn't exist
+     */
+    public Set<String> listInstances(String scopeID) throws OSDIConfigurationNotFoundException;
+    
     /**
      * 
      * @param scopeID
@@ -0,0 +1,673 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations.dao;
+
+import it.geosolutions.opensdi2.configurations.configdir.OpenSDIManagerConfig;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationDuplicatedIDException;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationInternalErrorException;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationNotFoundException;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationKVP;
+import it.geosolutions.opensdi2.utils.PropertiesDirFiltersFactory;
+import it.geosolutions.opensdi2.utils.PropertiesDirFiltersFactory.FILTER_TYPE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * DAta Object implementation of the configuration system persisted in a single binary journal file.
+ * 
+ * All the configurations are kept in memory, so the lookups and the listing of the instances of a module never touch the
+ * disk. Every change is appended to the journal as a single checksummed record, written and flushed before the in-memory
+ * state is changed: all the keys changed by a merge are applied together or not at all, and a record left incomplete by a
+ * crash is discarded when the journal is read at startup. When the records outnumber the configurations the journal is
+ * rewritten, in a temporary file renamed over the old one, with only the current configurations.
+ * 
+ * The modules (scopeIDs) available are the ones set in the scopes property, the ones found as module directories in the
+ * properties configurations directory and the ones already stored in the journal.
+ */
+public class JournalDAO implements ConfigDAO {
+    private final static Logger LOGGER = Logger.getLogger(JournalDAO.class);
+
+    public final static String JOURNAL_FILE_NAME = "configurations.journal";
+    
+    private final static int MAGIC = 0x4f53444a;
+    
+    private final static int VERSION = 1;
+    
+    private final static byte OP_PUT = 1;
+    
+    private final static byte OP_PATCH = 2;
+    
+    private final static byte OP_DELETE = 3;
+    
+    private final static byte VALUE_STRING = 1;
+    
+    private final static byte VALUE_LIST = 2;
+    
+    private final static byte VALUE_OBJECT = 3;
+    
+    private OpenSDIManagerConfig configDirManager;
+    
+    private File journalFile;
+    
+    private Set<String> scopes = new HashSet<String>();
+    
+    private boolean syncWrites = true;
+    
+    private int compactionThreshold = 1000;
+    
+    /**
+     * The configurations by scopeID and instanceID, the value maps are never modified once published
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, Map<String, Object>>> store = new ConcurrentHashMap<String, ConcurrentMap<String, Map<String, Object>>>();
+    
+    private final Object writeLock = new Object();
+    
+    private RandomAccessFile journal;
+    
+    /**
+     * The file the journal is written to: the compacted copy only when a compaction removed the old journal but couldn't rename the copy
+     */
+    private File activeFile;
+    
+    private long records;
+    
+    public JournalDAO(){}
+    
+    @Override
+    public void init() {
+        if(journalFile == null){
+            File baseDir = configDirManager.getConfigDir();
+            if(baseDir == null || !baseDir.isDirectory() || !baseDir.canWrite()){
+                throw new IllegalStateException("The application DATADIR '" + baseDir + "' doesn't exist or cannot be read or write");
+            }
+            journalFile = new File(baseDir, JOURNAL_FILE_NAME);
+            findModuleDirectories(new File(baseDir, PropertiesDAO.PROPERTIES_CONFIG_DIR));
+        }
+        for(String scopeID : scopes){
+            registerScope(scopeID);
+        }
+        synchronized(writeLock){
+            try {
+                openJournal(replay());
+            } catch (IOException e) {
+                throw new IllegalStateException("The configuration journal '" + journalFile.getAbsolutePath() + "' cannot be read or write", e);
+            }
+        }
+        LOGGER.info("Loaded " + records + " records for " + store.size() + " modules from '" + journalFile.getAbsolutePath() + "'");
+    }
+    
+    /**
+     * Close the journal
+     */
+    public void destroy() {
+        synchronized(writeLock){
+            closeJournal();
+        }
+    }
+    
+    public void setConfigDirManager(OpenSDIManagerConfig manager){
+        this.configDirManager = manager;
+    }
+    
+    /**
+     * @param journalFile the journal to use instead of the one in the application DATADIR
+     */
+    public void setJournalFile(File journalFile) {
+        this.journalFile = journalFile;
+    }
+    
+    /**
+     * @param scopes the modules (scopeIDs) available
+     */
+    public void setScopes(Set<String> scopes) {
+        this.scopes = scopes;
+    }
+    
+    /**
+     * @param syncWrites whether every change is forced to the disk before returning, true by default
+     */
+    public void setSyncWrites(boolean syncWrites) {
+        this.syncWrites = syncWrites;
+    }
+    
+    /**
+     * @param compactionThreshold the records in excess of the configurations stored that trigger the journal rewrite
+     */
+    public void setCompactionThreshold(int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+    
+    /**
+     * Make a module available
+     * 
+     * @param scopeID
+     */
+    public void registerScope(String scopeID){
+        if(store.get(scopeID) == null){
+            store.putIfAbsent(scopeID, new ConcurrentHashMap<String, Map<String, Object>>());
+        }
+    }
+
+    @Override
+    public void save(OSDIConfiguration newConfig) throws OSDIConfigurationDuplicatedIDException,
+            OSDIConfigurationNotFoundException, OSDIConfigurationInternalErrorException {
+        OSDIConfigurationKVP newConfigKVP = (OSDIConfigurationKVP)newConfig;
+        synchronized(writeLock){
+            ConcurrentMap<String, Map<String, Object>> module = getModule(newConfig.getScopeID());
+            if(module.containsKey(newConfig.getInstanceID())){
+                throw new OSDIConfigurationDuplicatedIDException("A configuration with scopeID '"
+                        + newConfig.getScopeID() + "' and instanceID '" + newConfig.getInstanceID()
+                        + "' is already present.");
+            }
+            Map<String, Object> values = getValues(newConfigKVP);
+            append(OP_PUT, newConfig.getScopeID(), newConfig.getInstanceID(), values);
+            module.put(newConfig.getInstanceID(), Collections.unmodifiableMap(values));
+        }
+    }
+
+    @Override
+    public boolean merge(OSDIConfiguration updatedConfig) throws OSDIConfigurationNotFoundException,
+            OSDIConfigurationInternalErrorException {
+        OSDIConfigurationKVP updatedConfigKVP = (OSDIConfigurationKVP)updatedConfig;
+        synchronized(writeLock){
+            ConcurrentMap<String, Map<String, Object>> module = getModule(updatedConfig.getScopeID());
+            Map<String, Object> oldValues = getInstance(module, updatedConfig.getInstanceID());
+            Map<String, Object> changes = new HashMap<String, Object>();
+            for(String key : updatedConfigKVP.keys()){
+                Object newValue = updatedConfigKVP.getValue(key);
+                if(newValue != null && !newValue.equals(oldValues.get(key))){
+                    changes.put(key, newValue);
+                }
+            }
+            if(changes.isEmpty()){
+                return false;
+            }
+            append(OP_PATCH, updatedConfig.getScopeID(), updatedConfig.getInstanceID(), changes);
+            Map<String, Object> newValues = new HashMap<String, Object>(oldValues);
+            newValues.putAll(changes);
+            module.put(updatedConfig.getInstanceID(), Collections.unmodifiableMap(newValues));
+            return true;
+        }
+    }
+
+    /**
+     * A single record holding the whole configuration replaces the old one
+     */
+    @Override
+    public void replace(OSDIConfiguration config) throws OSDIConfigurationNotFoundException,
+            OSDIConfigurationInternalErrorException {
+        OSDIConfigurationKVP configKVP = (OSDIConfigurationKVP)config;
+        synchronized(writeLock){
+            ConcurrentMap<String, Map<String, Object>> module = getModule(config.getScopeID());
+            getInstance(module, config.getInstanceID());
+            Map<String, Object> values = getValues(configKVP);
+            append(OP_PUT, config.getScopeID(), config.getInstanceID(), values);
+            module.put(config.getInstanceID(), Collections.unmodifiableMap(values));
+        }
+    }
+
+    @Override
+    public OSDIConfiguration load(String scopeID, String instanceID)
+            throws OSDIConfigurationNotFoundException {
+        Map<String, Object> values = getInstance(getModule(scopeID), instanceID);
+        OSDIConfigurationKVP config = new OSDIConfigurationKVP(scopeID, instanceID);
+        for(Map.Entry<String, Object> entry : values.entrySet()){
+            config.addNew(entry.getKey(), entry.getValue());
+        }
+        return config;
+    }
+    
+    @Override
+    public Set<String> listScopes() {
+        return new HashSet<String>(store.keySet());
+    }
+    
+    /**
+     * The module is kept in memory only, it is found in the journal once it holds a configuration
+     */
+    @Override
+    public void createScope(String scopeID) {
+        registerScope(scopeID);
+    }
+    
+    @Override
+    public void deleteScope(String scopeID) throws OSDIConfigurationInternalErrorException {
+        synchronized(writeLock){
+            ConcurrentMap<String, Map<String, Object>> module = store.get(scopeID);
+            if(module == null){
+                return;
+            }
+            if(!module.isEmpty()){
+                throw new OSDIConfigurationInternalErrorException("The module with scopeID: '" + scopeID + "' still holds configurations");
+            }
+            store.remove(scopeID, module);
+        }
+    }
+    
+    @Override
+    public Set<String> listInstances(String scopeID) throws OSDIConfigurationNotFoundException {
+        return new HashSet<String>(getModule(scopeID).keySet());
+    }
+
+    @Override
+    public void delete(String scopeID, String instanceID) throws OSDIConfigurationNotFoundException,
+            OSDIConfigurationInternalErrorException {
+        synchronized(writeLock){
+            ConcurrentMap<String, Map<String, Object>> module = getModule(scopeID);
+            getInstance(module, instanceID);
+            append(OP_DELETE, scopeID, instanceID, Collections.<String, Object>emptyMap());
+            module.remove(instanceID);
+        }
+    }
+    
+    //
+    // PRIVATE INTERNAL UTILITIES METHODs
+    //
+    
+    private static Map<String, Object> getValues(OSDIConfigurationKVP config){
+        Map<String, Object> values = new HashMap<String, Object>();
+        for(String key : config.keys()){
+            Object value = config.getValue(key);
+            if(value != null){
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+    
+    private ConcurrentMap<String, Map<String, Object>> getModule(String scopeID) throws OSDIConfigurationNotFoundException{
+        ConcurrentMap<String, Map<String, Object>> module = store.get(scopeID);
+        if(module == null){
+            throw new OSDIConfigurationNotFoundException("No resource (Module or instance config) with ID '" + scopeID + "' has been found. Check if the modules/instance naming conventions have been properly followed.");
+        }
+        return module;
+    }
+    
+    private Map<String, Object> getInstance(Map<String, Map<String, Object>> module, String instanceID) throws OSDIConfigurationNotFoundException{
+        Map<String, Object> values = module.get(instanceID);
+        if(values == null){
+            throw new OSDIConfigurationNotFoundException("No resource (Module or instance config) with ID '" + instanceID + "' has been found. Check if the modules/instance naming conventions have been properly followed.");
+        }
+        return values;
+    }
+    
+    private void findModuleDirectories(File propertiesConfigDir){
+        File[] moduleList = propertiesConfigDir.listFiles(new PropertiesDirFiltersFactory().getFilter(FILTER_TYPE.MODULE_LIST, null));
+        if(moduleList != null){
+            for(File moduleDir : moduleList){
+                registerScope(moduleDir.getName().substring(PropertiesDirFiltersFactory.MODULE_NAME_PREFIX.length()));
+            }
+        }
+    }
+    
+    /**
+     * Append a record to the journal, must be called holding the write lock
+     */
+    private void append(byte op, String scopeID, String instanceID, Map<String, Object> values) throws OSDIConfigurationInternalErrorException{
+        if(journal == null){
+            throw new OSDIConfigurationInternalErrorException("The configuration journal is closed");
+        }
+        long position = -1;
+        try {
+            position = journal.getFilePointer();
+            writeRecord(journal, encode(op, scopeID, instanceID, values));
+            if(syncWrites){
+                journal.getFD().sync();
+            }
+            records++;
+        } catch (IOException e) {
+            rollback(position);
+            throw new OSDIConfigurationInternalErrorException("Error occurred while writing the configuration journal, exception msg is: '" + e.getMessage() + "'");
+        }
+        if(records - countInstances() > compactionThreshold){
+            compact();
+        }
+    }
+    
+    /**
+     * Remove a record not written or not synced, so the following records are not appended after it.
+     * If the journal can't be truncated it is closed, refusing further changes.
+     */
+    private void rollback(long position){
+        try {
+            if(position < 0){
+                throw new IOException("Unknown journal position");
+            }
+            journal.setLength(position);
+            journal.seek(position);
+            if(syncWrites){
+                journal.getFD().sync();
+            }
+        } catch (IOException e) {
+            LOGGER.error("The configuration journal '" + activeFile.getAbsolutePath() + "' cannot be restored after a failed write, closing it", e);
+            closeJournal();
+        }
+    }
+    
+    /**
+     * Open the journal to append records, writing the header if the file is empty
+     */
+    private void openJournal(File file) throws IOException{
+        journal = new RandomAccessFile(file, "rw");
+        activeFile = file;
+        if(journal.length() == 0){
+            journal.writeInt(MAGIC);
+            journal.writeInt(VERSION);
+            if(syncWrites){
+                journal.getFD().sync();
+            }
+        }
+        journal.seek(journal.length());
+    }
+    
+    /**
+     * Rewrite the journal with the current configurations only, must be called holding the write lock
+     */
+    private void compact(){
+        File tmpFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        if(tmpFile.equals(activeFile)){
+            // a previous compaction couldn't rename the compacted copy
+            closeJournal();
+            if(!tmpFile.renameTo(journalFile)){
+                LOGGER.warn("Unable to rename '" + tmpFile.getAbsolutePath() + "' to '" + journalFile.getAbsolutePath() + "', compaction skipped");
+                reopenJournal(tmpFile);
+                return;
+            }
+        }
+        // once the old journal is deleted the compacted copy is the only one left
+        boolean journalDeleted = false;
+        try {
+            RandomAccessFile out = new RandomAccessFile(tmpFile, "rw");
+            long written = 0;
+            try {
+                out.setLength(0);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for(Map.Entry<String, ConcurrentMap<String, Map<String, Object>>> module : store.entrySet()){
+                    for(Map.Entry<String, Map<String, Object>> instance : module.getValue().entrySet()){
+                        writeRecord(out, encode(OP_PUT, module.getKey(), instance.getKey(), instance.getValue()));
+                        written++;
+                    }
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            closeJournal();
+            if(!tmpFile.renameTo(journalFile)){
+                if(!journalFile.delete()){
+                    throw new IOException("Unable to replace '" + journalFile.getAbsolutePath() + "'");
+                }
+                journalDeleted = true;
+                records = written;
+                if(!tmpFile.renameTo(journalFile)){
+                    throw new IOException("Unable to rename '" + tmpFile.getAbsolutePath() + "' to '" + journalFile.getAbsolutePath() + "'");
+                }
+            }
+            records = written;
+            LOGGER.info("Configuration journal '" + journalFile.getAbsolutePath() + "' compacted to " + written + " records");
+        } catch (IOException e) {
+            LOGGER.error("Error compacting the configuration journal '" + journalFile.getAbsolutePath() + "'", e);
+            if(!journalDeleted){
+                tmpFile.delete();
+            }
+        } finally {
+            if(journal == null){
+                // keep writing to the compacted copy if it couldn't be renamed, init() restores it
+                reopenJournal(journalDeleted && !journalFile.exists() ? tmpFile : journalFile);
+            }
+        }
+    }
+    
+    private void reopenJournal(File file){
+        try {
+            openJournal(file);
+        } catch (IOException e) {
+            LOGGER.error("The configuration journal '" + file.getAbsolutePath() + "' cannot be reopened", e);
+            closeJournal();
+        }
+    }
+    
+    private void closeJournal(){
+        if(journal != null){
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOGGER.warn("Error closing the configuration journal '" + journalFile.getAbsolutePath() + "'", e);
+            }
+            journal = null;
+        }
+    }
+    
+    private long countInstances(){
+        long count = 0;
+        for(Map<String, Map<String, Object>> module : store.values()){
+            count += module.size();
+        }
+        return count;
+    }
+    
+    /**
+     * Read the journal rebuilding the configurations, an incomplete or corrupted tail is truncated
+     * 
+     * @return the file to append the records to
+     */
+    private File replay() throws IOException{
+        File source = journalFile;
+        File tmpFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        if(!journalFile.exists() && tmpFile.exists() && !tmpFile.renameTo(journalFile)){
+            // a compaction has been interrupted after the removal of the old journal
+            LOGGER.warn("Unable to rename '" + tmpFile.getAbsolutePath() + "' to '" + journalFile.getAbsolutePath() + "', using it as the journal");
+            source = tmpFile;
+        }
+        if(!source.exists()){
+            return source;
+        }
+        RandomAccessFile in = new RandomAccessFile(source, "rw");
+        try {
+            if(in.length() < 8){
+                in.setLength(0);
+                return source;
+            }
+            if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                throw new IOException("Unknown configuration journal format");
+            }
+            long validLength = in.getFilePointer();
+            while(true){
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    long checksum = in.readLong();
+                    if(length < 0 || length > in.length() - in.getFilePointer()){
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if(crc.getValue() != checksum){
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                apply(payload);
+                records++;
+                validLength = in.getFilePointer();
+            }
+            if(validLength < in.length()){
+                LOGGER.warn("Discarding " + (in.length() - validLength) + " bytes of incomplete records at the end of the configuration journal '" + source.getAbsolutePath() + "'");
+                in.setLength(validLength);
+            }
+        } finally {
+            in.close();
+        }
+        return source;
+    }
+    
+    private void apply(byte[] payload) throws IOException{
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        String scopeID = in.readUTF();
+        String instanceID = in.readUTF();
+        int size = in.readInt();
+        Map<String, Object> values = new HashMap<String, Object>();
+        for(int i = 0; i < size; i++){
+            String key = in.readUTF();
+            values.put(key, readValue(in));
+        }
+        registerScope(scopeID);
+        ConcurrentMap<String, Map<String, Object>> module = store.get(scopeID);
+        if(op == OP_PUT){
+            module.put(instanceID, Collections.unmodifiableMap(values));
+        }else if(op == OP_PATCH){
+            Map<String, Object> oldValues = module.get(instanceID);
+            Map<String, Object> newValues = oldValues != null ? new HashMap<String, Object>(oldValues) : new HashMap<String, Object>();
+            newValues.putAll(values);
+            module.put(instanceID, Collections.unmodifiableMap(newValues));
+        }else if(op == OP_DELETE){
+            module.remove(instanceID);
+        }else{
+            throw new IOException("Unknown configuration journal operation " + op);
+        }
+    }
+    
+    private static void writeRecord(RandomAccessFile out, byte[] payload) throws IOException{
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(payload.length + 12);
+        DataOutputStream data = new DataOutputStream(record);
+        data.writeInt(payload.length);
+        data.writeLong(crc.getValue());
+        data.write(payload);
+        data.flush();
+        // a single write, so a crash leaves at most one incomplete record
+        out.write(record.toByteArray());
+    }
+    
+    private static byte[] encode(byte op, String scopeID, String instanceID, Map<String, Object> values) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeUTF(scopeID);
+        out.writeUTF(instanceID);
+        out.writeInt(values.size());
+        for(Map.Entry<String, Object> entry : values.entrySet()){
+            out.writeUTF(entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+    
+    private static void writeValue(DataOutputStream out, Object value) throws IOException{
+        if(value instanceof List && isStringList((List<?>)value)){
+            List<?> list = (List<?>)value;
+            out.writeByte(VALUE_LIST);
+            out.writeInt(list.size());
+            for(Object element : list){
+                writeString(out, (String)element);
+            }
+        }else if(value instanceof Serializable && !(value instanceof String)){
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+            objectOut.writeObject(value);
+            objectOut.close();
+            out.writeByte(VALUE_OBJECT);
+            out.writeInt(bytes.size());
+            out.write(bytes.toByteArray());
+        }else{
+            out.writeByte(VALUE_STRING);
+            writeString(out, String.valueOf(value));
+        }
+    }
+    
+    private static Object readValue(DataInputStream in) throws IOException{
+        byte type = in.readByte();
+        if(type == VALUE_STRING){
+            return readString(in);
+        }
+        if(type == VALUE_LIST){
+            int size = in.readInt();
+            List<String> list = new ArrayList<String>(size);
+            for(int i = 0; i < size; i++){
+                list.add(readString(in));
+            }
+            return list;
+        }
+        if(type == VALUE_OBJECT){
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return objectIn.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unknown class of a configuration value: " + e.getMessage());
+            } finally {
+                objectIn.close();
+            }
+        }
+        throw new IOException("Unknown configuration value type " + type);
+    }
+    
+    private static boolean isStringList(List<?> list){
+        for(Object element : list){
+            if(!(element instanceof String)){
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException{
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(DataInputStream in) throws IOException{
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -31,7 +31,15 @@ import it.geosolutions.opensdi2.utils.PropertiesDirFiltersFactory;
 import it.geosolutions.opensdi2.utils.PropertiesDirFiltersFactory.FILTER_TYPE;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
@@ -43,6 +51,14 @@ import org.springframework.beans.factory.annotation.Autowired;
  * DAta Object implementation of the configuration system persisted on properties files.
  * This implementation uses the library apache commons configuration to deal with properties files management 
  * 
+ * The module directories and the configuration files are indexed by ID when the DAO is initialized, so a lookup doesn't
+ * list the configuration directories. An indexed file is checked to still exist before being used and an ID not indexed
+ * is looked for at the path expected by the naming conventions, so the index follows the files added or removed by hand.
+ * 
+ * A configuration file is written to a temporary file in the same directory and then renamed over the existing one, so
+ * readers never see a partially written file. The writes on the same configuration are serialized by a lock chosen by
+ * scopeID and instanceID among a fixed set, while the reads don't lock at all.
+ * 
  * @author DamianoG
  *
  */
@@ -51,12 +67,40 @@ public class PropertiesDAO implements ConfigDAO {
 
     public final static String PROPERTIES_CONFIG_DIR = "propertiesConfigurations";
     
+    /**
+     * Prefix of the temporary files, they don't match the instance configuration naming conventions
+     */
+    private final static String TEMP_FILE_PREFIX = "." + PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_PREFIX;
+    
+    private final static int LOCK_STRIPES = 32;
+    
     private OpenSDIManagerConfig configDirManager;
     
     private OSDIConfigConverter configConverter;
     
     private File propertiesConfigDir;
     
+    /**
+     * The module configuration directories by scopeID
+     */
+    private final ConcurrentMap<String, File> modulesIndex = new ConcurrentHashMap<String, File>();
+    
+    /**
+     * The instance configuration files by scopeID and instanceID
+     */
+    private final ConcurrentMap<String, File> instancesIndex = new ConcurrentHashMap<String, File>();
+    
+    /**
+     * The locks serializing the writes, by scopeID and instanceID hash
+     */
+    private final Lock[] writeLocks = new Lock[LOCK_STRIPES];
+    
+    {
+        for(int i = 0; i < writeLocks.length; i++){
+            writeLocks[i] = new ReentrantLock();
+        }
+    }
+    
     public PropertiesDAO(){}
     
     @Override
@@ -79,11 +123,19 @@ public class PropertiesDAO implements ConfigDAO {
         		throw new IllegalStateException("The properties configuration directory '" + propertiesConfigDir.getAbsolutePath() + "' doesn't exist or cannot be read or write");
             }
         	}
-            
+        buildIndex();
     }
     
     public void setPropertiesConfigDir(File propertiesConfigDir) {
         this.propertiesConfigDir = propertiesConfigDir;
+        buildIndex();
+    }
+
+    /**
+     * @return the directory holding the modules configuration directories
+     */
+    public File getPropertiesConfigDir() {
+        return propertiesConfigDir;
     }
 
     public void setConfigDirManager(OpenSDIManagerConfig manager){
@@ -94,57 +146,88 @@ public class PropertiesDAO implements ConfigDAO {
         this.configConverter = converter;
     }
     
-    // TODO add transactions
     @Override
     public void save(OSDIConfiguration newConfig) throws OSDIConfigurationDuplicatedIDException,
             OSDIConfigurationNotFoundException, OSDIConfigurationInternalErrorException {
-        if (isThisConfigIsAlreadyPresent(newConfig.getScopeID(), newConfig.getInstanceID())) {
-            throw new OSDIConfigurationDuplicatedIDException("A configuration with scopeID '"
-                    + newConfig.getScopeID() + "' and instanceID '" + newConfig.getInstanceID()
-                    + "' is already present.");
-        }
-        Object configAsParamsSet = configConverter.buildConfig(newConfig);
-        PropertiesConfiguration propertiesConfig = (PropertiesConfiguration) configAsParamsSet;
-
-        PropertiesDirFiltersFactory factory = new PropertiesDirFiltersFactory();
-        File[] moduleList = propertiesConfigDir.listFiles(factory.getFilter(FILTER_TYPE.MODULE,
-                newConfig.getScopeID()));
-        File instanceConfig = new File(moduleList[0], factory.INSTANCE_CONFIGNAME_PREFIX
-                + newConfig.getInstanceID() + factory.INSTANCE_CONFIGNAME_EXTENSION);
+        Lock lock = getWriteLock(newConfig.getScopeID(), newConfig.getInstanceID());
+        lock.lock();
         try {
-            propertiesConfig.save(instanceConfig);
-        } catch (ConfigurationException e) {
-            throw new OSDIConfigurationInternalErrorException(
-                    "Error occurred while saving a new configuration, exception msg is: '"
-                            + e.getMessage() + "'");
+            if (isThisConfigIsAlreadyPresent(newConfig.getScopeID(), newConfig.getInstanceID())) {
+                throw new OSDIConfigurationDuplicatedIDException("A configuration with scopeID '"
+                        + newConfig.getScopeID() + "' and instanceID '" + newConfig.getInstanceID()
+                        + "' is already present.");
+            }
+            Object configAsParamsSet = configConverter.buildConfig(newConfig);
+            PropertiesConfiguration propertiesConfig = (PropertiesConfiguration) configAsParamsSet;
+
+            File instanceConfig = new File(searchModuleDirectory(newConfig.getScopeID()),
+                    PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_PREFIX + newConfig.getInstanceID()
+                            + PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_EXTENSION);
+            try {
+                writeConfigurationInstance(propertiesConfig, instanceConfig);
+            } catch (Exception e) {
+                throw new OSDIConfigurationInternalErrorException(
+                        "Error occurred while saving a new configuration, exception msg is: '"
+                                + e.getMessage() + "'");
+            }
+            instancesIndex.put(getInstanceKey(newConfig.getScopeID(), newConfig.getInstanceID()), instanceConfig);
+        } finally {
+            lock.unlock();
         }
     }
 
-    //TODO add transactions
     @Override
     public boolean merge(OSDIConfiguration updatedConfig) throws OSDIConfigurationNotFoundException,
             OSDIConfigurationInternalErrorException {
-        boolean outcome = false;
-        File configFile = searchConfigurationFile(updatedConfig.getScopeID(), updatedConfig.getInstanceID());
-        PropertiesConfiguration  oldConfig = loadConfigurationInstance(configFile);
-        OSDIConfigurationKVP updatedConfigKVP = (OSDIConfigurationKVP)updatedConfig;
-        Iterator<String> iter = updatedConfigKVP.getAllKeys().iterator();
-        String tmpKey = "";
-        while(iter.hasNext()){
-            tmpKey = iter.next();
-            Object newValue = updatedConfigKVP.getValue(tmpKey);
-            Object oldValue = oldConfig.getProperty(tmpKey);
-            if(newValue!=null && !newValue.equals(oldValue)){
-                oldConfig.setProperty(tmpKey, newValue);
-                outcome = true;
+        Lock lock = getWriteLock(updatedConfig.getScopeID(), updatedConfig.getInstanceID());
+        lock.lock();
+        try {
+            boolean outcome = false;
+            File configFile = searchConfigurationFile(updatedConfig.getScopeID(), updatedConfig.getInstanceID());
+            PropertiesConfiguration  oldConfig = loadConfigurationInstance(configFile);
+            OSDIConfigurationKVP updatedConfigKVP = (OSDIConfigurationKVP)updatedConfig;
+            Iterator<String> iter = updatedConfigKVP.keys().iterator();
+            String tmpKey = "";
+            while(iter.hasNext()){
+                tmpKey = iter.next();
+                Object newValue = updatedConfigKVP.getValue(tmpKey);
+                Object oldValue = oldConfig.getProperty(tmpKey);
+                if(newValue!=null && !newValue.equals(oldValue)){
+                    oldConfig.setProperty(tmpKey, newValue);
+                    outcome = true;
+                }
+            }
+            if(!outcome){
+                // nothing changed, the file can be left untouched
+                return false;
+            }
+            try {
+                writeConfigurationInstance(oldConfig, configFile);
+            } catch (Exception e) {
+                throw new OSDIConfigurationInternalErrorException("Error occurred while saving the updated configuration, exception msg is: '" + e.getMessage() + "'");
             }
+            return outcome;
+        } finally {
+            lock.unlock();
         }
+    }
+
+    @Override
+    public void replace(OSDIConfiguration config) throws OSDIConfigurationNotFoundException,
+            OSDIConfigurationInternalErrorException {
+        Lock lock = getWriteLock(config.getScopeID(), config.getInstanceID());
+        lock.lock();
         try {
-            oldConfig.save();
-        } catch (ConfigurationException e) {
-            throw new OSDIConfigurationInternalErrorException("Error occurred while saving the updated configuration, exception msg is: '" + e.getMessage() + "'");
+            File configFile = searchConfigurationFile(config.getScopeID(), config.getInstanceID());
+            PropertiesConfiguration propertiesConfig = (PropertiesConfiguration) configConverter.buildConfig(config);
+            try {
+                writeConfigurationInstance(propertiesConfig, configFile);
+            } catch (Exception e) {
+                throw new OSDIConfigurationInternalErrorException("Error occurred while replacing the configuration, exception msg is: '" + e.getMessage() + "'");
+            }
+        } finally {
+            lock.unlock();
         }
-        return outcome;
     }
 
     @Override
@@ -157,13 +240,79 @@ public class PropertiesDAO implements ConfigDAO {
         return configConverter.buildConfig(config, scopeID, instanceID);
     }
     
+    @Override
+    public Set<String> listScopes() {
+        Set<String> scopes = new HashSet<String>();
+        File[] moduleList = propertiesConfigDir.listFiles(new PropertiesDirFiltersFactory().getFilter(FILTER_TYPE.MODULE_LIST, null));
+        if(moduleList != null){
+            for(File moduleDir : moduleList){
+                String scopeID = moduleDir.getName().substring(PropertiesDirFiltersFactory.MODULE_NAME_PREFIX.length());
+                modulesIndex.put(scopeID, moduleDir);
+                scopes.add(scopeID);
+            }
+        }
+        return scopes;
+    }
+    
+    @Override
+    public void createScope(String scopeID) throws OSDIConfigurationInternalErrorException {
+        try {
+            searchModuleDirectory(scopeID);
+        } catch (OSDIConfigurationNotFoundException e) {
+            File moduleDir = new File(propertiesConfigDir, PropertiesDirFiltersFactory.MODULE_NAME_PREFIX + scopeID);
+            if(!moduleDir.mkdir() && !moduleDir.isDirectory()){
+                throw new OSDIConfigurationInternalErrorException("Problems while creating the configuration directory for the module with scopeID: '" + scopeID + "'");
+            }
+            LOGGER.info("Created directory '" + moduleDir.getAbsolutePath() + "' for the configurations of the module '" + scopeID + "'");
+            modulesIndex.put(scopeID, moduleDir);
+        }
+    }
+    
+    @Override
+    public void deleteScope(String scopeID) throws OSDIConfigurationInternalErrorException {
+        File moduleDir;
+        try {
+            moduleDir = searchModuleDirectory(scopeID);
+        } catch (OSDIConfigurationNotFoundException e) {
+            return;
+        }
+        // fails if the directory isn't empty
+        if(!moduleDir.delete()){
+            throw new OSDIConfigurationInternalErrorException("Problems while deleting the configuration directory for the module with scopeID: '" + scopeID + "'");
+        }
+        LOGGER.info("Deleted directory '" + moduleDir.getAbsolutePath() + "' of the module '" + scopeID + "'");
+        modulesIndex.remove(scopeID, moduleDir);
+    }
+    
+    @Override
+    public Set<String> listInstances(String scopeID) throws OSDIConfigurationNotFoundException {
+        File moduleDir = searchModuleDirectory(scopeID);
+        Set<String> instances = new HashSet<String>();
+        File[] instanceList = moduleDir.listFiles(new PropertiesDirFiltersFactory().getFilter(FILTER_TYPE.INSTANCE_LIST, null));
+        if(instanceList != null){
+            for(File instanceConfig : instanceList){
+                String instanceID = getInstanceID(instanceConfig);
+                instancesIndex.put(getInstanceKey(scopeID, instanceID), instanceConfig);
+                instances.add(instanceID);
+            }
+        }
+        return instances;
+    }
+    
     @Override
     public void delete(String scopeID, String instanceID) throws OSDIConfigurationNotFoundException,
             OSDIConfigurationInternalErrorException {
-        // Search the configuration file corresponding to the provided scopeID and instanceID inside the datadir
-        File configFile = searchConfigurationFile(scopeID, instanceID);
-        if(!configFile.delete()){
-            throw new OSDIConfigurationInternalErrorException("Problems while deleting the file configuration for instance with scopeID: '" + scopeID + "' and instanceID: '" + instanceID + "'");
+        Lock lock = getWriteLock(scopeID, instanceID);
+        lock.lock();
+        try {
+            // Search the configuration file corresponding to the provided scopeID and instanceID inside the datadir
+            File configFile = searchConfigurationFile(scopeID, instanceID);
+            if(!configFile.delete()){
+                throw new OSDIConfigurationInternalErrorException("Problems while deleting the file configuration for instance with scopeID: '" + scopeID + "' and instanceID: '" + instanceID + "'");
+            }
+            instancesIndex.remove(getInstanceKey(scopeID, instanceID), configFile);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -178,24 +327,98 @@ public class PropertiesDAO implements ConfigDAO {
         return true;
     }
     
-    private void assertResourceIsUnique(File[] list, String resourceID) throws OSDIConfigurationNotFoundException {
-        if(list.length <= 0){
-            throw new OSDIConfigurationNotFoundException("No resource (Module or instance config) with ID '" + resourceID + "' has been found. Check if the modules/instance naming conventions have been properly followed.");
+    private File searchConfigurationFile(String scopeID, String instanceID) throws OSDIConfigurationNotFoundException{
+        File configFile = lookupConfigurationFile(scopeID, instanceID);
+        if(configFile == null){
+            throw new OSDIConfigurationNotFoundException("No resource (Module or instance config) with ID '" + instanceID + "' has been found. Check if the modules/instance naming conventions have been properly followed.");
         }
-        if(list.length > 1){
-            throw new OSDIConfigurationNotFoundException("Seems that more than 1 resource with ID '" + resourceID + "' has been found... this should never happen and may means that there's a bug somewhere, open a ticket on the application issue tracker.");
+        return configFile;
+    }
+    
+    /**
+     * Get the configuration directory of a module from the index, checking that it still exists
+     * 
+     * @param scopeID
+     * @return the module directory
+     * @throws OSDIConfigurationNotFoundException if the module directory doesn't exist
+     */
+    private File searchModuleDirectory(String scopeID) throws OSDIConfigurationNotFoundException{
+        File moduleDir = modulesIndex.get(scopeID);
+        if(moduleDir == null || !moduleDir.isDirectory()){
+            PropertiesDirFiltersFactory factory = new PropertiesDirFiltersFactory();
+            File candidate = new File(propertiesConfigDir, PropertiesDirFiltersFactory.MODULE_NAME_PREFIX + scopeID);
+            if(!factory.getFilter(FILTER_TYPE.MODULE, scopeID).accept(candidate)){
+                modulesIndex.remove(scopeID);
+                throw new OSDIConfigurationNotFoundException("No resource (Module or instance config) with ID '" + scopeID + "' has been found. Check if the modules/instance naming conventions have been properly followed.");
+            }
+            moduleDir = candidate;
+            modulesIndex.put(scopeID, moduleDir);
         }
+        return moduleDir;
     }
     
-    private File searchConfigurationFile(String scopeID, String instanceID) throws OSDIConfigurationNotFoundException{
+    /**
+     * Get a configuration file from the index, checking that it still exists
+     * 
+     * @param scopeID
+     * @param instanceID
+     * @return the configuration file or null if the instance has no configuration
+     * @throws OSDIConfigurationNotFoundException if the module directory doesn't exist
+     */
+    private File lookupConfigurationFile(String scopeID, String instanceID) throws OSDIConfigurationNotFoundException{
+        File moduleDir = searchModuleDirectory(scopeID);
+        String key = getInstanceKey(scopeID, instanceID);
+        File configFile = instancesIndex.get(key);
+        if(configFile != null && configFile.isFile() && moduleDir.equals(configFile.getParentFile())){
+            return configFile;
+        }
         PropertiesDirFiltersFactory factory = new PropertiesDirFiltersFactory();
-        //Get the correct module configuration directory
-        File[] moduleList = propertiesConfigDir.listFiles(factory.getFilter(FILTER_TYPE.MODULE, scopeID));
-        assertResourceIsUnique(moduleList, scopeID);
-        //Search in the module directory the proper instance configuration file
-        File[] instanceList = moduleList[0].listFiles(factory.getFilter(FILTER_TYPE.INSTANCE, instanceID));
-        assertResourceIsUnique(instanceList, instanceID);
-        return instanceList[0];
+        File candidate = new File(moduleDir, PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_PREFIX + instanceID
+                + PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_EXTENSION);
+        if(!factory.getFilter(FILTER_TYPE.INSTANCE, instanceID).accept(candidate)){
+            instancesIndex.remove(key);
+            return null;
+        }
+        instancesIndex.put(key, candidate);
+        return candidate;
+    }
+    
+    /**
+     * Index all the module directories and configuration files found in the properties configuration directory
+     */
+    private void buildIndex(){
+        modulesIndex.clear();
+        instancesIndex.clear();
+        if(propertiesConfigDir == null){
+            return;
+        }
+        PropertiesDirFiltersFactory factory = new PropertiesDirFiltersFactory();
+        File[] moduleList = propertiesConfigDir.listFiles(factory.getFilter(FILTER_TYPE.MODULE_LIST, null));
+        if(moduleList == null){
+            return;
+        }
+        for(File moduleDir : moduleList){
+            String scopeID = moduleDir.getName().substring(PropertiesDirFiltersFactory.MODULE_NAME_PREFIX.length());
+            modulesIndex.put(scopeID, moduleDir);
+            File[] instanceList = moduleDir.listFiles(factory.getFilter(FILTER_TYPE.INSTANCE_LIST, null));
+            if(instanceList == null){
+                continue;
+            }
+            for(File instanceConfig : instanceList){
+                instancesIndex.put(getInstanceKey(scopeID, getInstanceID(instanceConfig)), instanceConfig);
+            }
+        }
+        LOGGER.info("Indexed " + modulesIndex.size() + " modules and " + instancesIndex.size() + " configurations in '" + propertiesConfigDir.getAbsolutePath() + "'");
+    }
+    
+    private static String getInstanceID(File instanceConfig){
+        String name = instanceConfig.getName();
+        return name.substring(PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_PREFIX.length(),
+                name.length() - PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_EXTENSION.length());
+    }
+    
+    private static String getInstanceKey(String scopeID, String instanceID){
+        return scopeID + "/" + instanceID;
     }
     
     private PropertiesConfiguration  loadConfigurationInstance(File configFile) throws OSDIConfigurationNotFoundException{
@@ -208,16 +431,49 @@ public class PropertiesDAO implements ConfigDAO {
         return config;
     }
     
-    private boolean isThisConfigIsAlreadyPresent(String scopeID, String instanceID) throws OSDIConfigurationNotFoundException{
-        PropertiesDirFiltersFactory factory = new PropertiesDirFiltersFactory();
-        //Get the correct module configuration directory
-        File[] moduleList = propertiesConfigDir.listFiles(factory.getFilter(FILTER_TYPE.MODULE, scopeID));
-        assertResourceIsUnique(moduleList, scopeID);
-        //Search in the module directory the proper instance configuration file
-        File[] instanceList = moduleList[0].listFiles(factory.getFilter(FILTER_TYPE.INSTANCE, instanceID));
-        if (instanceList.length == 0){
-            return false;
+    /**
+     * Write a configuration to a temporary file, flushed to the disk, then rename it to the target file.
+     * The rename replaces the target atomically on POSIX file systems, where it's not possible the target is deleted first.
+     * 
+     * @param config
+     * @param configFile
+     * @throws ConfigurationException
+     * @throws IOException
+     */
+    private void writeConfigurationInstance(PropertiesConfiguration config, File configFile) throws ConfigurationException, IOException{
+        File tmpFile = File.createTempFile(TEMP_FILE_PREFIX, ".tmp", configFile.getParentFile());
+        boolean renamed = false;
+        try {
+            FileOutputStream out = new FileOutputStream(tmpFile);
+            try {
+                config.save(out);
+                out.flush();
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            renamed = tmpFile.renameTo(configFile);
+            if(!renamed && configFile.delete()){
+                LOGGER.warn("The configuration file '" + configFile.getAbsolutePath() + "' can't be replaced atomically");
+                renamed = tmpFile.renameTo(configFile);
+            }
+            if(!renamed){
+                throw new IOException("Unable to rename '" + tmpFile.getAbsolutePath() + "' to '" + configFile.getAbsolutePath() + "'");
+            }
+        } finally {
+            if(!renamed && tmpFile.exists() && !tmpFile.delete()){
+                LOGGER.warn("Unable to delete the temporary file '" + tmpFile.getAbsolutePath() + "'");
+            }
         }
-        return true;
     }
-}
+    
+    private Lock getWriteLock(String scopeID, String instanceID){
+        int hash = getInstanceKey(scopeID, instanceID).hashCode();
+        hash ^= (hash >>> 16);
+        return writeLocks[(hash & 0x7fffffff) % writeLocks.length];
+    }
+    
+    private boolean isThisConfigIsAlreadyPresent(String scopeID, String instanceID) throws OSDIConfigurationNotFoundException{
+        return lookupConfigurationFile(scopeID, instanceID) != null;
+    }
+}
\ No newline at end of file
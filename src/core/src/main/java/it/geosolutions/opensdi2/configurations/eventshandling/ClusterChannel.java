@@ -0,0 +1,46 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations.eventshandling;
+
+/**
+ * A channel broadcasting the configuration events of a node to the other nodes of the cluster.
+ */
+public interface ClusterChannel {
+
+    /**
+     * Start receiving the events broadcast by the other nodes
+     * 
+     * @param nodeID the ID of this node, the events it broadcasts must not be delivered back to it
+     * @param listener the listener notified with the events of the other nodes
+     */
+    public void connect(String nodeID, ClusterChannelListener listener);
+
+    /**
+     * Send the event to all the other nodes connected to the channel
+     * 
+     * @param event
+     */
+    public void broadcast(ClusterEvent event);
+
+    /**
+     * Stop receiving the events and release the resources held
+     */
+    public void close();
+}
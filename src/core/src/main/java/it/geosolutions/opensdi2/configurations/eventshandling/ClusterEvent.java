@@ -0,0 +1,155 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations.eventshandling;
+
+import java.util.Properties;
+
+/**
+ * The message exchanged by the nodes of a cluster when a configuration is added or updated.
+ * Each message carries the ID of the node that fired it and a version, the sequence of the
+ * events of that node, used by the receivers to discard the messages received more than once.
+ */
+public class ClusterEvent {
+
+    public enum TYPE {
+        ADDED, UPDATED
+    }
+
+    private final static String TYPE_KEY = "type";
+    private final static String NODE_ID_KEY = "nodeID";
+    private final static String VERSION_KEY = "version";
+    private final static String EVENT_ID_KEY = "eventID";
+    private final static String SCOPE_ID_KEY = "scopeID";
+    private final static String INSTANCE_ID_KEY = "instanceID";
+    private final static String MESSAGE_KEY = "message";
+
+    private final TYPE type;
+    private final String nodeID;
+    private final long version;
+    private final String eventID;
+    private final String scopeID;
+    private final String instanceID;
+    private final String eventMessage;
+
+    public ClusterEvent(TYPE type, String nodeID, long version, OSDIEvent event) {
+        this(type, nodeID, version, event.getEventID(), event.getScopeID(), event.getInstanceID(), event.getEventMessage());
+    }
+
+    private ClusterEvent(TYPE type, String nodeID, long version, String eventID, String scopeID, String instanceID,
+            String eventMessage) {
+        if (type == null || nodeID == null || scopeID == null) {
+            throw new IllegalArgumentException("The type, nodeID and scopeID of a cluster event can't be null");
+        }
+        this.type = type;
+        this.nodeID = nodeID;
+        this.version = version;
+        this.eventID = eventID;
+        this.scopeID = scopeID;
+        this.instanceID = instanceID;
+        this.eventMessage = eventMessage;
+    }
+
+    /**
+     * @return the type
+     */
+    public TYPE getType() {
+        return type;
+    }
+
+    /**
+     * @return the ID of the node that fired the event
+     */
+    public String getNodeID() {
+        return nodeID;
+    }
+
+    /**
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the scopeID
+     */
+    public String getScopeID() {
+        return scopeID;
+    }
+
+    /**
+     * @return the instanceID, null if the event is about all the configurations of the scope
+     */
+    public String getInstanceID() {
+        return instanceID;
+    }
+
+    /**
+     * @return the event to deliver to the subscribers of this node
+     */
+    public OSDIEvent toOSDIEvent() {
+        OSDIEvent event = new OSDIEvent(eventID, scopeID, instanceID);
+        event.setEventMessage(eventMessage);
+        return event;
+    }
+
+    /**
+     * @return the event as properties, to be sent over the channels
+     */
+    public Properties toProperties() {
+        Properties props = new Properties();
+        props.setProperty(TYPE_KEY, type.name());
+        props.setProperty(NODE_ID_KEY, nodeID);
+        props.setProperty(VERSION_KEY, Long.toString(version));
+        props.setProperty(SCOPE_ID_KEY, scopeID);
+        if (eventID != null) {
+            props.setProperty(EVENT_ID_KEY, eventID);
+        }
+        if (instanceID != null) {
+            props.setProperty(INSTANCE_ID_KEY, instanceID);
+        }
+        if (eventMessage != null) {
+            props.setProperty(MESSAGE_KEY, eventMessage);
+        }
+        return props;
+    }
+
+    /**
+     * @param props the properties produced by {@link #toProperties()}
+     * @return the event
+     * @throws IllegalArgumentException if the properties don't describe a valid event
+     */
+    public static ClusterEvent fromProperties(Properties props) {
+        try {
+            return new ClusterEvent(TYPE.valueOf(props.getProperty(TYPE_KEY)), props.getProperty(NODE_ID_KEY),
+                    Long.parseLong(props.getProperty(VERSION_KEY)), props.getProperty(EVENT_ID_KEY),
+                    props.getProperty(SCOPE_ID_KEY), props.getProperty(INSTANCE_ID_KEY), props.getProperty(MESSAGE_KEY));
+        } catch (NullPointerException e) {
+            throw new IllegalArgumentException("Malformed cluster event: " + props);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cluster event: " + props);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + scopeID + "/" + instanceID + " v" + version + " from " + nodeID;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations.eventshandling;
+
+import it.geosolutions.opensdi2.configurations.eventshandling.ClusterEvent.TYPE;
+
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Propagate the configuration events of this node to the other nodes of a cluster and the other way round.
+ * <ul>
+ * <li>The events fired by the local depot are broadcast on the {@link ClusterChannel}</li>
+ * <li>The events received from the channel are published by the local depot to all its subscribers but this
+ * propagator, so they are not broadcast again. Usually the caching depot drops the configurations changed by another
+ * node</li>
+ * </ul>
+ * The events carry only the scopeID and instanceID of the configurations changed, so the subscribers reload them from
+ * the depot: all the nodes must share the same configuration storage, for instance the configuration directory on a
+ * shared file system. The propagator can't replicate the configurations among nodes with their own storage.
+ * Each node numbers its events with its own sequence, starting from the time the node has been started so that a
+ * restarted node keeps numbering upwards. The sequence is used only to discard the events of a node received more
+ * than once: the events are invalidations, so an event of any other origin, or not seen yet, is always delivered.
+ */
+public class ClusterEventPropagator implements ConfigDepotSubscriber, ClusterChannelListener {
+
+    private final static Logger LOGGER = Logger.getLogger(ClusterEventPropagator.class);
+
+    private EventPublisher depot;
+
+    private ClusterChannel channel;
+
+    private String nodeID = UUID.randomUUID().toString();
+
+    /**
+     * How many sequences are remembered for each node to recognize its duplicated events
+     */
+    private final static int SEEN_WINDOW = 1024;
+
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * The sequences received from each node
+     */
+    private final ConcurrentMap<String, TreeSet<Long>> seen = new ConcurrentHashMap<String, TreeSet<Long>>();
+
+    private final AtomicLong published = new AtomicLong();
+
+    private final AtomicLong received = new AtomicLong();
+
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * @param depot the depot firing the events of this node
+     */
+    public void setDepot(EventPublisher depot) {
+        this.depot = depot;
+    }
+
+    /**
+     * @param channel the channel connecting the nodes
+     */
+    public void setChannel(ClusterChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @param nodeID the ID of this node, unique in the cluster. A random one is used if not set
+     */
+    public void setNodeID(String nodeID) {
+        this.nodeID = nodeID;
+    }
+
+    /**
+     * @return the nodeID
+     */
+    public String getNodeID() {
+        return nodeID;
+    }
+
+    public void init() {
+        if (depot == null || channel == null) {
+            throw new IllegalStateException("The depot and the channel must be set");
+        }
+        channel.connect(nodeID, this);
+        depot.subscribe(this);
+        LOGGER.info("Node '" + nodeID + "' joined the cluster");
+    }
+
+    public void destroy() {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public Object newConfigAddedEventHandler(Event event) {
+        publish(TYPE.ADDED, event);
+        return null;
+    }
+
+    @Override
+    public Object configUpdatedEventHandler(Event event) {
+        publish(TYPE.UPDATED, event);
+        return null;
+    }
+
+    @Override
+    public void eventReceived(ClusterEvent event) {
+        received.incrementAndGet();
+        if (!firstDelivery(event)) {
+            discarded.incrementAndGet();
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Discarding the duplicated cluster event " + event);
+            }
+            return;
+        }
+        try {
+            depot.publishRemoteEvent(event.toOSDIEvent(), event.getType() == TYPE.ADDED, this);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error delivering the cluster event " + event, e);
+        }
+    }
+
+    /**
+     * @return the number of events broadcast by this node
+     */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * @return the number of events received from the other nodes
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * @return the number of received events discarded as duplicated
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    //
+    // PRIVATE INTERNAL UTILITIES METHODs
+    //
+
+    private void publish(TYPE type, Event event) {
+        if (!(event instanceof OSDIEvent)) {
+            LOGGER.warn("Only OSDIEvents can be propagated, skipping " + event);
+            return;
+        }
+        ClusterEvent clusterEvent = new ClusterEvent(type, nodeID, sequence.incrementAndGet(), (OSDIEvent) event);
+        published.incrementAndGet();
+        channel.broadcast(clusterEvent);
+    }
+
+    /**
+     * Record the sequence of the event among the ones received from its node. An event older than all the
+     * remembered ones is taken as a replay, since the window holds the latest sequences of the node.
+     * 
+     * @param event
+     * @return false if the event has been already received
+     */
+    private boolean firstDelivery(ClusterEvent event) {
+        TreeSet<Long> sequences = seen.get(event.getNodeID());
+        if (sequences == null) {
+            seen.putIfAbsent(event.getNodeID(), new TreeSet<Long>());
+            sequences = seen.get(event.getNodeID());
+        }
+        synchronized (sequences) {
+            if (sequences.size() >= SEEN_WINDOW && event.getVersion() < sequences.first()) {
+                return false;
+            }
+            if (!sequences.add(event.getVersion())) {
+                return false;
+            }
+            if (sequences.size() > SEEN_WINDOW) {
+                sequences.pollFirst();
+            }
+            return true;
+        }
+    }
+}
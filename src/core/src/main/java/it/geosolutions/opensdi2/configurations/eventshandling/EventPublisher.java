@@ -32,4 +32,13 @@ public interface EventPublisher {
      * @return true if the subscribe ends successfully, false otherwise
      */
     public boolean subscribe(ConfigDepotSubscriber observer);
+    
+    /**
+     * Notify the subscribers of an event occurred on another node sharing the same configurations.
+     * 
+     * @param event the event received
+     * @param newConfig true if a configuration has been added, false if it has been updated
+     * @param origin the subscriber that received the event, it is not notified again
+     */
+    public void publishRemoteEvent(Event event, boolean newConfig, ConfigDepotSubscriber origin);
 }
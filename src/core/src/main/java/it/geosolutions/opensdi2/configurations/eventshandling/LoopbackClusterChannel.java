@@ -0,0 +1,91 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations.eventshandling;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A {@link ClusterChannel} connecting the nodes running in the same JVM, for instance several application contexts
+ * deployed in the same container. The events are delivered synchronously to the other channels with the same cluster name.
+ */
+public class LoopbackClusterChannel implements ClusterChannel {
+
+    private final static Logger LOGGER = Logger.getLogger(LoopbackClusterChannel.class);
+
+    private final static ConcurrentMap<String, List<LoopbackClusterChannel>> CLUSTERS = new ConcurrentHashMap<String, List<LoopbackClusterChannel>>();
+
+    private String clusterName = "default";
+
+    private volatile String nodeID;
+
+    private volatile ClusterChannelListener listener;
+
+    /**
+     * @param clusterName the name shared by the channels that must exchange the events
+     */
+    public void setClusterName(String clusterName) {
+        this.clusterName = clusterName;
+    }
+
+    @Override
+    public void connect(String nodeID, ClusterChannelListener listener) {
+        this.nodeID = nodeID;
+        this.listener = listener;
+        List<LoopbackClusterChannel> members = CLUSTERS.get(clusterName);
+        if (members == null) {
+            CLUSTERS.putIfAbsent(clusterName, new CopyOnWriteArrayList<LoopbackClusterChannel>());
+            members = CLUSTERS.get(clusterName);
+        }
+        members.add(this);
+    }
+
+    @Override
+    public void broadcast(ClusterEvent event) {
+        List<LoopbackClusterChannel> members = CLUSTERS.get(clusterName);
+        if (members == null) {
+            return;
+        }
+        for (LoopbackClusterChannel member : members) {
+            ClusterChannelListener memberListener = member.listener;
+            if (member == this || memberListener == null || event.getNodeID().equals(member.nodeID)) {
+                continue;
+            }
+            try {
+                memberListener.eventReceived(event);
+            } catch (RuntimeException e) {
+                LOGGER.error("The node '" + member.nodeID + "' failed handling the event " + event, e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        List<LoopbackClusterChannel> members = CLUSTERS.get(clusterName);
+        if (members != null) {
+            members.remove(this);
+        }
+        listener = null;
+    }
+}
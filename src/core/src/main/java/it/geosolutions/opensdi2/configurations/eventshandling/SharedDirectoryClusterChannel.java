@@ -0,0 +1,224 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations.eventshandling;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A {@link ClusterChannel} exchanging the events through a directory shared by all the nodes, for instance on NFS.
+ * Each event is written as a small properties file, the other nodes poll the directory and read the files they haven't seen yet.
+ * The files older than the retention time are removed by the first node noticing them, so the retention
+ * must be much longer than the poll interval of every node.
+ */
+public class SharedDirectoryClusterChannel implements ClusterChannel {
+
+    private final static Logger LOGGER = Logger.getLogger(SharedDirectoryClusterChannel.class);
+
+    private final static String EVENT_FILE_EXTENSION = ".event";
+
+    private final static FilenameFilter EVENT_FILES = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.endsWith(EVENT_FILE_EXTENSION);
+        }
+    };
+
+    private File directory;
+
+    private long pollInterval = 1000;
+
+    private long retention = 60000;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * The names of the event files already handled, own files included
+     */
+    private final Set<String> seen = new HashSet<String>();
+
+    private volatile String nodeID;
+
+    private volatile ClusterChannelListener listener;
+
+    private Timer poller;
+
+    /**
+     * @param directory the directory shared by the nodes, created if missing
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param pollInterval the milliseconds between two reads of the directory
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * @param retention the milliseconds an event file is kept in the directory
+     */
+    public void setRetention(long retention) {
+        this.retention = retention;
+    }
+
+    @Override
+    public synchronized void connect(String nodeID, ClusterChannelListener listener) {
+        if (directory == null) {
+            throw new IllegalStateException("The shared directory has not been set");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create the shared directory '" + directory + "'");
+        }
+        this.nodeID = nodeID;
+        this.listener = listener;
+        // the events fired before this node joined are not relevant anymore
+        String[] names = directory.list(EVENT_FILES);
+        if (names != null) {
+            seen.addAll(Arrays.asList(names));
+        }
+        poller = new Timer("SharedDirectoryClusterChannel-" + nodeID, true);
+        poller.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error reading the cluster events from '" + directory + "'", e);
+                }
+            }
+        }, pollInterval, pollInterval);
+    }
+
+    @Override
+    public void broadcast(ClusterEvent event) {
+        String name = String.format("%015d-%s-%06d%s", System.currentTimeMillis(),
+                event.getNodeID().replaceAll("[^A-Za-z0-9_.]", "_"), sequence.incrementAndGet() % 1000000,
+                EVENT_FILE_EXTENSION);
+        synchronized (this) {
+            seen.add(name);
+        }
+        File tmpFile = new File(directory, "." + name + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            event.toProperties().store(out, null);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            // the readers never see a partial event since they only list the renamed files
+            if (!tmpFile.renameTo(new File(directory, name))) {
+                throw new IOException("Unable to rename '" + tmpFile + "'");
+            }
+        } catch (IOException e) {
+            LOGGER.error("Unable to broadcast the cluster event " + event, e);
+            tmpFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LOGGER.warn(e.getMessage());
+                }
+                tmpFile.delete();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (poller != null) {
+            poller.cancel();
+            poller = null;
+        }
+        listener = null;
+    }
+
+    /**
+     * Deliver the events written by the other nodes since the last poll and remove the expired ones
+     */
+    synchronized void poll() {
+        String[] names = directory.list(EVENT_FILES);
+        if (names == null || listener == null) {
+            return;
+        }
+        // the names start with the write time so they are delivered in order
+        Arrays.sort(names);
+        long expiration = System.currentTimeMillis() - retention;
+        Set<String> present = new HashSet<String>(Arrays.asList(names));
+        for (String name : names) {
+            File file = new File(directory, name);
+            if (!seen.contains(name)) {
+                seen.add(name);
+                ClusterEvent event = read(file);
+                if (event != null && !nodeID.equals(event.getNodeID())) {
+                    try {
+                        listener.eventReceived(event);
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Error handling the cluster event " + event, e);
+                    }
+                }
+            }
+            if (file.lastModified() < expiration && file.delete()) {
+                present.remove(name);
+            }
+        }
+        seen.retainAll(present);
+    }
+
+    private static ClusterEvent read(File file) {
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+            return ClusterEvent.fromProperties(props);
+        } catch (IOException e) {
+            // removed meanwhile by another node
+            LOGGER.debug("Unable to read the cluster event '" + file + "': " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Skipping the cluster event '" + file + "': " + e.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOGGER.warn(e.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+}
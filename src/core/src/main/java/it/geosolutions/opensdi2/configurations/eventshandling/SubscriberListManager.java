@@ -19,21 +19,84 @@
  */
 package it.geosolutions.opensdi2.configurations.eventshandling;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
 
 /**
  * This class handle a list of subscribers and notify them when an event occurs
  * 
+ * The events are delivered asynchronously by a small pool of daemon threads, so the publisher doesn't wait for the
+ * subscribers. Each subscriber has its own bounded queue and receives the events in the order they have been fired.
+ * When the queue of a subscriber is full the publisher waits up to offerTimeout milliseconds, then the event is logged
+ * as not delivered and dropped. The same happens to an event whose handler throws an exception.
+ * A manager created with 0 dispatch threads notifies the subscribers synchronously.
+ * 
  * @author DamianoG
  *
  */
 public class SubscriberListManager {
 
+    private final static Logger LOGGER = Logger.getLogger(SubscriberListManager.class);
+    
+    public final static int DEFAULT_DISPATCH_THREADS = 2;
+    
+    public final static int DEFAULT_QUEUE_CAPACITY = 1000;
+    
+    public final static long DEFAULT_OFFER_TIMEOUT = 1000;
+    
+    private final static AtomicInteger THREAD_COUNT = new AtomicInteger();
+    
     public List<ConfigDepotSubscriber> observerList;
     
+    private final ThreadPoolExecutor executor;
+    
+    private final int queueCapacity;
+    
+    private final long offerTimeout;
+    
+    private final Map<ConfigDepotSubscriber, SubscriberQueue> queues = new ConcurrentHashMap<ConfigDepotSubscriber, SubscriberQueue>();
+    
     public SubscriberListManager(){
-        this.observerList = new ArrayList<ConfigDepotSubscriber>();
+        this(DEFAULT_DISPATCH_THREADS, DEFAULT_QUEUE_CAPACITY, DEFAULT_OFFER_TIMEOUT);
+    }
+    
+    /**
+     * @param dispatchThreads the maximum number of threads delivering the events, 0 to deliver them synchronously
+     * @param queueCapacity the maximum number of events waiting to be delivered to each subscriber
+     * @param offerTimeout the milliseconds a publisher waits for room in a full subscriber queue
+     */
+    public SubscriberListManager(int dispatchThreads, int queueCapacity, long offerTimeout){
+        this.observerList = new CopyOnWriteArrayList<ConfigDepotSubscriber>();
+        this.queueCapacity = Math.max(queueCapacity, 1);
+        this.offerTimeout = Math.max(offerTimeout, 0);
+        if(dispatchThreads > 0){
+            // at most one task per subscriber is queued, the per-subscriber queues bound the pending events
+            executor = new ThreadPoolExecutor(dispatchThreads, dispatchThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "osdi-config-events-" + THREAD_COUNT.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        } else {
+            executor = null;
+        }
     }
     
     public void subscribe(ConfigDepotSubscriber observer){
@@ -41,14 +104,175 @@ public class SubscriberListManager {
     }
     
     public void fireNewConfigAddedEvent(Event e){
-        for(ConfigDepotSubscriber obs : observerList){
-            obs.newConfigAddedEventHandler(e);
-        }
+        fire(e, true);
     }
     
     public void fireConfigUpdatedEventOccurred(Event e){
+        fire(e, false);
+    }
+    
+    /**
+     * Notify all the subscribers but one
+     * 
+     * @param e the event
+     * @param newConfig true for a new configuration event, false for an updated configuration event
+     * @param excluded the subscriber not notified
+     */
+    public void fireExcept(Event e, boolean newConfig, ConfigDepotSubscriber excluded){
+        fire(e, newConfig, excluded);
+    }
+    
+    /**
+     * Wait for the events fired so far to be delivered
+     * 
+     * @param timeout the maximum milliseconds to wait
+     * @return true if no event is waiting to be delivered
+     * @throws InterruptedException
+     */
+    public boolean awaitDispatch(long timeout) throws InterruptedException{
+        long deadline = System.currentTimeMillis() + timeout;
+        for(SubscriberQueue queue : queues.values()){
+            while(!queue.isIdle()){
+                if(System.currentTimeMillis() >= deadline){
+                    return false;
+                }
+                Thread.sleep(10);
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Stop the dispatch threads, the events not delivered yet are dropped
+     */
+    public void shutdown(){
+        if(executor != null){
+            executor.shutdownNow();
+        }
+    }
+    
+    private void fire(Event e, boolean newConfig){
+        fire(e, newConfig, null);
+    }
+    
+    private void fire(Event e, boolean newConfig, ConfigDepotSubscriber excluded){
         for(ConfigDepotSubscriber obs : observerList){
-            obs.configUpdatedEventHandler(e);
+            if(obs == excluded){
+                continue;
+            }
+            if(executor == null){
+                deliver(obs, e, newConfig);
+                continue;
+            }
+            SubscriberQueue queue = queues.get(obs);
+            if(queue == null){
+                synchronized(queues){
+                    queue = queues.get(obs);
+                    if(queue == null){
+                        queue = new SubscriberQueue(obs);
+                        queues.put(obs, queue);
+                    }
+                }
+            }
+            queue.offer(new Delivery(e, newConfig));
+        }
+    }
+    
+    private static boolean deliver(ConfigDepotSubscriber obs, Event e, boolean newConfig){
+        try{
+            if(newConfig){
+                obs.newConfigAddedEventHandler(e);
+            }else{
+                obs.configUpdatedEventHandler(e);
+            }
+            return true;
+        }catch(RuntimeException ex){
+            deadLetter(obs, e, "the handler failed", ex);
+            return false;
+        }
+    }
+    
+    private static void deadLetter(ConfigDepotSubscriber obs, Event e, String reason, Exception ex){
+        LOGGER.error("Event '" + e.getEventID() + "' not delivered to the subscriber '" + obs + "': " + reason, ex);
+    }
+    
+    /**
+     * An event waiting to be delivered
+     */
+    private static class Delivery {
+        
+        private final Event event;
+        
+        private final boolean newConfig;
+        
+        Delivery(Event event, boolean newConfig){
+            this.event = event;
+            this.newConfig = newConfig;
+        }
+    }
+    
+    /**
+     * The events waiting to be delivered to a subscriber, drained by at most one thread at a time
+     */
+    private class SubscriberQueue implements Runnable {
+        
+        private final ConfigDepotSubscriber subscriber;
+        
+        private final BlockingQueue<Delivery> pending = new ArrayBlockingQueue<Delivery>(queueCapacity);
+        
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        
+        SubscriberQueue(ConfigDepotSubscriber subscriber){
+            this.subscriber = subscriber;
+        }
+        
+        void offer(Delivery delivery){
+            boolean queued;
+            try{
+                queued = pending.offer(delivery, offerTimeout, TimeUnit.MILLISECONDS);
+            }catch(InterruptedException ex){
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+            if(!queued){
+                deadLetter(subscriber, delivery.event, "the subscriber queue is full", null);
+                return;
+            }
+            schedule();
+        }
+        
+        boolean isIdle(){
+            return pending.isEmpty() && !scheduled.get();
+        }
+        
+        private void schedule(){
+            if(scheduled.compareAndSet(false, true)){
+                try{
+                    executor.execute(this);
+                }catch(RejectedExecutionException ex){
+                    scheduled.set(false);
+                    Delivery delivery;
+                    while((delivery = pending.poll()) != null){
+                        deadLetter(subscriber, delivery.event, "the dispatcher has been shut down", ex);
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public void run() {
+            try{
+                Delivery delivery;
+                while((delivery = pending.poll()) != null){
+                    deliver(subscriber, delivery.event, delivery.newConfig);
+                }
+            }finally{
+                scheduled.set(false);
+                // an event may have been queued after the last poll
+                if(!pending.isEmpty()){
+                    schedule();
+                }
+            }
         }
     }
 }
@@ -19,13 +19,18 @@
  */
 package it.geosolutions.opensdi2.configurations.model;
 
-import java.util.Arrays;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationSchema.Type;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.springframework.util.StringUtils;
 
@@ -36,6 +41,9 @@ import org.springframework.util.StringUtils;
  * Basically this class can be used to handle the configuration of any module that can be implemented in the OpenSDI2.
  * As alternative, if the module developer prefers, a POJO approach can be used implementing a module-customized version of OSDIConfiguration (adding getters and setters for all config parameters)  
  * 
+ * The typed accessors ({@link #getString(String, String)}, {@link #getInt(String, int)}, {@link #getDuration(String, long)}...)
+ * parse a value the first time it's requested and then return the parsed value, until the configuration is changed.
+ * 
  * @author DamianoG
  * 
  */
@@ -46,6 +54,14 @@ public class OSDIConfigurationKVP implements OSDIConfiguration{
     
     private Map<String, Object> configParamsMap;
     
+    private Set<String> keys;
+    
+    /**
+     * The values already parsed, by type and key. The map of a type is allocated the first time a value of that type is
+     * requested and the whole map is replaced when a type is added, so the readers don't need to lock it
+     */
+    private volatile Map<Type, ConcurrentMap<String, Object>> parsedValues = Collections.emptyMap();
+    
     public OSDIConfigurationKVP(String scopeID, String instanceID) throws IllegalArgumentException{
         this.scopeID = scopeID;
         this.instanceID = instanceID;
@@ -53,6 +69,7 @@ public class OSDIConfigurationKVP implements OSDIConfiguration{
             throw new IllegalArgumentException("ScopeID or instanceID are null, empty or contains whitespaces or non alphanumeric characters");
         }
         this.configParamsMap = new HashMap<String, Object>();
+        this.keys = Collections.unmodifiableSet(configParamsMap.keySet());
     }
     
     /**
@@ -79,6 +96,9 @@ public class OSDIConfigurationKVP implements OSDIConfiguration{
      */
     public void addNew(String key, Object value){
         configParamsMap.put(key, value);
+        for(ConcurrentMap<String, Object> parsed : parsedValues.values()){
+            parsed.remove(key);
+        }
     }
     
     /**
@@ -99,23 +119,199 @@ public class OSDIConfigurationKVP implements OSDIConfiguration{
         return configParamsMap.size();
     }
     
+    /**
+     * @return a copy of the keys of the configuration
+     */
     public Set<String> getAllKeys(){
-        String[] keys = new String[configParamsMap.keySet().size()]; 
-        configParamsMap.keySet().toArray(keys);
-        List<String> keyList = Arrays.asList(keys);
-        Set clonedSet = new HashSet(keyList);
-        return clonedSet;
+        return new HashSet<String>(configParamsMap.keySet());
     }
     
-    @Override
-    public boolean validateIDs() {
-        if(StringUtils.isEmpty(scopeID) || StringUtils.containsWhitespace(scopeID) || !org.apache.commons.lang.StringUtils.isAlphanumeric(scopeID)){
-            return false;
+    /**
+     * @return a read only view of the keys of the configuration, it's not a copy so no key must be added while iterating
+     */
+    public Set<String> keys(){
+        return keys;
+    }
+    
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the value as a String, the elements of a list value are joined with commas
+     */
+    public String getString(String key, String defaultValue){
+        String value = (String)getTyped(key, Type.STRING);
+        return value == null ? defaultValue : value;
+    }
+    
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the value as an int
+     * @throws IllegalArgumentException if the value is not an integer
+     */
+    public int getInt(String key, int defaultValue){
+        Integer value = (Integer)getTyped(key, Type.INT);
+        return value == null ? defaultValue : value;
+    }
+    
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the value as a long
+     * @throws IllegalArgumentException if the value is not an integer
+     */
+    public long getLong(String key, long defaultValue){
+        Long value = (Long)getTyped(key, Type.LONG);
+        return value == null ? defaultValue : value;
+    }
+    
+    /**
+     * @param key
+     * @param defaultValue
+     * @return true if the value is "true", "yes", "on" or "1" ignoring the case
+     */
+    public boolean getBoolean(String key, boolean defaultValue){
+        Boolean value = (Boolean)getTyped(key, Type.BOOLEAN);
+        return value == null ? defaultValue : value;
+    }
+    
+    /**
+     * @param key
+     * @return the value as an unmodifiable list of Strings, a String value is split on commas. An empty list if there's no value
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getList(String key){
+        List<String> value = (List<String>)getTyped(key, Type.LIST);
+        return value == null ? Collections.<String>emptyList() : value;
+    }
+    
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the value as milliseconds, it may have one of the units ms, s, m, h or d (milliseconds if missing)
+     * @throws IllegalArgumentException if the value is not a duration
+     */
+    public long getDuration(String key, long defaultValue){
+        Long value = (Long)getTyped(key, Type.DURATION);
+        return value == null ? defaultValue : value;
+    }
+    
+    /**
+     * Get a value parsed as the provided type, parsing it only the first time
+     * 
+     * @param key
+     * @param type
+     * @return the parsed value or null if there's no value
+     * @throws IllegalArgumentException if the value can't be parsed
+     */
+    Object getTyped(String key, Type type){
+        ConcurrentMap<String, Object> parsed = getParsedValues(type);
+        Object value = parsed.get(key);
+        if(value == null){
+            Object raw = configParamsMap.get(key);
+            if(raw == null){
+                return null;
+            }
+            value = parse(key, raw, type);
+            parsed.put(key, value);
         }
-        if(StringUtils.isEmpty(instanceID) || StringUtils.containsWhitespace(instanceID) || !org.apache.commons.lang.StringUtils.isAlphanumeric(instanceID)){
-            return false;
+        return value;
+    }
+    
+    private ConcurrentMap<String, Object> getParsedValues(Type type){
+        ConcurrentMap<String, Object> parsed = parsedValues.get(type);
+        if(parsed == null){
+            synchronized(this){
+                parsed = parsedValues.get(type);
+                if(parsed == null){
+                    Map<Type, ConcurrentMap<String, Object>> copy = new EnumMap<Type, ConcurrentMap<String, Object>>(Type.class);
+                    copy.putAll(parsedValues);
+                    parsed = new ConcurrentHashMap<String, Object>();
+                    copy.put(type, parsed);
+                    parsedValues = copy;
+                }
+            }
         }
-        return true;
+        return parsed;
+    }
+    
+    private Object parse(String key, Object raw, Type type){
+        if(type == Type.LIST){
+            List<String> list = new ArrayList<String>();
+            if(raw instanceof List){
+                for(Object element : (List<?>)raw){
+                    list.add(String.valueOf(element).trim());
+                }
+            }else{
+                for(String element : raw.toString().split(",")){
+                    if(element.trim().length() > 0){
+                        list.add(element.trim());
+                    }
+                }
+            }
+            return Collections.unmodifiableList(list);
+        }
+        String value;
+        if(raw instanceof List){
+            value = org.apache.commons.lang.StringUtils.join((List<?>)raw, ",");
+        }else{
+            value = raw.toString();
+        }
+        if(type == Type.STRING){
+            return value;
+        }
+        value = value.trim();
+        try{
+            switch(type){
+            case INT:
+                return Integer.valueOf(value);
+            case LONG:
+                return Long.valueOf(value);
+            case BOOLEAN:
+                return Boolean.valueOf("true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value)
+                        || "on".equalsIgnoreCase(value) || "1".equals(value));
+            case DURATION:
+                return parseDuration(value);
+            default:
+                throw new IllegalArgumentException("Unknown type " + type);
+            }
+        }catch(NumberFormatException e){
+            throw new IllegalArgumentException("The value '" + value + "' of the parameter '" + key + "' in the configuration '" + scopeID + "/" + instanceID + "' is not a valid " + type.name().toLowerCase());
+        }
+    }
+    
+    private static Long parseDuration(String value){
+        int unitStart = value.length();
+        while(unitStart > 0 && Character.isLetter(value.charAt(unitStart - 1))){
+            unitStart--;
+        }
+        long amount = Long.parseLong(value.substring(0, unitStart).trim());
+        String unit = value.substring(unitStart).toLowerCase();
+        if(unit.length() == 0 || unit.equals("ms")){
+            return amount;
+        }else if(unit.equals("s")){
+            return amount * 1000L;
+        }else if(unit.equals("m")){
+            return amount * 60L * 1000L;
+        }else if(unit.equals("h")){
+            return amount * 60L * 60L * 1000L;
+        }else if(unit.equals("d")){
+            return amount * 24L * 60L * 60L * 1000L;
+        }
+        throw new NumberFormatException("Unknown duration unit '" + unit + "'");
+    }
+    
+    @Override
+    public boolean validateIDs() {
+        return validateID(scopeID) && validateID(instanceID);
+    }
+    
+    /**
+     * @param id a scopeID or an instanceID
+     * @return true if the ID is not empty and made only by alphanumeric characters
+     */
+    public static boolean validateID(String id) {
+        return !StringUtils.isEmpty(id) && !StringUtils.containsWhitespace(id) && org.apache.commons.lang.StringUtils.isAlphanumeric(id);
     }
     
 }
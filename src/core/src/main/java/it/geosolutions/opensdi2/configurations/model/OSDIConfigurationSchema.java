@@ -0,0 +1,111 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes the typed parameters expected in the configurations of a module (scope).
+ * 
+ * Applying a schema to an {@link OSDIConfigurationKVP} parses all the declared parameters once, so invalid values are
+ * reported when the configuration is loaded and the typed accessors used by the modules at each request just return the
+ * parsed values.
+ */
+public class OSDIConfigurationSchema {
+
+    /**
+     * The types of the configuration values
+     */
+    public enum Type {
+        STRING, INT, LONG, BOOLEAN, LIST, DURATION
+    }
+
+    private final Map<String, Type> types = new LinkedHashMap<String, Type>();
+
+    private final List<String> required = new ArrayList<String>();
+
+    public OSDIConfigurationSchema() {
+    }
+
+    /**
+     * Spring friendly way to declare the optional parameters
+     * 
+     * @param parameters the types by parameter name
+     */
+    public void setParameters(Map<String, Type> parameters) {
+        types.putAll(parameters);
+    }
+
+    /**
+     * Spring friendly way to declare the mandatory parameters, they must be declared with a type too
+     * 
+     * @param required the names of the mandatory parameters
+     */
+    public void setRequired(List<String> required) {
+        this.required.addAll(required);
+    }
+
+    /**
+     * Declare a parameter
+     * 
+     * @param key
+     * @param type
+     * @param mandatory true if a configuration without this parameter is not valid
+     * @return this schema
+     */
+    public OSDIConfigurationSchema add(String key, Type type, boolean mandatory) {
+        types.put(key, type);
+        if (mandatory && !required.contains(key)) {
+            required.add(key);
+        }
+        return this;
+    }
+
+    /**
+     * @return the types by parameter name
+     */
+    public Map<String, Type> getParameters() {
+        return Collections.unmodifiableMap(types);
+    }
+
+    /**
+     * Check the configuration against the schema parsing all the declared parameters
+     * 
+     * @param config
+     * @throws IllegalArgumentException if a mandatory parameter is missing or a value can't be parsed
+     */
+    public void apply(OSDIConfigurationKVP config) throws IllegalArgumentException {
+        for (String key : required) {
+            if (config.getValue(key) == null) {
+                throw new IllegalArgumentException("The configuration '" + config.getScopeID() + "/"
+                        + config.getInstanceID() + "' has no value for the mandatory parameter '" + key + "'");
+            }
+        }
+        for (Map.Entry<String, Type> entry : types.entrySet()) {
+            if (config.getValue(entry.getKey()) != null) {
+                config.getTyped(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
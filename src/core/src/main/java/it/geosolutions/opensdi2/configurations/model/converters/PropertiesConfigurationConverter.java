@@ -71,7 +71,7 @@ public class PropertiesConfigurationConverter implements OSDIConfigConverter {
         OSDIConfigurationKVP inConfig = (OSDIConfigurationKVP)configToBeConverted;
         Configuration outConfig = new PropertiesConfiguration();
 
-        Iterator<String> iter = inConfig.getAllKeys().iterator();
+        Iterator<String> iter = inConfig.keys().iterator();
         String tmpKey = "";
         while (iter.hasNext()) {
             tmpKey = iter.next();
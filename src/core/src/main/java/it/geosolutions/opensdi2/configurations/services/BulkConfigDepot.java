@@ -0,0 +1,60 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations.services;
+
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationException;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * A Configuration Depot able to list all the configurations it holds and to import many configurations at once,
+ * used to export the configurations of a node and provision another one.
+ *
+ */
+public interface BulkConfigDepot extends ConfigDepot {
+
+    /**
+     * @return the scopeIDs of the modules known by the depot
+     * @throws OSDIConfigurationException a wrapper exception that holds the underlying exception has been thrown
+     */
+    public Set<String> listScopes() throws OSDIConfigurationException;
+
+    /**
+     * @param scopeID
+     * @return the instanceIDs of the configurations of a module
+     * @throws OSDIConfigurationException a wrapper exception that holds the underlying exception has been thrown
+     */
+    public Set<String> listInstances(String scopeID) throws OSDIConfigurationException;
+
+    /**
+     * Add many configurations at once, creating the modules not present yet. The whole batch is checked before
+     * storing anything; if a configuration can't be stored the ones already stored are rolled back on a best-effort
+     * basis and the exception message lists any of them that couldn't be restored. The modules created are kept.
+     * One event for each scope is fired, instead of one for each configuration.
+     * 
+     * @param configs the configurations to add. The scopeID and instanceID fields must not be null.
+     * @param replace true to replace the configurations already present, false to fail if any is already present
+     * @throws OSDIConfigurationException a wrapper exception that holds the underlying exception has been thrown
+     */
+    public void importConfigurations(Collection<OSDIConfiguration> configs, boolean replace) throws OSDIConfigurationException;
+
+}
@@ -0,0 +1,444 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations.services;
+
+import it.geosolutions.opensdi2.configurations.dao.ConfigDAO;
+import it.geosolutions.opensdi2.configurations.dao.PropertiesDAO;
+import it.geosolutions.opensdi2.configurations.eventshandling.ConfigDepotSubscriber;
+import it.geosolutions.opensdi2.configurations.eventshandling.Event;
+import it.geosolutions.opensdi2.configurations.eventshandling.EventPublisher;
+import it.geosolutions.opensdi2.configurations.eventshandling.OSDIEvent;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationException;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationKVP;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationSchema;
+import it.geosolutions.opensdi2.utils.PropertiesDirFiltersFactory;
+import it.geosolutions.opensdi2.utils.PropertiesDirFiltersFactory.FILTER_TYPE;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A Depot decorator that keeps in memory the configurations loaded by another Depot, so the modules loading their
+ * configuration at every request don't hit the underlying persistence system each time.
+ * 
+ * The cached configurations are unmodifiable snapshots. An entry is dropped when the decorated Depot notifies that
+ * the configuration has been added or updated and, if the DAO is a {@link PropertiesDAO}, when the related file in the
+ * properties configuration directory changes, is created or is deleted by someone else.
+ * 
+ * A schema can be set for each scopeID: the configurations of that scope are checked and their typed values parsed once,
+ * before being cached.
+ * 
+ */
+public class CachingConfigDepot implements BulkConfigDepot, EventPublisher, ConfigDepotSubscriber {
+
+    private final static Logger LOGGER = Logger.getLogger(CachingConfigDepot.class);
+
+    private ConfigDepot delegate;
+
+    private ConfigDAO dao;
+
+    /**
+     * Interval in milliseconds between the checks of the properties configuration directory, 0 to disable them
+     */
+    private long watchInterval = 2000;
+
+    private final ConcurrentMap<String, OSDIConfiguration> cache = new ConcurrentHashMap<String, OSDIConfiguration>();
+
+    /**
+     * Incremented at every invalidation, a configuration loaded while an invalidation occurs is not cached
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private Timer watcher;
+
+    private Map<String, OSDIConfigurationSchema> schemas = new HashMap<String, OSDIConfigurationSchema>();
+
+    /**
+     * @param delegate the Depot to decorate
+     */
+    public void setDelegate(ConfigDepot delegate) {
+        this.delegate = delegate;
+        if (dao != null) {
+            delegate.setDao(dao);
+        }
+        if (delegate instanceof EventPublisher) {
+            ((EventPublisher) delegate).subscribe(this);
+        }
+    }
+
+    /**
+     * @return the decorated Depot
+     */
+    public ConfigDepot getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void setDao(ConfigDAO osdiDAO) {
+        this.dao = osdiDAO;
+        if (delegate != null) {
+            delegate.setDao(osdiDAO);
+        }
+    }
+
+    /**
+     * @param schemas the schemas of the configurations by scopeID
+     */
+    public void setSchemas(Map<String, OSDIConfigurationSchema> schemas) {
+        this.schemas = schemas;
+    }
+
+    /**
+     * @param watchInterval the watchInterval to set
+     */
+    public void setWatchInterval(long watchInterval) {
+        this.watchInterval = watchInterval;
+    }
+
+    /**
+     * Start checking the properties configuration directory, if any
+     */
+    public void init() {
+        if (delegate == null) {
+            throw new IllegalStateException("No Depot to decorate has been set");
+        }
+        if (watchInterval > 0 && dao instanceof PropertiesDAO
+                && ((PropertiesDAO) dao).getPropertiesConfigDir() != null) {
+            final File configDir = ((PropertiesDAO) dao).getPropertiesConfigDir();
+            watcher = new Timer("osdi-config-watcher", true);
+            watcher.schedule(new TimerTask() {
+
+                private Map<String, Long> stamps = scan(configDir);
+
+                @Override
+                public void run() {
+                    try {
+                        Map<String, Long> current = scan(configDir);
+                        for (Map.Entry<String, Long> entry : current.entrySet()) {
+                            if (!entry.getValue().equals(stamps.get(entry.getKey()))) {
+                                invalidate(entry.getKey());
+                            }
+                        }
+                        for (String key : stamps.keySet()) {
+                            if (!current.containsKey(key)) {
+                                invalidate(key);
+                            }
+                        }
+                        stamps = current;
+                    } catch (Exception e) {
+                        LOGGER.error("Error checking the configuration directory '" + configDir + "'", e);
+                    }
+                }
+            }, watchInterval, watchInterval);
+        }
+    }
+
+    /**
+     * Stop checking the properties configuration directory
+     */
+    public void destroy() {
+        if (watcher != null) {
+            watcher.cancel();
+            watcher = null;
+        }
+    }
+
+    @Override
+    public OSDIConfiguration loadExistingConfiguration(String scopeID, String instanceID)
+            throws OSDIConfigurationException {
+        String key = getKey(scopeID, instanceID);
+        OSDIConfiguration config = cache.get(key);
+        if (config != null) {
+            hits.incrementAndGet();
+            return config;
+        }
+        misses.incrementAndGet();
+        long loadGeneration = generation.get();
+        config = snapshot(delegate.loadExistingConfiguration(scopeID, instanceID));
+        if (config != null) {
+            cache.putIfAbsent(key, config);
+            if (generation.get() != loadGeneration) {
+                // an invalidation occurred while loading, the configuration may be stale
+                cache.remove(key, config);
+            }
+        }
+        return config;
+    }
+
+    @Override
+    public void addNewConfiguration(OSDIConfiguration conf) throws OSDIConfigurationException {
+        try {
+            delegate.addNewConfiguration(conf);
+        } finally {
+            invalidate(getKey(conf.getScopeID(), conf.getInstanceID()));
+        }
+    }
+
+    @Override
+    public void addNewConfiguration(OSDIConfiguration conf, boolean replace)
+            throws OSDIConfigurationException {
+        try {
+            delegate.addNewConfiguration(conf, replace);
+        } finally {
+            invalidate(getKey(conf.getScopeID(), conf.getInstanceID()));
+        }
+    }
+
+    @Override
+    public void updateExistingConfiguration(OSDIConfiguration conf)
+            throws OSDIConfigurationException {
+        try {
+            delegate.updateExistingConfiguration(conf);
+        } finally {
+            invalidate(getKey(conf.getScopeID(), conf.getInstanceID()));
+        }
+    }
+
+    @Override
+    public Set<String> listScopes() throws OSDIConfigurationException {
+        return getBulkDelegate().listScopes();
+    }
+
+    @Override
+    public Set<String> listInstances(String scopeID) throws OSDIConfigurationException {
+        return getBulkDelegate().listInstances(scopeID);
+    }
+
+    @Override
+    public void importConfigurations(Collection<OSDIConfiguration> configs, boolean replace)
+            throws OSDIConfigurationException {
+        try {
+            getBulkDelegate().importConfigurations(configs, replace);
+        } finally {
+            clear();
+        }
+    }
+
+    @Override
+    public boolean subscribe(ConfigDepotSubscriber observer) {
+        if (delegate instanceof EventPublisher) {
+            return ((EventPublisher) delegate).subscribe(observer);
+        }
+        return false;
+    }
+
+    /**
+     * The event reaches this cache through the delegate, or directly if the delegate doesn't publish events
+     */
+    @Override
+    public void publishRemoteEvent(Event event, boolean newConfig, ConfigDepotSubscriber origin) {
+        if (delegate instanceof EventPublisher) {
+            ((EventPublisher) delegate).publishRemoteEvent(event, newConfig, origin);
+        } else {
+            invalidate(event);
+        }
+    }
+
+    @Override
+    public Object newConfigAddedEventHandler(Event event) {
+        invalidate(event);
+        return null;
+    }
+
+    @Override
+    public Object configUpdatedEventHandler(Event event) {
+        invalidate(event);
+        return null;
+    }
+
+    /**
+     * Drop all the cached configurations
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        cache.clear();
+    }
+
+    /**
+     * @return the number of configurations served from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of configurations loaded from the decorated Depot
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of invalidations occurred
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return the number of configurations cached
+     */
+    public int getSize() {
+        return cache.size();
+    }
+
+    //
+    // PRIVATE INTERNAL UTILITIES METHODs
+    //
+
+    private void invalidate(Event event) {
+        if (event instanceof OSDIEvent) {
+            OSDIEvent osdiEvent = (OSDIEvent) event;
+            if (osdiEvent.getInstanceID() == null) {
+                invalidateScope(osdiEvent.getScopeID());
+            } else {
+                invalidate(getKey(osdiEvent.getScopeID(), osdiEvent.getInstanceID()));
+            }
+        } else {
+            clear();
+        }
+    }
+
+    private void invalidate(String key) {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        if (cache.remove(key) != null && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Configuration '" + key + "' removed from the cache");
+        }
+    }
+
+    /**
+     * Drop all the cached configurations of a module, used by the events fired for a whole scope
+     * 
+     * @param scopeID
+     */
+    private void invalidateScope(String scopeID) {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        String prefix = getKey(scopeID, "");
+        for (String key : cache.keySet()) {
+            if (key.startsWith(prefix)) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    private BulkConfigDepot getBulkDelegate() throws OSDIConfigurationException {
+        if (!(delegate instanceof BulkConfigDepot)) {
+            throw new OSDIConfigurationException("The decorated Depot doesn't support bulk operations");
+        }
+        return (BulkConfigDepot) delegate;
+    }
+
+    private static String getKey(String scopeID, String instanceID) {
+        return scopeID + "/" + instanceID;
+    }
+
+    /**
+     * List the configuration files found in the properties configuration directory
+     * 
+     * @param configDir
+     * @return the last modified time and length of each file by configuration key
+     */
+    private static Map<String, Long> scan(File configDir) {
+        Map<String, Long> stamps = new HashMap<String, Long>();
+        PropertiesDirFiltersFactory factory = new PropertiesDirFiltersFactory();
+        File[] modules = configDir.listFiles(factory.getFilter(FILTER_TYPE.MODULE_LIST, null));
+        if (modules == null) {
+            return stamps;
+        }
+        for (File module : modules) {
+            File[] instances = module.listFiles(factory.getFilter(FILTER_TYPE.INSTANCE_LIST, null));
+            if (instances == null) {
+                continue;
+            }
+            String scopeID = module.getName().substring(
+                    PropertiesDirFiltersFactory.MODULE_NAME_PREFIX.length());
+            for (File instance : instances) {
+                String name = instance.getName();
+                String instanceID = name.substring(
+                        PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_PREFIX.length(),
+                        name.length() - PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_EXTENSION.length());
+                stamps.put(getKey(scopeID, instanceID), instance.lastModified() * 31 + instance.length());
+            }
+        }
+        return stamps;
+    }
+
+    private OSDIConfiguration snapshot(OSDIConfiguration config) throws OSDIConfigurationException {
+        if (config instanceof OSDIConfigurationKVP && !(config instanceof ConfigurationSnapshot)) {
+            ConfigurationSnapshot snapshot = new ConfigurationSnapshot((OSDIConfigurationKVP) config);
+            OSDIConfigurationSchema schema = schemas.get(config.getScopeID());
+            if (schema != null) {
+                try {
+                    schema.apply(snapshot);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.error(e.getMessage(), e);
+                    throw new OSDIConfigurationException(e);
+                }
+            }
+            return snapshot;
+        }
+        return config;
+    }
+
+    /**
+     * An unmodifiable copy of a key/value configuration
+     */
+    static class ConfigurationSnapshot extends OSDIConfigurationKVP {
+
+        private final boolean frozen;
+
+        ConfigurationSnapshot(OSDIConfigurationKVP config) {
+            super(config.getScopeID(), config.getInstanceID());
+            for (String key : config.keys()) {
+                super.addNew(key, config.getValue(key));
+            }
+            frozen = true;
+        }
+
+        @Override
+        public void addNew(String key, Object value) {
+            if (frozen) {
+                throw new UnsupportedOperationException("The configuration '" + getScopeID() + "/"
+                        + getInstanceID() + "' is read only");
+            }
+            super.addNew(key, value);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations.services;
+
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationException;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationKVP;
+import it.geosolutions.opensdi2.configurations.model.converters.PropertiesConfigurationConverter;
+import it.geosolutions.opensdi2.utils.PropertiesDirFiltersFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Write and read all the configurations of a BulkConfigDepot as a single archive, used to move the configurations
+ * from a node to another one. Two formats are supported:
+ * <ul>
+ * <li><b>ZIP</b> one entry for each configuration with the same layout of the properties configuration directory: <i>mod_&lt;scopeID&gt;/config_&lt;instanceID&gt;.properties</i></li>
+ * <li><b>NDJSON</b> one JSON object for each line: <i>{"scopeID":..., "instanceID":..., "values":{...}}</i></li>
+ * </ul>
+ * The configurations are written one at a time while they are loaded from the depot. The archives read are limited
+ * in size, in number of configurations and in size of each configuration, so an upload can't exhaust the memory.
+ *
+ */
+public class ConfigurationArchive {
+
+    public enum FORMAT {
+        ZIP, NDJSON
+    }
+
+    public final static String SCOPE_ID = "scopeID";
+
+    public final static String INSTANCE_ID = "instanceID";
+
+    public final static String VALUES = "values";
+
+    /**
+     * Default maximum bytes of an archive, both as read and uncompressed: 16 MB
+     */
+    public final static long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Default maximum bytes of a single configuration, a ZIP entry or an NDJSON line: 1 MB
+     */
+    public final static int DEFAULT_MAX_ENTRY_SIZE = 1024 * 1024;
+
+    /**
+     * Default maximum number of configurations in an archive
+     */
+    public final static int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final static ObjectMapper MAPPER = new ObjectMapper();
+    static {
+        MAPPER.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        MAPPER.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+    }
+
+    private ConfigurationArchive() {
+    }
+
+    /**
+     * Write all the configurations held by the depot to the stream. The stream is not closed.
+     * 
+     * @param depot
+     * @param format
+     * @param out
+     * @return the number of configurations written
+     * @throws OSDIConfigurationException if a configuration can't be loaded
+     * @throws IOException if the stream can't be written
+     */
+    public static int write(BulkConfigDepot depot, FORMAT format, OutputStream out)
+            throws OSDIConfigurationException, IOException {
+        ZipOutputStream zip = (format == FORMAT.ZIP) ? new ZipOutputStream(out) : null;
+        int count = 0;
+        for (String scopeID : depot.listScopes()) {
+            for (String instanceID : depot.listInstances(scopeID)) {
+                OSDIConfiguration config = depot.loadExistingConfiguration(scopeID, instanceID);
+                if (zip != null) {
+                    writeEntry(zip, toKVP(config));
+                } else {
+                    writeLine(out, toKVP(config));
+                }
+                count++;
+            }
+        }
+        if (zip != null) {
+            zip.finish();
+        }
+        out.flush();
+        return count;
+    }
+
+    /**
+     * Read all the configurations from the stream with the default limits. The stream is not closed.
+     * 
+     * @param format
+     * @param in
+     * @return the configurations found, in the same order of the archive
+     * @throws IOException if the stream can't be read, its content is malformed or exceeds the limits
+     */
+    public static List<OSDIConfiguration> read(FORMAT format, InputStream in) throws IOException {
+        return read(format, in, DEFAULT_MAX_SIZE, DEFAULT_MAX_ENTRY_SIZE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Read all the configurations from the stream. The stream is not closed.
+     * 
+     * @param format
+     * @param in
+     * @param maxSize maximum bytes of the archive, both as read and uncompressed
+     * @param maxEntrySize maximum bytes of a single configuration
+     * @param maxEntries maximum number of configurations
+     * @return the configurations found, in the same order of the archive
+     * @throws IOException if the stream can't be read, its content is malformed or exceeds the limits
+     */
+    public static List<OSDIConfiguration> read(FORMAT format, InputStream in, long maxSize, int maxEntrySize,
+            int maxEntries) throws IOException {
+        InputStream limited = new LimitedInputStream(in, maxSize);
+        if (format == FORMAT.ZIP) {
+            return readEntries(new ZipInputStream(limited), maxSize, maxEntrySize, maxEntries);
+        }
+        return readLines(new BufferedInputStream(limited), maxEntrySize, maxEntries);
+    }
+
+    //
+    // PRIVATE INTERNAL UTILITIES METHODs
+    //
+
+    private static void writeEntry(ZipOutputStream zip, OSDIConfigurationKVP config) throws IOException {
+        PropertiesConfiguration properties = (PropertiesConfiguration) new PropertiesConfigurationConverter()
+                .buildConfig(config);
+        zip.putNextEntry(new ZipEntry(PropertiesDirFiltersFactory.MODULE_NAME_PREFIX + config.getScopeID() + "/"
+                + PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_PREFIX + config.getInstanceID()
+                + PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_EXTENSION));
+        try {
+            properties.save(zip);
+        } catch (ConfigurationException e) {
+            throw new IOException(e.getMessage());
+        }
+        zip.closeEntry();
+    }
+
+    private static void writeLine(OutputStream out, OSDIConfigurationKVP config) throws IOException {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        for (String key : config.keys()) {
+            values.put(key, config.getValue(key));
+        }
+        Map<String, Object> line = new LinkedHashMap<String, Object>();
+        line.put(SCOPE_ID, config.getScopeID());
+        line.put(INSTANCE_ID, config.getInstanceID());
+        line.put(VALUES, values);
+        MAPPER.writeValue(out, line);
+        out.write('\n');
+    }
+
+    private static List<OSDIConfiguration> readEntries(ZipInputStream zip, long maxSize, int maxEntrySize,
+            int maxEntries) throws IOException {
+        List<OSDIConfiguration> configs = new ArrayList<OSDIConfiguration>();
+        PropertiesConfigurationConverter converter = new PropertiesConfigurationConverter();
+        byte[] buffer = new byte[4096];
+        long uncompressed = 0;
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (configs.size() >= maxEntries) {
+                throw new IOException("The archive holds more than " + maxEntries + " configurations");
+            }
+            String[] parts = entry.getName().split("/");
+            if (parts.length != 2 || !parts[0].startsWith(PropertiesDirFiltersFactory.MODULE_NAME_PREFIX)
+                    || !parts[1].startsWith(PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_PREFIX)
+                    || !parts[1].endsWith(PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_EXTENSION)) {
+                throw new IOException("The archive entry '" + entry.getName() + "' is not named as mod_<scopeID>/config_<instanceID>.properties");
+            }
+            String scopeID = parts[0].substring(PropertiesDirFiltersFactory.MODULE_NAME_PREFIX.length());
+            String instanceID = parts[1].substring(PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_PREFIX.length(),
+                    parts[1].length() - PropertiesDirFiltersFactory.INSTANCE_CONFIGNAME_EXTENSION.length());
+            // copy the entry so the properties loader never reads or closes the archive stream
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int read;
+            while ((read = zip.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+                uncompressed += read;
+                if (content.size() > maxEntrySize) {
+                    throw new IOException("The archive entry '" + entry.getName() + "' exceeds " + maxEntrySize + " bytes");
+                }
+                if (uncompressed > maxSize) {
+                    throw new IOException("The uncompressed archive exceeds " + maxSize + " bytes");
+                }
+            }
+            PropertiesConfiguration properties = new PropertiesConfiguration();
+            try {
+                properties.load(new ByteArrayInputStream(content.toByteArray()));
+            } catch (ConfigurationException e) {
+                throw new IOException("The archive entry '" + entry.getName() + "' can't be read: " + e.getMessage());
+            }
+            configs.add(converter.buildConfig(properties, scopeID, instanceID));
+        }
+        return configs;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<OSDIConfiguration> readLines(InputStream in, int maxEntrySize, int maxEntries)
+            throws IOException {
+        List<OSDIConfiguration> configs = new ArrayList<OSDIConfiguration>();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        boolean end = false;
+        while (!end) {
+            // one line at a time, so a single line can't exceed the limit
+            content.reset();
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                content.write(b);
+                if (content.size() > maxEntrySize) {
+                    throw new IOException("The line " + (configs.size() + 1) + " exceeds " + maxEntrySize + " bytes");
+                }
+            }
+            end = (b == -1);
+            if (new String(content.toByteArray(), "UTF-8").trim().length() == 0) {
+                continue;
+            }
+            if (configs.size() >= maxEntries) {
+                throw new IOException("The archive holds more than " + maxEntries + " configurations");
+            }
+            Map<String, Object> line = MAPPER.readValue(content.toByteArray(), Map.class);
+            Object values = line.get(VALUES);
+            if (!(line.get(SCOPE_ID) instanceof String) || !(line.get(INSTANCE_ID) instanceof String)
+                    || (values != null && !(values instanceof Map))) {
+                throw new IOException("Each line must be an object with the string fields '" + SCOPE_ID + "', '" + INSTANCE_ID + "' and the object field '" + VALUES + "'");
+            }
+            OSDIConfigurationKVP config = new OSDIConfigurationKVP((String) line.get(SCOPE_ID), (String) line.get(INSTANCE_ID));
+            if (values != null) {
+                for (Map.Entry<String, Object> value : ((Map<String, Object>) values).entrySet()) {
+                    config.addNew(value.getKey(), value.getValue());
+                }
+            }
+            configs.add(config);
+        }
+        return configs;
+    }
+
+    /**
+     * Stream failing once more than the maximum bytes have been read
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final long maxSize;
+
+        private long count;
+
+        LimitedInputStream(InputStream in, long maxSize) {
+            super(in);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // the caller closes the stream
+        }
+
+        private void count(long read) throws IOException {
+            count += read;
+            if (count > maxSize) {
+                throw new IOException("The archive exceeds " + maxSize + " bytes");
+            }
+        }
+    }
+
+    private static OSDIConfigurationKVP toKVP(OSDIConfiguration config) throws OSDIConfigurationException {
+        if (!(config instanceof OSDIConfigurationKVP)) {
+            throw new OSDIConfigurationException("Only OSDIConfigurationKVP configurations can be exported, found: " + config.getClass().getName());
+        }
+        return (OSDIConfigurationKVP) config;
+    }
+
+}
@@ -30,6 +30,8 @@ import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationInter
 import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationNotFoundException;
 import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
 
+import java.util.Set;
+
 import org.apache.log4j.Logger;
 
 /**
@@ -52,6 +54,20 @@ public abstract class PublisherConfigDepot implements ConfigDepot, EventPublishe
         observers = new SubscriberListManager();
     }
 
+    /**
+     * Replace the manager notifying the subscribers, for instance to change how the events are dispatched.
+     * The subscribers already registered are moved to the new manager.
+     * 
+     * @param subscriberListManager
+     */
+    public void setSubscriberListManager(SubscriberListManager subscriberListManager) {
+        for (ConfigDepotSubscriber observer : observers.observerList) {
+            subscriberListManager.subscribe(observer);
+        }
+        observers.shutdown();
+        observers = subscriberListManager;
+    }
+
     @Override
     public void addNewConfiguration(OSDIConfiguration config) throws OSDIConfigurationException{
         addNewConfiguration(config, false);
@@ -118,6 +134,25 @@ public abstract class PublisherConfigDepot implements ConfigDepot, EventPublishe
         return true;
     }
     
+    @Override
+    public void publishRemoteEvent(Event event, boolean newConfig, ConfigDepotSubscriber origin) {
+        observers.fireExcept(event, newConfig, origin);
+    }
+    
+    /**
+     * Notify the observers that many configurations of a module have been added or updated at once.
+     * The event has a null instanceID and holds the Set of the instanceIDs changed as event object.
+     * 
+     * @param scopeID
+     * @param instanceIDs
+     */
+    protected void fireScopeUpdatedEvent(String scopeID, Set<String> instanceIDs){
+        OSDIEvent e = new OSDIEvent(OSDIEvent.generateEventID(scopeID, "*"), scopeID, null);
+        e.setEventMessage(instanceIDs.size() + " configurations imported");
+        e.setEventObject(instanceIDs);
+        observers.fireConfigUpdatedEventOccurred(e);
+    }
+    
     protected abstract void addNewConfigurationLogic(OSDIConfiguration config, boolean replace) throws OSDIConfigurationDuplicatedIDException, OSDIConfigurationNotFoundException, OSDIConfigurationInternalErrorException;
     
     protected abstract void updateExistingConfigurationLogic(OSDIConfiguration config) throws OSDIConfigurationNotFoundException, OSDIConfigurationInternalErrorException;
@@ -19,6 +19,14 @@
  */
 package it.geosolutions.opensdi2.configurations.services;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.apache.log4j.Logger;
 
 import it.geosolutions.opensdi2.configurations.dao.ConfigDAO;
@@ -33,7 +41,7 @@ import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationKVP;
  * @author DamianoG
  *
  */
-public class PublisherConfigDepotImpl extends PublisherConfigDepot{
+public class PublisherConfigDepotImpl extends PublisherConfigDepot implements BulkConfigDepot{
 
     private final static Logger LOGGER = Logger.getLogger(PublisherConfigDepotImpl.class);
     
@@ -65,6 +73,122 @@ public class PublisherConfigDepotImpl extends PublisherConfigDepot{
         return config;
     }
 
+    @Override
+    public Set<String> listScopes() throws OSDIConfigurationException {
+        return dao.listScopes();
+    }
+
+    @Override
+    public Set<String> listInstances(String scopeID) throws OSDIConfigurationException {
+        try {
+            return dao.listInstances(scopeID);
+        } catch (OSDIConfigurationNotFoundException e) {
+            throw new OSDIConfigurationException(e);
+        }
+    }
+
+    @Override
+    public synchronized void importConfigurations(Collection<OSDIConfiguration> configs, boolean replace)
+            throws OSDIConfigurationException {
+        // check the whole batch before writing anything
+        Map<String, Set<String>> instancesByScope = new HashMap<String, Set<String>>();
+        Map<String, Set<String>> existingByScope = new HashMap<String, Set<String>>();
+        Set<String> missingScopes = new HashSet<String>();
+        for (OSDIConfiguration config : configs) {
+            if (!config.validateIDs()) {
+                throw new IllegalArgumentException("ScopeID or instanceID are null, empty or they contain whitespaces");
+            }
+            Set<String> instances = instancesByScope.get(config.getScopeID());
+            if (instances == null) {
+                instances = new HashSet<String>();
+                instancesByScope.put(config.getScopeID(), instances);
+                try {
+                    existingByScope.put(config.getScopeID(), dao.listInstances(config.getScopeID()));
+                } catch (OSDIConfigurationNotFoundException e) {
+                    // a module still unknown to this node, created before writing its configurations
+                    existingByScope.put(config.getScopeID(), new HashSet<String>());
+                    missingScopes.add(config.getScopeID());
+                }
+            }
+            if (!instances.add(config.getInstanceID())) {
+                throw new OSDIConfigurationException("The configuration with scopeID/instanceID '" + config.getScopeID() + "/" + config.getInstanceID() + "' is present more than once");
+            }
+            if (!replace && existingByScope.get(config.getScopeID()).contains(config.getInstanceID())) {
+                throw new OSDIConfigurationException(new OSDIConfigurationDuplicatedIDException("A configuration with scopeID '"
+                        + config.getScopeID() + "' and instanceID '" + config.getInstanceID() + "' is already present."));
+            }
+        }
+        // the configurations written so far and the ones they replaced, null if new
+        List<OSDIConfiguration> written = new ArrayList<OSDIConfiguration>();
+        List<OSDIConfiguration> replaced = new ArrayList<OSDIConfiguration>();
+        List<String> createdScopes = new ArrayList<String>();
+        try {
+            for (String scopeID : missingScopes) {
+                dao.createScope(scopeID);
+                createdScopes.add(scopeID);
+            }
+            for (OSDIConfiguration config : configs) {
+                if (existingByScope.get(config.getScopeID()).contains(config.getInstanceID())) {
+                    OSDIConfiguration previous = dao.load(config.getScopeID(), config.getInstanceID());
+                    written.add(config);
+                    replaced.add(previous);
+                    // written at once over the old configuration, never missing for the readers
+                    dao.replace(config);
+                } else {
+                    written.add(config);
+                    replaced.add(null);
+                    dao.save(config);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("An error occurs while IMPORTING " + configs.size() + " configurations, rolling back " + written.size() + " of them", e);
+            List<String> notRestored = rollback(written, replaced, createdScopes);
+            if (!notRestored.isEmpty()) {
+                throw new OSDIConfigurationException("The import failed with '" + e.getMessage()
+                        + "' and the following configurations could not be rolled back: " + notRestored);
+            }
+            throw new OSDIConfigurationException(e);
+        }
+        for (Map.Entry<String, Set<String>> scope : instancesByScope.entrySet()) {
+            fireScopeUpdatedEvent(scope.getKey(), scope.getValue());
+        }
+    }
+
+    /**
+     * Restore the configurations replaced by a failed import, remove the new ones and the modules created for them
+     * 
+     * @return the scopeID/instanceID of the configurations and the scopeID of the modules left changed
+     */
+    private List<String> rollback(List<OSDIConfiguration> written, List<OSDIConfiguration> replaced, List<String> createdScopes) {
+        List<String> notRestored = new ArrayList<String>();
+        for (int i = written.size() - 1; i >= 0; i--) {
+            OSDIConfiguration config = written.get(i);
+            try {
+                if (replaced.get(i) != null) {
+                    dao.replace(replaced.get(i));
+                } else {
+                    try {
+                        dao.delete(config.getScopeID(), config.getInstanceID());
+                    } catch (OSDIConfigurationNotFoundException e) {
+                        // never written
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.error("Unable to roll back the configuration with scopeID/instanceID '" + config.getScopeID() + "/" + config.getInstanceID() + "'", e);
+                notRestored.add(config.getScopeID() + "/" + config.getInstanceID());
+            }
+        }
+        for (String scopeID : createdScopes) {
+            try {
+                dao.deleteScope(scopeID);
+            } catch (Exception e) {
+                LOGGER.error("Unable to remove the module with scopeID '" + scopeID + "' created by the import", e);
+                notRestored.add(scopeID);
+            }
+        }
+        return notRestored;
+    }
+
     @Override
     protected void addNewConfigurationLogic(OSDIConfiguration config, boolean replace) throws OSDIConfigurationDuplicatedIDException, OSDIConfigurationNotFoundException, OSDIConfigurationInternalErrorException {
         
@@ -0,0 +1,271 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations;
+
+import it.geosolutions.opensdi2.configurations.configdir.OpenSDIManagerConfigImpl;
+import it.geosolutions.opensdi2.configurations.dao.PropertiesDAO;
+import it.geosolutions.opensdi2.configurations.eventshandling.ConfigDepotSubscriber;
+import it.geosolutions.opensdi2.configurations.eventshandling.Event;
+import it.geosolutions.opensdi2.configurations.eventshandling.OSDIEvent;
+import it.geosolutions.opensdi2.configurations.eventshandling.SubscriberListManager;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationDuplicatedIDException;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationException;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationInternalErrorException;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationNotFoundException;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationKVP;
+import it.geosolutions.opensdi2.configurations.model.converters.PropertiesConfigurationConverter;
+import it.geosolutions.opensdi2.configurations.services.ConfigurationArchive;
+import it.geosolutions.opensdi2.configurations.services.ConfigurationArchive.FORMAT;
+import it.geosolutions.opensdi2.configurations.services.PublisherConfigDepotImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.test.TestData;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BulkConfigDepotTest extends Assert{
+
+    private final static String[][] IDS = {{"test1", "bulk1"}, {"test1", "bulk2"}, {"test2", "bulk1"}};
+
+    private OpenSDIManagerConfigImpl configDirHandler;
+    private PropertiesDAO propDAO;
+    private PublisherConfigDepotImpl depot;
+    private final List<Event> events = new ArrayList<Event>();
+    
+    @Before
+    public void initDepot() throws Exception{
+        File configDir = TestData.file(this, "datadir-testDAOprop");
+        configDirHandler = new OpenSDIManagerConfigImpl();
+        System.setProperty(OpenSDIManagerConfigImpl.CONFIGDIR_PROPERTY_ENV_NAME, configDir.getAbsolutePath());
+        configDirHandler.initConfigDir();
+        propDAO = new PropertiesDAO();
+        propDAO.setConfigDirManager(configDirHandler);
+        propDAO.setConfigConverter(new PropertiesConfigurationConverter());
+        propDAO.init();
+        cleanConfigDir();
+        
+        depot = new PublisherConfigDepotImpl();
+        depot.setDao(propDAO);
+        depot.setSubscriberListManager(new SubscriberListManager(0, 0, 0));
+        depot.subscribe(new ConfigDepotSubscriber() {
+            @Override
+            public Object newConfigAddedEventHandler(Event event) {
+                events.add(event);
+                return null;
+            }
+            @Override
+            public Object configUpdatedEventHandler(Event event) {
+                events.add(event);
+                return null;
+            }
+        });
+    }
+    
+    @After
+    public void cleanConfigDir() throws Exception{
+        for(String[] id : IDS){
+            try {propDAO.delete(id[0], id[1]);} catch (OSDIConfigurationNotFoundException e) {/*Swallow any exception*/}
+        }
+        try {propDAO.delete("newModule", "bulk1");} catch (OSDIConfigurationNotFoundException e) {/*Swallow any exception*/}
+        new File(propDAO.getPropertiesConfigDir(), "mod_newModule").delete();
+        new File(propDAO.getPropertiesConfigDir(), "mod_brokenModule").delete();
+    }
+    
+    /**
+     * The configurations exported in both formats must be imported back unchanged, firing one event for each scope
+     */
+    @Test
+    public void roundTripTest() throws Exception{
+        depot.importConfigurations(buildConfigs("value"), false);
+        assertEquals(2, events.size());
+        for(Event event : events){
+            assertNull(((OSDIEvent)event).getInstanceID());
+        }
+        for(FORMAT format : FORMAT.values()){
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(IDS.length, ConfigurationArchive.write(depot, format, out));
+            cleanConfigDir();
+            List<OSDIConfiguration> configs = ConfigurationArchive.read(format, new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(IDS.length, configs.size());
+            depot.importConfigurations(configs, false);
+            for(String[] id : IDS){
+                OSDIConfigurationKVP config = (OSDIConfigurationKVP)depot.loadExistingConfiguration(id[0], id[1]);
+                assertEquals("value_" + id[0] + "_" + id[1], config.getValue("key"));
+                assertEquals(3, config.getList("list").size());
+            }
+        }
+    }
+    
+    /**
+     * Nothing must change when a configuration of the batch can't be stored
+     */
+    @Test
+    public void rollbackTest() throws Exception{
+        depot.importConfigurations(buildConfigs("value"), false);
+        events.clear();
+        List<OSDIConfiguration> configs = buildConfigs("updated");
+        configs.add(new OSDIConfigurationKVP("brokenModule", "bulk1"));
+        // a file in place of the module directory
+        assertTrue(new File(propDAO.getPropertiesConfigDir(), "mod_brokenModule").createNewFile());
+        try{
+            depot.importConfigurations(configs, true);
+            fail();
+        }catch(OSDIConfigurationException e){
+            // the module can't be created
+        }
+        configs = buildConfigs("updated");
+        try{
+            depot.importConfigurations(configs, false);
+            fail();
+        }catch(OSDIConfigurationException e){
+            // the configurations are already present
+        }
+        // the last write fails after the others have been replaced
+        PropertiesDAO failingDAO = new PropertiesDAO(){
+            @Override
+            public void save(OSDIConfiguration newConfig) throws OSDIConfigurationDuplicatedIDException, 
+                    OSDIConfigurationNotFoundException, OSDIConfigurationInternalErrorException{
+                Object value = ((OSDIConfigurationKVP)newConfig).getValue("key");
+                if("test2".equals(newConfig.getScopeID()) && value != null && value.toString().startsWith("updated")){
+                    throw new OSDIConfigurationInternalErrorException("Disk full");
+                }
+                super.save(newConfig);
+            }
+            @Override
+            public void replace(OSDIConfiguration config) throws OSDIConfigurationNotFoundException,
+                    OSDIConfigurationInternalErrorException{
+                Object value = ((OSDIConfigurationKVP)config).getValue("key");
+                if("test2".equals(config.getScopeID()) && value != null && value.toString().startsWith("updated")){
+                    throw new OSDIConfigurationInternalErrorException("Disk full");
+                }
+                super.replace(config);
+            }
+        };
+        failingDAO.setConfigDirManager(configDirHandler);
+        failingDAO.setConfigConverter(new PropertiesConfigurationConverter());
+        failingDAO.init();
+        depot.setDao(failingDAO);
+        try{
+            depot.importConfigurations(configs, true);
+            fail();
+        }catch(OSDIConfigurationException e){
+            // the write failed
+        }
+        depot.setDao(propDAO);
+        for(String[] id : IDS){
+            OSDIConfigurationKVP config = (OSDIConfigurationKVP)depot.loadExistingConfiguration(id[0], id[1]);
+            assertEquals("value_" + id[0] + "_" + id[1], config.getValue("key"));
+        }
+        assertTrue(events.isEmpty());
+        depot.importConfigurations(configs, true);
+        assertEquals("updated_test1_bulk1", ((OSDIConfigurationKVP)depot.loadExistingConfiguration("test1", "bulk1")).getValue("key"));
+        assertEquals(2, events.size());
+    }
+    
+    /**
+     * Archives over the size, entry size or entries limits must be refused in both formats
+     */
+    @Test
+    public void limitsTest() throws Exception{
+        depot.importConfigurations(buildConfigs("value"), false);
+        for(FORMAT format : FORMAT.values()){
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ConfigurationArchive.write(depot, format, out);
+            byte[] archive = out.toByteArray();
+            assertEquals(IDS.length, ConfigurationArchive.read(format, new ByteArrayInputStream(archive), archive.length, 1024, IDS.length).size());
+            try{
+                ConfigurationArchive.read(format, new ByteArrayInputStream(archive), archive.length - 1, 1024, IDS.length);
+                fail();
+            }catch(IOException e){
+                // archive too large
+            }
+            try{
+                ConfigurationArchive.read(format, new ByteArrayInputStream(archive), archive.length, 10, IDS.length);
+                fail();
+            }catch(IOException e){
+                // entry too large
+            }
+            try{
+                ConfigurationArchive.read(format, new ByteArrayInputStream(archive), archive.length, 1024, IDS.length - 1);
+                fail();
+            }catch(IOException e){
+                // too many entries
+            }
+        }
+    }
+    
+    /**
+     * The modules not present on the node must be created by the import
+     */
+    @Test
+    public void newModuleTest() throws Exception{
+        OSDIConfigurationKVP config = new OSDIConfigurationKVP("newModule", "bulk1");
+        config.addNew("key", "value");
+        List<OSDIConfiguration> configs = new ArrayList<OSDIConfiguration>();
+        configs.add(config);
+        depot.importConfigurations(configs, false);
+        assertTrue(depot.listScopes().contains("newModule"));
+        assertEquals("value", ((OSDIConfigurationKVP)depot.loadExistingConfiguration("newModule", "bulk1")).getValue("key"));
+        assertEquals(1, events.size());
+    }
+    
+    /**
+     * The modules created by a failed import must be removed
+     */
+    @Test
+    public void newModuleRollbackTest() throws Exception{
+        OSDIConfigurationKVP config = new OSDIConfigurationKVP("newModule", "bulk1");
+        config.addNew("key", "value");
+        List<OSDIConfiguration> configs = new ArrayList<OSDIConfiguration>();
+        configs.add(config);
+        configs.add(new OSDIConfigurationKVP("brokenModule", "bulk1"));
+        // a file in place of the module directory
+        assertTrue(new File(propDAO.getPropertiesConfigDir(), "mod_brokenModule").createNewFile());
+        try{
+            depot.importConfigurations(configs, false);
+            fail();
+        }catch(OSDIConfigurationException e){
+            // the module can't be created
+        }
+        assertFalse(new File(propDAO.getPropertiesConfigDir(), "mod_newModule").exists());
+        assertFalse(depot.listScopes().contains("newModule"));
+        assertTrue(events.isEmpty());
+    }
+    
+    private static List<OSDIConfiguration> buildConfigs(String value){
+        List<OSDIConfiguration> configs = new ArrayList<OSDIConfiguration>();
+        for(String[] id : IDS){
+            OSDIConfigurationKVP config = new OSDIConfigurationKVP(id[0], id[1]);
+            config.addNew("key", value + "_" + id[0] + "_" + id[1]);
+            config.addNew("list", "a,b,c");
+            configs.add(config);
+        }
+        return configs;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations;
+
+import it.geosolutions.opensdi2.configurations.configdir.OpenSDIManagerConfigImpl;
+import it.geosolutions.opensdi2.configurations.dao.PropertiesDAO;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationException;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationNotFoundException;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationKVP;
+import it.geosolutions.opensdi2.configurations.model.converters.PropertiesConfigurationConverter;
+import it.geosolutions.opensdi2.configurations.services.CachingConfigDepot;
+import it.geosolutions.opensdi2.configurations.services.PublisherConfigDepotImpl;
+
+import java.io.File;
+
+import org.geotools.test.TestData;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingConfigDepotTest extends Assert{
+
+    private PropertiesDAO propDAO;
+    private CachingConfigDepot depot;
+    
+    @Before
+    public void initDepot() throws Exception{
+        File configDir = TestData.file(this, "datadir-testDAOprop");
+        OpenSDIManagerConfigImpl configDirHandler = new OpenSDIManagerConfigImpl();
+        System.setProperty(OpenSDIManagerConfigImpl.CONFIGDIR_PROPERTY_ENV_NAME, configDir.getAbsolutePath());
+        configDirHandler.initConfigDir();
+        propDAO = new PropertiesDAO();
+        propDAO.setConfigDirManager(configDirHandler);
+        propDAO.setConfigConverter(new PropertiesConfigurationConverter());
+        propDAO.init();
+        
+        depot = new CachingConfigDepot();
+        depot.setDelegate(new PublisherConfigDepotImpl());
+        depot.setDao(propDAO);
+        depot.setWatchInterval(50);
+        
+        try {propDAO.delete("test1", "cacheTest");} catch (OSDIConfigurationNotFoundException e) {/*Swallow any exception*/}
+        OSDIConfigurationKVP conf = new OSDIConfigurationKVP("test1", "cacheTest");
+        conf.addNew("key1", "value1");
+        depot.addNewConfiguration(conf);
+        depot.init();
+    }
+    
+    @After
+    public void cleanConfigDir() throws Exception{
+        depot.destroy();
+        try {propDAO.delete("test1", "cacheTest");} catch (OSDIConfigurationNotFoundException e) {/*Swallow any exception*/}
+    }
+    
+    /**
+     * The second load must be served from the cache with an unmodifiable configuration
+     */
+    @Test
+    public void cacheHitTest() throws OSDIConfigurationException{
+        OSDIConfiguration config1 = depot.loadExistingConfiguration("test1", "cacheTest");
+        OSDIConfiguration config2 = depot.loadExistingConfiguration("test1", "cacheTest");
+        assertSame(config1, config2);
+        assertEquals("value1", ((OSDIConfigurationKVP)config2).getValue("key1"));
+        assertEquals(1, depot.getMisses());
+        assertEquals(1, depot.getHits());
+        try{
+            ((OSDIConfigurationKVP)config1).addNew("key2", "value2");
+            fail();
+        }catch(UnsupportedOperationException e){
+            // the cached configuration is read only
+        }
+    }
+    
+    /**
+     * An update through the depot must drop the cached configuration
+     */
+    @Test
+    public void updateInvalidationTest() throws OSDIConfigurationException{
+        depot.loadExistingConfiguration("test1", "cacheTest");
+        OSDIConfigurationKVP conf = new OSDIConfigurationKVP("test1", "cacheTest");
+        conf.addNew("key1", "value1Updated");
+        depot.updateExistingConfiguration(conf);
+        OSDIConfiguration config = depot.loadExistingConfiguration("test1", "cacheTest");
+        assertEquals("value1Updated", ((OSDIConfigurationKVP)config).getValue("key1"));
+        assertEquals(2, depot.getMisses());
+    }
+    
+    /**
+     * A change on the file made by someone else must be detected
+     */
+    @Test
+    public void fileChangeInvalidationTest() throws Exception{
+        depot.loadExistingConfiguration("test1", "cacheTest");
+        OSDIConfigurationKVP conf = new OSDIConfigurationKVP("test1", "cacheTest");
+        conf.addNew("key1", "value1ChangedOnDisk");
+        propDAO.merge(conf);
+        for(int i = 0; i < 100 && depot.getSize() > 0; i++){
+            Thread.sleep(50);
+        }
+        OSDIConfiguration config = depot.loadExistingConfiguration("test1", "cacheTest");
+        assertEquals("value1ChangedOnDisk", ((OSDIConfigurationKVP)config).getValue("key1"));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations;
+
+import it.geosolutions.opensdi2.configurations.eventshandling.ClusterChannelListener;
+import it.geosolutions.opensdi2.configurations.eventshandling.ClusterEvent;
+import it.geosolutions.opensdi2.configurations.eventshandling.ClusterEvent.TYPE;
+import it.geosolutions.opensdi2.configurations.eventshandling.ClusterEventPropagator;
+import it.geosolutions.opensdi2.configurations.eventshandling.LoopbackClusterChannel;
+import it.geosolutions.opensdi2.configurations.eventshandling.OSDIEvent;
+import it.geosolutions.opensdi2.configurations.eventshandling.SharedDirectoryClusterChannel;
+import it.geosolutions.opensdi2.configurations.eventshandling.SubscriberListManager;
+import it.geosolutions.opensdi2.configurations.mockclasses.MockEventsManagerConfigDepot;
+import it.geosolutions.opensdi2.configurations.mockclasses.MockObserver1;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationKVP;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClusterEventPropagatorTest extends Assert{
+
+    private final List<ClusterEventPropagator> nodes = new CopyOnWriteArrayList<ClusterEventPropagator>();
+    
+    @After
+    public void stopNodes(){
+        for(ClusterEventPropagator node : nodes){
+            node.destroy();
+        }
+    }
+    
+    /**
+     * An update on a node must reach the subscribers of the depots of the other nodes, without being broadcast again
+     */
+    @Test
+    public void loopbackPropagationTest() throws Exception{
+        MockEventsManagerConfigDepot depotA = new MockEventsManagerConfigDepot();
+        MockEventsManagerConfigDepot depotB = new MockEventsManagerConfigDepot();
+        MockObserver1 observerA = new MockObserver1();
+        MockObserver1 observerB = new MockObserver1();
+        ClusterEventPropagator nodeA = startNode("nodeA", depotA, observerA, loopback());
+        ClusterEventPropagator nodeB = startNode("nodeB", depotB, observerB, loopback());
+        
+        depotA.updateExistingConfiguration(new OSDIConfigurationKVP("test1", "instance1"));
+        assertTrue(observerB.configUpdatedHandled);
+        assertFalse(observerB.newConfigHandled);
+        assertEquals(1, nodeA.getPublished());
+        assertEquals(1, nodeB.getReceived());
+        // the remote event is not propagated back
+        assertEquals(0, nodeB.getPublished());
+        assertEquals(1, nodeA.getPublished());
+        
+        depotB.addNewConfiguration(new OSDIConfigurationKVP("test1", "instance2"));
+        assertTrue(observerA.newConfigHandled);
+        assertEquals(1, nodeB.getPublished());
+        assertEquals(1, nodeA.getReceived());
+    }
+    
+    /**
+     * Only an event already received from the same node must be discarded
+     */
+    @Test
+    public void duplicatedEventTest() throws Exception{
+        MockEventsManagerConfigDepot depotA = new MockEventsManagerConfigDepot();
+        MockObserver1 observerA = new MockObserver1();
+        ClusterEventPropagator nodeA = startNode("nodeA", depotA, observerA, loopback());
+        
+        OSDIEvent event = new OSDIEvent("1", "test1", "instance1");
+        nodeA.eventReceived(new ClusterEvent(TYPE.UPDATED, "nodeB", 5, event));
+        assertTrue(observerA.configUpdatedHandled);
+        // a lower version from another node is still an invalidation to deliver
+        observerA.configUpdatedHandled = false;
+        nodeA.eventReceived(new ClusterEvent(TYPE.UPDATED, "nodeC", 4, event));
+        assertTrue(observerA.configUpdatedHandled);
+        
+        observerA.configUpdatedHandled = false;
+        nodeA.eventReceived(new ClusterEvent(TYPE.UPDATED, "nodeB", 5, event));
+        assertFalse(observerA.configUpdatedHandled);
+        assertEquals(1, nodeA.getDiscarded());
+        
+        // an event of the same node received out of order
+        nodeA.eventReceived(new ClusterEvent(TYPE.UPDATED, "nodeB", 4, event));
+        assertTrue(observerA.configUpdatedHandled);
+        assertEquals(1, nodeA.getDiscarded());
+    }
+    
+    /**
+     * The events written in the shared directory must be read by the other nodes
+     */
+    @Test
+    public void sharedDirectoryTest() throws Exception{
+        File directory = File.createTempFile("cluster", "");
+        directory.delete();
+        SharedDirectoryClusterChannel channelA = sharedDirectory(directory);
+        SharedDirectoryClusterChannel channelB = sharedDirectory(directory);
+        final List<ClusterEvent> receivedByA = new CopyOnWriteArrayList<ClusterEvent>();
+        final List<ClusterEvent> receivedByB = new CopyOnWriteArrayList<ClusterEvent>();
+        channelA.connect("nodeA", new ClusterChannelListener() {
+            @Override
+            public void eventReceived(ClusterEvent event) {
+                receivedByA.add(event);
+            }
+        });
+        channelB.connect("nodeB", new ClusterChannelListener() {
+            @Override
+            public void eventReceived(ClusterEvent event) {
+                receivedByB.add(event);
+            }
+        });
+        try{
+            OSDIEvent event = new OSDIEvent("1", "test1", "instance1");
+            event.setEventMessage("updated");
+            channelA.broadcast(new ClusterEvent(TYPE.UPDATED, "nodeA", 3, event));
+            for(int i = 0; i < 200 && receivedByB.isEmpty(); i++){
+                Thread.sleep(10);
+            }
+            assertEquals(1, receivedByB.size());
+            ClusterEvent received = receivedByB.get(0);
+            assertEquals("nodeA", received.getNodeID());
+            assertEquals(3, received.getVersion());
+            assertEquals("instance1", received.getInstanceID());
+            assertEquals("updated", received.toOSDIEvent().getEventMessage());
+            Thread.sleep(100);
+            assertTrue(receivedByA.isEmpty());
+            assertEquals(1, receivedByB.size());
+        }finally{
+            channelA.close();
+            channelB.close();
+            for(File file : directory.listFiles()){
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+    
+    private ClusterEventPropagator startNode(String nodeID, MockEventsManagerConfigDepot depot, MockObserver1 observer, LoopbackClusterChannel channel){
+        depot.setDao(null);
+        depot.setSubscriberListManager(new SubscriberListManager(0, 0, 0));
+        ClusterEventPropagator node = new ClusterEventPropagator();
+        node.setNodeID(nodeID);
+        node.setDepot(depot);
+        node.setChannel(channel);
+        depot.subscribe(observer);
+        node.init();
+        nodes.add(node);
+        return node;
+    }
+    
+    private LoopbackClusterChannel loopback(){
+        LoopbackClusterChannel channel = new LoopbackClusterChannel();
+        channel.setClusterName(getClass().getName());
+        return channel;
+    }
+    
+    private static SharedDirectoryClusterChannel sharedDirectory(File directory){
+        SharedDirectoryClusterChannel channel = new SharedDirectoryClusterChannel();
+        channel.setDirectory(directory);
+        channel.setPollInterval(10);
+        return channel;
+    }
+}
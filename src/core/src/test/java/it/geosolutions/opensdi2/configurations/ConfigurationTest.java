@@ -24,8 +24,11 @@ import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationExcep
 import it.geosolutions.opensdi2.configurations.mockclasses.MockObserver1;
 import it.geosolutions.opensdi2.configurations.mockclasses.MockObserver2;
 import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationKVP;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationSchema;
 import it.geosolutions.opensdi2.configurations.services.PublisherConfigDepot;
 
+import java.util.Arrays;
+
 import javax.servlet.http.HttpServletRequest;
 
 import org.junit.Assert;
@@ -57,7 +60,7 @@ public class ConfigurationTest extends Assert{
      * Test for basics checks of the spring app-context loading and proper event propagation
      */
     @Test
-    public void basicTest(){
+    public void basicTest() throws InterruptedException{
         if(depot == null || mockObs1 == null || mockObs2 == null){
             fail();
         }
@@ -74,6 +77,10 @@ public class ConfigurationTest extends Assert{
         } catch (OSDIConfigurationException e) {
             fail();
         }
+        // the events are delivered asynchronously
+        for(int i = 0; i < 100 && !(mockObs1.newConfigHandled && mockObs2.newConfigHandled); i++){
+            Thread.sleep(50);
+        }
         assertTrue(mockObs1.newConfigHandled);
         assertTrue(mockObs2.newConfigHandled);
         
@@ -84,6 +91,9 @@ public class ConfigurationTest extends Assert{
         } catch (OSDIConfigurationException e) {
             fail();
         }
+        for(int i = 0; i < 100 && !(mockObs1.configUpdatedHandled && mockObs2.configUpdatedHandled); i++){
+            Thread.sleep(50);
+        }
         assertTrue(mockObs1.configUpdatedHandled);
         assertTrue(mockObs2.configUpdatedHandled);
         
@@ -130,6 +140,58 @@ public class ConfigurationTest extends Assert{
         fail();
     }
     
+    /**
+     * Checks the typed accessors and the schema validation
+     */
+    @Test
+    public void typedValuesTest(){
+        OSDIConfigurationKVP config = new OSDIConfigurationKVP("scope","instance");
+        config.addNew("int", " 42 ");
+        config.addNew("bool", "yes");
+        config.addNew("list", "a, b,c");
+        config.addNew("splitList", Arrays.asList("x", "y"));
+        config.addNew("duration", "5m");
+        config.addNew("wrong", "abc");
+        
+        assertEquals(42, config.getInt("int", 0));
+        assertEquals(42L, config.getLong("int", 0));
+        assertEquals(7, config.getInt("missing", 7));
+        assertTrue(config.getBoolean("bool", false));
+        assertEquals(Arrays.asList("a", "b", "c"), config.getList("list"));
+        assertEquals("x,y", config.getString("splitList", null));
+        assertEquals(300000L, config.getDuration("duration", 0));
+        assertTrue(config.getList("missing").isEmpty());
+        
+        config.addNew("int", "43");
+        assertEquals(43, config.getInt("int", 0));
+        
+        try{
+            config.getInt("wrong", 0);
+            fail();
+        }catch(IllegalArgumentException e){
+            // not a number
+        }
+        
+        OSDIConfigurationSchema schema = new OSDIConfigurationSchema();
+        schema.add("int", OSDIConfigurationSchema.Type.INT, true);
+        schema.add("duration", OSDIConfigurationSchema.Type.DURATION, false);
+        schema.apply(config);
+        schema.add("wrong", OSDIConfigurationSchema.Type.LONG, false);
+        try{
+            schema.apply(config);
+            fail();
+        }catch(IllegalArgumentException e){
+            // not a number
+        }
+        schema = new OSDIConfigurationSchema().add("absent", OSDIConfigurationSchema.Type.STRING, true);
+        try{
+            schema.apply(config);
+            fail();
+        }catch(IllegalArgumentException e){
+            // mandatory parameter missing
+        }
+    }
+    
     /**
      * Check if the scopeID is well extracted from the path
      */
@@ -184,6 +246,40 @@ public class ConfigurationTest extends Assert{
         }
     }
     
+    /**
+     * Check if the fragments are well extracted from the path
+     */
+    @Test
+    public void pathFragmentTest(){
+        
+        MockHttpServletRequest req = new MockHttpServletRequest();
+        MockModule mm = new MockModule();
+        
+        req.setPathInfo("/moduleid/instanceid/");
+        assertEquals("moduleid", mm.getPathFragmentTest(req, 0));
+        assertEquals("instanceid", mm.getPathFragmentTest(req, 1));
+        
+        req.setPathInfo("moduleid//instanceid");
+        assertEquals("instanceid", mm.getPathFragmentTest(req, 1));
+        assertEquals("instanceid", mm.getPathFragmentTest(req, 2));
+        
+        req.setPathInfo("");
+        assertNull(mm.getPathFragmentTest(req, 0));
+        
+        String[] wrongPaths = {"moduleid/", "///", "/"};
+        int[] indexes = {1, 0, 1};
+        for(int i = 0; i < wrongPaths.length; i++){
+            req.setPathInfo(wrongPaths[i]);
+            try{
+                mm.getPathFragmentTest(req, indexes[i]);
+                fail(wrongPaths[i]);
+            }
+            catch(IllegalArgumentException ise){
+                assertEquals("no fragment is found... this should never happen...", ise.getMessage());
+            }
+        }
+    }
+    
     @Test
     public void nullOrEmptyInstanceIDTest() throws OSDIConfigurationException{
         MockHttpServletRequest req = new MockHttpServletRequest();
@@ -229,6 +325,10 @@ public class ConfigurationTest extends Assert{
             return super.getScopeID(req);
         }
         
+        protected String getPathFragmentTest(HttpServletRequest req, int index){
+            return super.getPathFragment(req, index);
+        }
+        
         public void setDepot(){
             super.depot = depot;
         }
@@ -0,0 +1,211 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations;
+
+import it.geosolutions.opensdi2.configurations.dao.JournalDAO;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationDuplicatedIDException;
+import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationNotFoundException;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
+import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationKVP;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournalDAOTest extends Assert{
+
+    private JournalDAO journalDAO;
+    private File journalFile;
+    
+    @Before
+    public void initJournal() throws Exception{
+        journalFile = File.createTempFile("configurations", ".journal");
+        journalFile.delete();
+        journalDAO = openJournal();
+        
+        OSDIConfigurationKVP conf1 = new OSDIConfigurationKVP("test1", "instance1");
+        conf1.addNew("key1", "test1_value1_instance1");
+        conf1.addNew("key2", "test1_value2_instance1");
+        conf1.addNew("key3", "test1_value3_instance1");
+        conf1.addNew("key4", Arrays.asList("test1_value4_instance1", "test1_value5_instance1"));
+        journalDAO.save(conf1);
+        
+        OSDIConfigurationKVP conf2 = new OSDIConfigurationKVP("test1", "instance2");
+        conf2.addNew("key1", "test1_value1_instance2");
+        journalDAO.save(conf2);
+        
+        OSDIConfigurationKVP conf3 = new OSDIConfigurationKVP("test2", "instance1");
+        conf3.addNew("key1", "test2_value1_instance1");
+        conf3.addNew("key2", "test2_value2_instance1");
+        journalDAO.save(conf3);
+    }
+    
+    @After
+    public void cleanJournal(){
+        journalDAO.destroy();
+        journalFile.delete();
+    }
+    
+    private JournalDAO openJournal(){
+        JournalDAO dao = new JournalDAO();
+        dao.setJournalFile(journalFile);
+        dao.setScopes(new HashSet<String>(Arrays.asList("test1", "test2")));
+        dao.init();
+        return dao;
+    }
+    
+    @Test
+    public void loadTest() throws OSDIConfigurationNotFoundException{
+        OSDIConfiguration config11 = journalDAO.load("test1", "instance1");
+        assertEquals(4, ((OSDIConfigurationKVP)config11).getNumberOfProperties());
+        assertEquals("test1_value3_instance1", ((OSDIConfigurationKVP)config11).getValue("key3"));
+        assertEquals(Arrays.asList("test1_value4_instance1", "test1_value5_instance1"), ((OSDIConfigurationKVP)config11).getValue("key4"));
+        assertEquals(new HashSet<String>(Arrays.asList("instance1", "instance2")), journalDAO.listInstances("test1"));
+        
+        try{
+            journalDAO.load("test6", "instance1");
+            fail();
+        }catch(OSDIConfigurationNotFoundException e){
+            assertEquals("No resource (Module or instance config) with ID 'test6' has been found. Check if the modules/instance naming conventions have been properly followed.", e.getMessage());
+        }
+        try{
+            journalDAO.load("test2", "instaNce4");
+            fail();
+        }catch(OSDIConfigurationNotFoundException e){
+            assertEquals("No resource (Module or instance config) with ID 'instaNce4' has been found. Check if the modules/instance naming conventions have been properly followed.", e.getMessage());
+        }
+    }
+    
+    @Test
+    public void saveTest() throws Exception{
+        try{
+            journalDAO.save(new OSDIConfigurationKVP("test1", "instance1"));
+            fail();
+        }catch(OSDIConfigurationDuplicatedIDException e){
+            // already present
+        }
+        try{
+            journalDAO.save(new OSDIConfigurationKVP("test5", "instance1"));
+            fail();
+        }catch(OSDIConfigurationNotFoundException e){
+            // unknown module
+        }
+    }
+    
+    @Test
+    public void updateTest() throws Exception{
+        OSDIConfigurationKVP config21 = (OSDIConfigurationKVP)journalDAO.load("test2", "instance1");
+        assertFalse(journalDAO.merge(config21));
+        config21.addNew("key2", "newValue2");
+        config21.addNew("newKey1", "newValue1");
+        assertTrue(journalDAO.merge(config21));
+        config21 = (OSDIConfigurationKVP)journalDAO.load("test2", "instance1");
+        assertEquals(3, config21.getNumberOfProperties());
+        assertEquals("newValue2", config21.getValue("key2"));
+        journalDAO.delete("test1", "instance2");
+        assertEquals(new HashSet<String>(Arrays.asList("instance1")), journalDAO.listInstances("test1"));
+    }
+    
+    /**
+     * The journal must rebuild the same configurations, skipping a record left incomplete
+     */
+    @Test
+    public void reopenTest() throws Exception{
+        OSDIConfigurationKVP config21 = new OSDIConfigurationKVP("test2", "instance1");
+        config21.addNew("key2", "newValue2");
+        journalDAO.merge(config21);
+        journalDAO.delete("test1", "instance2");
+        journalDAO.destroy();
+        
+        // simulate a crash in the middle of a write
+        RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+        raf.seek(raf.length());
+        raf.writeInt(1000);
+        raf.writeLong(0);
+        raf.write(new byte[10]);
+        raf.close();
+        long damagedLength = journalFile.length();
+        
+        journalDAO = openJournal();
+        assertTrue(journalFile.length() < damagedLength);
+        assertEquals("newValue2", ((OSDIConfigurationKVP)journalDAO.load("test2", "instance1")).getValue("key2"));
+        assertEquals(new HashSet<String>(Arrays.asList("instance1")), journalDAO.listInstances("test1"));
+        assertEquals(4, ((OSDIConfigurationKVP)journalDAO.load("test1", "instance1")).getNumberOfProperties());
+    }
+    
+    /**
+     * The journal must be rewritten when the records outnumber the configurations
+     */
+    @Test
+    public void compactionTest() throws Exception{
+        journalDAO.setCompactionThreshold(10);
+        for(int i = 0; i < 50; i++){
+            OSDIConfigurationKVP config = new OSDIConfigurationKVP("test1", "instance2");
+            config.addNew("key1", "value" + i);
+            journalDAO.merge(config);
+        }
+        long compactedLength = journalFile.length();
+        journalDAO.destroy();
+        journalDAO = openJournal();
+        assertEquals("value49", ((OSDIConfigurationKVP)journalDAO.load("test1", "instance2")).getValue("key1"));
+        assertEquals(compactedLength, journalFile.length());
+        assertTrue(compactedLength < 50 * 40);
+    }
+    
+    /**
+     * A compaction interrupted after the removal of the old journal must be recovered from the compacted copy
+     */
+    @Test
+    public void interruptedCompactionTest() throws Exception{
+        journalDAO.destroy();
+        File tmpFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        assertTrue(journalFile.renameTo(tmpFile));
+        
+        journalDAO = openJournal();
+        assertTrue(journalFile.exists());
+        assertFalse(tmpFile.exists());
+        assertEquals(new HashSet<String>(Arrays.asList("instance1", "instance2")), journalDAO.listInstances("test1"));
+        assertEquals("test2_value2_instance1", ((OSDIConfigurationKVP)journalDAO.load("test2", "instance1")).getValue("key2"));
+    }
+    
+    /**
+     * An empty journal must get its header before the first record
+     */
+    @Test
+    public void emptyJournalTest() throws Exception{
+        journalDAO.destroy();
+        RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+        raf.setLength(0);
+        raf.close();
+        
+        journalDAO = openJournal();
+        assertEquals(8, journalFile.length());
+        journalDAO.save(new OSDIConfigurationKVP("test1", "instance3"));
+        journalDAO.destroy();
+        journalDAO = openJournal();
+        assertEquals(new HashSet<String>(Arrays.asList("instance3")), journalDAO.listInstances("test1"));
+    }
+}
@@ -30,6 +30,7 @@ import it.geosolutions.opensdi2.configurations.model.converters.PropertiesConfig
 
 import java.io.File;
 
+import org.apache.commons.configuration.PropertiesConfiguration;
 import org.geotools.test.TestData;
 import org.junit.After;
 import org.junit.Assert;
@@ -205,4 +206,66 @@ public class PropertiesDAOTest extends Assert{
         config21 = (OSDIConfigurationKVP)propDAO.load("test2", "instance1");
         assertEquals(5,config21.getNumberOfProperties());
     }
+    
+    /**
+     * The files removed or copied by hand must be seen by the DAO index
+     */
+    @Test
+    public void externalChangesTest() throws Exception{
+        File moduleDir = new File(propDAO.getPropertiesConfigDir(), "mod_test1");
+        File config11 = new File(moduleDir, "config_instance1.properties");
+        File config12 = new File(moduleDir, "config_instanceSaveTest11.properties");
+        new PropertiesConfiguration(config11).save(config12);
+        OSDIConfigurationKVP kvpTrgt = (OSDIConfigurationKVP)propDAO.load("test1", "instanceSaveTest11");
+        assertEquals("test1_value1_instance1", kvpTrgt.getValue("key1"));
+        
+        assertTrue(config12.delete());
+        boolean flag = false;
+        try{
+            propDAO.load("test1", "instanceSaveTest11");
+        }catch(OSDIConfigurationNotFoundException e){
+            flag = true;
+        }
+        if(!flag){
+            fail();
+        }
+    }
+    
+    /**
+     * Concurrent merges on the same configuration must not lose any update
+     */
+    @Test
+    public void concurrentMergeTest() throws Exception{
+        final int threads = 8;
+        final Exception[] errors = new Exception[threads];
+        Thread[] workers = new Thread[threads];
+        for(int i = 0; i < threads; i++){
+            final int index = i;
+            workers[i] = new Thread(){
+                @Override
+                public void run() {
+                    try{
+                        OSDIConfigurationKVP conf = new OSDIConfigurationKVP("test1", "instance1");
+                        conf.addNew("mergeKey" + index, "mergeValue" + index);
+                        propDAO.merge(conf);
+                    }catch(Exception e){
+                        errors[index] = e;
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for(Thread worker : workers){
+            worker.join();
+        }
+        for(Exception e : errors){
+            assertNull(e);
+        }
+        OSDIConfigurationKVP config11 = (OSDIConfigurationKVP)propDAO.load("test1", "instance1");
+        assertEquals(4 + threads, config11.getNumberOfProperties());
+        File[] tmpFiles = new File(propDAO.getPropertiesConfigDir(), "mod_test1").listFiles();
+        for(File file : tmpFiles){
+            assertFalse(file.getName().endsWith(".tmp"));
+        }
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ *  Copyright (C) 2007-2012 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.configurations;
+
+import it.geosolutions.opensdi2.configurations.eventshandling.ConfigDepotSubscriber;
+import it.geosolutions.opensdi2.configurations.eventshandling.Event;
+import it.geosolutions.opensdi2.configurations.eventshandling.OSDIEvent;
+import it.geosolutions.opensdi2.configurations.eventshandling.SubscriberListManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SubscriberListManagerTest extends Assert{
+    
+    /**
+     * Each subscriber must receive the events in order, even if another one fails
+     */
+    @Test
+    public void asynchronousDispatchTest() throws InterruptedException{
+        SubscriberListManager manager = new SubscriberListManager(2, 100, 1000);
+        RecordingSubscriber recorder = new RecordingSubscriber();
+        manager.subscribe(new FailingSubscriber());
+        manager.subscribe(recorder);
+        for(int i = 0; i < 50; i++){
+            Event e = new OSDIEvent("event" + i, "scope", "instance");
+            if(i % 2 == 0){
+                manager.fireNewConfigAddedEvent(e);
+            }else{
+                manager.fireConfigUpdatedEventOccurred(e);
+            }
+        }
+        assertTrue(manager.awaitDispatch(5000));
+        assertEquals(50, recorder.events.size());
+        for(int i = 0; i < 50; i++){
+            assertEquals((i % 2 == 0 ? "added-" : "updated-") + "event" + i, recorder.events.get(i));
+        }
+        manager.shutdown();
+    }
+    
+    /**
+     * Without dispatch threads the subscribers are notified before the fire methods return
+     */
+    @Test
+    public void synchronousDispatchTest(){
+        SubscriberListManager manager = new SubscriberListManager(0, 1, 0);
+        RecordingSubscriber recorder = new RecordingSubscriber();
+        manager.subscribe(recorder);
+        manager.fireNewConfigAddedEvent(new OSDIEvent("event", "scope", "instance"));
+        assertEquals(1, recorder.events.size());
+    }
+    
+    private static class RecordingSubscriber implements ConfigDepotSubscriber{
+        
+        private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public Object newConfigAddedEventHandler(Event event) {
+            events.add("added-" + event.getEventID());
+            return null;
+        }
+
+        @Override
+        public Object configUpdatedEventHandler(Event event) {
+            events.add("updated-" + event.getEventID());
+            return null;
+        }
+    }
+    
+    private static class FailingSubscriber implements ConfigDepotSubscriber{
+
+        @Override
+        public Object newConfigAddedEventHandler(Event event) {
+            throw new IllegalStateException("subscriber failure");
+        }
+
+        @Override
+        public Object configUpdatedEventHandler(Event event) {
+            throw new IllegalStateException("subscriber failure");
+        }
+    }
+}
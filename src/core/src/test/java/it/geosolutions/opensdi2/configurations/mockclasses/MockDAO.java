@@ -26,6 +26,9 @@ import it.geosolutions.opensdi2.configurations.exceptions.OSDIConfigurationNotFo
 import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
 import it.geosolutions.opensdi2.configurations.model.OSDIConfigurationKVP;
 
+import java.util.Collections;
+import java.util.Set;
+
 import org.apache.log4j.Logger;
 
 /**
@@ -55,6 +58,13 @@ public class MockDAO implements ConfigDAO{
         return true;
     }
 
+    @Override
+    public void replace(OSDIConfiguration config) throws OSDIConfigurationNotFoundException,
+            OSDIConfigurationInternalErrorException {
+        
+        LOGGER.info("config: '" + config.getScopeID() + "-" + config.getInstanceID() + "' Replaced!");
+    }
+
     @Override
     public OSDIConfiguration load(String scopeID, String instanceID)
             throws OSDIConfigurationNotFoundException {
@@ -66,6 +76,26 @@ public class MockDAO implements ConfigDAO{
         return osdiConfig;
     }
 
+    @Override
+    public Set<String> listScopes() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void createScope(String scopeID) {
+        LOGGER.info("module: '" + scopeID + "' Created!");
+    }
+
+    @Override
+    public void deleteScope(String scopeID) {
+        LOGGER.info("module: '" + scopeID + "' Deleted!");
+    }
+
+    @Override
+    public Set<String> listInstances(String scopeID) throws OSDIConfigurationNotFoundException {
+        return Collections.emptySet();
+    }
+
     @Override
     public void delete(String scopeID, String instanceID)
             throws OSDIConfigurationNotFoundException, OSDIConfigurationInternalErrorException {
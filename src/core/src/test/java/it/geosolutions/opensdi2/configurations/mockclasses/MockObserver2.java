@@ -32,8 +32,8 @@ public class MockObserver2 implements ConfigDepotSubscriber{
 
     private final static Logger LOGGER = Logger.getLogger(MockObserver2.class);
     
-    public boolean newConfigHandled = false;
-    public boolean configUpdatedHandled = false;
+    public volatile boolean newConfigHandled = false;
+    public volatile boolean configUpdatedHandled = false;
     
     @Override
     public Object newConfigAddedEventHandler(Event event) {
@@ -3,6 +3,9 @@ package it.geosolutions.opensdi2.model.mapping.facade;
 import java.util.Set;
 
 import it.geosolutions.httpproxy.service.ProxyConfig;
+import it.geosolutions.httpproxy.utils.ProxyPolicy;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
 
 /**
  * A bean to wrap ProxyConfig
@@ -22,6 +25,11 @@ public class ProxyConfigBean implements ProxyConfig{
 	private Set<String> hostsWhitelist;
 	private int defaultStreamByteSize;
 	
+	/**
+	 * Policy compiled from the properties, rebuilt only after a setter is called
+	 */
+	private volatile ProxyPolicy policy;
+	
 	public ProxyConfigBean(ProxyConfig proxyConfig) {
 		soTimeout = proxyConfig.getSoTimeout();
 		connectionTimeout = proxyConfig.getConnectionTimeout();
@@ -33,7 +41,7 @@ public class ProxyConfigBean implements ProxyConfig{
 		methodsWhitelist = proxyConfig.getMethodsWhitelist();
 		hostsWhitelist = proxyConfig.getHostsWhitelist();
 		defaultStreamByteSize = proxyConfig.getDefaultStreamByteSize();
-		
+		policy = proxyConfig.getPolicy();
 	}
 
 	public int getMaxTotalConnection() {
@@ -42,42 +50,52 @@ public class ProxyConfigBean implements ProxyConfig{
 
 	public void setMaxTotalConnection(int maxTotalConnection) {
 		this.maxTotalConnection = maxTotalConnection;
+		policy = null;
 	}
 
 	public void setSoTimeout(int soTimeout) {
 		this.soTimeout = soTimeout;
+		policy = null;
 	}
 
 	public void setConnectionTimeout(int connectionTimeout) {
 		this.connectionTimeout = connectionTimeout;
+		policy = null;
 	}
 
 	public void setDefaultMaxConnectionsPerHost(int defaultMaxConnectionsPerHost) {
 		this.defaultMaxConnectionsPerHost = defaultMaxConnectionsPerHost;
+		policy = null;
 	}
 
 	public void setHostnameWhitelist(Set<String> hostnameWhitelist) {
 		this.hostnameWhitelist = hostnameWhitelist;
+		policy = null;
 	}
 
 	public void setMimetypeWhitelist(Set<String> mimetypeWhitelist) {
 		this.mimetypeWhitelist = mimetypeWhitelist;
+		policy = null;
 	}
 
 	public void setReqtypeWhitelist(Set<String> reqtypeWhitelist) {
 		this.reqtypeWhitelist = reqtypeWhitelist;
+		policy = null;
 	}
 
 	public void setMethodsWhitelist(Set<String> methodsWhitelist) {
 		this.methodsWhitelist = methodsWhitelist;
+		policy = null;
 	}
 
 	public void setHostsWhitelist(Set<String> hostsWhitelist) {
 		this.hostsWhitelist = hostsWhitelist;
+		policy = null;
 	}
 
 	public void setDefaultStreamByteSize(int defaultStreamByteSize) {
 		this.defaultStreamByteSize = defaultStreamByteSize;
+		policy = null;
 	}
 
 	@Override
@@ -138,4 +156,18 @@ public class ProxyConfigBean implements ProxyConfig{
 		return defaultStreamByteSize;
 	}
 
+	@Override
+	@JsonIgnore
+	public ProxyPolicy getPolicy() {
+		ProxyPolicy current = policy;
+		if (current == null) {
+			current = new ProxyPolicy(hostnameWhitelist, mimetypeWhitelist,
+					reqtypeWhitelist, methodsWhitelist, hostsWhitelist, soTimeout,
+					connectionTimeout, maxTotalConnection,
+					defaultMaxConnectionsPerHost, defaultStreamByteSize);
+			policy = current;
+		}
+		return current;
+	}
+
 }
@@ -0,0 +1,215 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.mvc;
+
+import it.geosolutions.opensdi2.configurations.model.OSDIConfiguration;
+import it.geosolutions.opensdi2.configurations.services.BulkConfigDepot;
+import it.geosolutions.opensdi2.configurations.services.ConfigDepot;
+import it.geosolutions.opensdi2.configurations.services.ConfigurationArchive;
+import it.geosolutions.opensdi2.configurations.services.ConfigurationArchive.FORMAT;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Export all the module configurations of this node as a single archive and
+ * import them on another node, creating the modules it doesn't have yet. If a
+ * configuration can't be stored the ones already stored are rolled back on a
+ * best-effort basis: the error message lists any configuration that couldn't
+ * be restored.
+ * 
+ */
+@Controller
+@RequestMapping("/admin/configurations")
+public class ConfigurationBulkController {
+
+	private final static Logger LOGGER = Logger
+			.getLogger(ConfigurationBulkController.class);
+
+	@Autowired
+	private ConfigDepot depot;
+
+	/**
+	 * Maximum bytes of an imported archive, both as uploaded and uncompressed
+	 */
+	private long maxArchiveSize = ConfigurationArchive.DEFAULT_MAX_SIZE;
+
+	/**
+	 * Maximum bytes of a single imported configuration
+	 */
+	private int maxEntrySize = ConfigurationArchive.DEFAULT_MAX_ENTRY_SIZE;
+
+	/**
+	 * Maximum number of imported configurations
+	 */
+	private int maxEntries = ConfigurationArchive.DEFAULT_MAX_ENTRIES;
+
+	/**
+	 * Write all the configurations as a ZIP of properties files or as NDJSON
+	 * 
+	 * @param format
+	 *            <code>zip</code> (default) or <code>ndjson</code>
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "/export", method = RequestMethod.GET)
+	public void export(
+			@RequestParam(value = "format", required = false, defaultValue = "zip") String format,
+			HttpServletResponse response) throws IOException {
+		BulkConfigDepot bulkDepot = getBulkDepot(response);
+		FORMAT archiveFormat = getFormat(format, response);
+		if (bulkDepot == null || archiveFormat == null) {
+			return;
+		}
+		if (archiveFormat == FORMAT.ZIP) {
+			response.setContentType("application/zip");
+			response.setHeader("Content-Disposition",
+					"attachment; filename=\"configurations.zip\"");
+		} else {
+			response.setContentType("application/x-ndjson");
+			response.setCharacterEncoding("UTF-8");
+			response.setHeader("Content-Disposition",
+					"attachment; filename=\"configurations.ndjson\"");
+		}
+		try {
+			int count = ConfigurationArchive.write(bulkDepot, archiveFormat,
+					response.getOutputStream());
+			LOGGER.info(count + " configurations exported");
+		} catch (Exception e) {
+			LOGGER.error("Error exporting the configurations", e);
+			if (!response.isCommitted()) {
+				response.reset();
+				response.sendError(
+						HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+						e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Import the configurations found in the request body
+	 * 
+	 * @param format
+	 *            <code>zip</code> (default) or <code>ndjson</code>
+	 * @param replace
+	 *            true to replace the configurations already present
+	 * @param request
+	 * @param response
+	 * @return a summary of the import
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "/import", method = RequestMethod.POST)
+	public @ResponseBody
+	Map<String, Object> importConfigurations(
+			@RequestParam(value = "format", required = false, defaultValue = "zip") String format,
+			@RequestParam(value = "replace", required = false, defaultValue = "false") boolean replace,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		BulkConfigDepot bulkDepot = getBulkDepot(response);
+		FORMAT archiveFormat = getFormat(format, response);
+		if (bulkDepot == null || archiveFormat == null) {
+			// the error has already been sent
+			return null;
+		}
+		Map<String, Object> result = new HashMap<String, Object>();
+		if (request.getContentLength() > maxArchiveSize) {
+			response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			result.put("success", false);
+			result.put("message", "The archive exceeds " + maxArchiveSize
+					+ " bytes");
+			return result;
+		}
+		try {
+			List<OSDIConfiguration> configs = ConfigurationArchive.read(
+					archiveFormat, request.getInputStream(), maxArchiveSize,
+					maxEntrySize, maxEntries);
+			bulkDepot.importConfigurations(configs, replace);
+			result.put("success", true);
+			result.put("count", configs.size());
+			LOGGER.info(configs.size() + " configurations imported");
+		} catch (Exception e) {
+			LOGGER.error("Error importing the configurations", e);
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			result.put("success", false);
+			result.put("message", e.getMessage());
+		}
+		return result;
+	}
+
+	/**
+	 * @param maxArchiveSize
+	 *            maximum bytes of an imported archive, both as uploaded and
+	 *            uncompressed
+	 */
+	public void setMaxArchiveSize(long maxArchiveSize) {
+		this.maxArchiveSize = maxArchiveSize;
+	}
+
+	/**
+	 * @param maxEntrySize
+	 *            maximum bytes of a single imported configuration
+	 */
+	public void setMaxEntrySize(int maxEntrySize) {
+		this.maxEntrySize = maxEntrySize;
+	}
+
+	/**
+	 * @param maxEntries
+	 *            maximum number of imported configurations
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	private BulkConfigDepot getBulkDepot(HttpServletResponse response)
+			throws IOException {
+		if (!(depot instanceof BulkConfigDepot)) {
+			response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED,
+					"The configuration depot doesn't support bulk operations");
+			return null;
+		}
+		return (BulkConfigDepot) depot;
+	}
+
+	private FORMAT getFormat(String format, HttpServletResponse response)
+			throws IOException {
+		try {
+			return FORMAT.valueOf(format.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Unknown format '" + format + "', use zip or ndjson");
+			return null;
+		}
+	}
+
+}
@@ -84,6 +84,26 @@ public class EndpointDocController implements
 		return response;
 	}
 
+	@RequestMapping(value = "facadestatus", method = RequestMethod.GET)
+	public @ResponseBody
+	CRUDResponseWrapper<Map<String,Object>> listfacadestatus(Integer start, Integer limit)
+			throws RESTControllerException {
+		CRUDResponseWrapper<Map<String,Object>> response = new CRUDResponseWrapper<Map<String,Object>>();
+		Map<String,Map<String,Object>> results = urlFacade.getUpstreamStatus();
+		List<Map<String,Object>> list = new ArrayList<Map<String,Object>>(); 
+		for(String key : results.keySet()){
+			Map<String,Object> obj = new HashMap<String,Object>();
+			obj.put("path",key);
+			obj.put("urlWrapped",urlFacade.getUrlsWrapped().get(key));
+			obj.put("status",results.get(key));
+			list.add(obj);
+		}
+		response.setData(list);
+		response.setCount(list.size());
+		response.setTotalCount(list.size());
+		return response;
+	}
+
 	private ProxyConfig getProxyConfig(ProxyConfig proxyConfig) {
 		return new ProxyConfigBean(proxyConfig);
 	}
@@ -0,0 +1,182 @@
+/*
+ *  OpenSDI Manager 2
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.download;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range of bytes requested with the HTTP Range header
+ */
+public class ByteRange {
+
+	private static final String BYTES_UNIT = "bytes=";
+
+	private static final Comparator<ByteRange> START_ORDER = new Comparator<ByteRange>() {
+		@Override
+		public int compare(ByteRange r1, ByteRange r2) {
+			return r1.start < r2.start ? -1 : r1.start == r2.start ? 0 : 1;
+		}
+	};
+
+	private final long start;
+
+	private final long end;
+
+	/**
+	 * @param start
+	 *            the first byte
+	 * @param end
+	 *            the last byte, included
+	 */
+	public ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return the first byte
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the last byte, included
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return the number of bytes
+	 */
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	/**
+	 * @param total
+	 *            the length of the whole file
+	 * @return the value of the Content-Range header for this range
+	 */
+	public String toContentRange(long total) {
+		return "bytes " + start + "-" + end + "/" + total;
+	}
+
+	/**
+	 * Parse a Range header. The ranges not satisfiable for the file length are
+	 * dropped, the overlapping or adjacent ones are merged so each byte of the
+	 * file is sent once.
+	 * 
+	 * @param header
+	 *            the value of the Range header
+	 * @param length
+	 *            the length of the file
+	 * @param maxRanges
+	 *            the maximum number of ranges accepted, once merged
+	 * @return the satisfiable ranges sorted by start, empty if none is
+	 *         satisfiable. null if the header is malformed or asks for too
+	 *         many ranges, so it must be ignored and the whole file sent
+	 */
+	public static List<ByteRange> parse(String header, long length,
+			int maxRanges) {
+		if (header == null || !header.startsWith(BYTES_UNIT)) {
+			return null;
+		}
+		String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+		List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			long start;
+			long end;
+			try {
+				if (dash == 0) {
+					// the last bytes of the file
+					long suffix = Long.parseLong(spec.substring(1));
+					if (suffix < 0) {
+						return null;
+					}
+					if (suffix == 0) {
+						continue;
+					}
+					start = Math.max(0, length - suffix);
+					end = length - 1;
+				} else {
+					start = Long.parseLong(spec.substring(0, dash));
+					end = dash == spec.length() - 1 ? Long.MAX_VALUE : Long
+							.parseLong(spec.substring(dash + 1));
+					if (start < 0 || end < start) {
+						return null;
+					}
+					end = Math.min(end, length - 1);
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (start < length) {
+				ranges.add(new ByteRange(start, end));
+			}
+		}
+		ranges = coalesce(ranges);
+		return ranges.size() > maxRanges ? null : ranges;
+	}
+
+	/**
+	 * Sort the ranges and merge the overlapping or adjacent ones
+	 * 
+	 * @param ranges
+	 * @return the merged ranges sorted by start
+	 */
+	static List<ByteRange> coalesce(List<ByteRange> ranges) {
+		if (ranges.size() < 2) {
+			return ranges;
+		}
+		List<ByteRange> sorted = new ArrayList<ByteRange>(ranges);
+		Collections.sort(sorted, START_ORDER);
+		List<ByteRange> merged = new ArrayList<ByteRange>(sorted.size());
+		ByteRange current = sorted.get(0);
+		for (int i = 1; i < sorted.size(); i++) {
+			ByteRange next = sorted.get(i);
+			if (next.start <= current.end + 1) {
+				if (next.end > current.end) {
+					current = new ByteRange(current.start, next.end);
+				}
+			} else {
+				merged.add(current);
+				current = next;
+			}
+		}
+		merged.add(current);
+		return merged;
+	}
+
+	@Override
+	public String toString() {
+		return start + "-" + end;
+	}
+}
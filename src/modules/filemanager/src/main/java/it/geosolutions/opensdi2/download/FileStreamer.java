@@ -0,0 +1,329 @@
+/*
+ *  OpenSDI Manager 2
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.download;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Write a file, or a part of it, to a servlet response choosing the cheapest
+ * way the container allows:
+ * <ul>
+ * <li>the container <i>sendfile</i> support, when the request advertises it
+ * (Tomcat NIO/APR connectors): the file is sent by the container without
+ * passing through the JVM heap</li>
+ * <li>{@link FileChannel#transferTo(long, long, WritableByteChannel)} when the
+ * servlet output stream is a channel</li>
+ * <li>otherwise a copy through a pooled buffer, so no buffer is allocated for
+ * each request</li>
+ * </ul>
+ * The Content-Length is set as a long so files bigger than 2 GB are served
+ * correctly.
+ */
+public class FileStreamer {
+
+	private final static Logger LOGGER = Logger.getLogger(FileStreamer.class);
+
+	private final static String ASCII = "US-ASCII";
+
+	/**
+	 * Request attribute set by the containers supporting sendfile
+	 */
+	public static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+	public static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+
+	public static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+
+	public static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	private int bufferSize = 64 * 1024;
+
+	private int maxPooledBuffers = 32;
+
+	private long sendfileThreshold = 48 * 1024;
+
+	private boolean sendfileEnabled = true;
+
+	private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * Send a whole file
+	 * 
+	 * @param req
+	 *            the request, used to detect the sendfile support. May be null
+	 * @param resp
+	 * @param file
+	 * @return the number of bytes sent
+	 * @throws IOException
+	 */
+	public long send(HttpServletRequest req, HttpServletResponse resp,
+			File file) throws IOException {
+		return send(req, resp, file, 0, file.length());
+	}
+
+	/**
+	 * Send <code>length</code> bytes of a file starting from
+	 * <code>offset</code>. The Content-Length header is set, the other headers
+	 * must be set by the caller before. The body is not sent to the HEAD
+	 * requests.
+	 * 
+	 * @param req
+	 *            the request, used to detect the sendfile support. May be null
+	 * @param resp
+	 * @param file
+	 * @param offset
+	 * @param length
+	 * @return the number of bytes sent
+	 * @throws IOException
+	 */
+	public long send(HttpServletRequest req, HttpServletResponse resp,
+			File file, long offset, long length) throws IOException {
+		if (!file.isFile() || !file.canRead()) {
+			throw new IOException("The file '" + file + "' can't be read");
+		}
+		resp.setHeader("Content-Length", Long.toString(length));
+		if (length == 0 || isHead(req)) {
+			return 0;
+		}
+		if (isSendfileAvailable(req, length)) {
+			// the container sends the file once this request completes
+			req.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+			req.setAttribute(SENDFILE_START, Long.valueOf(offset));
+			req.setAttribute(SENDFILE_END, Long.valueOf(offset + length));
+			return length;
+		}
+		FileInputStream in = new FileInputStream(file);
+		try {
+			OutputStream out = resp.getOutputStream();
+			long sent = write(in.getChannel(), offset, length, out);
+			out.flush();
+			return sent;
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * Send many ranges of a file as a <code>multipart/byteranges</code>
+	 * response. The Content-Type and Content-Length headers are set, the status
+	 * must be set by the caller. The body is not sent to the HEAD requests.
+	 * 
+	 * @param req
+	 *            the request, may be null
+	 * @param resp
+	 * @param file
+	 * @param ranges
+	 *            the ranges, already checked against the file length
+	 * @param contentType
+	 *            the content type of the file, may be null
+	 * @return the number of bytes of the file sent
+	 * @throws IOException
+	 */
+	public long sendRanges(HttpServletRequest req, HttpServletResponse resp,
+			File file, List<ByteRange> ranges, String contentType)
+			throws IOException {
+		if (!file.isFile() || !file.canRead()) {
+			throw new IOException("The file '" + file + "' can't be read");
+		}
+		long total = file.length();
+		String boundary = Long.toHexString(System.nanoTime())
+				+ Long.toHexString(Double.doubleToLongBits(Math.random()));
+		byte[][] partHeaders = new byte[ranges.size()][];
+		byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(ASCII);
+		long contentLength = trailer.length;
+		for (int i = 0; i < ranges.size(); i++) {
+			ByteRange range = ranges.get(i);
+			StringBuilder partHeader = new StringBuilder();
+			partHeader.append("\r\n--").append(boundary).append("\r\n");
+			if (contentType != null) {
+				partHeader.append("Content-Type: ").append(contentType)
+						.append("\r\n");
+			}
+			partHeader.append("Content-Range: ")
+					.append(range.toContentRange(total)).append("\r\n\r\n");
+			partHeaders[i] = partHeader.toString().getBytes(ASCII);
+			contentLength += partHeaders[i].length + range.getLength();
+		}
+		resp.setContentType("multipart/byteranges; boundary=" + boundary);
+		resp.setHeader("Content-Length", Long.toString(contentLength));
+		if (isHead(req)) {
+			return 0;
+		}
+
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			OutputStream out = resp.getOutputStream();
+			long sent = 0;
+			for (int i = 0; i < ranges.size(); i++) {
+				ByteRange range = ranges.get(i);
+				out.write(partHeaders[i]);
+				sent += write(channel, range.getStart(), range.getLength(), out);
+			}
+			out.write(trailer);
+			out.flush();
+			return sent;
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * @param bufferSize
+	 *            the size of the buffers used to copy the files
+	 */
+	public void setBufferSize(int bufferSize) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException(
+					"The buffer size must be greater than 0");
+		}
+		this.bufferSize = bufferSize;
+		buffers.clear();
+		pooled.set(0);
+	}
+
+	/**
+	 * @param maxPooledBuffers
+	 *            the maximum number of idle buffers retained
+	 */
+	public void setMaxPooledBuffers(int maxPooledBuffers) {
+		this.maxPooledBuffers = maxPooledBuffers;
+	}
+
+	/**
+	 * @param sendfileThreshold
+	 *            the minimum number of bytes sent through the container
+	 *            sendfile support, smaller files are copied
+	 */
+	public void setSendfileThreshold(long sendfileThreshold) {
+		this.sendfileThreshold = sendfileThreshold;
+	}
+
+	/**
+	 * @param sendfileEnabled
+	 *            false to never use the container sendfile support
+	 */
+	public void setSendfileEnabled(boolean sendfileEnabled) {
+		this.sendfileEnabled = sendfileEnabled;
+	}
+
+	private boolean isSendfileAvailable(HttpServletRequest req, long length) {
+		return sendfileEnabled && req != null && length >= sendfileThreshold
+				&& Boolean.TRUE.equals(req.getAttribute(SENDFILE_SUPPORT));
+	}
+
+	private static boolean isHead(HttpServletRequest req) {
+		return req != null && "HEAD".equals(req.getMethod());
+	}
+
+	private long write(FileChannel channel, long offset, long length,
+			OutputStream out) throws IOException {
+		if (out instanceof WritableByteChannel) {
+			return transfer(channel, offset, length, (WritableByteChannel) out);
+		}
+		return copy(channel, offset, length, out);
+	}
+
+	private long transfer(FileChannel channel, long offset, long length,
+			WritableByteChannel target) throws IOException {
+		long position = offset;
+		long end = offset + length;
+		while (position < end) {
+			long transferred = channel.transferTo(position, end - position,
+					target);
+			if (transferred <= 0) {
+				throw new EOFException("The file ended at " + position
+						+ " while " + end + " bytes were expected");
+			}
+			position += transferred;
+		}
+		return length;
+	}
+
+	private long copy(FileChannel channel, long offset, long length,
+			OutputStream out) throws IOException {
+		byte[] buffer = acquire();
+		try {
+			ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+			long position = offset;
+			long end = offset + length;
+			while (position < end) {
+				byteBuffer.clear();
+				byteBuffer.limit((int) Math.min(buffer.length, end - position));
+				int read = channel.read(byteBuffer, position);
+				if (read < 0) {
+					throw new EOFException("The file ended at " + position
+							+ " while " + end + " bytes were expected");
+				}
+				out.write(buffer, 0, read);
+				position += read;
+			}
+			return length;
+		} finally {
+			release(buffer);
+		}
+	}
+
+	private static void close(FileInputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			LOGGER.warn(e.getMessage());
+		}
+	}
+
+	private byte[] acquire() {
+		byte[] buffer = buffers.poll();
+		if (buffer != null) {
+			pooled.decrementAndGet();
+			return buffer;
+		}
+		return new byte[bufferSize];
+	}
+
+	private void release(byte[] buffer) {
+		if (buffer.length != bufferSize) {
+			return;
+		}
+		if (pooled.incrementAndGet() <= maxPooledBuffers) {
+			buffers.offer(buffer);
+		} else {
+			pooled.decrementAndGet();
+		}
+	}
+}
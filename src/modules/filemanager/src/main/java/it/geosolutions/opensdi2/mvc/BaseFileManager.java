@@ -23,7 +23,11 @@ package it.geosolutions.opensdi2.mvc;
 import static it.geosolutions.opensdi2.utils.ResponseConstants.RESULTS;
 import static it.geosolutions.opensdi2.utils.ResponseConstants.ROOT;
 import static it.geosolutions.opensdi2.utils.ResponseConstants.SUCCESS;
+import it.geosolutions.opensdi2.download.ByteRange;
+import it.geosolutions.opensdi2.download.FileStreamer;
 import it.geosolutions.opensdi2.service.FileUploadService;
+import it.geosolutions.opensdi2.service.ResumableUploadException;
+import it.geosolutions.opensdi2.service.ResumableUploadService;
 import it.geosolutions.opensdi2.utils.ControllerUtils;
 import it.geosolutions.opensdi2.utils.ResponseConstants;
 
@@ -31,11 +35,9 @@ import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -44,6 +46,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.imageio.ImageIO;
+import javax.xml.bind.DatatypeConverter;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.swing.ImageIcon;
@@ -72,6 +75,50 @@ public class BaseFileManager extends AbstractFileController {
 	
 	private FileUploadService fileUploadService;
 
+	private ResumableUploadService resumableUploadService;
+
+	/**
+	 * Writes the files to the responses
+	 */
+	private FileStreamer fileStreamer = new FileStreamer();
+
+	/**
+	 * Maximum number of ranges served for a single request, the requests
+	 * asking for more ranges get the whole file
+	 */
+	protected static final int MAX_RANGES = 16;
+
+	/**
+	 * Optional request parameter with the ID of a chunked upload
+	 */
+	public static final String UPLOAD_ID_PARAM = "uploadId";
+
+	/**
+	 * Response header with the ID of a chunked upload
+	 */
+	public static final String UPLOAD_ID_HEADER = "X-Upload-Id";
+
+	/**
+	 * Version of the resumable upload protocol (tus)
+	 */
+	public static final String TUS_VERSION = "1.0.0";
+
+	/**
+	 * Metadata of the resumable uploads with the canonical root directory of
+	 * the controller that created them
+	 */
+	private static final String RESUMABLE_ROOT = "rootDir";
+
+	/**
+	 * Metadata of the resumable uploads with the canonical target file
+	 */
+	private static final String RESUMABLE_TARGET = "target";
+
+	/**
+	 * Content type of the resumable upload appends
+	 */
+	public static final String TUS_CONTENT_TYPE = "application/offset+octet-stream";
+
 	/**
 	 * Default width for thumb
 	 */
@@ -188,7 +235,7 @@ public class BaseFileManager extends AbstractFileController {
 		if (EXTJS_FILE_DELETE.equals(action)) {
 			result.put(SUCCESS, deleteFile(rootDir, file, finalFolder));
 		} else if (EXTJS_FILE_DOWNLOAD.equals(action)) {
-			download(response, file, getFilePath(rootDir, file, finalFolder));
+			download(request, response, file, getFilePath(rootDir, file, finalFolder));
 			return null;
 		} else if (EXTJS_FILE_LIST.equals(action)) {
 			return getFileList(rootDir, folder);
@@ -198,6 +245,7 @@ public class BaseFileManager extends AbstractFileController {
 			result.put(SUCCESS, renameFolder(rootDir, finalFolder, name, oldName));
 		} else if (EXTJS_FILE_THUMB.equals(action)) {
 			serveImageThumb(
+					request,
 					response,
 					file,
 					getFilePath(rootDir, file, finalFolder));
@@ -206,6 +254,7 @@ public class BaseFileManager extends AbstractFileController {
 			download(
 					"image/" + ControllerUtils.getExtension(file),
 					null,
+					request,
 					response,
 					file,
 					getFilePath(rootDir, file, finalFolder));
@@ -262,14 +311,17 @@ public class BaseFileManager extends AbstractFileController {
 
 	    if (chunks > 0) {
 	        // init bytes for the chunk upload
-	        Entry<String, ?> entry = fileUploadService.addChunk(name, chunks,
+	        Entry<String, ?> entry = fileUploadService.addChunk(
+	                request.getParameter(UPLOAD_ID_PARAM), name, chunks,
 	                chunk, file);
 	        if (entry == null) {
 	            String msg = "Expired file upload dor file " + name;
 	            LOGGER.error(msg);
 	            throw new IOException(msg);
 	        }
-	        if (chunk == chunks - 1) {
+	        // clients can send it back to avoid the match by file name
+	        servletResponse.setHeader(UPLOAD_ID_HEADER, entry.getKey());
+	        if (fileUploadService.isComplete(entry)) {
 	            // get the final file
 	        	fileUploadService.getCompletedFile(name, getFilePath(rootDir, name, folder), entry);
 	        }
@@ -283,14 +335,303 @@ public class BaseFileManager extends AbstractFileController {
 	}
 
 	/**
-	 * Scheduled every day at 4:00. If an user stop an upload, it
+	 * Scheduled every hour. If an user stop an upload, it
 	 * will be removed from memory
 	 */
-	@Scheduled(cron = "0 0 4 * * ?")
+	@Scheduled(cron = "0 0 * * * ?")
 	public void cleanupUploadedFiles() {
 		fileUploadService.cleanup();
 	}
 
+	/**
+	 * Create a resumable upload. The length is read from the
+	 * <code>Upload-Length</code> header and the file name and folder from the
+	 * <code>filename</code> and <code>folder</code> keys of the
+	 * <code>Upload-Metadata</code> header, or from the <code>name</code> and
+	 * <code>folder</code> parameters. The URL of the upload is returned in the
+	 * <code>Location</code> header.
+	 * 
+	 * @param rootDir
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public void createResumableUpload(String rootDir,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		if (!checkResumable(request, response)) {
+			return;
+		}
+		response.setHeader("Tus-Version", TUS_VERSION);
+		response.setHeader("Tus-Extension", "creation,termination");
+		if (resumableUploadService.getMaxSize() > 0) {
+			response.setHeader("Tus-Max-Size",
+					Long.toString(resumableUploadService.getMaxSize()));
+		}
+		long length;
+		Map<String, String> metadata;
+		try {
+			length = Long.parseLong(request.getHeader("Upload-Length"));
+			metadata = parseUploadMetadata(request.getHeader("Upload-Metadata"));
+		} catch (IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Invalid Upload-Length or Upload-Metadata");
+			return;
+		}
+		Map<String, String> target = new HashMap<String, String>();
+		String name = metadata.containsKey("filename") ? metadata
+				.get("filename") : request.getParameter("name");
+		String folder = metadata.containsKey("folder") ? metadata
+				.get("folder") : request.getParameter("folder");
+		if (name == null || name.length() == 0 || name.contains("/")
+				|| name.contains("\\") || name.equals("..")) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Missing or invalid file name");
+			return;
+		}
+		// the target is resolved once, inside the root directory of this
+		// controller, and saved with the upload
+		File root = new File(rootDir).getCanonicalFile();
+		File file = new File(getFilePath(rootDir, name, folder))
+				.getCanonicalFile();
+		if (!isInside(root, file)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Invalid folder");
+			return;
+		}
+		target.put("filename", name);
+		if (folder != null) {
+			target.put("folder", folder);
+		}
+		target.put(RESUMABLE_ROOT, root.getPath());
+		target.put(RESUMABLE_TARGET, file.getPath());
+		try {
+			String id = resumableUploadService.create(length, target);
+			if (length == 0) {
+				completeResumableUpload(rootDir, id);
+			}
+			String url = request.getRequestURL().toString();
+			response.setHeader("Location", (url.endsWith("/") ? url : url
+					+ "/")
+					+ id);
+			response.setStatus(HttpServletResponse.SC_CREATED);
+		} catch (ResumableUploadException e) {
+			response.sendError(e.getStatus(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Send the offset and the length of a resumable upload in the
+	 * <code>Upload-Offset</code> and <code>Upload-Length</code> headers
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public void getResumableUploadOffset(String id, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		if (!checkResumable(request, response)) {
+			return;
+		}
+		response.setHeader("Cache-Control", "no-store");
+		long offset = resumableUploadService.getOffset(id);
+		if (offset < 0) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		response.setHeader("Upload-Offset", Long.toString(offset));
+		response.setHeader("Upload-Length",
+				Long.toString(resumableUploadService.getLength(id)));
+		response.setStatus(HttpServletResponse.SC_OK);
+	}
+
+	/**
+	 * Append the request body to a resumable upload from the offset in the
+	 * <code>Upload-Offset</code> header. When all the bytes have been received
+	 * the file is moved to its folder.
+	 * 
+	 * @param rootDir
+	 * @param id
+	 *            of the upload
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public void appendResumableUpload(String rootDir, String id,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		if (!checkResumable(request, response)) {
+			return;
+		}
+		String contentType = request.getContentType();
+		if (contentType == null || !contentType.startsWith(TUS_CONTENT_TYPE)) {
+			response.sendError(
+					HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+					"Content type must be " + TUS_CONTENT_TYPE);
+			return;
+		}
+		long offset;
+		try {
+			offset = Long.parseLong(request.getHeader("Upload-Offset"));
+		} catch (NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Invalid Upload-Offset");
+			return;
+		}
+		Map<String, String> metadata = resumableUploadService.getMetadata(id);
+		if (metadata == null
+				|| !new File(rootDir).getCanonicalPath().equals(
+						metadata.get(RESUMABLE_ROOT))) {
+			// unknown here: created by another controller
+			response.sendError(HttpServletResponse.SC_NOT_FOUND,
+					"Unknown upload " + id);
+			return;
+		}
+		try {
+			long newOffset = resumableUploadService.append(id, offset,
+					request.getInputStream());
+			if (newOffset == resumableUploadService.getLength(id)) {
+				completeResumableUpload(rootDir, id);
+			}
+			response.setHeader("Upload-Offset", Long.toString(newOffset));
+			response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+		} catch (ResumableUploadException e) {
+			response.sendError(e.getStatus(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Remove a resumable upload and the bytes received
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public void terminateResumableUpload(String id, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		if (!checkResumable(request, response)) {
+			return;
+		}
+		if (resumableUploadService.terminate(id)) {
+			response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+		} else {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+		}
+	}
+
+	/**
+	 * Dispatch a POST request with the <code>X-HTTP-Method-Override</code>
+	 * header, for the clients that can't send PATCH or DELETE requests
+	 * 
+	 * @param rootDir
+	 * @param id
+	 *            of the upload
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public void overrideResumableUpload(String rootDir, String id,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		String method = request.getHeader("X-HTTP-Method-Override");
+		if ("PATCH".equalsIgnoreCase(method)) {
+			appendResumableUpload(rootDir, id, request, response);
+		} else if ("DELETE".equalsIgnoreCase(method)) {
+			terminateResumableUpload(id, request, response);
+		} else {
+			response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+		}
+	}
+
+	/**
+	 * Move a completed resumable upload to the target resolved on creation
+	 */
+	private void completeResumableUpload(String rootDir, String id)
+			throws IOException {
+		Map<String, String> metadata = resumableUploadService.getMetadata(id);
+		String root = metadata.get(RESUMABLE_ROOT);
+		String target = metadata.get(RESUMABLE_TARGET);
+		if (root == null || target == null
+				|| !root.equals(new File(rootDir).getCanonicalPath())
+				|| !isInside(new File(root), new File(target))) {
+			throw new ResumableUploadException(
+					HttpServletResponse.SC_CONFLICT, "Invalid target for upload "
+							+ id);
+		}
+		resumableUploadService.complete(id, new File(target));
+	}
+
+	/**
+	 * @param root
+	 *            canonical directory
+	 * @param file
+	 *            canonical file
+	 * @return true if the file is inside the directory
+	 */
+	private static boolean isInside(File root, File file) {
+		return file.getPath().startsWith(root.getPath() + File.separator);
+	}
+
+	/**
+	 * Check the service is available and the client speaks the same protocol
+	 * version
+	 * 
+	 * @return false if an error has been sent
+	 */
+	private boolean checkResumable(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		if (resumableUploadService == null) {
+			response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED,
+					"Resumable uploads are not enabled");
+			return false;
+		}
+		response.setHeader("Tus-Resumable", TUS_VERSION);
+		if (!TUS_VERSION.equals(request.getHeader("Tus-Resumable"))) {
+			response.setHeader("Tus-Version", TUS_VERSION);
+			response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED,
+					"Unsupported protocol version");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Parse the <code>Upload-Metadata</code> header: comma separated pairs of
+	 * key and Base64 encoded value
+	 * 
+	 * @param header
+	 * @return the decoded metadata
+	 */
+	protected static Map<String, String> parseUploadMetadata(String header) {
+		Map<String, String> metadata = new HashMap<String, String>();
+		if (header == null) {
+			return metadata;
+		}
+		for (String pair : header.split(",")) {
+			pair = pair.trim();
+			if (pair.length() == 0) {
+				continue;
+			}
+			int space = pair.indexOf(' ');
+			if (space < 0) {
+				metadata.put(pair, "");
+			} else {
+				String value = pair.substring(space + 1).trim();
+				try {
+					metadata.put(pair.substring(0, space), new String(
+							DatatypeConverter.parseBase64Binary(value), "UTF-8"));
+				} catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		return metadata;
+	}
+
 	/**
 	 * Download a file
 	 * 
@@ -306,7 +647,29 @@ public class BaseFileManager extends AbstractFileController {
 			String folder,
 			String file,
 			HttpServletResponse resp) {
+		downloadFile(rootDir, folder, file, null, resp);
+	}
+
+	/**
+	 * Download a file
+	 * 
+	 * @param folder
+	 *            folder for the file
+	 * @param file
+	 *            to be downloaded
+	 * @param req
+	 *            servlet request, may be null
+	 * @param resp
+	 *            servlet response
+	 */
+	public void downloadFile(
+	                String rootDir,
+			String folder,
+			String file,
+			HttpServletRequest req,
+			HttpServletResponse resp) {
 		download(
+				req,
 				resp,
 				file,
 				getFilePath(rootDir, file,
@@ -552,10 +915,8 @@ public class BaseFileManager extends AbstractFileController {
 	}
 
 	/**
-	 * Download a file with a stream
+	 * Serve the thumb of an image, generating it if missing
 	 * 
-	 * @param contentType
-	 * @param contentDisposition
 	 * @param resp
 	 * @param fileName
 	 * @param filePath
@@ -563,31 +924,32 @@ public class BaseFileManager extends AbstractFileController {
 	 */
 	protected ResponseEntity<byte[]> serveImageThumb(HttpServletResponse resp,
 			String fileName, String filePath) {
+		return serveImageThumb(null, resp, fileName, filePath);
+	}
+
+	/**
+	 * Serve the thumb of an image, generating it if missing
+	 * 
+	 * @param req
+	 *            the request, may be null
+	 * @param resp
+	 * @param fileName
+	 * @param filePath
+	 * @return
+	 */
+	protected ResponseEntity<byte[]> serveImageThumb(HttpServletRequest req,
+			HttpServletResponse resp, String fileName, String filePath) {
 
 		String contentType = "image/jpg";
 
 		final HttpHeaders headers = new HttpHeaders();
 		File toServeUp = new File(filePath);
-		InputStream inputStream = null;
 		String thumbPath = filePath + "_thumb";
 		File fileThumb = new File(thumbPath);
 
-		if (fileThumb.exists()) {
+		if (!fileThumb.exists()) {
 			try {
-				inputStream = new FileInputStream(fileThumb);
-			} catch (FileNotFoundException e) {
-
-				// Also useful, this is a good was to serve down an error
-				// message
-				String msg = "ERROR: Could not find the file specified.";
-				headers.setContentType(MediaType.TEXT_PLAIN);
-				return new ResponseEntity<byte[]>(msg.getBytes(), headers,
-						HttpStatus.NOT_FOUND);
-
-			}
-		} else {
-			try {
-				inputStream = getImageThumb(toServeUp, thumbPath);
+				getImageThumb(toServeUp, thumbPath).close();
 				fileThumb = new File(thumbPath);
 			} catch (Exception e) {
 
@@ -604,42 +966,7 @@ public class BaseFileManager extends AbstractFileController {
 		// content type
 		resp.setContentType(contentType);
 
-		Long fileSize = fileThumb.length();
-		resp.setContentLength(fileSize.intValue());
-
-		OutputStream outputStream = null;
-
-		try {
-			outputStream = resp.getOutputStream();
-		} catch (IOException e) {
-			String msg = "ERROR: Could not generate output stream.";
-			headers.setContentType(MediaType.TEXT_PLAIN);
-			return new ResponseEntity<byte[]>(msg.getBytes(), headers,
-					HttpStatus.NOT_FOUND);
-		}
-
-		byte[] buffer = new byte[1024];
-
-		int read = 0;
-		try {
-
-			while ((read = inputStream.read(buffer)) != -1) {
-				outputStream.write(buffer, 0, read);
-			}
-
-			// close the streams to prevent memory leaks
-			outputStream.flush();
-			outputStream.close();
-			inputStream.close();
-
-		} catch (Exception e) {
-			String msg = "ERROR: Could not read file.";
-			headers.setContentType(MediaType.TEXT_PLAIN);
-			return new ResponseEntity<byte[]>(msg.getBytes(), headers,
-					HttpStatus.NOT_FOUND);
-		}
-
-		return null;
+		return send(req, resp, fileThumb, contentType);
 	}
 
 	/**
@@ -679,9 +1006,24 @@ public class BaseFileManager extends AbstractFileController {
 	 */
 	protected ResponseEntity<byte[]> download(HttpServletResponse resp,
 			String fileName, String filePath) {
+		return download(null, resp, fileName, filePath);
+	}
+
+	/**
+	 * Download a file with a stream
+	 * 
+	 * @param req
+	 *            the request, may be null
+	 * @param resp
+	 * @param fileName
+	 * @param filePath
+	 * @return
+	 */
+	protected ResponseEntity<byte[]> download(HttpServletRequest req,
+			HttpServletResponse resp, String fileName, String filePath) {
 
 		return download("application/octet-stream", "attachment; filename=\""
-				+ fileName + "\"", resp, fileName, filePath);
+				+ fileName + "\"", req, resp, fileName, filePath);
 	}
 
 	/**
@@ -697,14 +1039,30 @@ public class BaseFileManager extends AbstractFileController {
 	protected ResponseEntity<byte[]> download(String contentType,
 			String contentDisposition, HttpServletResponse resp,
 			String fileName, String filePath) {
+		return download(contentType, contentDisposition, null, resp,
+				fileName, filePath);
+	}
+
+	/**
+	 * Download a file with a stream
+	 * 
+	 * @param contentType
+	 * @param contentDisposition
+	 * @param req
+	 *            the request, may be null
+	 * @param resp
+	 * @param fileName
+	 * @param filePath
+	 * @return
+	 */
+	protected ResponseEntity<byte[]> download(String contentType,
+			String contentDisposition, HttpServletRequest req,
+			HttpServletResponse resp, String fileName, String filePath) {
 
 		final HttpHeaders headers = new HttpHeaders();
 		File toServeUp = new File(filePath);
-		InputStream inputStream = null;
 
-		try {
-			inputStream = new FileInputStream(toServeUp);
-		} catch (FileNotFoundException e) {
+		if (!toServeUp.isFile()) {
 
 			// Also useful, this is a good was to serve down an error message
 			String msg = "ERROR: Could not find the file specified.";
@@ -724,49 +1082,157 @@ public class BaseFileManager extends AbstractFileController {
 			resp.setHeader("Content-Disposition", contentDisposition);
 		}
 
-		Long fileSize = toServeUp.length();
-		resp.setContentLength(fileSize.intValue());
-
-		OutputStream outputStream = null;
+		return send(req, resp, toServeUp, contentType);
+	}
 
+	/**
+	 * Stream the file to the response with the {@link FileStreamer}. When the
+	 * request is available the ETag and Last-Modified validators are sent and
+	 * the conditional and Range headers are honored:
+	 * <ul>
+	 * <li>304 when the If-None-Match or If-Modified-Since validators match</li>
+	 * <li>206 with a single part or a multipart/byteranges body for the
+	 * requested ranges, unless an If-Range validator doesn't match</li>
+	 * <li>416 when no requested range is satisfiable</li>
+	 * </ul>
+	 * 
+	 * @param req
+	 *            the request, may be null
+	 * @param resp
+	 * @param toServeUp
+	 * @param contentType
+	 *            the content type of the file, may be null
+	 * @return null if the file has been sent, the error otherwise
+	 */
+	private ResponseEntity<byte[]> send(HttpServletRequest req,
+			HttpServletResponse resp, File toServeUp, String contentType) {
 		try {
-			outputStream = resp.getOutputStream();
+			if (req == null) {
+				fileStreamer.send(req, resp, toServeUp);
+				return null;
+			}
+			long length = toServeUp.length();
+			long lastModified = toServeUp.lastModified();
+			String eTag = getETag(length, lastModified);
+			resp.setHeader("ETag", eTag);
+			resp.setDateHeader("Last-Modified", lastModified);
+			resp.setHeader("Accept-Ranges", "bytes");
+
+			boolean getRequest = "GET".equals(req.getMethod())
+					|| "HEAD".equals(req.getMethod());
+			if (getRequest && isNotModified(req, eTag, lastModified)) {
+				resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return null;
+			}
+			List<ByteRange> ranges = null;
+			if (getRequest && isRangeValid(req, eTag, lastModified)) {
+				ranges = ByteRange.parse(req.getHeader("Range"), length,
+						MAX_RANGES);
+			}
+			if (ranges == null) {
+				fileStreamer.send(req, resp, toServeUp);
+			} else if (ranges.isEmpty()) {
+				resp.setHeader("Content-Range", "bytes */" + length);
+				resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			} else if (ranges.size() == 1) {
+				ByteRange range = ranges.get(0);
+				resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				resp.setHeader("Content-Range", range.toContentRange(length));
+				fileStreamer.send(req, resp, toServeUp, range.getStart(),
+						range.getLength());
+			} else {
+				resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				fileStreamer.sendRanges(req, resp, toServeUp, ranges,
+						contentType);
+			}
 		} catch (IOException e) {
-			String msg = "ERROR: Could not generate output stream.";
+			LOGGER.error("Error sending '" + toServeUp + "': " + e.getMessage());
+			String msg = "ERROR: Could not read file.";
+			final HttpHeaders headers = new HttpHeaders();
 			headers.setContentType(MediaType.TEXT_PLAIN);
-			if (inputStream != null) {
-				try {
-					inputStream.close();
-				} catch (IOException e1) {
-					// nothing
-				}
-			}
 			return new ResponseEntity<byte[]>(msg.getBytes(), headers,
 					HttpStatus.NOT_FOUND);
 		}
+		return null;
+	}
 
-		byte[] buffer = new byte[1024];
-
-		int read = 0;
-		try {
+	/**
+	 * @param length
+	 * @param lastModified
+	 * @return a strong entity tag changing with the file size and modification time
+	 */
+	protected static String getETag(long length, long lastModified) {
+		return "\"" + Long.toHexString(length) + "-"
+				+ Long.toHexString(lastModified) + "\"";
+	}
 
-			while ((read = inputStream.read(buffer)) != -1) {
-				outputStream.write(buffer, 0, read);
+	/**
+	 * @return true if the validators of the request match the file, so it
+	 *         doesn't need to be sent again
+	 */
+	private static boolean isNotModified(HttpServletRequest req, String eTag,
+			long lastModified) {
+		String ifNoneMatch = req.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			// the weak comparison is used
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				if (tag.equals("*") || removeWeakPrefix(tag).equals(eTag)) {
+					return true;
+				}
 			}
+			return false;
+		}
+		long ifModifiedSince = getDateHeader(req, "If-Modified-Since");
+		// the HTTP dates have a precision of one second
+		return ifModifiedSince >= 0
+				&& lastModified / 1000 <= ifModifiedSince / 1000;
+	}
 
-			// close the streams to prevent memory leaks
-			outputStream.flush();
-			outputStream.close();
-			inputStream.close();
+	/**
+	 * @return false if the If-Range validator doesn't match the file, so the
+	 *         whole file must be sent instead of the ranges
+	 */
+	private static boolean isRangeValid(HttpServletRequest req, String eTag,
+			long lastModified) {
+		String ifRange = req.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			// the strong comparison is used
+			return ifRange.equals(eTag);
+		}
+		long date = getDateHeader(req, "If-Range");
+		return date >= 0 && lastModified / 1000 == date / 1000;
+	}
 
-		} catch (Exception e) {
-			String msg = "ERROR: Could not read file.";
-			headers.setContentType(MediaType.TEXT_PLAIN);
-			return new ResponseEntity<byte[]>(msg.getBytes(), headers,
-					HttpStatus.NOT_FOUND);
+	private static String removeWeakPrefix(String tag) {
+		return tag.startsWith("W/") ? tag.substring(2) : tag;
+	}
+
+	private static long getDateHeader(HttpServletRequest req, String name) {
+		try {
+			return req.getDateHeader(name);
+		} catch (IllegalArgumentException e) {
+			// a malformed date is ignored
+			return -1;
 		}
+	}
 
-		return null;
+	/**
+	 * @return the fileStreamer
+	 */
+	public FileStreamer getFileStreamer() {
+		return fileStreamer;
+	}
+
+	/**
+	 * @param fileStreamer the fileStreamer to set
+	 */
+	public void setFileStreamer(FileStreamer fileStreamer) {
+		this.fileStreamer = fileStreamer;
 	}
 
 	/**
@@ -783,6 +1249,23 @@ public class BaseFileManager extends AbstractFileController {
 		this.newFolderName = newFolderName;
 	}
 
+	/**
+	 * @return the resumableUploadService
+	 */
+	public ResumableUploadService getResumableUploadService() {
+		return resumableUploadService;
+	}
+
+	/**
+	 * @param resumableUploadService the resumableUploadService to set, the
+	 *        resumable uploads are disabled without it
+	 */
+	@Autowired(required = false)
+	public void setResumableUploadService(
+			ResumableUploadService resumableUploadService) {
+		this.resumableUploadService = resumableUploadService;
+	}
+
 	/**
 	 * @return the fileUploadService
 	 */
@@ -30,6 +30,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang.StringUtils;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -111,6 +112,87 @@ public class FileManager extends BaseFileManager {
 		super.upload(rootDir, file, name, chunks, chunk, folder, request, servletResponse);
 	}
 
+	/**
+	 * Create a resumable upload
+	 * 
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "resumable", method = RequestMethod.POST)
+	public void createResumableUpload(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		String rootDir = configureModule(request);
+		super.createResumableUpload(rootDir, request, response);
+	}
+
+	/**
+	 * Get the offset of a resumable upload
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "resumable/{id}", method = RequestMethod.HEAD)
+	public void getResumableUploadOffset(@PathVariable("id") String id,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		super.getResumableUploadOffset(id, request, response);
+	}
+
+	/**
+	 * Append content to a resumable upload
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "resumable/{id}", method = RequestMethod.PATCH)
+	public void appendResumableUpload(@PathVariable("id") String id,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		String rootDir = configureModule(request);
+		super.appendResumableUpload(rootDir, id, request, response);
+	}
+
+	/**
+	 * Append content to or terminate a resumable upload with the
+	 * X-HTTP-Method-Override header
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "resumable/{id}", method = RequestMethod.POST, headers = "X-HTTP-Method-Override")
+	public void overrideResumableUpload(@PathVariable("id") String id,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		String rootDir = configureModule(request);
+		super.overrideResumableUpload(rootDir, id, request, response);
+	}
+
+	/**
+	 * Terminate a resumable upload
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "resumable/{id}", method = RequestMethod.DELETE)
+	public void terminateResumableUpload(@PathVariable("id") String id,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		super.terminateResumableUpload(id, request, response);
+	}
+
 	/**
 	 * Download a file
 	 * 
@@ -129,7 +211,7 @@ public class FileManager extends BaseFileManager {
 			HttpServletRequest req,
 			HttpServletResponse resp) {
 	        String rootDir = configureModule(req);
-		super.downloadFile(rootDir, folder, file, resp);
+		super.downloadFile(rootDir, folder, file, req, resp);
 	}
 	
 	/**
@@ -147,7 +229,7 @@ public class FileManager extends BaseFileManager {
                 LOGGER.error(e.getMessage(), e);
                 throw new IllegalStateException("The configuration for the module '" + FileManager.class + "' cannot be load...");
             }
-	    String rootDir = (String)config.getValue(ROOT_DIR);
+	    String rootDir = config.getString(ROOT_DIR, null);
 	    if(StringUtils.isBlank(rootDir)){
 	        throw new IllegalStateException("The module configuration provided has an empty 'runtimeDir' value");
 	    }
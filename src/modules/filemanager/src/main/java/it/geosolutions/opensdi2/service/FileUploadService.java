@@ -45,14 +45,37 @@ public interface FileUploadService {
 	 *            number on this upload
 	 * @param file
 	 *            with the content uploaded
-	 * @return current entry with the key of chunk data and the list of updated
-	 *         chunks
+	 * @return current entry with the key and the state of the upload
 	 * @throws IOException
-	 *             if no more uploads are available
+	 *             if no more uploads are available or the chunk can't be
+	 *             written, the client must send it again
 	 */
 	public Entry<String, ?> addChunk(String name, int chunks, int chunk,
 			MultipartFile file) throws IOException;
 
+	/**
+	 * Add a chunk of an upload identified by the key of the entry returned for
+	 * its first chunk
+	 * 
+	 * @param uploadId
+	 *            key of the upload, null to match the upload by file name
+	 * @param name
+	 *            of the file
+	 * @param chunks
+	 *            total for the file
+	 * @param chunk
+	 *            number on this upload
+	 * @param file
+	 *            with the content uploaded
+	 * @return current entry with the key and the state of the upload, null if
+	 *         the upload has expired
+	 * @throws IOException
+	 *             if no more uploads are available or the chunk can't be
+	 *             written, the client must send it again
+	 */
+	public Entry<String, ?> addChunk(String uploadId, String name, int chunks,
+			int chunk, MultipartFile file) throws IOException;
+
 	/**
 	 * Create a temporal file with a byte array
 	 * 
@@ -86,6 +109,18 @@ public interface FileUploadService {
 	public Entry<String, ?> getChunk(String name, int chunks, int chunk)
 			throws IOException;
 
+	/**
+	 * Check if all the chunks of an upload have been received. Chunks can be
+	 * added in any order, so the last chunk number doesn't mean the upload is
+	 * complete.
+	 * 
+	 * @param entry
+	 *            of the upload returned by
+	 *            {@link #addChunk(String, int, int, MultipartFile)}
+	 * @return true if the upload can be completed
+	 */
+	public boolean isComplete(Entry<String, ?> entry);
+
 	/**
 	 * @return pending upload files size
 	 */
@@ -99,9 +134,8 @@ public interface FileUploadService {
 	public void remove(String key);
 
 	/**
-	 * This method cleans concurrent uploading files in two executions. It's
-	 * ready to be called on a cronable method to check if there are pending
-	 * incomplete files without changes in the interval.
+	 * This method removes the incomplete uploads without activity in the
+	 * configured interval. It's ready to be called on a cronable method.
 	 */
 	public void cleanup();
 
@@ -0,0 +1,52 @@
+/*
+ *  OpenSDI Manager
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.service;
+
+import java.io.IOException;
+
+/**
+ * Error of a resumable upload operation with the HTTP status to report to the
+ * client
+ */
+public class ResumableUploadException extends IOException {
+
+	private static final long serialVersionUID = 3497624826518240977L;
+
+	private final int status;
+
+	/**
+	 * @param status
+	 *            HTTP status for the client
+	 * @param message
+	 */
+	public ResumableUploadException(int status, String message) {
+		super(message);
+		this.status = status;
+	}
+
+	/**
+	 * @return the HTTP status for the client
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+}
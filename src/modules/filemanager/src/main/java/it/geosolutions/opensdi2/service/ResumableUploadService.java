@@ -0,0 +1,131 @@
+/*
+ *  OpenSDI Manager
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Resumable file upload service (tus protocol style): an upload is created with
+ * its total length and the content is appended in any number of requests, each
+ * one starting from the offset acknowledged by the previous ones. The offsets
+ * are persisted, so clients can resume an upload after a dropped connection or
+ * a server restart.
+ */
+public interface ResumableUploadService {
+
+	/**
+	 * Create a new upload
+	 * 
+	 * @param length
+	 *            total length of the file in bytes
+	 * @param metadata
+	 *            of the upload, i.e. the file name
+	 * @return the ID of the upload
+	 * @throws ResumableUploadException
+	 *             if the length exceeds the maximum size or there are too many
+	 *             uploads in progress
+	 * @throws IOException
+	 *             if the upload can't be stored
+	 */
+	public String create(long length, Map<String, String> metadata)
+			throws IOException;
+
+	/**
+	 * @param id
+	 *            of the upload
+	 * @return the bytes received for the upload or -1 if it doesn't exist
+	 */
+	public long getOffset(String id);
+
+	/**
+	 * @param id
+	 *            of the upload
+	 * @return the total length of the upload or -1 if it doesn't exist
+	 */
+	public long getLength(String id);
+
+	/**
+	 * @param id
+	 *            of the upload
+	 * @return the metadata of the upload or null if it doesn't exist
+	 */
+	public Map<String, String> getMetadata(String id);
+
+	/**
+	 * Append bytes to an upload. The bytes received before an error reading the
+	 * content are kept, so the client can resume from the new offset.
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @param offset
+	 *            where the content starts, must be the current offset
+	 * @param content
+	 *            to append
+	 * @return the new offset
+	 * @throws ResumableUploadException
+	 *             if the upload doesn't exist, the offset doesn't match, the
+	 *             content exceeds the length or the upload is busy
+	 * @throws IOException
+	 *             if the content can't be read or written
+	 */
+	public long append(String id, long offset, InputStream content)
+			throws IOException;
+
+	/**
+	 * Move a completed upload to its target and forget it. The upload is kept
+	 * if it can't be moved.
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @param target
+	 *            file
+	 * @return the target file
+	 * @throws ResumableUploadException
+	 *             if the upload doesn't exist, is incomplete or is in progress
+	 * @throws IOException
+	 *             if the file can't be moved
+	 */
+	public File complete(String id, File target) throws IOException;
+
+	/**
+	 * Remove an upload and its content
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @return false if the upload doesn't exist
+	 */
+	public boolean terminate(String id);
+
+	/**
+	 * @return maximum size of an upload in bytes, 0 for no limit
+	 */
+	public long getMaxSize();
+
+	/**
+	 * Remove the uploads without activity in the expiration interval. It's
+	 * ready to be called on a cronable method.
+	 */
+	public void cleanup();
+
+}
@@ -0,0 +1,495 @@
+/*
+ *  OpenSDI Manager
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.service.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * State of a file uploaded in chunks. Every chunk is streamed directly to its
+ * offset in a part file, so chunks can arrive in any order and no chunk is
+ * held in memory. All the chunks but the last one must have the same size;
+ * the last chunk received before that size is known is kept aside and moved
+ * to its offset when the upload is completed. Only one caller at a time can
+ * complete the upload, the others wait for it.
+ */
+public class ChunkedUpload {
+
+	private final static Logger LOGGER = Logger.getLogger(ChunkedUpload.class);
+
+	/**
+	 * Size of the buffer used to copy a chunk to the part file
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String key;
+
+	private final String name;
+
+	private final int chunks;
+
+	private final File partFile;
+
+	/**
+	 * Last chunk received before the chunk size was known
+	 */
+	private File lastChunkFile;
+
+	private long chunkSize = -1;
+
+	private long lastChunkSize = -1;
+
+	private final BitSet received;
+
+	private boolean finished;
+
+	/**
+	 * A caller is moving the part file to its target
+	 */
+	private boolean completing;
+
+	/**
+	 * The upload has been removed, its files are deleted once no completion
+	 * is running
+	 */
+	private boolean discarded;
+
+	private long bytesReceived;
+
+	/**
+	 * Chunks being written
+	 */
+	private int activeWrites;
+
+	private volatile long lastActivity = System.currentTimeMillis();
+
+	/**
+	 * @param key
+	 *            of the upload
+	 * @param name
+	 *            of the file
+	 * @param chunks
+	 *            total for the file
+	 * @param folder
+	 *            where the part file is created
+	 * @throws IOException
+	 *             if the part file can't be created
+	 */
+	public ChunkedUpload(String key, String name, int chunks, File folder)
+			throws IOException {
+		if (chunks <= 0) {
+			throw new IllegalArgumentException(
+					"The number of chunks must be greater than 0");
+		}
+		this.key = key;
+		this.name = name;
+		this.chunks = chunks;
+		this.received = new BitSet(chunks);
+		this.partFile = File.createTempFile("upload", ".part", folder);
+	}
+
+	/**
+	 * Write a chunk on its position of the part file
+	 * 
+	 * @param chunk
+	 *            number of the chunk
+	 * @param in
+	 *            content of the chunk, closed when done
+	 * @param size
+	 *            of the chunk in bytes
+	 * @throws IOException
+	 *             if the chunk is out of range, its size doesn't match the
+	 *             previous chunks or it can't be written
+	 */
+	public void write(int chunk, InputStream in, long size) throws IOException {
+		boolean started = false;
+		try {
+			if (chunk < 0 || chunk >= chunks) {
+				throw new IOException("Chunk " + chunk + " out of range for "
+						+ key);
+			}
+			boolean last = chunks > 1 && chunk == chunks - 1;
+			File target;
+			long position;
+			synchronized (this) {
+				if (finished || completing || discarded) {
+					throw new IOException("Upload " + key
+							+ " is already completed");
+				}
+				if (!last) {
+					if (chunkSize < 0) {
+						chunkSize = size;
+						preallocate();
+					} else if (size != chunkSize) {
+						throw new IOException("Chunk " + chunk + " of " + key
+								+ " has " + size + " bytes, expected "
+								+ chunkSize);
+					}
+				}
+				if (last && chunkSize < 0) {
+					if (lastChunkFile == null) {
+						lastChunkFile = File.createTempFile("upload", ".last",
+								partFile.getParentFile());
+					}
+					target = lastChunkFile;
+					position = 0;
+				} else {
+					target = partFile;
+					position = chunk * chunkSize;
+				}
+				activeWrites++;
+				started = true;
+				lastActivity = System.currentTimeMillis();
+			}
+			long written = write(in, target, position);
+			if (written != size && !last) {
+				throw new IOException("Chunk " + chunk + " of " + key
+						+ " truncated: " + written + " of " + size + " bytes");
+			}
+			synchronized (this) {
+				if (!received.get(chunk)) {
+					bytesReceived += written;
+				}
+				received.set(chunk);
+				if (last) {
+					lastChunkSize = written;
+					if (target == partFile && lastChunkFile != null) {
+						// a retry overwrote the chunk kept aside
+						lastChunkFile.delete();
+						lastChunkFile = null;
+					}
+				}
+			}
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Chunk " + chunk + " of " + key + " written at "
+						+ position);
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+			if (started) {
+				synchronized (this) {
+					activeWrites--;
+					lastActivity = System.currentTimeMillis();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param chunk
+	 *            number of the chunk
+	 * @return true if the chunk has been received
+	 */
+	public synchronized boolean isReceived(int chunk) {
+		return received.get(chunk);
+	}
+
+	/**
+	 * @return number of chunks received
+	 */
+	public synchronized int getReceivedChunks() {
+		return received.cardinality();
+	}
+
+	/**
+	 * @return true if all the chunks have been received and the upload has not
+	 *         been completed yet
+	 */
+	public synchronized boolean isComplete() {
+		return !finished && !discarded && received.cardinality() == chunks;
+	}
+
+	/**
+	 * @param time
+	 *            in milliseconds
+	 * @return true if no chunk is being written, the upload is not being
+	 *         completed and the last activity is older than the time
+	 */
+	public synchronized boolean isIdleSince(long time) {
+		return activeWrites == 0 && !completing && lastActivity < time;
+	}
+
+	/**
+	 * @return the received chunks
+	 */
+	public synchronized BitSet getReceived() {
+		return (BitSet) received.clone();
+	}
+
+	/**
+	 * @return bytes of the received chunks
+	 */
+	public synchronized long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * @return time of the last chunk written, in milliseconds
+	 */
+	public long getLastActivity() {
+		return lastActivity;
+	}
+
+	/**
+	 * @return true if the upload has been moved to its final path
+	 */
+	public synchronized boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Move the last chunk to its offset and rename the part file to the
+	 * target. The content is copied only when the rename is not possible (i.e.
+	 * the target is on another file system). A caller finding the upload
+	 * being completed waits for the other one to finish, and takes over if
+	 * it failed.
+	 * 
+	 * @param target
+	 *            final file
+	 * @return true if this call completed the upload, false if another call
+	 *         did
+	 * @throws IOException
+	 *             if the upload is incomplete or removed, or the target can't
+	 *             be written
+	 */
+	public boolean complete(File target) throws IOException {
+		long lastPosition;
+		File aside;
+		synchronized (this) {
+			while (completing) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while " + key
+							+ " is being completed");
+				}
+			}
+			if (finished) {
+				return false;
+			}
+			if (discarded) {
+				throw new IOException("Upload " + key + " has been removed");
+			}
+			if (received.cardinality() != chunks) {
+				throw new IOException("Upload " + key + " is incomplete: "
+						+ received.cardinality() + " of " + chunks
+						+ " chunks received");
+			}
+			completing = true;
+			aside = lastChunkFile;
+			lastChunkFile = null;
+			lastPosition = chunks > 1 ? (chunks - 1) * chunkSize : 0;
+		}
+		boolean done = false;
+		try {
+			long length = chunks > 1 ? lastPosition + lastChunkSize
+					: chunkSize;
+			RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				if (aside != null) {
+					FileInputStream in = new FileInputStream(aside);
+					try {
+						FileChannel source = in.getChannel();
+						long transferred = 0;
+						while (transferred < lastChunkSize) {
+							transferred += channel.transferFrom(source,
+									lastPosition + transferred, lastChunkSize
+											- transferred);
+						}
+					} finally {
+						IOUtils.closeQuietly(in);
+					}
+					aside.delete();
+				}
+				raf.setLength(length);
+			} finally {
+				IOUtils.closeQuietly(raf);
+			}
+			move(partFile, target);
+			done = true;
+		} finally {
+			synchronized (this) {
+				completing = false;
+				finished = done;
+				if (!done) {
+					if (aside != null && aside.exists()) {
+						// not moved yet, kept for the next attempt
+						lastChunkFile = aside;
+					}
+					if (discarded) {
+						deleteFiles();
+					}
+				}
+				notifyAll();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Remove the temporary files of this upload. The part file of an upload
+	 * being completed is left to the completion.
+	 */
+	public synchronized void delete() {
+		discarded = true;
+		if (!completing && !finished) {
+			deleteFiles();
+		}
+	}
+
+	/**
+	 * @return the key
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the chunks
+	 */
+	public int getChunks() {
+		return chunks;
+	}
+
+	/**
+	 * @return the partFile
+	 */
+	public File getPartFile() {
+		return partFile;
+	}
+
+	private void deleteFiles() {
+		partFile.delete();
+		if (lastChunkFile != null) {
+			lastChunkFile.delete();
+			lastChunkFile = null;
+		}
+	}
+
+	/**
+	 * Grow the part file to the offset of the last chunk as soon as the chunk
+	 * size is known, so the positional writes don't extend it one chunk at a
+	 * time
+	 */
+	private void preallocate() throws IOException {
+		long length = (chunks - 1) * chunkSize;
+		if (length > partFile.length()) {
+			RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+			try {
+				raf.setLength(length);
+			} finally {
+				IOUtils.closeQuietly(raf);
+			}
+		}
+	}
+
+	private static long write(InputStream in, File target, long position)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(target, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			long written = 0;
+			int read;
+			while ((read = in.read(buffer.array())) != -1) {
+				buffer.position(0);
+				buffer.limit(read);
+				while (buffer.hasRemaining()) {
+					written += channel.write(buffer, position + written);
+				}
+			}
+			return written;
+		} finally {
+			IOUtils.closeQuietly(raf);
+		}
+	}
+
+	/**
+	 * Rename a file over the target. When the rename is not possible the file
+	 * is copied to a temporary file next to the target and that one is renamed,
+	 * so the target is replaced at once and never left partially written.
+	 * 
+	 * @param source
+	 * @param target
+	 * @throws IOException
+	 */
+	static void move(File source, File target) throws IOException {
+		if (source.renameTo(target)) {
+			return;
+		}
+		// different file systems or a target the rename doesn't replace
+		File tmp = File.createTempFile(target.getName(), ".tmp", target
+				.getAbsoluteFile().getParentFile());
+		boolean done = false;
+		try {
+			FileInputStream in = new FileInputStream(source);
+			RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+			try {
+				FileChannel channel = in.getChannel();
+				long size = channel.size();
+				long copied = 0;
+				while (copied < size) {
+					copied += channel.transferTo(copied, size - copied,
+							out.getChannel());
+				}
+				out.getChannel().force(false);
+			} finally {
+				IOUtils.closeQuietly(in);
+				IOUtils.closeQuietly(out);
+			}
+			if (!tmp.renameTo(target)) {
+				// the rename doesn't replace existing files on some platforms
+				if (target.exists() && !target.delete()) {
+					throw new IOException("Can't replace " + target);
+				}
+				if (!tmp.renameTo(target)) {
+					throw new IOException("Can't move " + source + " to "
+							+ target);
+				}
+			}
+			done = true;
+		} finally {
+			if (!done) {
+				tmp.delete();
+			}
+		}
+		source.delete();
+	}
+
+}
@@ -22,28 +22,24 @@ package it.geosolutions.opensdi2.service.impl;
 
 import it.geosolutions.opensdi2.service.FileUploadService;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.multipart.MultipartFile;
 
 /**
- * File upload service handling based on concurrent hash maps and disk storage
+ * File upload service handling based on an upload session registry and disk
+ * storage. Chunks are streamed to their offset in a part file (see
+ * {@link ChunkedUpload}), so they can be received in any order, and the
+ * completed file is renamed to its target. Uploads without activity for
+ * <code>idleTimeout</code> milliseconds are removed by {@link #cleanup()}.
  * 
  * @author adiaz
  *
@@ -54,22 +50,18 @@ private final static Logger LOGGER = Logger
         .getLogger(FileUploadServiceImpl.class);
 
 /**
- * Map to handle file uploading chunked
+ * Uploads in progress by ID
  */
-private Map<String, List<String>> uploadedChunksByFile = new ConcurrentHashMap<String, List<String>>();
+private UploadSessionRegistry registry = new UploadSessionRegistry();
 
 /**
- * Pending chunks on last review and his size
+ * Interval without activity after that an incomplete upload is removed.
+ * Default is one hour.
  */
-private Map<String, Integer> pendingChunksByFile = new ConcurrentHashMap<String, Integer>();
+private long idleTimeout = 60 * 60 * 1000;
 
 /**
- * Private time for the last check
- */
-private Date lastCheck;
-
-/**
- * Minimum interval to check incomplete uploads
+ * Not used anymore, see {@link #idleTimeout}
  */
 private long minInterval = 1000000000;
 
@@ -84,33 +76,54 @@ private int maxSimultaneousUpload = 100;
 private String temporaryFolder = System.getProperty("java.io.tmpdir");
 
 /**
- * Add a chunk of a file upload
+ * Add a chunk of a file upload. The chunk is streamed from the multipart file
+ * to its position in the part file of the upload.
  * 
  * @param name of the file
  * @param chunks total for the file
  * @param chunk number on this upload
  * @param file with the content uploaded
- * @return current list of byte arrays for the file
- * @throws IOException if no more uploads are available
+ * @return current entry for the file
+ * @throws IOException if no more uploads are available or the chunk can't
+ *         be written
  */
-public Entry<String, List<String>> addChunk(String name, int chunks, int chunk,
+public Entry<String, ChunkedUpload> addChunk(String name, int chunks, int chunk,
         MultipartFile file) throws IOException {
-    Entry<String, List<String>> entry = null;
+    return addChunk(null, name, chunks, chunk, file);
+}
+
+/**
+ * Add a chunk of a file upload. The chunk is streamed from the multipart file
+ * to its position in the part file of the upload.
+ * 
+ * @param uploadId of the upload or null to match it by file name
+ * @param name of the file
+ * @param chunks total for the file
+ * @param chunk number on this upload
+ * @param file with the content uploaded
+ * @return current entry for the file, null if the upload has expired
+ * @throws IOException if no more uploads are available or the chunk can't
+ *         be written
+ */
+public Entry<String, ChunkedUpload> addChunk(String uploadId, String name,
+        int chunks, int chunk, MultipartFile file) throws IOException {
+    Entry<String, ChunkedUpload> entry = getChunk(uploadId, name, chunks, chunk);
+    if (entry == null) {
+        return null;
+    }
+    if (LOGGER.isTraceEnabled())
+        LOGGER.trace("entry [" + entry.getKey() + "] found ");
+    ChunkedUpload upload = entry.getValue();
     try {
-        entry = getChunk(name, chunks, chunk);
-        if (LOGGER.isTraceEnabled())
-            LOGGER.trace("entry [" + entry.getKey() + "] found ");
-        List<String> uploadedChunks = entry.getValue();
-        String tmpFile = createTemporalFile(entry.getKey(), file.getBytes(),
-                entry.getValue().size());
-        // add chunk on its position
-        uploadedChunks.add(chunk, tmpFile);
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("uploadedChunks size[" + entry.getKey() + "] --> "
-                    + uploadedChunks.size());
-        }
+        upload.write(chunk, file.getInputStream(), file.getSize());
     } catch (IOException e) {
+        // the chunk is not marked as received: the client must retry it
         LOGGER.error("Error on file upload", e);
+        throw e;
+    }
+    if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("uploadedChunks size[" + entry.getKey() + "] --> "
+                + upload.getReceivedChunks());
     }
 
     return entry;
@@ -140,22 +153,16 @@ public String createTemporalFile(String key, byte[] bytes, int i)
         }
         
         // File channel to append bytes
-        @SuppressWarnings("resource")
-		FileChannel channel = new FileOutputStream(tmpFile, true).getChannel();
-        ByteBuffer buf = ByteBuffer.allocateDirect((int)bytes.length);
-        
-        // put bytes
-        buf.put(bytes);
-        
-        // Flips this buffer.  The limit is set to the current position and then
-        // the position is set to zero.  If the mark is defined then it is discarded.
-        buf.flip();
-        
-        // Writes a sequence of bytes to this channel from the given buffer.
-        channel.write(buf);
-     
-        // close the channel
-        channel.close();
+        FileOutputStream out = new FileOutputStream(tmpFile, true);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } finally {
+            out.close();
+        }
         
     } catch (IOException e) {
         LOGGER.error("Error writing file bytes", e);
@@ -165,63 +172,66 @@ public String createTemporalFile(String key, byte[] bytes, int i)
 }
 
 /**
- * Get a chunk of a file upload
+ * Get the upload a chunk belongs to: the first upload of the file with the
+ * same number of chunks that has not received the chunk yet, or a new upload
  * 
  * @param name of the file
  * @param chunks total for the file
  * @param chunk number on this upload
- * @param file with the content uploaded
  * @return current entry for the file
  * @throws IOException if no more uploads are available
  */
-public Entry<String, List<String>> getChunk(String name, int chunks, int chunk)
+public Entry<String, ChunkedUpload> getChunk(String name, int chunks, int chunk)
         throws IOException {
-    Integer key = null;
-
-    // init bytes for the chunk upload
-    List<String> uploadedChunks = uploadedChunksByFile.get(name);
-    if (chunk == 0) {
-        if (uploadedChunks != null) {
-            key = -1;
-            while (uploadedChunks != null) {
-                key++;
-                uploadedChunks = uploadedChunksByFile.get(name + "_" + key);
-            }
-        }
-        uploadedChunks = new LinkedList<String>();
-    } else if (uploadedChunks == null || uploadedChunks.size() != chunk) {
-        key = -1;
-        while ((uploadedChunks == null || uploadedChunks.size() != chunk)
-                && key < maxSimultaneousUpload) {
-            key++;
-            uploadedChunks = uploadedChunksByFile.get(name + "_" + key);
-        }
-        if (uploadedChunks == null || uploadedChunks.size() != chunk) {
-            LOGGER.error("Incorrent chunk. Can't found previous chunks");
-            throw new IOException(
-                    "Incorrent chunk. Can't found previous chunks");
-        }
-    }
+    return getChunk(null, name, chunks, chunk);
+}
 
-    // save and return entry
-    String mapKey = key != null ? name + "_" + key : name;
-    uploadedChunksByFile.put(mapKey, uploadedChunks);
-    Entry<String, List<String>> entry = null;
-    for (Entry<String, List<String>> mapEntry : uploadedChunksByFile.entrySet()) {
-        if (mapEntry.getKey().equals(mapKey)) {
-            entry = mapEntry;
-            break;
+/**
+ * Get the upload a chunk belongs to. Without an upload ID the upload is
+ * matched by file name as in {@link #getChunk(String, int, int)}.
+ * 
+ * @param uploadId of the upload or null
+ * @param name of the file
+ * @param chunks total for the file
+ * @param chunk number on this upload
+ * @return current entry for the file, null if the upload has expired
+ * @throws IOException if no more uploads are available or the upload has a
+ *         different number of chunks
+ */
+public Entry<String, ChunkedUpload> getChunk(String uploadId, String name,
+        int chunks, int chunk) throws IOException {
+    ChunkedUpload upload;
+    if (uploadId != null) {
+        upload = registry.get(uploadId);
+        if (upload == null) {
+            LOGGER.error("Unknown or expired upload " + uploadId);
+            return null;
         }
+        if (upload.getChunks() != chunks) {
+            throw new IOException("Upload " + uploadId + " has "
+                    + upload.getChunks() + " chunks, not " + chunks);
+        }
+    } else {
+        upload = registry.findOrCreate(name, chunks, chunk, new File(
+                temporaryFolder), maxSimultaneousUpload);
     }
+    return new SimpleImmutableEntry<String, ChunkedUpload>(upload.getKey(),
+            upload);
+}
 
-    return entry;
+/**
+ * @param entry of the upload
+ * @return true if all the chunks of the upload have been received
+ */
+public boolean isComplete(Entry<String, ?> entry) {
+    return entry != null && ((ChunkedUpload) entry.getValue()).isComplete();
 }
 
 /**
  * @return pending upload files size
  */
 public int size() {
-    return uploadedChunksByFile.size();
+    return registry.size();
 }
 
 /**
@@ -234,54 +244,33 @@ public void remove(String key) {
         LOGGER.debug("Removing uploading file "+ key);
     }
     // remove temporal content
-    for (String filePath : uploadedChunksByFile.get(key)) {
-        File tmpFile = new File(filePath);
-        tmpFile.delete();
+    ChunkedUpload upload = registry.remove(key);
+    if (upload != null) {
+        upload.delete();
     }
-    uploadedChunksByFile.remove(key);
-
-    // remove it from pending chunks
-    if (pendingChunksByFile.containsKey(key))
-        pendingChunksByFile.remove(key);
 }
 
 /**
- * This method cleans concurrent uploading files in two executions. It's ready
- * to be called on a cronable method to check if there are pending incomplete
- * files without changes in the interval.
+ * Remove the incomplete uploads without activity in the last
+ * <code>idleTimeout</code> milliseconds. It's ready to be called on a cronable
+ * method.
  */
 public void cleanup() {
-    Date date = new Date();
-    if (lastCheck == null) {
-        lastCheck = date;
-    }
-    // remove incomplete
-    if (date.getTime() - lastCheck.getTime() > minInterval) {
+    for (ChunkedUpload upload : registry.expire(idleTimeout)) {
         if (LOGGER.isInfoEnabled())
-            LOGGER.info("Cleaning pending incomplete uploads");
-        lastCheck = date;
-        for (String key : pendingChunksByFile.keySet()) {
-            if (uploadedChunksByFile.get(key) != null) {
-                Integer size = uploadedChunksByFile.get(key).size();
-                if (pendingChunksByFile.get(key).equals(size)) {
-                    if (LOGGER.isInfoEnabled())
-                        LOGGER.info("Removing incomplete upload [" + key + "]");
-                    // remove
-                    remove(key);
-                } else {
-                    pendingChunksByFile.put(key, size);
-                }
-            } else {
-                pendingChunksByFile.remove(key);
-            }
-        }
-    }
-    // save size
-    for (String key : uploadedChunksByFile.keySet()) {
-        pendingChunksByFile.put(key, uploadedChunksByFile.get(key).size());
+            LOGGER.info("Removing incomplete upload [" + upload.getKey()
+                    + "] of " + upload.getName());
+        upload.delete();
     }
 }
 
+/**
+ * @return the upload session registry
+ */
+public UploadSessionRegistry getRegistry() {
+    return registry;
+}
+
 /**
  * Obtain a temporal file item with chunked bytes
  * 
@@ -294,49 +283,31 @@ public File getCompletedFile(String name, Entry<String, ?> entry) {
 }
 
 /**
- * Obtain a temporal file item with chunked bytes
+ * Obtain the final file renaming the part file of the upload
  * 
- * @param folder
  * @param name
+ * @param targetPath complete path for the file
  * @param entry
  * @return
  */
-@SuppressWarnings("unchecked")
 public File getCompletedFile(String name, String targetPath, Entry<String, ?> entry){
-    try{
-        if(LOGGER.isDebugEnabled()){
-            LOGGER.debug("Getting final file on: '" + targetPath + "'");
-        }
-        if (null != entry && ((List<String>) entry.getValue()).size() > 0) {
-            String tempFile = ((List<String>) entry.getValue()).get(0);
-            // name is not the final one
-            if (!"".equalsIgnoreCase(tempFile) && !targetPath.equals(tempFile)) {
-//                new File(tempFile).renameTo(new File(targetPath));
-            	File tmp = new File(tempFile);
-            	FileInputStream in = new FileInputStream(tmp);
-            	
-            	File target = new File(targetPath);
-            	OutputStream out = new FileOutputStream(target);
-            	
-        	    try{
-        	    	IOUtils.copy(in, out);
-    		    }catch(IOException exc){
-    		    	LOGGER.error("Error copying the temp file", exc);
-    		    	throw exc;
-    		    }finally {
-    		        IOUtils.closeQuietly(in);
-    		        IOUtils.closeQuietly(out);
-    		    }
+    File target = new File(targetPath);
+    if(LOGGER.isDebugEnabled()){
+        LOGGER.debug("Getting final file on: '" + targetPath + "'");
+    }
+    if (null != entry) {
+        try{
+            // only the caller that moved the file unregisters the upload
+            if (((ChunkedUpload) entry.getValue()).complete(target)) {
+                registry.remove(entry.getKey());
             }
+        }catch (Exception e){
+            LOGGER.error("Error uploading files", e);
+            remove(entry.getKey());
         }
-    }catch (Exception e){
-        LOGGER.error("Error uploading files", e);
-    }finally{
-    	// remove the key once complete
-    	remove(entry.getKey());
     }
 
-    return new File(targetPath);
+    return target;
 }
 
 /**
@@ -364,30 +335,34 @@ public File getCompletedFile(MultipartFile file, String filePath) throws IOExcep
     if (LOGGER.isDebugEnabled()) {
         LOGGER.debug("Writing complete content to " + filePath);
     }
-    OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outFile));
-    for (byte b : file.getBytes()) {
-        outputStream.write(b);
-        outputStream.flush();
-    }
-    outputStream.close();
+    file.transferTo(outFile.getAbsoluteFile());
     return outFile;
 }
 
 /**
- *  Scheduled once a day. If an user stop an upload, it will be removed from memory 
+ *  Scheduled every hour. If an user stop an upload, it will be removed from memory 
  */
-@Scheduled(cron = "0 0 4 * * ?")
+@Scheduled(cron = "0 0 * * * ?")
 public void cleanupUploadedFiles(){
     cleanup();
 }
 
-/**getChunk
+/**
  * @return the minInterval
+ * @deprecated not used anymore, see {@link #getIdleTimeout()}
  */
+@Deprecated
 public long getMinInterval() {
     return minInterval;
 }
 
+/**
+ * @return the idleTimeout
+ */
+public long getIdleTimeout() {
+    return idleTimeout;
+}
+
 /**
  * @return the maxSimultaneousUpload
  */
@@ -404,11 +379,21 @@ public String getTemporaryFolder() {
 
 /**
  * @param minInterval the minInterval to set
+ * @deprecated not used anymore, see {@link #setIdleTimeout(long)}
  */
+@Deprecated
 public void setMinInterval(long minInterval) {
     this.minInterval = minInterval;
 }
 
+/**
+ * @param idleTimeout milliseconds without activity after that an incomplete
+ *        upload is removed
+ */
+public void setIdleTimeout(long idleTimeout) {
+    this.idleTimeout = idleTimeout;
+}
+
 /**
  * @param maxSimultaneousUpload the maxSimultaneousUpload to set
  */
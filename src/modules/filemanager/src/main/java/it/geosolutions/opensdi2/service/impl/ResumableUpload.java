@@ -0,0 +1,376 @@
+/*
+ *  OpenSDI Manager
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.service.impl;
+
+import it.geosolutions.opensdi2.service.ResumableUploadException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * State of a resumable upload. The content is written to a part file and the
+ * acknowledged offset is saved in an info file next to it, after the content
+ * has been forced to disk, so the upload can be resumed after a restart.
+ */
+public class ResumableUpload {
+
+	/**
+	 * Extension of the info files
+	 */
+	public static final String INFO_EXTENSION = ".info";
+
+	/**
+	 * Extension of the part files
+	 */
+	public static final String PART_EXTENSION = ".part";
+
+	private static final String LENGTH = "length";
+
+	private static final String OFFSET = "offset";
+
+	private static final String METADATA_PREFIX = "metadata.";
+
+	/**
+	 * Size of the buffer used to copy the content to the part file
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String id;
+
+	private final long length;
+
+	private final Map<String, String> metadata;
+
+	private final File partFile;
+
+	private final File infoFile;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private volatile long offset;
+
+	private volatile long lastActivity;
+
+	private ResumableUpload(File folder, String id, long length,
+			Map<String, String> metadata, long offset, long lastActivity) {
+		this.id = id;
+		this.length = length;
+		this.metadata = Collections.unmodifiableMap(metadata);
+		this.offset = offset;
+		this.lastActivity = lastActivity;
+		this.partFile = new File(folder, id + PART_EXTENSION);
+		this.infoFile = new File(folder, id + INFO_EXTENSION);
+	}
+
+	/**
+	 * Create and save a new upload
+	 * 
+	 * @param folder
+	 *            for the upload files
+	 * @param id
+	 *            of the upload
+	 * @param length
+	 *            total length in bytes
+	 * @param metadata
+	 *            of the upload
+	 * @return the new upload
+	 * @throws IOException
+	 *             if the upload files can't be written
+	 */
+	public static ResumableUpload create(File folder, String id, long length,
+			Map<String, String> metadata) throws IOException {
+		ResumableUpload upload = new ResumableUpload(folder, id, length,
+				new LinkedHashMap<String, String>(metadata), 0,
+				System.currentTimeMillis());
+		if (!upload.partFile.createNewFile()) {
+			throw new IOException("Upload " + id + " already exists");
+		}
+		upload.save();
+		return upload;
+	}
+
+	/**
+	 * Load a saved upload. The part file is truncated to the saved offset,
+	 * dropping the bytes never acknowledged to the client.
+	 * 
+	 * @param infoFile
+	 *            of the upload
+	 * @return the upload
+	 * @throws IOException
+	 *             if the upload files can't be read
+	 */
+	public static ResumableUpload load(File infoFile) throws IOException {
+		Properties properties = new Properties();
+		FileInputStream in = new FileInputStream(infoFile);
+		try {
+			properties.load(in);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		String name = infoFile.getName();
+		String id = name.substring(0, name.length() - INFO_EXTENSION.length());
+		Map<String, String> metadata = new LinkedHashMap<String, String>();
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith(METADATA_PREFIX)) {
+				metadata.put(key.substring(METADATA_PREFIX.length()),
+						properties.getProperty(key));
+			}
+		}
+		long length;
+		long offset;
+		try {
+			length = Long.parseLong(properties.getProperty(LENGTH));
+			offset = Long.parseLong(properties.getProperty(OFFSET));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid upload info " + infoFile);
+		}
+		ResumableUpload upload = new ResumableUpload(
+				infoFile.getParentFile(), id, length, metadata, offset,
+				infoFile.lastModified());
+		if (!upload.partFile.exists() || upload.partFile.length() < offset) {
+			throw new IOException("Missing content for upload " + id);
+		}
+		if (upload.partFile.length() > offset) {
+			RandomAccessFile raf = new RandomAccessFile(upload.partFile, "rw");
+			try {
+				raf.setLength(offset);
+			} finally {
+				IOUtils.closeQuietly(raf);
+			}
+		}
+		return upload;
+	}
+
+	/**
+	 * Append bytes from the current offset. Only one append at a time is
+	 * allowed for an upload.
+	 * 
+	 * @param offset
+	 *            where the content starts
+	 * @param in
+	 *            content to append
+	 * @return the new offset
+	 * @throws ResumableUploadException
+	 *             if the upload is busy, the offset doesn't match or the
+	 *             content exceeds the length
+	 * @throws IOException
+	 *             reading or writing the content, the bytes received are kept
+	 */
+	public long append(long offset, InputStream in) throws IOException {
+		if (!lock.tryLock()) {
+			throw new ResumableUploadException(HttpServletResponse.SC_CONFLICT,
+					"Upload " + id + " is receiving content");
+		}
+		try {
+			if (offset != this.offset) {
+				throw new ResumableUploadException(
+						HttpServletResponse.SC_CONFLICT, "Upload " + id
+								+ " is at offset " + this.offset + ", not "
+								+ offset);
+			}
+			lastActivity = System.currentTimeMillis();
+			long remaining = length - offset;
+			long written = 0;
+			boolean exceeded = false;
+			IOException error = null;
+			RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				try {
+					while (true) {
+						// read one byte more than the length to detect an
+						// exceeding content
+						int max = (int) Math.max(1,
+								Math.min(BUFFER_SIZE, remaining - written));
+						int read = in.read(buffer.array(), 0, max);
+						if (read == -1) {
+							break;
+						}
+						if (written + read > remaining) {
+							exceeded = true;
+							break;
+						}
+						buffer.position(0);
+						buffer.limit(read);
+						while (buffer.hasRemaining()) {
+							written += channel.write(buffer, offset + written);
+						}
+					}
+				} catch (IOException e) {
+					// keep the bytes received so far
+					error = e;
+				}
+				channel.force(false);
+			} finally {
+				IOUtils.closeQuietly(raf);
+			}
+			this.offset = offset + written;
+			lastActivity = System.currentTimeMillis();
+			save();
+			if (exceeded) {
+				throw new ResumableUploadException(
+						HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+						"Content exceeds the length of upload " + id);
+			}
+			if (error != null) {
+				throw error;
+			}
+			return this.offset;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Move the content to the target and remove the info file
+	 * 
+	 * @param target
+	 *            file
+	 * @throws IOException
+	 *             if the content can't be moved
+	 */
+	public void moveTo(File target) throws IOException {
+		lock.lock();
+		try {
+			ChunkedUpload.move(partFile, target);
+			infoFile.delete();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Lock the upload if no append is in progress
+	 * 
+	 * @return true if locked
+	 */
+	public boolean tryLock() {
+		return lock.tryLock();
+	}
+
+	/**
+	 * Release the lock obtained with {@link #tryLock()}
+	 */
+	public void unlock() {
+		lock.unlock();
+	}
+
+	/**
+	 * Remove the upload files, waiting for the append in progress
+	 */
+	public void delete() {
+		lock.lock();
+		try {
+			partFile.delete();
+			infoFile.delete();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true if all the bytes have been received
+	 */
+	public boolean isComplete() {
+		return offset == length;
+	}
+
+	/**
+	 * @return the id
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the length
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the offset
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return the metadata
+	 */
+	public Map<String, String> getMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * @return time of the last append, in milliseconds
+	 */
+	public long getLastActivity() {
+		return lastActivity;
+	}
+
+	/**
+	 * Save the info file replacing the previous one
+	 */
+	private void save() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(LENGTH, Long.toString(length));
+		properties.setProperty(OFFSET, Long.toString(offset));
+		for (Map.Entry<String, String> entry : metadata.entrySet()) {
+			properties.setProperty(METADATA_PREFIX + entry.getKey(),
+					entry.getValue());
+		}
+		File tmp = new File(infoFile.getParentFile(), id + INFO_EXTENSION
+				+ ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			properties.store(out, null);
+			out.getFD().sync();
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		if (!tmp.renameTo(infoFile)) {
+			// the rename doesn't replace existing files on some platforms
+			infoFile.delete();
+			if (!tmp.renameTo(infoFile)) {
+				throw new IOException("Can't save " + infoFile);
+			}
+		}
+	}
+
+}
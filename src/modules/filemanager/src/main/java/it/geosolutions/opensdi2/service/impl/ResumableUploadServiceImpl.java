@@ -0,0 +1,368 @@
+/*
+ *  OpenSDI Manager
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.service.impl;
+
+import it.geosolutions.opensdi2.configurations.configdir.OpenSDIManagerConfig;
+import it.geosolutions.opensdi2.service.ResumableUploadException;
+import it.geosolutions.opensdi2.service.ResumableUploadService;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Resumable upload service storing the uploads in a folder. The uploads found
+ * in the folder are restored by {@link #init()}, so they survive a restart.
+ * The folder is <code>resumable-uploads</code> in the OpenSDI configuration
+ * directory unless <code>storageFolder</code> is set.
+ */
+public class ResumableUploadServiceImpl implements ResumableUploadService {
+
+	private final static Logger LOGGER = Logger
+			.getLogger(ResumableUploadServiceImpl.class);
+
+	/**
+	 * Default storage folder, in the configuration directory
+	 */
+	public static final String STORAGE_FOLDER_NAME = "resumable-uploads";
+
+	private final ConcurrentMap<String, ResumableUpload> uploads = new ConcurrentHashMap<String, ResumableUpload>();
+
+	private OpenSDIManagerConfig baseConfig;
+
+	/**
+	 * Folder for the uploads in progress. It should not be cleaned on restart.
+	 */
+	private String storageFolder;
+
+	/**
+	 * Maximum size of an upload in bytes, 0 for no limit
+	 */
+	private long maxSize = 2L * 1024 * 1024 * 1024;
+
+	/**
+	 * Maximum number of uploads in progress
+	 */
+	private int maxUploads = 100;
+
+	/**
+	 * Maximum number of requests appending content at the same time
+	 */
+	private int maxConcurrentAppends = 10;
+
+	private Semaphore appends = new Semaphore(maxConcurrentAppends);
+
+	/**
+	 * Interval without activity after that an incomplete upload is removed
+	 */
+	private long expiration = 24 * 60 * 60 * 1000;
+
+	/**
+	 * Restore the uploads saved in the storage folder
+	 */
+	public void init() {
+		File folder = getFolder();
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			LOGGER.error("Can't create the upload folder " + storageFolder);
+			return;
+		}
+		File[] infoFiles = folder.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile()
+						&& file.getName().endsWith(
+								ResumableUpload.INFO_EXTENSION);
+			}
+		});
+		for (File infoFile : infoFiles) {
+			try {
+				ResumableUpload upload = ResumableUpload.load(infoFile);
+				uploads.put(upload.getId(), upload);
+			} catch (IOException e) {
+				LOGGER.error("Discarding upload " + infoFile.getName(), e);
+				infoFile.delete();
+			}
+		}
+		if (LOGGER.isInfoEnabled()) {
+			LOGGER.info("Restored " + uploads.size() + " resumable uploads");
+		}
+	}
+
+	public String create(long length, Map<String, String> metadata)
+			throws IOException {
+		if (length < 0) {
+			throw new ResumableUploadException(
+					HttpServletResponse.SC_BAD_REQUEST, "Invalid length "
+							+ length);
+		}
+		if (maxSize > 0 && length > maxSize) {
+			throw new ResumableUploadException(
+					HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+					"The maximum upload size is " + maxSize + " bytes");
+		}
+		File folder = getFolder();
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("Can't create the upload folder "
+					+ storageFolder);
+		}
+		String id = UUID.randomUUID().toString().replace("-", "");
+		// the check and the insert of the concurrent creations are serialized
+		// so they can't exceed the maximum together
+		synchronized (uploads) {
+			if (uploads.size() >= maxUploads) {
+				throw new ResumableUploadException(
+						HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+						"Too many uploads in progress");
+			}
+			ResumableUpload upload = ResumableUpload.create(folder, id,
+					length, metadata);
+			uploads.put(id, upload);
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Created upload " + id + " of " + length + " bytes");
+		}
+		return id;
+	}
+
+	public long getOffset(String id) {
+		ResumableUpload upload = uploads.get(id);
+		return upload != null ? upload.getOffset() : -1;
+	}
+
+	public long getLength(String id) {
+		ResumableUpload upload = uploads.get(id);
+		return upload != null ? upload.getLength() : -1;
+	}
+
+	public Map<String, String> getMetadata(String id) {
+		ResumableUpload upload = uploads.get(id);
+		return upload != null ? upload.getMetadata() : null;
+	}
+
+	public long append(String id, long offset, InputStream content)
+			throws IOException {
+		ResumableUpload upload = getUpload(id);
+		if (!appends.tryAcquire()) {
+			throw new ResumableUploadException(
+					HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					"Too many uploads receiving content");
+		}
+		try {
+			long newOffset = upload.append(offset, content);
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Upload " + id + " at offset " + newOffset);
+			}
+			return newOffset;
+		} finally {
+			appends.release();
+		}
+	}
+
+	public File complete(String id, File target) throws IOException {
+		ResumableUpload upload = getUpload(id);
+		if (!upload.isComplete()) {
+			throw new ResumableUploadException(HttpServletResponse.SC_CONFLICT,
+					"Upload " + id + " is incomplete");
+		}
+		if (!upload.tryLock()) {
+			throw new ResumableUploadException(HttpServletResponse.SC_CONFLICT,
+					"Upload " + id + " is in progress");
+		}
+		try {
+			if (uploads.get(id) != upload) {
+				throw new ResumableUploadException(
+						HttpServletResponse.SC_NOT_FOUND, "Unknown upload "
+								+ id);
+			}
+			upload.moveTo(target);
+			// kept on failure, so the client can retry
+			uploads.remove(id, upload);
+		} finally {
+			upload.unlock();
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Upload " + id + " completed on " + target);
+		}
+		return target;
+	}
+
+	public boolean terminate(String id) {
+		ResumableUpload upload = uploads.remove(id);
+		if (upload == null) {
+			return false;
+		}
+		upload.delete();
+		return true;
+	}
+
+	public void cleanup() {
+		long limit = System.currentTimeMillis() - expiration;
+		for (ResumableUpload upload : uploads.values()) {
+			if (upload.getLastActivity() < limit && upload.tryLock()) {
+				try {
+					if (uploads.remove(upload.getId(), upload)) {
+						if (LOGGER.isInfoEnabled())
+							LOGGER.info("Removing expired upload ["
+									+ upload.getId() + "]");
+						upload.delete();
+					}
+				} finally {
+					upload.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Scheduled every hour. Uploads abandoned by the clients are removed.
+	 */
+	@Scheduled(cron = "0 30 * * * ?")
+	public void cleanupUploads() {
+		cleanup();
+	}
+
+	/**
+	 * @return number of uploads in progress
+	 */
+	public int size() {
+		return uploads.size();
+	}
+
+	/**
+	 * @return the storage folder, in the configuration directory if not set
+	 * @throws IllegalStateException
+	 *             if neither the folder nor the configuration directory are
+	 *             available
+	 */
+	private synchronized File getFolder() {
+		if (storageFolder == null && baseConfig != null
+				&& baseConfig.getConfigDir() != null) {
+			storageFolder = new File(baseConfig.getConfigDir(),
+					STORAGE_FOLDER_NAME).getAbsolutePath();
+		}
+		if (storageFolder == null) {
+			throw new IllegalStateException(
+					"The storageFolder of the resumable uploads must be set");
+		}
+		return new File(storageFolder);
+	}
+
+	private ResumableUpload getUpload(String id)
+			throws ResumableUploadException {
+		ResumableUpload upload = id != null ? uploads.get(id) : null;
+		if (upload == null) {
+			throw new ResumableUploadException(
+					HttpServletResponse.SC_NOT_FOUND, "Unknown upload " + id);
+		}
+		return upload;
+	}
+
+	/**
+	 * @param baseConfig
+	 *            the OpenSDI configuration, its directory holds the uploads
+	 *            when no storageFolder is set
+	 */
+	public void setBaseConfig(OpenSDIManagerConfig baseConfig) {
+		this.baseConfig = baseConfig;
+	}
+
+	/**
+	 * @return the storageFolder
+	 */
+	public String getStorageFolder() {
+		return storageFolder;
+	}
+
+	/**
+	 * @param storageFolder the storageFolder to set
+	 */
+	public void setStorageFolder(String storageFolder) {
+		this.storageFolder = storageFolder;
+	}
+
+	/**
+	 * @return the maxSize
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param maxSize the maxSize to set
+	 */
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the maxUploads
+	 */
+	public int getMaxUploads() {
+		return maxUploads;
+	}
+
+	/**
+	 * @param maxUploads the maxUploads to set
+	 */
+	public void setMaxUploads(int maxUploads) {
+		this.maxUploads = maxUploads;
+	}
+
+	/**
+	 * @return the maxConcurrentAppends
+	 */
+	public int getMaxConcurrentAppends() {
+		return maxConcurrentAppends;
+	}
+
+	/**
+	 * @param maxConcurrentAppends the maxConcurrentAppends to set
+	 */
+	public void setMaxConcurrentAppends(int maxConcurrentAppends) {
+		this.maxConcurrentAppends = maxConcurrentAppends;
+		this.appends = new Semaphore(maxConcurrentAppends);
+	}
+
+	/**
+	 * @return the expiration
+	 */
+	public long getExpiration() {
+		return expiration;
+	}
+
+	/**
+	 * @param expiration the expiration to set
+	 */
+	public void setExpiration(long expiration) {
+		this.expiration = expiration;
+	}
+
+}
@@ -0,0 +1,206 @@
+/*
+ *  OpenSDI Manager
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the chunked uploads in progress. Uploads are identified by a
+ * server issued ID; clients that don't send the ID back are matched by the
+ * file name through an index holding only the uploads of that name, so no
+ * lookup probes or scans the whole registry.
+ */
+public class UploadSessionRegistry {
+
+	private final ConcurrentMap<String, ChunkedUpload> sessions = new ConcurrentHashMap<String, ChunkedUpload>();
+
+	private final ConcurrentMap<String, Set<ChunkedUpload>> sessionsByName = new ConcurrentHashMap<String, Set<ChunkedUpload>>();
+
+	/**
+	 * @param id
+	 *            of the upload
+	 * @return the upload or null if it doesn't exist or has expired
+	 */
+	public ChunkedUpload get(String id) {
+		return id != null ? sessions.get(id) : null;
+	}
+
+	/**
+	 * Create a new upload
+	 * 
+	 * @param name
+	 *            of the file
+	 * @param chunks
+	 *            total for the file
+	 * @param folder
+	 *            for the part file
+	 * @param maxPerName
+	 *            maximum number of uploads of the same file name
+	 * @return the new upload
+	 * @throws IOException
+	 *             if there are too many uploads of the file name or the part
+	 *             file can't be created
+	 */
+	public ChunkedUpload create(String name, int chunks, File folder,
+			int maxPerName) throws IOException {
+		while (true) {
+			Set<ChunkedUpload> named = getNamed(name);
+			synchronized (named) {
+				if (sessionsByName.get(name) != named) {
+					// removed meanwhile
+					continue;
+				}
+				return create(named, name, chunks, folder, maxPerName);
+			}
+		}
+	}
+
+	/**
+	 * Find the upload of a file name with the same number of chunks still
+	 * waiting for the chunk, creating a new one if there is none. Used for the
+	 * clients that don't send the upload ID.
+	 * 
+	 * @param name
+	 *            of the file
+	 * @param chunks
+	 *            total for the file
+	 * @param chunk
+	 *            number of the chunk
+	 * @param folder
+	 *            for the part file of a new upload
+	 * @param maxPerName
+	 *            maximum number of uploads of the same file name
+	 * @return the upload for the chunk
+	 * @throws IOException
+	 *             if a new upload is needed and can't be created
+	 */
+	public ChunkedUpload findOrCreate(String name, int chunks, int chunk,
+			File folder, int maxPerName) throws IOException {
+		while (true) {
+			Set<ChunkedUpload> named = getNamed(name);
+			synchronized (named) {
+				if (sessionsByName.get(name) != named) {
+					continue;
+				}
+				for (ChunkedUpload upload : named) {
+					if (upload.getChunks() == chunks && !upload.isFinished()
+							&& !upload.isReceived(chunk)) {
+						return upload;
+					}
+				}
+				return create(named, name, chunks, folder, maxPerName);
+			}
+		}
+	}
+
+	/**
+	 * Remove an upload from the registry. The files of the upload are not
+	 * deleted.
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @return the removed upload or null if it doesn't exist
+	 */
+	public ChunkedUpload remove(String id) {
+		ChunkedUpload upload = id != null ? sessions.remove(id) : null;
+		if (upload != null) {
+			Set<ChunkedUpload> named = sessionsByName.get(upload.getName());
+			if (named != null) {
+				synchronized (named) {
+					named.remove(upload);
+					if (named.isEmpty()) {
+						sessionsByName.remove(upload.getName(), named);
+					}
+				}
+			}
+		}
+		return upload;
+	}
+
+	/**
+	 * Remove the uploads without activity in the interval. Uploads writing a
+	 * chunk are never expired.
+	 * 
+	 * @param idleTimeout
+	 *            in milliseconds
+	 * @return the expired uploads, their files are not deleted
+	 */
+	public List<ChunkedUpload> expire(long idleTimeout) {
+		long limit = System.currentTimeMillis() - idleTimeout;
+		List<ChunkedUpload> expired = new ArrayList<ChunkedUpload>();
+		for (ChunkedUpload upload : sessions.values()) {
+			if (upload.isIdleSince(limit) && remove(upload.getKey()) != null) {
+				expired.add(upload);
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * @return the uploads in progress
+	 */
+	public Collection<ChunkedUpload> getSessions() {
+		return Collections.unmodifiableCollection(sessions.values());
+	}
+
+	/**
+	 * @return number of uploads in progress
+	 */
+	public int size() {
+		return sessions.size();
+	}
+
+	private Set<ChunkedUpload> getNamed(String name) {
+		Set<ChunkedUpload> named = sessionsByName.get(name);
+		if (named == null) {
+			// guarded by its own monitor, keeps the uploads in creation order
+			Set<ChunkedUpload> created = new LinkedHashSet<ChunkedUpload>();
+			named = sessionsByName.putIfAbsent(name, created);
+			if (named == null) {
+				named = created;
+			}
+		}
+		return named;
+	}
+
+	private ChunkedUpload create(Set<ChunkedUpload> named, String name,
+			int chunks, File folder, int maxPerName) throws IOException {
+		if (named.size() >= maxPerName) {
+			throw new IOException("Too many simultaneous uploads of " + name);
+		}
+		ChunkedUpload upload = new ChunkedUpload(UUID.randomUUID().toString(),
+				name, chunks, folder);
+		named.add(upload);
+		sessions.put(upload.getKey(), upload);
+		return upload;
+	}
+
+}
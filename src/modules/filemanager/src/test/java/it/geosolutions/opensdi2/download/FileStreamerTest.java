@@ -0,0 +1,108 @@
+/*
+ *  OpenSDI Manager 2
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Test class for FileStreamer
+ */
+public class FileStreamerTest {
+
+	private File file;
+
+	private byte[] content;
+
+	@Before
+	public void setup() throws IOException {
+		content = new byte[200 * 1024 + 13];
+		new Random(7).nextBytes(content);
+		file = File.createTempFile("streamer", ".bin");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	@After
+	public void cleanup() {
+		file.delete();
+	}
+
+	/**
+	 * Without sendfile support the file is copied with a buffer smaller than the file
+	 */
+	@Test
+	public void testCopy() throws IOException {
+		FileStreamer streamer = new FileStreamer();
+		streamer.setBufferSize(4096);
+		for (int i = 0; i < 2; i++) {
+			MockHttpServletResponse resp = new MockHttpServletResponse();
+			assertEquals(content.length, streamer.send(new MockHttpServletRequest(), resp, file));
+			assertEquals(Integer.toString(content.length), resp.getHeader("Content-Length"));
+			assertArrayEquals(content, resp.getContentAsByteArray());
+		}
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		streamer.send(null, resp, file, 1000, 5000);
+		assertEquals("5000", resp.getHeader("Content-Length"));
+		assertArrayEquals(Arrays.copyOfRange(content, 1000, 6000), resp.getContentAsByteArray());
+	}
+
+	/**
+	 * With sendfile support the file is left to the container
+	 */
+	@Test
+	public void testSendfile() throws IOException {
+		FileStreamer streamer = new FileStreamer();
+		MockHttpServletRequest req = new MockHttpServletRequest();
+		req.setAttribute(FileStreamer.SENDFILE_SUPPORT, Boolean.TRUE);
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		streamer.send(req, resp, file);
+		assertEquals(0, resp.getContentAsByteArray().length);
+		assertEquals(file.getCanonicalPath(), req.getAttribute(FileStreamer.SENDFILE_FILENAME));
+		assertEquals(Long.valueOf(0), req.getAttribute(FileStreamer.SENDFILE_START));
+		assertEquals(Long.valueOf(content.length), req.getAttribute(FileStreamer.SENDFILE_END));
+
+		// too small to be worth it
+		req = new MockHttpServletRequest();
+		req.setAttribute(FileStreamer.SENDFILE_SUPPORT, Boolean.TRUE);
+		resp = new MockHttpServletResponse();
+		streamer.send(req, resp, file, 0, 100);
+		assertNull(req.getAttribute(FileStreamer.SENDFILE_FILENAME));
+		assertEquals(100, resp.getContentAsByteArray().length);
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ *  OpenSDI Manager 2
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.mvc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Test class for the conditional and Range requests handled by BaseFileManager
+ */
+public class BaseFileManagerDownloadTest {
+
+	private BaseFileManager fileManager;
+
+	private File file;
+
+	private byte[] content;
+
+	@Before
+	public void setup() throws IOException {
+		fileManager = new BaseFileManager();
+		content = new byte[10000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		file = File.createTempFile("download", ".bin");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	@After
+	public void cleanup() {
+		file.delete();
+	}
+
+	/**
+	 * The validators must be sent and a matching request gets a 304
+	 */
+	@Test
+	public void testConditional() {
+		MockHttpServletResponse resp = download(new MockHttpServletRequest("GET", "/download"));
+		assertEquals(HttpServletResponse.SC_OK, resp.getStatus());
+		assertArrayEquals(content, resp.getContentAsByteArray());
+		String eTag = (String) resp.getHeader("ETag");
+		assertNotNull(eTag);
+		assertNotNull(resp.getHeader("Last-Modified"));
+
+		MockHttpServletRequest req = new MockHttpServletRequest("GET", "/download");
+		req.addHeader("If-None-Match", "\"other\", W/" + eTag);
+		resp = download(req);
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, resp.getStatus());
+		assertEquals(0, resp.getContentAsByteArray().length);
+
+		req = new MockHttpServletRequest("GET", "/download");
+		req.addHeader("If-Modified-Since", file.lastModified() + 1000);
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, download(req).getStatus());
+
+		req = new MockHttpServletRequest("GET", "/download");
+		req.addHeader("If-Modified-Since", file.lastModified() - 2000);
+		assertEquals(HttpServletResponse.SC_OK, download(req).getStatus());
+	}
+
+	/**
+	 * A single range gets a 206 with the requested bytes only
+	 */
+	@Test
+	public void testSingleRange() {
+		MockHttpServletRequest req = new MockHttpServletRequest("GET", "/download");
+		req.addHeader("Range", "bytes=100-199");
+		MockHttpServletResponse resp = download(req);
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, resp.getStatus());
+		assertEquals("bytes 100-199/10000", resp.getHeader("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(content, 100, 200), resp.getContentAsByteArray());
+
+		req = new MockHttpServletRequest("GET", "/download");
+		req.addHeader("Range", "bytes=-500");
+		resp = download(req);
+		assertEquals("bytes 9500-9999/10000", resp.getHeader("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(content, 9500, 10000), resp.getContentAsByteArray());
+
+		// the file changed since the client got the first part
+		req = new MockHttpServletRequest("GET", "/download");
+		req.addHeader("Range", "bytes=100-199");
+		req.addHeader("If-Range", "\"stale\"");
+		resp = download(req);
+		assertEquals(HttpServletResponse.SC_OK, resp.getStatus());
+		assertEquals(content.length, resp.getContentAsByteArray().length);
+
+		req = new MockHttpServletRequest("GET", "/download");
+		req.addHeader("Range", "bytes=20000-");
+		resp = download(req);
+		assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, resp.getStatus());
+		assertEquals("bytes */10000", resp.getHeader("Content-Range"));
+	}
+
+	/**
+	 * Many ranges get a multipart/byteranges response
+	 */
+	@Test
+	public void testMultipleRanges() throws Exception {
+		MockHttpServletRequest req = new MockHttpServletRequest("GET", "/download");
+		req.addHeader("Range", "bytes=0-9,5000-5009");
+		MockHttpServletResponse resp = download(req);
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, resp.getStatus());
+		assertTrue(resp.getContentType().startsWith("multipart/byteranges; boundary="));
+		byte[] body = resp.getContentAsByteArray();
+		assertEquals(Long.toString(body.length), resp.getHeader("Content-Length"));
+		String text = new String(body, "ISO-8859-1");
+		assertTrue(text.contains("Content-Range: bytes 0-9/10000"));
+		assertTrue(text.contains("Content-Range: bytes 5000-5009/10000"));
+		assertTrue(text.contains("Content-Type: application/octet-stream"));
+	}
+
+	/**
+	 * The overlapping or adjacent ranges are merged before being counted, so
+	 * a byte is sent once
+	 */
+	@Test
+	public void testOverlappingRanges() {
+		MockHttpServletRequest req = new MockHttpServletRequest("GET", "/download");
+		req.addHeader("Range", "bytes=100-199,0-149,200-299");
+		MockHttpServletResponse resp = download(req);
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, resp.getStatus());
+		assertEquals("bytes 0-299/10000", resp.getHeader("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(content, 0, 300), resp.getContentAsByteArray());
+
+		StringBuilder range = new StringBuilder("bytes=0-9999");
+		for (int i = 0; i < BaseFileManager.MAX_RANGES * 2; i++) {
+			range.append(",0-9999");
+		}
+		req = new MockHttpServletRequest("GET", "/download");
+		req.addHeader("Range", range.toString());
+		resp = download(req);
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, resp.getStatus());
+		assertEquals(content.length, resp.getContentAsByteArray().length);
+
+		// too many distinct ranges: the whole file is sent
+		range = new StringBuilder("bytes=0-0");
+		for (int i = 1; i <= BaseFileManager.MAX_RANGES; i++) {
+			range.append(",").append(i * 10).append("-").append(i * 10);
+		}
+		req = new MockHttpServletRequest("GET", "/download");
+		req.addHeader("Range", range.toString());
+		resp = download(req);
+		assertEquals(HttpServletResponse.SC_OK, resp.getStatus());
+		assertEquals(content.length, resp.getContentAsByteArray().length);
+	}
+
+	/**
+	 * The HEAD requests get the headers of the GET ones without the body
+	 */
+	@Test
+	public void testHead() {
+		MockHttpServletResponse resp = download(new MockHttpServletRequest("HEAD", "/download"));
+		assertEquals(HttpServletResponse.SC_OK, resp.getStatus());
+		assertEquals(Integer.toString(content.length), resp.getHeader("Content-Length"));
+		assertEquals(0, resp.getContentAsByteArray().length);
+
+		MockHttpServletRequest req = new MockHttpServletRequest("HEAD", "/download");
+		req.addHeader("Range", "bytes=0-9,5000-5009");
+		resp = download(req);
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, resp.getStatus());
+		assertTrue(resp.getContentType().startsWith("multipart/byteranges; boundary="));
+		assertNotNull(resp.getHeader("Content-Length"));
+		assertEquals(0, resp.getContentAsByteArray().length);
+	}
+
+	private MockHttpServletResponse download(MockHttpServletRequest req) {
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		fileManager.download(req, resp, file.getName(), file.getAbsolutePath());
+		return resp;
+	}
+}
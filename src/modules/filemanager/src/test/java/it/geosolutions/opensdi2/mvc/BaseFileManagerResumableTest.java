@@ -0,0 +1,206 @@
+/*
+ *  OpenSDI Manager 2
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.mvc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import it.geosolutions.opensdi2.service.impl.ResumableUploadServiceImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Test class for the resumable upload protocol of BaseFileManager
+ */
+public class BaseFileManagerResumableTest {
+
+	private BaseFileManager fileManager;
+
+	private File rootDir;
+
+	@Before
+	public void setup() throws IOException {
+		rootDir = File.createTempFile("root", "");
+		rootDir.delete();
+		rootDir.mkdir();
+		new File(rootDir, "surveys").mkdir();
+		ResumableUploadServiceImpl service = new ResumableUploadServiceImpl();
+		service.setStorageFolder(new File(rootDir, ".uploads").getAbsolutePath());
+		service.init();
+		fileManager = new BaseFileManager();
+		fileManager.setResumableUploadService(service);
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		FileUtils.deleteDirectory(rootDir);
+	}
+
+	/**
+	 * Create, append in two requests and check the file on its folder
+	 */
+	@Test
+	public void testUpload() throws Exception {
+		byte[] content = new byte[3000];
+		Arrays.fill(content, (byte) 42);
+
+		MockHttpServletRequest req = request("POST",
+				"/fileManager/resumable");
+		req.addHeader("Upload-Length", "3000");
+		req.addHeader("Upload-Metadata", "filename "
+				+ base64("data.bin") + ",folder " + base64("surveys"));
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		fileManager.createResumableUpload(root(), req, resp);
+		assertEquals(HttpServletResponse.SC_CREATED, resp.getStatus());
+		String location = (String) resp.getHeader("Location");
+		assertTrue(location.contains("/fileManager/resumable/"));
+		String id = location.substring(location.lastIndexOf('/') + 1);
+
+		resp = append(id, 0, Arrays.copyOf(content, 1000));
+		assertEquals(HttpServletResponse.SC_NO_CONTENT, resp.getStatus());
+		assertEquals("1000", resp.getHeader("Upload-Offset"));
+
+		req = request("HEAD", location);
+		resp = new MockHttpServletResponse();
+		fileManager.getResumableUploadOffset(id, req, resp);
+		assertEquals("1000", resp.getHeader("Upload-Offset"));
+		assertEquals("3000", resp.getHeader("Upload-Length"));
+
+		// repeated request
+		assertEquals(HttpServletResponse.SC_CONFLICT,
+				append(id, 0, Arrays.copyOf(content, 1000)).getStatus());
+
+		resp = append(id, 1000, Arrays.copyOf(content, 2000));
+		assertEquals("3000", resp.getHeader("Upload-Offset"));
+		assertArrayEquals(content, FileUtils.readFileToByteArray(new File(
+				rootDir, "surveys/data.bin")));
+
+		resp = new MockHttpServletResponse();
+		fileManager.getResumableUploadOffset(id, request("HEAD", location), resp);
+		assertEquals(HttpServletResponse.SC_NOT_FOUND, resp.getStatus());
+	}
+
+	/**
+	 * Folders outside the root directory must be refused on creation
+	 */
+	@Test
+	public void testFolderTraversal() throws Exception {
+		for (String folder : new String[] { "..", "../..", "surveys/../..",
+				"/../../tmp" }) {
+			MockHttpServletRequest req = request("POST",
+					"/fileManager/resumable");
+			req.addHeader("Upload-Length", "0");
+			req.addHeader("Upload-Metadata", "filename " + base64("evil.bin")
+					+ ",folder " + base64(folder));
+			MockHttpServletResponse resp = new MockHttpServletResponse();
+			fileManager.createResumableUpload(root(), req, resp);
+			assertEquals(folder, HttpServletResponse.SC_BAD_REQUEST,
+					resp.getStatus());
+		}
+		assertFalse(new File(rootDir.getParentFile(), "evil.bin").exists());
+	}
+
+	/**
+	 * Uploads are completed on the target resolved on creation and can't be
+	 * appended through a controller with another root directory
+	 */
+	@Test
+	public void testOtherRootDir() throws Exception {
+		MockHttpServletRequest req = request("POST", "/fileManager/resumable");
+		req.addHeader("Upload-Length", "10");
+		req.addHeader("Upload-Metadata", "filename " + base64("data.bin")
+				+ ",folder " + base64("surveys"));
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		fileManager.createResumableUpload(root(), req, resp);
+		assertEquals(HttpServletResponse.SC_CREATED, resp.getStatus());
+		String location = (String) resp.getHeader("Location");
+		String id = location.substring(location.lastIndexOf('/') + 1);
+
+		File otherRoot = new File(rootDir, "other");
+		otherRoot.mkdir();
+		req = request("PATCH", location);
+		req.setContentType(BaseFileManager.TUS_CONTENT_TYPE);
+		req.addHeader("Upload-Offset", "0");
+		req.setContent(new byte[10]);
+		resp = new MockHttpServletResponse();
+		fileManager.appendResumableUpload(otherRoot.getAbsolutePath()
+				+ File.separator, id, req, resp);
+		assertEquals(HttpServletResponse.SC_NOT_FOUND, resp.getStatus());
+
+		resp = append(id, 0, new byte[10]);
+		assertEquals(HttpServletResponse.SC_NO_CONTENT, resp.getStatus());
+		assertTrue(new File(rootDir, "surveys/data.bin").isFile());
+		assertFalse(new File(otherRoot, "surveys/data.bin").exists());
+	}
+
+	/**
+	 * Requests without the protocol version must be refused
+	 */
+	@Test
+	public void testVersion() throws Exception {
+		MockHttpServletRequest req = new MockHttpServletRequest("POST",
+				"/fileManager/resumable");
+		req.addHeader("Upload-Length", "10");
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		fileManager.createResumableUpload(root(), req, resp);
+		assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED,
+				resp.getStatus());
+	}
+
+	private MockHttpServletResponse append(String id, long offset,
+			byte[] content) throws IOException {
+		MockHttpServletRequest req = request("PATCH",
+				"/fileManager/resumable/" + id);
+		req.setContentType(BaseFileManager.TUS_CONTENT_TYPE);
+		req.addHeader("Upload-Offset", Long.toString(offset));
+		req.setContent(content);
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		fileManager.appendResumableUpload(root(), id, req, resp);
+		return resp;
+	}
+
+	private String root() {
+		return rootDir.getAbsolutePath() + File.separator;
+	}
+
+	private static MockHttpServletRequest request(String method, String uri) {
+		MockHttpServletRequest req = new MockHttpServletRequest(method, uri);
+		req.addHeader("Tus-Resumable", BaseFileManager.TUS_VERSION);
+		return req;
+	}
+
+	private static String base64(String value) throws Exception {
+		return DatatypeConverter.printBase64Binary(value.getBytes("UTF-8"));
+	}
+}
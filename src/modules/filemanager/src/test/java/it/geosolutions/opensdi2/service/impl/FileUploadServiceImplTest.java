@@ -0,0 +1,238 @@
+/*
+ *  OpenSDI Manager 2
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.service.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+/**
+ * Test class for the chunked uploads of FileUploadServiceImpl
+ */
+public class FileUploadServiceImplTest {
+
+	private static final int CHUNK_SIZE = 1000;
+
+	private FileUploadServiceImpl service;
+
+	private File folder;
+
+	private byte[] content;
+
+	@Before
+	public void setup() throws IOException {
+		folder = File.createTempFile("uploads", "");
+		folder.delete();
+		folder.mkdir();
+		service = new FileUploadServiceImpl();
+		service.setTemporaryFolder(folder.getAbsolutePath());
+		content = new byte[CHUNK_SIZE * 4 + 123];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 31);
+		}
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		FileUtils.deleteDirectory(folder);
+	}
+
+	/**
+	 * Chunks received out of order, with the last one first, must be written
+	 * on their position
+	 */
+	@Test
+	public void testOutOfOrder() throws IOException {
+		int[] order = { 4, 2, 0, 3, 1 };
+		Entry<String, ?> entry = null;
+		for (int chunk : order) {
+			assertFalse(service.isComplete(entry));
+			Entry<String, ?> current = service.addChunk("data.bin", 5, chunk,
+					chunk(chunk));
+			if (entry != null) {
+				assertEquals(entry.getKey(), current.getKey());
+			}
+			entry = current;
+		}
+		assertTrue(service.isComplete(entry));
+		File target = new File(folder, "target.bin");
+		service.getCompletedFile("data.bin", target.getAbsolutePath(), entry);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(target));
+		assertEquals(0, service.size());
+		// only the target remains
+		assertEquals(1, folder.list().length);
+	}
+
+	/**
+	 * Two uploads of the same file name must be kept apart
+	 */
+	@Test
+	public void testSimultaneous() throws IOException {
+		Entry<String, ?> first = service.addChunk("data.bin", 5, 0, chunk(0));
+		Entry<String, ?> second = service.addChunk("data.bin", 5, 0, chunk(0));
+		assertFalse(first.getKey().equals(second.getKey()));
+		for (int chunk = 1; chunk < 5; chunk++) {
+			assertEquals(first.getKey(),
+					service.addChunk("data.bin", 5, chunk, chunk(chunk)).getKey());
+		}
+		assertTrue(service.isComplete(first));
+		assertFalse(service.isComplete(second));
+		File target = new File(folder, "target.bin");
+		service.getCompletedFile("data.bin", target.getAbsolutePath(), first);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(target));
+		assertEquals(1, service.size());
+		service.remove(second.getKey());
+		assertEquals(0, service.size());
+	}
+
+	/**
+	 * Chunks sent with the upload ID must go to that upload, expired uploads
+	 * are removed with their files
+	 */
+	@Test
+	public void testUploadId() throws IOException {
+		Entry<String, ?> first = service.addChunk("data.bin", 5, 0, chunk(0));
+		Entry<String, ?> second = service.addChunk("data.bin", 5, 0, chunk(0));
+		Entry<String, ?> entry = service.addChunk(second.getKey(), "data.bin",
+				5, 1, chunk(1));
+		assertEquals(second.getKey(), entry.getKey());
+		ChunkedUpload upload = (ChunkedUpload) entry.getValue();
+		assertEquals(2, upload.getReceivedChunks());
+		assertEquals(2 * CHUNK_SIZE, upload.getBytesReceived());
+		assertEquals(1, ((ChunkedUpload) first.getValue()).getReceivedChunks());
+		assertNull(service.addChunk("unknown", "data.bin", 5, 1, chunk(1)));
+
+		// nothing is idle yet
+		service.setIdleTimeout(60000);
+		service.cleanup();
+		assertEquals(2, service.size());
+		service.setIdleTimeout(-1);
+		service.cleanup();
+		assertEquals(0, service.size());
+		assertEquals(0, folder.list().length);
+		assertNull(service.addChunk(second.getKey(), "data.bin", 5, 2,
+				chunk(2)));
+	}
+
+	/**
+	 * A chunk with a different size than the previous ones can't be placed:
+	 * the error reaches the client so it sends the chunk again
+	 */
+	@Test
+	public void testChunkSizeMismatch() throws IOException {
+		Entry<String, ?> entry = service.addChunk("data.bin", 5, 0, chunk(0));
+		try {
+			service.addChunk("data.bin", 5, 1, new MockMultipartFile("file",
+					new byte[CHUNK_SIZE / 2]));
+			fail("The chunk size doesn't match");
+		} catch (IOException e) {
+			// expected
+		}
+		assertFalse(((ChunkedUpload) entry.getValue()).isReceived(1));
+	}
+
+	/**
+	 * A chunk failing to be read is not received and can be sent again
+	 */
+	@Test
+	public void testFailedChunk() throws IOException {
+		Entry<String, ?> entry = service.addChunk("data.bin", 5, 0, chunk(0));
+		MockMultipartFile broken = new MockMultipartFile("file",
+				new byte[CHUNK_SIZE]) {
+			@Override
+			public InputStream getInputStream() throws IOException {
+				throw new IOException("Connection reset");
+			}
+		};
+		try {
+			service.addChunk(entry.getKey(), "data.bin", 5, 1, broken);
+			fail("The chunk can't be read");
+		} catch (IOException e) {
+			// expected
+		}
+		assertFalse(((ChunkedUpload) entry.getValue()).isReceived(1));
+		service.addChunk(entry.getKey(), "data.bin", 5, 1, chunk(1));
+		assertTrue(((ChunkedUpload) entry.getValue()).isReceived(1));
+	}
+
+	/**
+	 * Requests completing the same upload together must produce the file
+	 * once, without removing the part file under the one moving it
+	 */
+	@Test
+	public void testConcurrentCompletion() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			Entry<String, ?> entry = null;
+			for (int chunk = 0; chunk < 5; chunk++) {
+				entry = service.addChunk("data.bin", 5, chunk, chunk(chunk));
+			}
+			final Entry<String, ?> completed = entry;
+			final File target = new File(folder, "target" + i + ".bin");
+			final CountDownLatch start = new CountDownLatch(1);
+			Thread[] threads = new Thread[3];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						service.getCompletedFile("data.bin",
+								target.getAbsolutePath(), completed);
+					}
+				};
+				threads[t].start();
+			}
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertArrayEquals(content, FileUtils.readFileToByteArray(target));
+			assertTrue(((ChunkedUpload) entry.getValue()).isFinished());
+			assertEquals(0, service.size());
+			assertEquals(i + 1, folder.list().length);
+		}
+	}
+
+	private MockMultipartFile chunk(int chunk) {
+		int from = chunk * CHUNK_SIZE;
+		return new MockMultipartFile("file", Arrays.copyOfRange(content, from,
+				Math.min(from + CHUNK_SIZE, content.length)));
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ *  OpenSDI Manager 2
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.service.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import it.geosolutions.opensdi2.configurations.configdir.OpenSDIManagerConfig;
+import it.geosolutions.opensdi2.service.ResumableUploadException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for ResumableUploadServiceImpl
+ */
+public class ResumableUploadServiceImplTest {
+
+	private ResumableUploadServiceImpl service;
+
+	private File folder;
+
+	private byte[] content;
+
+	private Map<String, String> metadata = Collections.singletonMap(
+			"filename", "survey.zip");
+
+	@Before
+	public void setup() throws IOException {
+		folder = File.createTempFile("resumable", "");
+		folder.delete();
+		service = newService();
+		content = new byte[200000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 7);
+		}
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		FileUtils.deleteDirectory(folder);
+	}
+
+	/**
+	 * The bytes received before a dropped connection are kept and the upload
+	 * can be resumed from them, also after a restart
+	 */
+	@Test
+	public void testResume() throws IOException {
+		String id = service.create(content.length, metadata);
+		assertEquals(0, service.getOffset(id));
+		try {
+			service.append(id, 0, new DroppingInputStream(content, 70000));
+			fail("The connection was dropped");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(70000, service.getOffset(id));
+
+		// restart
+		service = newService();
+		assertEquals(70000, service.getOffset(id));
+		assertEquals(content.length, service.getLength(id));
+		assertEquals("survey.zip", service.getMetadata(id).get("filename"));
+		try {
+			service.append(id, 0, new ByteArrayInputStream(content));
+			fail("Wrong offset");
+		} catch (ResumableUploadException e) {
+			assertEquals(HttpServletResponse.SC_CONFLICT, e.getStatus());
+		}
+		assertEquals(content.length, service.append(id, 70000,
+				new ByteArrayInputStream(content, 70000, content.length - 70000)));
+
+		File target = new File(folder, "survey.zip");
+		service.complete(id, target);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(target));
+		assertEquals(-1, service.getOffset(id));
+		assertEquals(0, service.size());
+		// only the target remains
+		assertEquals(1, folder.list().length);
+	}
+
+	/**
+	 * Content exceeding the length is refused, the valid bytes are kept
+	 */
+	@Test
+	public void testExceedingContent() throws IOException {
+		String id = service.create(1000, metadata);
+		try {
+			service.append(id, 0, new ByteArrayInputStream(content, 0, 1500));
+			fail("The content exceeds the length");
+		} catch (ResumableUploadException e) {
+			assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+					e.getStatus());
+		}
+		assertEquals(1000, service.getOffset(id));
+	}
+
+	/**
+	 * The maximum size and number of uploads must be enforced
+	 */
+	@Test
+	public void testLimits() throws IOException {
+		service.setMaxSize(1000);
+		service.setMaxUploads(1);
+		try {
+			service.create(1001, metadata);
+			fail("The upload is too large");
+		} catch (ResumableUploadException e) {
+			assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+					e.getStatus());
+		}
+		String id = service.create(1000, metadata);
+		try {
+			service.create(10, metadata);
+			fail("Too many uploads");
+		} catch (ResumableUploadException e) {
+			assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					e.getStatus());
+		}
+		assertTrue(service.terminate(id));
+		assertFalse(service.terminate(id));
+		assertEquals(0, folder.list().length);
+		service.create(10, metadata);
+	}
+
+	/**
+	 * Concurrent creations can't exceed the maximum number of uploads
+	 */
+	@Test
+	public void testConcurrentLimit() throws Exception {
+		service.setMaxUploads(5);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < 40; i++) {
+				results.add(executor.submit(new Callable<String>() {
+					public String call() throws Exception {
+						try {
+							return service.create(10, metadata);
+						} catch (ResumableUploadException e) {
+							return null;
+						}
+					}
+				}));
+			}
+			int created = 0;
+			for (Future<String> result : results) {
+				if (result.get() != null) {
+					created++;
+				}
+			}
+			assertEquals(5, created);
+			assertEquals(5, service.size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Idle uploads must be removed on cleanup
+	 */
+	@Test
+	public void testExpiration() throws IOException {
+		String id = service.create(1000, metadata);
+		service.cleanup();
+		assertEquals(0, service.getOffset(id));
+		service.setExpiration(-1);
+		service.cleanup();
+		assertEquals(-1, service.getOffset(id));
+		assertEquals(0, folder.list().length);
+	}
+
+	/**
+	 * An upload that can't be moved must be kept for another attempt
+	 */
+	@Test
+	public void testFailedCompletion() throws IOException {
+		String id = service.create(content.length, metadata);
+		service.append(id, 0, new ByteArrayInputStream(content));
+		File blocker = new File(folder, "blocker");
+		assertTrue(blocker.createNewFile());
+		try {
+			service.complete(id, new File(blocker, "survey.zip"));
+			fail("The target can't be written");
+		} catch (IOException e) {
+			// the parent is a file
+		}
+		assertEquals(content.length, service.getOffset(id));
+		File target = new File(folder, "survey.zip");
+		service.complete(id, target);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(target));
+		assertEquals(0, service.size());
+	}
+
+	/**
+	 * Without a storage folder the uploads are kept in the configuration
+	 * directory
+	 */
+	@Test
+	public void testDefaultFolder() throws IOException {
+		ResumableUploadServiceImpl service = new ResumableUploadServiceImpl();
+		service.setBaseConfig(new OpenSDIManagerConfig() {
+			public File getConfigDir() {
+				return folder;
+			}
+
+			public void initConfigDir() {
+			}
+		});
+		service.init();
+		service.create(1000, metadata);
+		File storage = new File(folder,
+				ResumableUploadServiceImpl.STORAGE_FOLDER_NAME);
+		assertEquals(storage.getAbsolutePath(), service.getStorageFolder());
+		assertEquals(2, storage.list().length);
+	}
+
+	private ResumableUploadServiceImpl newService() {
+		ResumableUploadServiceImpl service = new ResumableUploadServiceImpl();
+		service.setStorageFolder(folder.getAbsolutePath());
+		service.init();
+		return service;
+	}
+
+	/**
+	 * Stream failing after some bytes as a dropped connection
+	 */
+	private static class DroppingInputStream extends InputStream {
+
+		private final InputStream in;
+
+		private int left;
+
+		DroppingInputStream(byte[] content, int length) {
+			this.in = new ByteArrayInputStream(Arrays.copyOf(content, length));
+			this.left = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (left == 0) {
+				throw new IOException("Connection reset");
+			}
+			int read = in.read(b, off, Math.min(len, 1000));
+			left -= read;
+			return read;
+		}
+	}
+}
@@ -154,7 +154,7 @@ public class GeoCollectActionController extends OSDIModuleController {
                                     
                                     Map<String,String> rules = new HashMap<String, String>();
                                     
-                                    for(String rule_key : actionConfig.getAllKeys()){
+                                    for(String rule_key : actionConfig.keys()){
                                         
                                         if(actionConfig.getValue(rule_key) instanceof String){
                                         
@@ -234,7 +234,7 @@ public class GeoCollectActionController extends OSDIModuleController {
                             
                             Map<String,String> rules = new HashMap<String, String>();
                             
-                            for(String rule_key : actionConfig.getAllKeys()){
+                            for(String rule_key : actionConfig.keys()){
                                 
                                 if(actionConfig.getValue(rule_key) instanceof String){
                                 
@@ -470,7 +470,7 @@ public class GeoCollectActionController extends OSDIModuleController {
 		                            
 		                            Map<String,String> rules = new HashMap<String, String>();
 		                            
-		                            for(String rule_key : actionConfig.getAllKeys()){
+		                            for(String rule_key : actionConfig.keys()){
 		                                
 		                                if(actionConfig.getValue(rule_key) instanceof String){
 		                                
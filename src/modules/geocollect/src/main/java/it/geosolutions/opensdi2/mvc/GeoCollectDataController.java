@@ -246,6 +246,87 @@ public class GeoCollectDataController extends BaseFileManager {
 	}
 
 
+	/**
+	 * Create a resumable upload
+	 * 
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "/resumable", method = RequestMethod.POST)
+	public void createResumableUpload(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		String rootDir = computeRootDir(request);
+		super.createResumableUpload(rootDir, request, response);
+	}
+
+	/**
+	 * Get the offset of a resumable upload
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "/resumable/{id}", method = RequestMethod.HEAD)
+	public void getResumableUploadOffset(@PathVariable("id") String id,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		super.getResumableUploadOffset(id, request, response);
+	}
+
+	/**
+	 * Append content to a resumable upload
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "/resumable/{id}", method = RequestMethod.PATCH)
+	public void appendResumableUpload(@PathVariable("id") String id,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		String rootDir = computeRootDir(request);
+		super.appendResumableUpload(rootDir, id, request, response);
+	}
+
+	/**
+	 * Append content to or terminate a resumable upload with the
+	 * X-HTTP-Method-Override header
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "/resumable/{id}", method = RequestMethod.POST, headers = "X-HTTP-Method-Override")
+	public void overrideResumableUpload(@PathVariable("id") String id,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		String rootDir = computeRootDir(request);
+		super.overrideResumableUpload(rootDir, id, request, response);
+	}
+
+	/**
+	 * Terminate a resumable upload
+	 * 
+	 * @param id
+	 *            of the upload
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "/resumable/{id}", method = RequestMethod.DELETE)
+	public void terminateResumableUpload(@PathVariable("id") String id,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		super.terminateResumableUpload(id, request, response);
+	}
+
 	/**
 	 * Download a file
 	 * 
@@ -253,6 +334,8 @@ public class GeoCollectDataController extends BaseFileManager {
 	 *            folder for the file
 	 * @param file
 	 *            to be downloaded
+	 * @param req
+	 *            servlet request
 	 * @param resp
 	 *            servlet response
 	 */
@@ -260,10 +343,11 @@ public class GeoCollectDataController extends BaseFileManager {
 	public void downloadFile(
 			@RequestParam(value = "folder", required = false) String folder,
 			@RequestParam(value = "file", required = true) String file,
+			HttpServletRequest req,
 			HttpServletResponse resp) {
 		
 		String rootDir = computeRootDir(null);
-		super.downloadFile(rootDir, folder, file, resp);
+		super.downloadFile(rootDir, folder, file, req, resp);
 	}
 
 	@Override
@@ -287,7 +371,7 @@ public class GeoCollectDataController extends BaseFileManager {
                 LOGGER.error(e.getMessage(), e);
                 throw new IllegalStateException("The configuration for the module '" + FileManager.class + "' cannot be load...");
             }
-	    String rootDir = (String)config.getValue(ROOT_DIR);
+	    String rootDir = config.getString(ROOT_DIR, null);
 	    if(StringUtils.isBlank(rootDir)){
 	        throw new IllegalStateException("The module configuration provided has an empty '"+ROOT_DIR+"' value");
 	    }
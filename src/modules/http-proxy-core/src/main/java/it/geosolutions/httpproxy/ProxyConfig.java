@@ -19,6 +19,8 @@
  */
 package it.geosolutions.httpproxy;
 
+import it.geosolutions.httpproxy.utils.ProxyPolicy;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashSet;
@@ -30,7 +32,9 @@ import java.util.logging.Logger;
 import javax.servlet.ServletContext;
 
 /**
- * ProxyConfig class to define the proxy configuration.
+ * ProxyConfig class to define the proxy configuration.<br/>
+ * The properties file is read once into an immutable {@link ProxyPolicy} used
+ * by the getters, so handling the requests never reads the file.
  * 
  * @author Tobia Di Pisa at tobia.dipisa@geo-solutions.it
  */
@@ -95,6 +99,16 @@ final class ProxyConfig {
     
     private int defaultStreamByteSize = 1024;
 
+    /**
+     * Last properties read from the file, null if they can't be read
+     */
+    private volatile Properties properties;
+
+    /**
+     * Snapshot of the configuration read by the getters
+     */
+    private volatile ProxyPolicy policy;
+
 	/**
      * @param context
      * @param propertiesFilePath
@@ -112,97 +126,78 @@ final class ProxyConfig {
      * @throws IOException
      */
     private void configProxy() {
-        Properties props = propertiesLoader();
+        this.properties = propertiesLoader();
+        this.policy = buildPolicy();
+    }
+
+    /**
+     * Build the configuration snapshot from the last properties read. The
+     * properties not found keep the values of the fields.
+     * 
+     * @return the policy
+     */
+    private ProxyPolicy buildPolicy() {
+        Properties props = properties;
+        if (props == null) {
+            return new ProxyPolicy(hostnameWhitelist, mimetypeWhitelist, reqtypeWhitelist,
+                    methodsWhitelist, hostsWhitelist, soTimeout, connectionTimeout,
+                    maxTotalConnections, defaultMaxConnectionsPerHost, defaultStreamByteSize);
+        }
 
         // ////////////////////////////////////////////////////////////
         // Load proxy configuration white lists from properties file
         // ////////////////////////////////////////////////////////////
 
-        if (props != null) {
-            Set<String> p = Utils.parseWhiteList(props.getProperty("hostnameWhitelist"));
-            if (p != null)
-                this.setHostnameWhitelist(p);
-
-            p = Utils.parseWhiteList(props.getProperty("mimetypeWhitelist"));
-            if (p != null)
-                this.setMimetypeWhitelist(p);
-
-            p = Utils.parseWhiteList(props.getProperty("methodsWhitelist"));
-            if (p != null)
-                this.setMethodsWhitelist(p);
-
-            p = Utils.parseWhiteList(props.getProperty("hostsWhitelist"));
-            if (p != null)
-                this.setHostsWhitelist(p);
-
-            // ////////////////////////////////////////
-            // Read various request type properties
-            // ////////////////////////////////////////
-
-            Set<String> rt = new HashSet<String>();
-            String s = props.getProperty("reqtypeWhitelist.capabilities");
-            if (s != null)
-                rt.add(s);
-
-            s = props.getProperty("reqtypeWhitelist.geostore");
-            if (s != null)
-                rt.add(s);
-
-            s = props.getProperty("reqtypeWhitelist.csw");
-            if (s != null)
-                rt.add(s);
-            
-            s = props.getProperty("reqtypeWhitelist.featureinfo");
-            if (s != null)
-                rt.add(s);
-            
-            s = props.getProperty("reqtypeWhitelist.generic");
-            if (s != null)
-                rt.add(s);
-
-            this.setReqtypeWhitelist(rt);
+        Set<String> hostnames = Utils.parseWhiteList(props.getProperty("hostnameWhitelist"));
+        Set<String> mimetypes = Utils.parseWhiteList(props.getProperty("mimetypeWhitelist"));
+        Set<String> methods = Utils.parseWhiteList(props.getProperty("methodsWhitelist"));
+        Set<String> hosts = Utils.parseWhiteList(props.getProperty("hostsWhitelist"));
+
+        // ////////////////////////////////////////
+        // Read various request type properties
+        // ////////////////////////////////////////
+
+        Set<String> rt = new HashSet<String>();
+        addReqtype(rt, props, "reqtypeWhitelist.capabilities");
+        addReqtype(rt, props, "reqtypeWhitelist.geostore");
+        addReqtype(rt, props, "reqtypeWhitelist.csw");
+        addReqtype(rt, props, "reqtypeWhitelist.featureinfo");
+        addReqtype(rt, props, "reqtypeWhitelist.generic");
+
+        // /////////////////////////////////////////////////
+        // Load byte size and connection manager
+        // configuration from properties file.
+        // /////////////////////////////////////////////////
+
+        return new ProxyPolicy(hostnames != null ? hostnames : hostnameWhitelist,
+                mimetypes != null ? mimetypes : mimetypeWhitelist, rt,
+                methods != null ? methods : methodsWhitelist,
+                hosts != null ? hosts : hostsWhitelist,
+                parseInt(props, "timeout", soTimeout),
+                parseInt(props, "connection_timeout", connectionTimeout),
+                parseInt(props, "max_total_connections", maxTotalConnections),
+                parseInt(props, "default_max_connections_per_host", defaultMaxConnectionsPerHost),
+                parseInt(props, "defaultStreamByteSize", defaultStreamByteSize));
+    }
 
-            try {
-                // /////////////////////////////////////////////////
-                // Load byte size configuration from
-                // properties file.
-                // /////////////////////////////////////////////////
-            	
-                String bytesSize = props.getProperty("defaultStreamByteSize");
-                this.setDefaultStreamByteSize(bytesSize != null ? Integer.parseInt(bytesSize) : 
-                	this.defaultStreamByteSize);
-                
-                // /////////////////////////////////////////////////
-                // Load connection manager configuration from
-                // properties file.
-                // /////////////////////////////////////////////////
-                
-                String timeout = props.getProperty("timeout");
-                this.setSoTimeout(timeout != null ? Integer.parseInt(timeout) : this.soTimeout);
-
-                String conn_timeout = props.getProperty("connection_timeout");
-                this.setConnectionTimeout(conn_timeout != null ? Integer.parseInt(conn_timeout)
-                        : this.connectionTimeout);
-
-                String max_conn = props.getProperty("max_total_connections");
-                this.setMaxTotalConnections(max_conn != null ? Integer.parseInt(max_conn)
-                        : this.maxTotalConnections);
-
-                String def_conn_host = props.getProperty("default_max_connections_per_host");
-                this.setMaxTotalConnections(def_conn_host != null ? Integer.parseInt(def_conn_host)
-                        : this.defaultMaxConnectionsPerHost);
-
-            } catch (NumberFormatException e) {
-                if (LOGGER.isLoggable(Level.SEVERE))
-                    LOGGER.log(Level.SEVERE,
-                            "Error parsing the proxy properties file using default", e);
-
-                this.setSoTimeout(this.soTimeout);
-                this.setConnectionTimeout(this.connectionTimeout);
-                this.setMaxTotalConnections(this.maxTotalConnections);
-                this.setMaxTotalConnections(this.defaultMaxConnectionsPerHost);
-                this.setDefaultStreamByteSize(this.defaultStreamByteSize);
-            }
+    private static void addReqtype(Set<String> reqtypes, Properties props, String key) {
+        String s = props.getProperty(key);
+        if (s != null)
+            reqtypes.add(s);
+    }
+
+    private static int parseInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            if (LOGGER.isLoggable(Level.SEVERE))
+                LOGGER.log(Level.SEVERE,
+                        "Error parsing the proxy properties file using default", e);
+            return defaultValue;
         }
     }
 
@@ -241,11 +236,18 @@ final class ProxyConfig {
         }
     }
 
+    /**
+     * @return the configuration snapshot
+     */
+    public ProxyPolicy getPolicy() {
+        return policy;
+    }
+
     /**
      * @return the soTimeout
      */
     public int getSoTimeout() {
-        return soTimeout;
+        return policy.getSoTimeout();
     }
 
     /**
@@ -253,13 +255,14 @@ final class ProxyConfig {
      */
     public void setSoTimeout(int soTimeout) {
         this.soTimeout = soTimeout;
+        this.policy = buildPolicy();
     }
 
     /**
      * @return the connectionTimeout
      */
     public int getConnectionTimeout() {
-        return connectionTimeout;
+        return policy.getConnectionTimeout();
     }
 
     /**
@@ -267,13 +270,14 @@ final class ProxyConfig {
      */
     public void setConnectionTimeout(int connectionTimeout) {
         this.connectionTimeout = connectionTimeout;
+        this.policy = buildPolicy();
     }
 
     /**
      * @return the maxTotalConnections
      */
     public int getMaxTotalConnections() {
-        return maxTotalConnections;
+        return policy.getMaxTotalConnections();
     }
 
     /**
@@ -281,13 +285,14 @@ final class ProxyConfig {
      */
     public void setMaxTotalConnections(int maxTotalConnections) {
         this.maxTotalConnections = maxTotalConnections;
+        this.policy = buildPolicy();
     }
 
     /**
      * @return the defaultMaxConnectionsPerHost
      */
     public int getDefaultMaxConnectionsPerHost() {
-        return defaultMaxConnectionsPerHost;
+        return policy.getDefaultMaxConnectionsPerHost();
     }
 
     /**
@@ -295,21 +300,14 @@ final class ProxyConfig {
      */
     public void setDefaultMaxConnectionsPerHost(int defaultMaxConnectionsPerHost) {
         this.defaultMaxConnectionsPerHost = defaultMaxConnectionsPerHost;
+        this.policy = buildPolicy();
     }
 
     /**
      * @return the hostnameWhitelist
      */
     public Set<String> getHostnameWhitelist() {
-        Properties props = propertiesLoader();
-
-        if (props != null) {
-            Set<String> set = Utils.parseWhiteList(props.getProperty("hostnameWhitelist"));
-            if (set != null)
-                this.setHostnameWhitelist(set);
-        }
-
-        return hostnameWhitelist;
+        return policy.getHostnameWhitelist();
     }
 
     /**
@@ -317,21 +315,14 @@ final class ProxyConfig {
      */
     public void setHostnameWhitelist(Set<String> hostnameWhitelist) {
         this.hostnameWhitelist = hostnameWhitelist;
+        this.policy = buildPolicy();
     }
 
     /**
      * @return the mimetypeWhitelist
      */
     public Set<String> getMimetypeWhitelist() {
-        Properties props = propertiesLoader();
-
-        if (props != null) {
-            Set<String> set = Utils.parseWhiteList(props.getProperty("mimetypeWhitelist"));
-            if (set != null)
-                this.setMimetypeWhitelist(set);
-        }
-
-        return mimetypeWhitelist;
+        return policy.getMimetypeWhitelist();
     }
 
     /**
@@ -339,40 +330,14 @@ final class ProxyConfig {
      */
     public void setMimetypeWhitelist(Set<String> mimetypeWhitelist) {
         this.mimetypeWhitelist = mimetypeWhitelist;
+        this.policy = buildPolicy();
     }
 
     /**
      * @return the reqtypeWhitelist
      */
     public Set<String> getReqtypeWhitelist() {
-        Properties props = propertiesLoader();
-
-        if (props != null) {
-            Set<String> rt = new HashSet<String>();
-            String s = props.getProperty("reqtypeWhitelist.capabilities");
-            if (s != null)
-                rt.add(s);
-
-            s = props.getProperty("reqtypeWhitelist.geostore");
-            if (s != null)
-                rt.add(s);
-
-            s = props.getProperty("reqtypeWhitelist.csw");
-            if (s != null)
-                rt.add(s);
-            
-            s = props.getProperty("reqtypeWhitelist.featureinfo");
-            if (s != null)
-                rt.add(s);
-            
-            s = props.getProperty("reqtypeWhitelist.generic");
-            if (s != null)
-                rt.add(s);
-
-            this.setReqtypeWhitelist(rt);
-        }
-
-        return reqtypeWhitelist;
+        return policy.getReqtypeWhitelist();
     }
 
     /**
@@ -380,21 +345,14 @@ final class ProxyConfig {
      */
     public void setReqtypeWhitelist(Set<String> reqtypeWhitelist) {
         this.reqtypeWhitelist = reqtypeWhitelist;
+        this.policy = buildPolicy();
     }
 
     /**
      * @return the methodsWhitelist
      */
     public Set<String> getMethodsWhitelist() {
-        Properties props = propertiesLoader();
-
-        if (props != null) {
-            Set<String> set = Utils.parseWhiteList(props.getProperty("methodsWhitelist"));
-            if (set != null)
-                this.setMethodsWhitelist(set);
-        }
-
-        return methodsWhitelist;
+        return policy.getMethodsWhitelist();
     }
 
     /**
@@ -402,21 +360,14 @@ final class ProxyConfig {
      */
     public void setMethodsWhitelist(Set<String> methodsWhitelist) {
         this.methodsWhitelist = methodsWhitelist;
+        this.policy = buildPolicy();
     }
 
     /**
      * @return the hostsWhitelist
      */
     public Set<String> getHostsWhitelist() {
-        Properties props = propertiesLoader();
-
-        if (props != null) {
-            Set<String> set = Utils.parseWhiteList(props.getProperty("hostsWhitelist"));
-            if (set != null)
-                this.setHostsWhitelist(set);
-        }
-
-        return hostsWhitelist;
+        return policy.getHostsWhitelist();
     }
 
     /**
@@ -424,6 +375,7 @@ final class ProxyConfig {
      */
     public void setHostsWhitelist(Set<String> hostsWhitelist) {
         this.hostsWhitelist = hostsWhitelist;
+        this.policy = buildPolicy();
     }
 
     /**
@@ -458,7 +410,7 @@ final class ProxyConfig {
 	 * @return the defaultStreamByteSize
 	 */
 	public int getDefaultStreamByteSize() {
-		return defaultStreamByteSize;
+		return policy.getDefaultStreamByteSize();
 	}
 
 	/**
@@ -466,6 +418,7 @@ final class ProxyConfig {
 	 */
 	public void setDefaultStreamByteSize(int defaultStreamByteSize) {
 		this.defaultStreamByteSize = defaultStreamByteSize;
+		this.policy = buildPolicy();
 	}
 
 }
@@ -19,12 +19,11 @@
  */
 package it.geosolutions.httpproxy;
 
+import it.geosolutions.httpproxy.utils.ProxyPolicy;
+
 import java.io.IOException;
 import java.net.URL;
-import java.util.Iterator;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -54,7 +53,8 @@ public class RequestTypeChecker implements ProxyCallback {
      */
     public void onRequest(HttpServletRequest request, HttpServletResponse response, URL url)
             throws IOException {
-        Set<String> reqTypes = config.getReqtypeWhitelist();
+        ProxyPolicy policy = config.getPolicy();
+        Set<String> reqTypes = policy.getReqtypeWhitelist();
 
         // //////////////////////////////////////
         // Check off the request type
@@ -62,25 +62,12 @@ public class RequestTypeChecker implements ProxyCallback {
         // //////////////////////////////////////
 
         if (reqTypes != null && reqTypes.size() > 0) {
-            Iterator<String> iterator = reqTypes.iterator();
-
             String urlExtForm = url.toExternalForm();
             /*if (urlExtForm.indexOf("?") != -1) {
                 urlExtForm = urlExtForm.split("\\?")[1];
             }*/
 
-            boolean check = false;
-            while (iterator.hasNext()) {
-                String regex = iterator.next();
-
-                Pattern pattern = Pattern.compile(regex);
-                Matcher matcher = pattern.matcher(urlExtForm);
-
-                if (matcher.matches()) {
-                    check = true;
-                    break;
-                }
-            }
+            boolean check = policy.getReqtypeMatcher().matches(urlExtForm);
 
             if (!check)
                 throw new HttpErrorException(403, "Request Type"
@@ -0,0 +1,202 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.cache;
+
+import java.io.Serializable;
+
+/**
+ * Remote response stored in a {@link ResponseCache}. Instances are immutable,
+ * a revalidated response is stored as a new instance.<br/>
+ * A response without body and with the names of the <code>Vary</code> headers
+ * is a marker telling that the variants of the resource are stored with the
+ * keys built by {@link HttpCacheSupport#getVariantKey(String, String[], javax.servlet.http.HttpServletRequest)}.
+ */
+public final class CachedResponse implements Serializable {
+
+    private static final long serialVersionUID = 2954013762873412551L;
+
+    private final int status;
+
+    private final String[] headerNames;
+
+    private final String[] headerValues;
+
+    private final byte[] body;
+
+    private final long expiresAt;
+
+    private final String eTag;
+
+    private final String lastModified;
+
+    private final String[] varyHeaders;
+
+    /**
+     * @param status response status
+     * @param headerNames names of the headers to send to the client
+     * @param headerValues values of the headers, in the same order of the names
+     * @param body response body
+     * @param expiresAt time in milliseconds until the response is fresh
+     * @param eTag entity tag to revalidate the response, can be null
+     * @param lastModified last modification date to revalidate the response, can be null
+     */
+    public CachedResponse(int status, String[] headerNames, String[] headerValues, byte[] body,
+            long expiresAt, String eTag, String lastModified) {
+        this(status, headerNames, headerValues, body, expiresAt, eTag, lastModified, null);
+    }
+
+    private CachedResponse(int status, String[] headerNames, String[] headerValues, byte[] body,
+            long expiresAt, String eTag, String lastModified, String[] varyHeaders) {
+        if (headerNames.length != headerValues.length) {
+            throw new IllegalArgumentException("Header names and values don't match");
+        }
+        this.status = status;
+        this.headerNames = headerNames;
+        this.headerValues = headerValues;
+        this.body = body;
+        this.expiresAt = expiresAt;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.varyHeaders = varyHeaders;
+    }
+
+    /**
+     * Build the marker of a resource whose variants depend on request headers
+     * 
+     * @param varyHeaders names of the headers selecting the variant
+     * @param expiresAt expiration of the marker
+     * @return the marker
+     */
+    public static CachedResponse varyMarker(String[] varyHeaders, long expiresAt) {
+        return new CachedResponse(0, new String[0], new String[0], null, expiresAt, null, null,
+                varyHeaders);
+    }
+
+    /**
+     * Copy of this response with a new expiration, used when the remote server
+     * confirms the response is still valid
+     * 
+     * @param newExpiresAt
+     * @return the revalidated response
+     */
+    public CachedResponse revalidate(long newExpiresAt) {
+        return new CachedResponse(status, headerNames, headerValues, body, newExpiresAt, eTag,
+                lastModified, varyHeaders);
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return true if the response can be sent without revalidation
+     */
+    public boolean isFresh(long now) {
+        return now < expiresAt;
+    }
+
+    /**
+     * @return true if the response can be revalidated with a conditional request
+     */
+    public boolean isRevalidable() {
+        return eTag != null || lastModified != null;
+    }
+
+    /**
+     * @return true if this is a marker of the resource variants
+     */
+    public boolean isVaryMarker() {
+        return varyHeaders != null;
+    }
+
+    /**
+     * @return approximate memory used by the response in bytes
+     */
+    public long getSize() {
+        long size = 64 + (body != null ? body.length : 0);
+        for (int i = 0; i < headerNames.length; i++) {
+            size += 2 * (headerNames[i].length() + headerValues[i].length());
+        }
+        return size;
+    }
+
+    /**
+     * @return the status
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the number of headers
+     */
+    public int getHeaderCount() {
+        return headerNames.length;
+    }
+
+    /**
+     * @param index
+     * @return the name of the header at the index
+     */
+    public String getHeaderName(int index) {
+        return headerNames[index];
+    }
+
+    /**
+     * @param index
+     * @return the value of the header at the index
+     */
+    public String getHeaderValue(int index) {
+        return headerValues[index];
+    }
+
+    /**
+     * @return the body, must not be modified
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return the expiresAt
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @return the eTag
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * @return the lastModified
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the varyHeaders
+     */
+    public String[] getVaryHeaders() {
+        return varyHeaders;
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link ResponseCache} storing the responses as files in a directory, usually
+ * configured as second level of a {@link MemoryResponseCache}. When the size
+ * of the files exceeds the maximum size the least recently stored responses
+ * are deleted.
+ */
+public class DiskResponseCache implements ResponseCache {
+
+    private final static Logger LOGGER = Logger.getLogger(DiskResponseCache.class.toString());
+
+    /**
+     * Default maximum size: 512 MB
+     */
+    public static final long DEFAULT_MAX_SIZE = 512 * 1024 * 1024;
+
+    private static final String SUFFIX = ".cache";
+
+    private final File directory;
+
+    private final AtomicLong size = new AtomicLong();
+
+    private long maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * @param directory where the responses are stored, created if not exists
+     */
+    public DiskResponseCache(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Can't create the cache directory "
+                    + directory.getAbsolutePath());
+        }
+        this.directory = directory;
+        for (File file : listFiles()) {
+            size.addAndGet(file.length());
+        }
+    }
+
+    public CachedResponse get(String key) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            // different keys can have the same hash
+            if (!key.equals(in.readObject())) {
+                return null;
+            }
+            return (CachedResponse) in.readObject();
+        } catch (Exception e) {
+            // deleted meanwhile or written by an incompatible version
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, "Can't read the cached response " + file, e);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    public void put(String key, CachedResponse response) {
+        File file = getFile(key);
+        File temp = null;
+        ObjectOutputStream out = null;
+        try {
+            // write in a temporary file and rename it so the readers never see partial files
+            temp = File.createTempFile("response", ".tmp", directory);
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeObject(key);
+            out.writeObject(response);
+            out.close();
+            out = null;
+            long previous = file.length();
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new IOException("Can't rename " + temp + " to " + file);
+            }
+            temp = null;
+            if (size.addAndGet(file.length() - previous) > maxSize) {
+                evict();
+            }
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.SEVERE))
+                LOGGER.log(Level.SEVERE, "Error storing the cached response " + file, e);
+        } finally {
+            close(out);
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    public void remove(String key) {
+        delete(getFile(key));
+    }
+
+    public void clear() {
+        for (File file : listFiles()) {
+            delete(file);
+        }
+    }
+
+    /**
+     * Delete the oldest files until the size is 90% of the maximum size
+     */
+    private synchronized void evict() {
+        if (size.get() <= maxSize) {
+            return;
+        }
+        File[] files = listFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File o1, File o2) {
+                long diff = o1.lastModified() - o2.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        long target = maxSize / 10 * 9;
+        for (int i = 0; i < files.length && size.get() > target; i++) {
+            delete(files[i]);
+        }
+    }
+
+    private void delete(File file) {
+        long length = file.length();
+        if (file.delete()) {
+            size.addAndGet(-length);
+        }
+    }
+
+    private File[] listFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                files[count++] = file;
+            }
+        }
+        return Arrays.copyOf(files, count);
+    }
+
+    private File getFile(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(
+                        Character.forDigit(b & 0xF, 16));
+            }
+            return new File(directory, name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * @return the total size of the stored responses
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return the maxSize
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize maximum size in bytes of the stored responses
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+}
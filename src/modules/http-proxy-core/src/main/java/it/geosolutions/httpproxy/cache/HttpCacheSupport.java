@@ -0,0 +1,278 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+
+/**
+ * HTTP caching rules (RFC 2616, section 13) applied by the proxy as a shared
+ * cache.
+ */
+public final class HttpCacheSupport {
+
+    public static final String CACHE_CONTROL_HEADER = "Cache-Control";
+
+    public static final String PRAGMA_HEADER = "Pragma";
+
+    public static final String EXPIRES_HEADER = "Expires";
+
+    public static final String DATE_HEADER = "Date";
+
+    public static final String VARY_HEADER = "Vary";
+
+    public static final String ETAG_HEADER = "ETag";
+
+    public static final String LAST_MODIFIED_HEADER = "Last-Modified";
+
+    public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    public static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+
+    public static final String AUTHORIZATION_HEADER = "Authorization";
+
+    public static final String COOKIE_HEADER = "Cookie";
+
+    /**
+     * Request parameters the proxy turns into credentials for the remote server
+     */
+    public static final String USER_PARAM = "user";
+
+    public static final String PASSWORD_PARAM = "password";
+
+    private static final String[] NO_HEADERS = new String[0];
+
+    private HttpCacheSupport() {
+    }
+
+    /**
+     * @param method HTTP method
+     * @param url remote URL
+     * @return the key of the resource
+     */
+    public static String getKey(String method, String url) {
+        return method + " " + url;
+    }
+
+    /**
+     * Build the key of a resource variant from the values of the request headers
+     * named in the <code>Vary</code> response header
+     * 
+     * @param key of the resource
+     * @param varyHeaders names of the headers selecting the variant
+     * @param request client request
+     * @return the key of the variant
+     */
+    public static String getVariantKey(String key, String[] varyHeaders,
+            HttpServletRequest request) {
+        StringBuilder variant = new StringBuilder(key);
+        for (String name : varyHeaders) {
+            String value = request.getHeader(name);
+            variant.append('\n').append(name.toLowerCase()).append(':')
+                    .append(value != null ? value.trim() : "");
+        }
+        return variant.toString();
+    }
+
+    /**
+     * Check if a GET request carries credentials for the remote server: the
+     * <code>Authorization</code> header or the <code>user</code> and
+     * <code>password</code> parameters. The parameters of other methods are not
+     * read, so their body is not consumed.
+     * 
+     * @param request client request
+     * @return true if the remote response may depend on the client credentials
+     */
+    public static boolean hasCredentials(HttpServletRequest request) {
+        return request.getHeader(AUTHORIZATION_HEADER) != null
+                || ("GET".equalsIgnoreCase(request.getMethod())
+                        && (request.getParameter(USER_PARAM) != null
+                                || request.getParameter(PASSWORD_PARAM) != null));
+    }
+
+    /**
+     * Only GET requests without credentials of the client can be served by a
+     * shared cache. Cookies are forwarded to the remote server, which can
+     * personalize the response with them, so they count as credentials.
+     * 
+     * @param request client request
+     * @return true if the response to the request can be looked up and stored
+     */
+    public static boolean isCacheableRequest(HttpServletRequest request) {
+        return "GET".equalsIgnoreCase(request.getMethod())
+                && !hasCredentials(request)
+                && request.getHeader(COOKIE_HEADER) == null
+                && !hasDirective(request.getHeader(CACHE_CONTROL_HEADER), "no-store");
+    }
+
+    /**
+     * @param request client request
+     * @return true if the client asked not to be served a stored response without revalidation
+     */
+    public static boolean isRevalidationRequested(HttpServletRequest request) {
+        return hasDirective(request.getHeader(CACHE_CONTROL_HEADER), "no-cache")
+                || hasDirective(request.getHeader(CACHE_CONTROL_HEADER), "max-age=0")
+                || hasDirective(request.getHeader(PRAGMA_HEADER), "no-cache");
+    }
+
+    /**
+     * @param method executed remote request
+     * @return true if the remote response can be stored by a shared cache
+     */
+    public static boolean isStorable(HttpMethod method) {
+        if (method.getStatusCode() != HttpStatus.SC_OK) {
+            return false;
+        }
+        String cacheControl = getHeader(method, CACHE_CONTROL_HEADER);
+        if (hasDirective(cacheControl, "no-store") || hasDirective(cacheControl, "private")) {
+            return false;
+        }
+        for (String vary : getVaryHeaders(method)) {
+            if ("*".equals(vary)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute until when a remote response is fresh. <code>s-maxage</code> and
+     * <code>max-age</code> take precedence over <code>Expires</code>. Responses
+     * without explicit freshness information get the default time to live.
+     * 
+     * @param method executed remote request
+     * @param now current time in milliseconds
+     * @param defaultTimeToLive milliseconds the responses without freshness information are fresh
+     * @return the expiration time in milliseconds
+     */
+    public static long getExpiration(HttpMethod method, long now, long defaultTimeToLive) {
+        String cacheControl = getHeader(method, CACHE_CONTROL_HEADER);
+        if (hasDirective(cacheControl, "no-cache")) {
+            return now;
+        }
+        long maxAge = getDirectiveValue(cacheControl, "s-maxage");
+        if (maxAge < 0) {
+            maxAge = getDirectiveValue(cacheControl, "max-age");
+        }
+        if (maxAge >= 0) {
+            return now + maxAge * 1000;
+        }
+        String expires = getHeader(method, EXPIRES_HEADER);
+        if (expires != null) {
+            try {
+                long expiration = DateUtil.parseDate(expires).getTime();
+                String date = getHeader(method, DATE_HEADER);
+                // correct the clock difference with the remote server
+                long serverNow = date != null ? DateUtil.parseDate(date).getTime() : now;
+                return now + Math.max(expiration - serverNow, 0);
+            } catch (DateParseException e) {
+                // invalid dates mean already expired
+                return now;
+            }
+        }
+        return now + Math.max(defaultTimeToLive, 0);
+    }
+
+    /**
+     * @param method executed remote request
+     * @return the names of the headers in the <code>Vary</code> response header
+     */
+    public static String[] getVaryHeaders(HttpMethod method) {
+        List<String> names = new ArrayList<String>();
+        for (Header header : method.getResponseHeaders(VARY_HEADER)) {
+            for (String name : header.getValue().split(",")) {
+                name = name.trim();
+                if (name.length() > 0) {
+                    names.add(name);
+                }
+            }
+        }
+        return names.isEmpty() ? NO_HEADERS : names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * @param method
+     * @param name
+     * @return the value of the response header or null if not found
+     */
+    public static String getHeader(HttpMethod method, String name) {
+        Header header = method.getResponseHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    /**
+     * The proxy changing the content coding of a body can't keep the strong entity tag of the remote representation
+     * 
+     * @param eTag entity tag
+     * @return the weak version of the entity tag
+     */
+    public static String toWeakETag(String eTag) {
+        String value = eTag.trim();
+        return value.startsWith("W/") ? value : "W/" + value;
+    }
+
+    /**
+     * @param headerValue value of a <code>Cache-Control</code> or <code>Pragma</code> header
+     * @param directive
+     * @return true if the header contains the directive
+     */
+    static boolean hasDirective(String headerValue, String directive) {
+        if (headerValue == null) {
+            return false;
+        }
+        for (String token : headerValue.split(",")) {
+            if (token.trim().equalsIgnoreCase(directive)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param headerValue value of a <code>Cache-Control</code> header
+     * @param directive name of a directive with a number of seconds
+     * @return the value of the directive or -1 if not found or invalid
+     */
+    static long getDirectiveValue(String headerValue, String directive) {
+        if (headerValue == null) {
+            return -1;
+        }
+        for (String token : headerValue.split(",")) {
+            String[] pair = token.trim().split("=", 2);
+            if (pair.length == 2 && pair[0].trim().equalsIgnoreCase(directive)) {
+                try {
+                    return Long.parseLong(pair[1].trim().replace("\"", ""));
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In memory {@link ResponseCache} bounded by the size of the stored responses.
+ * The least recently used responses are evicted first and, if a second level
+ * cache is configured, moved to it. Responses not found in memory are looked
+ * up in the second level and promoted back to memory.
+ */
+public class MemoryResponseCache implements ResponseCache {
+
+    /**
+     * Default maximum size: 32 MB
+     */
+    public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<String, CachedResponse>(
+            16, 0.75f, true);
+
+    private long maxSize = DEFAULT_MAX_SIZE;
+
+    private long size;
+
+    private ResponseCache secondLevel;
+
+    public CachedResponse get(String key) {
+        CachedResponse response;
+        synchronized (this) {
+            response = entries.get(key);
+        }
+        if (response == null && secondLevel != null) {
+            response = secondLevel.get(key);
+            if (response != null) {
+                store(key, response);
+            }
+        }
+        return response;
+    }
+
+    public void put(String key, CachedResponse response) {
+        store(key, response);
+    }
+
+    /**
+     * Store the response in memory and move the evicted ones to the second level
+     */
+    private void store(String key, CachedResponse response) {
+        List<Map.Entry<String, CachedResponse>> evicted = new ArrayList<Map.Entry<String, CachedResponse>>();
+        synchronized (this) {
+            CachedResponse previous = entries.put(key, response);
+            if (previous != null) {
+                size -= previous.getSize();
+            }
+            size += response.getSize();
+            Iterator<Map.Entry<String, CachedResponse>> eldest = entries.entrySet().iterator();
+            while (size > maxSize && eldest.hasNext()) {
+                Map.Entry<String, CachedResponse> entry = eldest.next();
+                size -= entry.getValue().getSize();
+                eldest.remove();
+                evicted.add(entry);
+            }
+        }
+        if (secondLevel != null) {
+            for (Map.Entry<String, CachedResponse> entry : evicted) {
+                secondLevel.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public void remove(String key) {
+        synchronized (this) {
+            CachedResponse previous = entries.remove(key);
+            if (previous != null) {
+                size -= previous.getSize();
+            }
+        }
+        if (secondLevel != null) {
+            secondLevel.remove(key);
+        }
+    }
+
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+            size = 0;
+        }
+        if (secondLevel != null) {
+            secondLevel.clear();
+        }
+    }
+
+    /**
+     * @return the number of responses in memory
+     */
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return the size of the responses in memory
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the maxSize
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize maximum size in bytes of the responses kept in memory
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the secondLevel
+     */
+    public ResponseCache getSecondLevel() {
+        return secondLevel;
+    }
+
+    /**
+     * @param secondLevel cache receiving the responses evicted from memory, can be null
+     */
+    public void setSecondLevel(ResponseCache secondLevel) {
+        this.secondLevel = secondLevel;
+    }
+
+}
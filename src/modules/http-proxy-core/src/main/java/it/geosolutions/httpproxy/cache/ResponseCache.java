@@ -0,0 +1,52 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.cache;
+
+/**
+ * Storage of the remote responses cached by the proxy. Implementations must be
+ * thread safe.
+ */
+public interface ResponseCache {
+
+    /**
+     * @param key
+     * @return the response stored with the key or null if not found
+     */
+    CachedResponse get(String key);
+
+    /**
+     * Store a response, replacing the previous one with the same key
+     * 
+     * @param key
+     * @param response
+     */
+    void put(String key, CachedResponse response);
+
+    /**
+     * @param key of the response to remove
+     */
+    void remove(String key);
+
+    /**
+     * Remove all the stored responses
+     */
+    void clear();
+
+}
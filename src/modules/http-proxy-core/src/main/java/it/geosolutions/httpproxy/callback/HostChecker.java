@@ -62,7 +62,7 @@ public class HostChecker  extends AbstractProxyCallback implements ProxyCallback
      */
     public void onRequest(HttpServletRequest request, HttpServletResponse response, URL url)
             throws IOException {
-        Set<String> hosts = config.getHostsWhitelist();
+        Set<String> hosts = config.getPolicy().getHostsWhitelist();
 
         // ////////////////////////////////
         // Check the whitelist of hosts
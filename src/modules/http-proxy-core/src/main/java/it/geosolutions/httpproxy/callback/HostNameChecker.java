@@ -60,7 +60,7 @@ public class HostNameChecker extends AbstractProxyCallback implements ProxyCallb
      */
     public void onRequest(HttpServletRequest request, HttpServletResponse response, URL url)
             throws IOException {
-        Set<String> hostNames = config.getHostnameWhitelist();
+        Set<String> hostNames = config.getPolicy().getHostnameWhitelist();
 
         // ////////////////////////////////
         // Check the whitelist of hosts
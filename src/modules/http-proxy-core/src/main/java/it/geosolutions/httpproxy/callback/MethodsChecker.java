@@ -60,7 +60,7 @@ public class MethodsChecker extends AbstractProxyCallback implements ProxyCallba
      */
     public void onRequest(HttpServletRequest request, HttpServletResponse response, URL url)
             throws IOException {
-        Set<String> methods = config.getMethodsWhitelist();
+        Set<String> methods = config.getPolicy().getMethodsWhitelist();
 
         // ////////////////////////////////
         // Check the whitelist of methods
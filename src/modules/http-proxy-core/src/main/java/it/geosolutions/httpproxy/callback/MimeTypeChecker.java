@@ -29,6 +29,7 @@ import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpMethod;
 
 /**
@@ -69,10 +70,12 @@ public class MimeTypeChecker extends AbstractProxyCallback implements ProxyCallb
      * @see it.geosolutions.httpproxy.ProxyCallback#onRemoteResponse(org.apache.commons.httpclient.HttpMethod)
      */
     public void onRemoteResponse(HttpMethod method) throws IOException {
-        Set<String> mimeTypes = config.getMimetypeWhitelist();
+        Set<String> mimeTypes = config.getPolicy().getMimetypeWhitelist();
 
-        if (mimeTypes != null && mimeTypes.size() > 0) {
-            String contentType = method.getResponseHeader("Content-type").getValue();
+        Header contentTypeHeader = method.getResponseHeader("Content-type");
+
+        if (mimeTypes != null && mimeTypes.size() > 0 && contentTypeHeader != null) {
+            String contentType = contentTypeHeader.getValue();
 
             // //////////////////////////////////
             // Trim off extraneous information
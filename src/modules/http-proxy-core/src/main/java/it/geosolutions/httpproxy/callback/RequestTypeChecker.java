@@ -24,10 +24,6 @@ import it.geosolutions.httpproxy.service.ProxyConfig;
 
 import java.io.IOException;
 import java.net.URL;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -42,16 +38,6 @@ import org.apache.commons.httpclient.HttpMethod;
  */
 public class RequestTypeChecker extends AbstractProxyCallback implements ProxyCallback {
 	
-	/**
-	 * Compiled patterns
-	 */
-	private Set<Pattern> patterns;
-    
-	/**
-	 * Last request types
-	 */
-    private Set<String> lastReqTypes;
-	
     /**
      * Default constructor
      */
@@ -64,61 +50,7 @@ public class RequestTypeChecker extends AbstractProxyCallback implements ProxyCa
      */
     public RequestTypeChecker(ProxyConfig config) {
         super(config);
-        loadPatterns();
     }
-    
-	/**
-	 * Patterns set initializer
-	 */
-	private void loadPatterns() {
-		Set<String> reqTypes = config.getReqtypeWhitelist();
-		// Check if lastRequestTypes has changed
-		if (hasChanged(reqTypes)) {
-			patterns = new HashSet<Pattern>();
-			if (reqTypes != null && reqTypes.size() > 0) {
-				for (String regex : reqTypes) {
-					patterns.add(Pattern.compile(regex));
-				}
-			}
-		}
-	}
-
-	/**
-	 * Auxiliary method to check if the reqType set has been changed
-	 * 
-	 * @param reqTypes
-	 *            new set of request types
-	 * 
-	 * @return true if the request type parameters has been changed or false
-	 *         otherwise
-	 */
-	private boolean hasChanged(Set<String> reqTypes) {
-
-		boolean changed = false;
-
-		if (lastReqTypes == null) {
-			// Not compiled yet!
-			changed = true;
-		} else {
-
-			for (String reqType : reqTypes) {
-				if (!lastReqTypes.contains(reqType)) {
-					// it's a new request type --> we must recompile
-					changed = true;
-					break;
-				} else {
-					lastReqTypes.remove(reqType);
-				}
-			}
-
-			// if request types hasn't changed, the set must be empty
-			changed = changed || !lastReqTypes.isEmpty();
-		}
-
-		// Save the new last request types and return the ''change'' value
-		lastReqTypes = reqTypes;
-		return changed;
-	}
 
 	/*
      * (non-Javadoc)
@@ -127,8 +59,6 @@ public class RequestTypeChecker extends AbstractProxyCallback implements ProxyCa
      */
     public void onRequest(HttpServletRequest request, HttpServletResponse response, URL url)
             throws IOException {
-    	loadPatterns();
-
         // //////////////////////////////////////
         // Check off the request type
         // provided vs. permitted request types
@@ -136,15 +66,7 @@ public class RequestTypeChecker extends AbstractProxyCallback implements ProxyCa
     	
     	 String urlExtForm = url.toExternalForm();
 
-         boolean check = false;
-         for (Pattern pattern: patterns) {
-             Matcher matcher = pattern.matcher(urlExtForm);
-
-             if (matcher.matches()) {
-                 check = true;
-                 break;
-             }
-         }
+         boolean check = config.getPolicy().getReqtypeMatcher().matches(urlExtForm);
 
          if (!check)
              throw new HttpErrorException(403, "Request Type"
@@ -19,6 +19,8 @@
  */
 package it.geosolutions.httpproxy.service;
 
+import it.geosolutions.httpproxy.utils.ProxyPolicy;
+
 import java.io.IOException;
 import java.util.Set;
 
@@ -86,4 +88,10 @@ public interface ProxyConfig {
 	 */
 	public int getDefaultStreamByteSize();
 
+	/**
+	 * @return the immutable snapshot of this configuration to be used while
+	 *         handling requests
+	 */
+	public ProxyPolicy getPolicy();
+
 }
@@ -21,6 +21,7 @@ package it.geosolutions.httpproxy.service.impl;
 
 
 import it.geosolutions.httpproxy.service.ProxyConfig;
+import it.geosolutions.httpproxy.utils.ProxyPolicy;
 import it.geosolutions.httpproxy.utils.Utils;
 
 import java.io.IOException;
@@ -60,6 +61,10 @@ public final class ProxyConfigImpl implements ProxyConfig{
     private String reqtypeWhitelistCsw;
     private String reqtypeWhitelistFeatureinfo;
     private String reqtypeWhitelistGeneric;
+    private String cacheWhitelistCapabilities;
+    private String cacheWhitelistGeostore;
+    private String cacheWhitelistCsw;
+    private String cacheWhitelistGeneric;
     private String defaultStreamByteSizeTmp;
     private String timeoutTmp;
     private String connection_timeout;
@@ -83,6 +88,11 @@ public final class ProxyConfigImpl implements ProxyConfig{
      */
     private Set<String> reqtypeWhitelist = new HashSet<String>();
 
+    /**
+     * A list of regular expressions describing Request Types whose responses the proxy is permitted to cache
+     */
+    private Set<String> cacheableWhitelist = new HashSet<String>();
+
     /**
      * A list of regular expressions describing request METHODS the proxy is permitted to forward
      */
@@ -140,6 +150,12 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 * 
 	 */
 	private Map<String, Long> timeModificationByLocation = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Immutable snapshot of this configuration, rebuilt when the configuration
+	 * is loaded or reloaded and invalidated by the setters
+	 */
+	private volatile ProxyPolicy policy;
 	
 	/**
 	 * Default constructor
@@ -155,52 +171,91 @@ public final class ProxyConfigImpl implements ProxyConfig{
      * @throws IOException
      */
     public void configProxy() {
+        this.policy = buildPolicy();
+    }
 
-        try {
-        	// Load properties in getters
-            getHostnameWhitelist();
-            getMimetypeWhitelist();
-            getMethodsWhitelist();
-            getHostnameWhitelist();
-            getReqtypeWhitelist();
-            
-            // /////////////////////////////////////////////////
-            // Load byte size configuration
-            // /////////////////////////////////////////////////
-        	
-            String bytesSize = defaultStreamByteSizeTmp;
-            this.setDefaultStreamByteSize(bytesSize != null ? Integer.parseInt(bytesSize) : 
-            	this.defaultStreamByteSize);
-            
-            // /////////////////////////////////////////////////
-            // Load connection manager configuration
-            // /////////////////////////////////////////////////
-            
-            String timeout = timeoutTmp;
-            this.setSoTimeout(timeout != null ? Integer.parseInt(timeout) : this.soTimeout);
-
-            String conn_timeout = connection_timeout;
-            this.setConnectionTimeout(conn_timeout != null ? Integer.parseInt(conn_timeout)
-                    : this.connectionTimeout);
-
-            String max_conn = max_total_connections;
-            this.setMaxTotalConnections(max_conn != null ? Integer.parseInt(max_conn)
-                    : this.maxTotalConnections);
-
-            String def_conn_host = default_max_connections_per_host;
-            this.setMaxTotalConnections(def_conn_host != null ? Integer.parseInt(def_conn_host)
-                    : this.defaultMaxConnectionsPerHost);
+    /**
+     * Obtain the snapshot of this configuration, building it if it has been
+     * invalidated
+     * 
+     * @return the current policy
+     */
+    public ProxyPolicy getPolicy() {
+        ProxyPolicy current = policy;
+        if (current == null) {
+            current = buildPolicy();
+            policy = current;
+        }
+        return current;
+    }
+
+    /**
+     * Parse the white lists and the connection properties in a new policy.
+     * Properties that can't be parsed keep their default values.
+     * 
+     * @return a new policy
+     */
+    private ProxyPolicy buildPolicy() {
+
+        // ////////////////////////////////////////////////////////////
+        // Load proxy configuration white lists from properties
+        // ////////////////////////////////////////////////////////////
+
+        Set<String> hostnames = Utils.parseWhiteList(hostNameList);
+        Set<String> mimetypes = Utils.parseWhiteList(mimeTypeWhiteList);
+        Set<String> methods = Utils.parseWhiteList(methodsWhiteList);
+        Set<String> hosts = Utils.parseWhiteList(hostsWhiteList);
+
+        // ////////////////////////////////////////
+        // Read various request type properties
+        // ////////////////////////////////////////
 
+        Set<String> reqtypes = new HashSet<String>();
+        addReqtype(reqtypes, reqtypeWhitelistCapabilities);
+        addReqtype(reqtypes, reqtypeWhitelistGeostore);
+        addReqtype(reqtypes, reqtypeWhitelistCsw);
+        addReqtype(reqtypes, reqtypeWhitelistFeatureinfo);
+        addReqtype(reqtypes, reqtypeWhitelistGeneric);
+
+        Set<String> cacheables = new HashSet<String>();
+        addReqtype(cacheables, cacheWhitelistCapabilities);
+        addReqtype(cacheables, cacheWhitelistGeostore);
+        addReqtype(cacheables, cacheWhitelistCsw);
+        addReqtype(cacheables, cacheWhitelistGeneric);
+
+        // /////////////////////////////////////////////////
+        // Load byte size and connection manager configuration
+        // /////////////////////////////////////////////////
+
+        return new ProxyPolicy(hostnames != null ? hostnames : hostnameWhitelist,
+                mimetypes != null ? mimetypes : mimetypeWhitelist,
+                !reqtypes.isEmpty() ? reqtypes : reqtypeWhitelist,
+                !cacheables.isEmpty() ? cacheables : cacheableWhitelist,
+                methods != null ? methods : methodsWhitelist,
+                hosts != null ? hosts : hostsWhitelist,
+                parseInt(timeoutTmp, soTimeout),
+                parseInt(connection_timeout, connectionTimeout),
+                parseInt(max_total_connections, maxTotalConnections),
+                parseInt(default_max_connections_per_host, defaultMaxConnectionsPerHost),
+                parseInt(defaultStreamByteSizeTmp, defaultStreamByteSize));
+    }
+
+    private static void addReqtype(Set<String> reqtypes, String reqtype) {
+        if (reqtype != null)
+            reqtypes.add(reqtype);
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
         } catch (NumberFormatException e) {
             if (LOGGER.isLoggable(Level.SEVERE))
                 LOGGER.log(Level.SEVERE,
                         "Error parsing the proxy properties file using default", e);
-
-            this.setSoTimeout(this.soTimeout);
-            this.setConnectionTimeout(this.connectionTimeout);
-            this.setMaxTotalConnections(this.maxTotalConnections);
-            this.setMaxTotalConnections(this.defaultMaxConnectionsPerHost);
-            this.setDefaultStreamByteSize(this.defaultStreamByteSize);
+            return defaultValue;
         }
     }
 	
@@ -302,13 +357,15 @@ public final class ProxyConfigImpl implements ProxyConfig{
         		LOGGER.log(Level.SEVERE, "Error overriding the proxy configuration ", e);
         	}
         }
+        // publish the new configuration at once
+        configProxy();
     }
 
     /**
      * @return the soTimeout
      */
     public int getSoTimeout() {
-        return soTimeout;
+        return getPolicy().getSoTimeout();
     }
 
     /**
@@ -316,13 +373,14 @@ public final class ProxyConfigImpl implements ProxyConfig{
      */
     public void setSoTimeout(int soTimeout) {
         this.soTimeout = soTimeout;
+        policy = null;
     }
 
     /**
      * @return the connectionTimeout
      */
     public int getConnectionTimeout() {
-        return connectionTimeout;
+        return getPolicy().getConnectionTimeout();
     }
 
     /**
@@ -330,13 +388,14 @@ public final class ProxyConfigImpl implements ProxyConfig{
      */
     public void setConnectionTimeout(int connectionTimeout) {
         this.connectionTimeout = connectionTimeout;
+        policy = null;
     }
 
     /**
      * @return the maxTotalConnections
      */
     public int getMaxTotalConnections() {
-        return maxTotalConnections;
+        return getPolicy().getMaxTotalConnections();
     }
 
     /**
@@ -344,13 +403,14 @@ public final class ProxyConfigImpl implements ProxyConfig{
      */
     public void setMaxTotalConnections(int maxTotalConnections) {
         this.maxTotalConnections = maxTotalConnections;
+        policy = null;
     }
 
     /**
      * @return the defaultMaxConnectionsPerHost
      */
     public int getDefaultMaxConnectionsPerHost() {
-        return defaultMaxConnectionsPerHost;
+        return getPolicy().getDefaultMaxConnectionsPerHost();
     }
 
     /**
@@ -358,22 +418,14 @@ public final class ProxyConfigImpl implements ProxyConfig{
      */
     public void setDefaultMaxConnectionsPerHost(int defaultMaxConnectionsPerHost) {
         this.defaultMaxConnectionsPerHost = defaultMaxConnectionsPerHost;
+        policy = null;
     }
 
     /**
      * @return the hostnameWhitelist
      */
     public Set<String> getHostnameWhitelist() {
-
-        // ////////////////////////////////////////////////////////////
-        // Load proxy configuration white lists from properties file
-        // ////////////////////////////////////////////////////////////
-
-        Set<String> p = Utils.parseWhiteList(hostNameList);
-        if (p != null)
-            this.hostnameWhitelist = p;
-
-        return hostnameWhitelist;
+        return getPolicy().getHostnameWhitelist();
     }
 
     /**
@@ -381,18 +433,14 @@ public final class ProxyConfigImpl implements ProxyConfig{
      */
     public void setHostnameWhitelist(Set<String> hostnameWhitelist) {
         this.hostnameWhitelist = hostnameWhitelist;
+        policy = null;
     }
 
     /**
      * @return the mimetypeWhitelist
      */
     public Set<String> getMimetypeWhitelist() {
-
-        Set<String> p = Utils.parseWhiteList(mimeTypeWhiteList);
-        if (p != null)
-            this.setHostnameWhitelist(p);
-
-        return mimetypeWhitelist;
+        return getPolicy().getMimetypeWhitelist();
     }
 
     /**
@@ -400,41 +448,14 @@ public final class ProxyConfigImpl implements ProxyConfig{
      */
     public void setMimetypeWhitelist(Set<String> mimetypeWhitelist) {
         this.mimetypeWhitelist = mimetypeWhitelist;
+        policy = null;
     }
 
     /**
      * @return the reqtypeWhitelist
      */
     public Set<String> getReqtypeWhitelist() {
-
-        // ////////////////////////////////////////
-        // Read various request type properties
-        // ////////////////////////////////////////
-
-        Set<String> rt = new HashSet<String>();
-        String s = reqtypeWhitelistCapabilities;
-        if (s != null)
-            rt.add(s);
-
-        s = reqtypeWhitelistGeostore;
-        if (s != null)
-            rt.add(s);
-
-        s = reqtypeWhitelistCsw;
-        if (s != null)
-            rt.add(s);
-        
-        s = reqtypeWhitelistFeatureinfo;
-        if (s != null)
-            rt.add(s);
-        
-        s = reqtypeWhitelistGeneric;
-        if (s != null)
-            rt.add(s);
-
-        this.reqtypeWhitelist = rt;
-
-        return reqtypeWhitelist;
+        return getPolicy().getReqtypeWhitelist();
     }
 
     /**
@@ -442,18 +463,29 @@ public final class ProxyConfigImpl implements ProxyConfig{
      */
     public void setReqtypeWhitelist(Set<String> reqtypeWhitelist) {
         this.reqtypeWhitelist = reqtypeWhitelist;
+        policy = null;
     }
 
     /**
-     * @return the methodsWhitelist
+     * @return the cacheableWhitelist
      */
-    public Set<String> getMethodsWhitelist() {
+    public Set<String> getCacheableWhitelist() {
+        return getPolicy().getCacheableWhitelist();
+    }
 
-    	Set<String> p = Utils.parseWhiteList(methodsWhiteList);
-        if (p != null)
-            this.methodsWhitelist = p;
+    /**
+     * @param cacheableWhitelist the cacheableWhitelist to set
+     */
+    public void setCacheableWhitelist(Set<String> cacheableWhitelist) {
+        this.cacheableWhitelist = cacheableWhitelist;
+        policy = null;
+    }
 
-        return methodsWhitelist;
+    /**
+     * @return the methodsWhitelist
+     */
+    public Set<String> getMethodsWhitelist() {
+        return getPolicy().getMethodsWhitelist();
     }
 
     /**
@@ -461,18 +493,14 @@ public final class ProxyConfigImpl implements ProxyConfig{
      */
     public void setMethodsWhitelist(Set<String> methodsWhitelist) {
         this.methodsWhitelist = methodsWhitelist;
+        policy = null;
     }
 
     /**
      * @return the hostsWhitelist
      */
     public Set<String> getHostsWhitelist() {
-
-        Set<String> p = Utils.parseWhiteList(hostsWhiteList);
-        if (p != null)
-            this.hostsWhitelist = p;
-
-        return hostsWhitelist;
+        return getPolicy().getHostsWhitelist();
     }
 
     /**
@@ -480,6 +508,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
      */
     public void setHostsWhitelist(Set<String> hostsWhitelist) {
         this.hostsWhitelist = hostsWhitelist;
+        policy = null;
     }
 
     /**
@@ -514,7 +543,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 * @return the defaultStreamByteSize
 	 */
 	public int getDefaultStreamByteSize() {
-		return defaultStreamByteSize;
+		return getPolicy().getDefaultStreamByteSize();
 	}
 
 	/**
@@ -522,6 +551,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setDefaultStreamByteSize(int defaultStreamByteSize) {
 		this.defaultStreamByteSize = defaultStreamByteSize;
+		policy = null;
 	}
 
 	/**
@@ -536,6 +566,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setHostNameList(String hostNameList) {
 		this.hostNameList = hostNameList;
+		policy = null;
 	}
 
 	/**
@@ -550,6 +581,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setMimeTypeWhiteList(String mimeTypeWhiteList) {
 		this.mimeTypeWhiteList = mimeTypeWhiteList;
+		policy = null;
 	}
 
 	/**
@@ -564,6 +596,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setMethodsWhiteList(String methodsWhiteList) {
 		this.methodsWhiteList = methodsWhiteList;
+		policy = null;
 	}
 
 	/**
@@ -578,6 +611,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setHostsWhiteList(String hostsWhiteList) {
 		this.hostsWhiteList = hostsWhiteList;
+		policy = null;
 	}
 
 	/**
@@ -592,6 +626,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setReqtypeWhitelistCapabilities(String reqtypeWhitelistCapabilities) {
 		this.reqtypeWhitelistCapabilities = reqtypeWhitelistCapabilities;
+		policy = null;
 	}
 
 	/**
@@ -606,6 +641,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setReqtypeWhitelistGeostore(String reqtypeWhitelistGeostore) {
 		this.reqtypeWhitelistGeostore = reqtypeWhitelistGeostore;
+		policy = null;
 	}
 
 	/**
@@ -620,6 +656,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setReqtypeWhitelistCsw(String reqtypeWhitelistCsw) {
 		this.reqtypeWhitelistCsw = reqtypeWhitelistCsw;
+		policy = null;
 	}
 
 	/**
@@ -634,6 +671,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setReqtypeWhitelistFeatureinfo(String reqtypeWhitelistFeatureinfo) {
 		this.reqtypeWhitelistFeatureinfo = reqtypeWhitelistFeatureinfo;
+		policy = null;
 	}
 
 	/**
@@ -648,6 +686,67 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setReqtypeWhitelistGeneric(String reqtypeWhitelistGeneric) {
 		this.reqtypeWhitelistGeneric = reqtypeWhitelistGeneric;
+		policy = null;
+	}
+
+	/**
+	 * @return the cacheWhitelistCapabilities
+	 */
+	public String getCacheWhitelistCapabilities() {
+		return cacheWhitelistCapabilities;
+	}
+
+	/**
+	 * @param cacheWhitelistCapabilities the cacheWhitelistCapabilities to set
+	 */
+	public void setCacheWhitelistCapabilities(String cacheWhitelistCapabilities) {
+		this.cacheWhitelistCapabilities = cacheWhitelistCapabilities;
+		policy = null;
+	}
+
+	/**
+	 * @return the cacheWhitelistGeostore
+	 */
+	public String getCacheWhitelistGeostore() {
+		return cacheWhitelistGeostore;
+	}
+
+	/**
+	 * @param cacheWhitelistGeostore the cacheWhitelistGeostore to set
+	 */
+	public void setCacheWhitelistGeostore(String cacheWhitelistGeostore) {
+		this.cacheWhitelistGeostore = cacheWhitelistGeostore;
+		policy = null;
+	}
+
+	/**
+	 * @return the cacheWhitelistCsw
+	 */
+	public String getCacheWhitelistCsw() {
+		return cacheWhitelistCsw;
+	}
+
+	/**
+	 * @param cacheWhitelistCsw the cacheWhitelistCsw to set
+	 */
+	public void setCacheWhitelistCsw(String cacheWhitelistCsw) {
+		this.cacheWhitelistCsw = cacheWhitelistCsw;
+		policy = null;
+	}
+
+	/**
+	 * @return the cacheWhitelistGeneric
+	 */
+	public String getCacheWhitelistGeneric() {
+		return cacheWhitelistGeneric;
+	}
+
+	/**
+	 * @param cacheWhitelistGeneric the cacheWhitelistGeneric to set
+	 */
+	public void setCacheWhitelistGeneric(String cacheWhitelistGeneric) {
+		this.cacheWhitelistGeneric = cacheWhitelistGeneric;
+		policy = null;
 	}
 
 	/**
@@ -662,6 +761,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setDefaultStreamByteSizeTmp(String defaultStreamByteSizeTmp) {
 		this.defaultStreamByteSizeTmp = defaultStreamByteSizeTmp;
+		policy = null;
 	}
 
 	/**
@@ -676,6 +776,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setTimeoutTmp(String timeoutTmp) {
 		this.timeoutTmp = timeoutTmp;
+		policy = null;
 	}
 
 	/**
@@ -690,6 +791,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setConnection_timeout(String connection_timeout) {
 		this.connection_timeout = connection_timeout;
+		policy = null;
 	}
 
 	/**
@@ -704,6 +806,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	 */
 	public void setMax_total_connections(String max_total_connections) {
 		this.max_total_connections = max_total_connections;
+		policy = null;
 	}
 
 	/**
@@ -719,6 +822,7 @@ public final class ProxyConfigImpl implements ProxyConfig{
 	public void setDefault_max_connections_per_host(
 			String default_max_connections_per_host) {
 		this.default_max_connections_per_host = default_max_connections_per_host;
+		policy = null;
 	}
 	
 	public String getBeanName() {
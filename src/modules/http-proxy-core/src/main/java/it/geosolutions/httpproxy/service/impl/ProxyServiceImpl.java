@@ -19,25 +19,45 @@
  */
 package it.geosolutions.httpproxy.service.impl;
 
+import it.geosolutions.httpproxy.cache.CachedResponse;
+import it.geosolutions.httpproxy.cache.HttpCacheSupport;
+import it.geosolutions.httpproxy.cache.ResponseCache;
 import it.geosolutions.httpproxy.callback.ProxyCallback;
 import it.geosolutions.httpproxy.exception.HttpErrorException;
 import it.geosolutions.httpproxy.service.ProxyConfig;
 import it.geosolutions.httpproxy.service.ProxyHelper;
 import it.geosolutions.httpproxy.service.ProxyService;
+import it.geosolutions.httpproxy.utils.CoalescedResponse;
+import it.geosolutions.httpproxy.utils.FileItemPartSource;
+import it.geosolutions.httpproxy.utils.GzipResponseWrapper;
 import it.geosolutions.httpproxy.utils.ProxyInfo;
 import it.geosolutions.httpproxy.utils.ProxyMethodConfig;
+import it.geosolutions.httpproxy.utils.RequestTypeMatcher;
+import it.geosolutions.httpproxy.utils.StreamBufferPool;
+import it.geosolutions.httpproxy.utils.StreamingMultipartRequestEntity;
 import it.geosolutions.httpproxy.utils.Utils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -48,9 +68,12 @@ import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpState;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
@@ -58,12 +81,12 @@ import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.multipart.ByteArrayPartSource;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
 import org.apache.commons.httpclient.methods.multipart.StringPart;
 import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 
 /**
  * HTTPProxy delegated in this service
@@ -80,6 +103,22 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
 	 */
 	private static final long serialVersionUID = 3318254969779984284L;
 
+	/**
+	 * Content codings requested to the remote servers
+	 */
+	private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+	private static final String DEFLATE = "deflate";
+
+	private static final String IDENTITY = "identity";
+
+	private static final String RANGE_HEADER = "Range";
+
+	/**
+	 * Request headers that must match to share a remote response
+	 */
+	private static final String[] COALESCING_HEADERS = { "Accept", "Accept-Language", "Cookie" };
+
 	private final static Logger LOGGER = Logger.getLogger(ProxyServiceImpl.class.toString());
 
     /**
@@ -113,6 +152,105 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
      */
     private ProxyHelper proxyHelper;
 
+    /**
+     * Pool of buffers used to copy the remote response to the client, sized with
+     * {@link ProxyConfig#getDefaultStreamByteSize()}
+     */
+    private StreamBufferPool bufferPool;
+
+    /**
+     * If true the whole remote response is read in memory before writing it to the
+     * client. Default is false (the response is streamed as it arrives); enable it
+     * only for callbacks that need to inspect the full response body.
+     */
+    private boolean bufferResponse = false;
+
+    /**
+     * If true multipart requests are forwarded while they are read from the client.
+     * Set it to false if the remote server requires a known content length: the
+     * uploaded files are then stored on disk before forwarding them.
+     */
+    private boolean streamMultipart = true;
+
+    /**
+     * Maximum connections by remote server, overriding
+     * {@link ProxyConfig#getDefaultMaxConnectionsPerHost()}. The keys are the
+     * server URLs (<code>http://host:port</code>)
+     */
+    private Map<String, Integer> maxConnectionsPerRoute;
+
+    /**
+     * Time in milliseconds after which an idle pooled connection is closed. Default is 60 seconds.
+     */
+    private long idleConnectionTimeout = 60000;
+
+    /**
+     * Interval in milliseconds between the checks for idle pooled connections. Default is 30 seconds.
+     */
+    private long idleConnectionCheckInterval = 30000;
+
+    /**
+     * Thread closing the idle connections of {@link #connectionManager}
+     */
+    private transient IdleConnectionTimeoutThread idleConnectionEvictor;
+
+    /**
+     * Cache of the remote responses to the requests in the cacheable white
+     * list of the proxy configuration. Null to disable the cache
+     */
+    private ResponseCache responseCache;
+
+    /**
+     * Maximum size in bytes of a cached response body. Default is 1 MB.
+     */
+    private int maxCacheableSize = 1024 * 1024;
+
+    /**
+     * Milliseconds a cacheable response without expiration headers is fresh. Default is 0:
+     * these responses are revalidated on every request.
+     */
+    private long defaultCacheTimeToLive = 0;
+
+    /**
+     * Regular expressions describing the URLs of the GET requests to coalesce:
+     * identical concurrent requests share a single remote request
+     */
+    private Set<String> coalescedRequests;
+
+    /**
+     * Matcher for {@link #coalescedRequests}, null if coalescing is disabled
+     */
+    private transient RequestTypeMatcher coalescedRequestsMatcher;
+
+    /**
+     * Maximum bytes of a shared response retained for the requests joining it late
+     * and for the requests sending it slower than the others. Default is 1 MB.
+     */
+    private int maxCoalescedSize = 1024 * 1024;
+
+    /**
+     * Request compressed responses to the remote servers and compress the
+     * responses to the clients accepting gzip. Default is true.
+     */
+    private boolean compressionEnabled = true;
+
+    /**
+     * Minimum size in bytes of a response compressed by the proxy. Default is 1 KB.
+     */
+    private int compressionMinSize = 1024;
+
+    /**
+     * Prefixes of the MIME types compressed by the proxy
+     */
+    private Set<String> compressibleMimeTypes = new HashSet<String>(Arrays.asList("text/",
+            "application/xml", "application/json", "application/javascript",
+            "application/vnd.ogc.", "application/vnd.google-earth.kml+xml", "image/svg+xml"));
+
+    /**
+     * Shared responses of the coalesced requests in progress
+     */
+    private final transient ConcurrentMap<String, CoalescedResponse> coalescedResponses = new ConcurrentHashMap<String, CoalescedResponse>();
+
     /**
      * Default constructor
      */
@@ -159,6 +297,9 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
 	 * Load proxy configuration when proxy config has changed
 	 */
 	private void loadProxyConfig(){
+		// release the connections of the previous configuration
+		destroy();
+
 		connectionManager = new MultiThreadedHttpConnectionManager();
 		HttpConnectionManagerParams params = new HttpConnectionManagerParams();
 
@@ -167,13 +308,80 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
 		params.setMaxTotalConnections(proxyConfig.getMaxTotalConnections());
 		params.setDefaultMaxConnectionsPerHost(proxyConfig
 				.getDefaultMaxConnectionsPerHost());
+		params.setStaleCheckingEnabled(true);
 
 		connectionManager.setParams(params);
+		configureRouteLimits();
 		httpClient = new HttpClient(connectionManager);
+
+		// don't wait forever for a free connection when the pool is exhausted
+		httpClient.getParams().setConnectionManagerTimeout(
+				proxyConfig.getConnectionTimeout());
+
+		configureIdleConnectionEvictor();
+
+		bufferPool = new StreamBufferPool(proxyConfig.getDefaultStreamByteSize(),
+				proxyConfig.getMaxTotalConnections());
 		
 		configureCallbacks();
 	}
 
+	/**
+	 * Apply {@link #maxConnectionsPerRoute} to the connection manager
+	 */
+	private void configureRouteLimits() {
+		if (connectionManager == null || maxConnectionsPerRoute == null) {
+			return;
+		}
+		for (Map.Entry<String, Integer> route : maxConnectionsPerRoute.entrySet()) {
+			try {
+				URL url = new URL(route.getKey());
+				HostConfiguration hostConfiguration = new HostConfiguration();
+				hostConfiguration.setHost(url.getHost(), url.getPort() != -1 ? url.getPort()
+						: url.getDefaultPort(), url.getProtocol());
+				connectionManager.getParams().setMaxConnectionsPerHost(hostConfiguration,
+						route.getValue());
+			} catch (MalformedURLException e) {
+				if (LOGGER.isLoggable(Level.SEVERE))
+					LOGGER.log(Level.SEVERE, "Invalid route '" + route.getKey()
+							+ "' in the connection limits", e);
+			}
+		}
+	}
+
+	/**
+	 * (Re)start the thread closing the idle connections of the pool
+	 */
+	private void configureIdleConnectionEvictor() {
+		if (idleConnectionEvictor != null) {
+			idleConnectionEvictor.shutdown();
+			idleConnectionEvictor = null;
+		}
+		if (connectionManager != null && idleConnectionTimeout > 0) {
+			idleConnectionEvictor = new IdleConnectionTimeoutThread();
+			idleConnectionEvictor.setName("proxy-idle-connection-evictor");
+			idleConnectionEvictor.setConnectionTimeout(idleConnectionTimeout);
+			idleConnectionEvictor.setTimeoutInterval(idleConnectionCheckInterval);
+			idleConnectionEvictor.addConnectionManager(connectionManager);
+			idleConnectionEvictor.start();
+		}
+	}
+
+	/**
+	 * Stop the idle connections check and close all the pooled connections.
+	 * To be called when the service is disposed.
+	 */
+	public void destroy() {
+		if (idleConnectionEvictor != null) {
+			idleConnectionEvictor.shutdown();
+			idleConnectionEvictor = null;
+		}
+		if (connectionManager != null) {
+			connectionManager.shutdown();
+			connectionManager = null;
+		}
+	}
+
 	/**
 	 * Configure the proxy callbacks
 	 */
@@ -282,7 +490,7 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
             // Execute the proxy request
             // //////////////////////////////
 
-            this.executeProxyRequest(methodProxyRequest, httpServletRequest,
+            this.executeProxyRequest(methodProxyRequest, methodConfig.getUrl(), httpServletRequest,
                     httpServletResponse, methodConfig.getUser(), methodConfig.getPassword(), proxyInfo);
 
         }
@@ -295,7 +503,56 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
      * @param httpServletRequest The {@link HttpServletRequest} that contains the mutlipart POST data to be sent via the {@link PostMethod}
      */
     private void handleMultipart(EntityEnclosingMethod methodProxyRequest,
-            HttpServletRequest httpServletRequest) throws ServletException {
+            HttpServletRequest httpServletRequest) throws IOException, ServletException {
+
+        try {
+
+            // ////////////////////////////////////////////////////////////////
+            // Streaming mode re-emits the parts while they are read from the
+            // client, otherwise the parts are spooled to disk before sending
+            // them, so the remote server receives a known content length
+            // ////////////////////////////////////////////////////////////////
+
+            MultipartRequestEntity multipartRequestEntity;
+            if (streamMultipart) {
+                multipartRequestEntity = new StreamingMultipartRequestEntity(
+                        new ServletFileUpload().getItemIterator(httpServletRequest), bufferPool,
+                        methodProxyRequest.getParams());
+            } else {
+                multipartRequestEntity = new MultipartRequestEntity(
+                        spoolMultipart(httpServletRequest), methodProxyRequest.getParams());
+            }
+
+            methodProxyRequest.setRequestEntity(multipartRequestEntity);
+
+            // ////////////////////////////////////////////////////////////////////////
+            // The current content-type header (received from the client) IS of
+            // type "multipart/form-data", but the content-type header also
+            // contains the chunk boundary string of the chunks. Currently, this
+            // header is using the boundary of the client request, since we
+            // blindly copied all headers from the client request to the proxy
+            // request. However, we are creating a new request with a new chunk
+            // boundary string, so it is necessary that we re-set the
+            // content-type string to reflect the new chunk boundary string
+            // ////////////////////////////////////////////////////////////////////////
+
+            methodProxyRequest.setRequestHeader(Utils.CONTENT_TYPE_HEADER_NAME,
+                    multipartRequestEntity.getContentType());
+
+        } catch (FileUploadException fileUploadException) {
+            throw new ServletException(fileUploadException);
+        }
+    }
+
+    /**
+     * Parses the multipart request storing the files over {@link #getMaxFileUploadSize()} bytes on disk
+     * 
+     * @param httpServletRequest The {@link HttpServletRequest} that contains the mutlipart POST data
+     * @return the parts to be sent to the remote server
+     * @throws FileUploadException
+     */
+    private Part[] spoolMultipart(HttpServletRequest httpServletRequest)
+            throws FileUploadException {
 
         // ////////////////////////////////////////////
         // Create a factory for disk-based file items
@@ -320,95 +577,69 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
         // Parse the request
         // //////////////////////////
 
-        try {
+        // /////////////////////////////////////
+        // Get the multipart items as a list
+        // /////////////////////////////////////
 
-            // /////////////////////////////////////
-            // Get the multipart items as a list
-            // /////////////////////////////////////
+        List<FileItem> listFileItems = (List<FileItem>) servletFileUpload
+                .parseRequest(httpServletRequest);
 
-			List<FileItem> listFileItems = (List<FileItem>) servletFileUpload
-                    .parseRequest(httpServletRequest);
+        // /////////////////////////////////////////
+        // Create a list to hold all of the parts
+        // /////////////////////////////////////////
 
-            // /////////////////////////////////////////
-            // Create a list to hold all of the parts
-            // /////////////////////////////////////////
+        List<Part> listParts = new ArrayList<Part>();
 
-            List<Part> listParts = new ArrayList<Part>();
+        // /////////////////////////////////////////
+        // Iterate the multipart items list
+        // /////////////////////////////////////////
 
-            // /////////////////////////////////////////
-            // Iterate the multipart items list
-            // /////////////////////////////////////////
+        for (FileItem fileItemCurrent : listFileItems) {
 
-            for (FileItem fileItemCurrent : listFileItems) {
+            // //////////////////////////////////////
+            // If the current item is a form field,
+            // then create a string part
+            // //////////////////////////////////////
 
-                // //////////////////////////////////////
-                // If the current item is a form field,
-                // then create a string part
-                // //////////////////////////////////////
+            if (fileItemCurrent.isFormField()) {
+                StringPart stringPart = new StringPart(
+                // The field name
+                        fileItemCurrent.getFieldName(),
+                        // The field value
+                        fileItemCurrent.getString());
 
-                if (fileItemCurrent.isFormField()) {
-                    StringPart stringPart = new StringPart(
-                    // The field name
-                            fileItemCurrent.getFieldName(),
-                            // The field value
-                            fileItemCurrent.getString());
+                // ////////////////////////////
+                // Add the part to the list
+                // ////////////////////////////
 
-                    // ////////////////////////////
-                    // Add the part to the list
-                    // ////////////////////////////
+                listParts.add(stringPart);
 
-                    listParts.add(stringPart);
+            } else {
 
-                } else {
+                // /////////////////////////////////////////////////////
+                // The item is a file upload, so we create a FilePart
+                // /////////////////////////////////////////////////////
 
-                    // /////////////////////////////////////////////////////
-                    // The item is a file upload, so we create a FilePart
-                    // /////////////////////////////////////////////////////
+                FilePart filePart = new FilePart(
 
-                    FilePart filePart = new FilePart(
+                // /////////////////////
+                // The field name
+                // /////////////////////
 
-                    // /////////////////////
-                    // The field name
-                    // /////////////////////
+                        fileItemCurrent.getFieldName(),
 
-                            fileItemCurrent.getFieldName(),
+                        // The uploaded file, read from its storage
+                        new FileItemPartSource(fileItemCurrent));
 
-                            new ByteArrayPartSource(
-                            // The uploaded file name
-                                    fileItemCurrent.getName(),
-                                    // The uploaded file contents
-                                    fileItemCurrent.get()));
+                // /////////////////////////////
+                // Add the part to the list
+                // /////////////////////////////
 
-                    // /////////////////////////////
-                    // Add the part to the list
-                    // /////////////////////////////
-
-                    listParts.add(filePart);
-                }
+                listParts.add(filePart);
             }
-
-            MultipartRequestEntity multipartRequestEntity = new MultipartRequestEntity(
-                    listParts.toArray(new Part[] {}), methodProxyRequest.getParams());
-
-            methodProxyRequest.setRequestEntity(multipartRequestEntity);
-
-            // ////////////////////////////////////////////////////////////////////////
-            // The current content-type header (received from the client) IS of
-            // type "multipart/form-data", but the content-type header also
-            // contains the chunk boundary string of the chunks. Currently, this
-            // header is using the boundary of the client request, since we
-            // blindly copied all headers from the client request to the proxy
-            // request. However, we are creating a new request with a new chunk
-            // boundary string, so it is necessary that we re-set the
-            // content-type string to reflect the new chunk boundary string
-            // ////////////////////////////////////////////////////////////////////////
-
-            methodProxyRequest.setRequestHeader(Utils.CONTENT_TYPE_HEADER_NAME,
-                    multipartRequestEntity.getContentType());
-
-        } catch (FileUploadException fileUploadException) {
-            throw new ServletException(fileUploadException);
         }
+
+        return listParts.toArray(new Part[] {});
     }
 
     /**
@@ -437,32 +668,96 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
      * Executes the {@link HttpMethod} passed in and sends the proxy response back to the client via the given {@link HttpServletResponse}
      * 
      * @param httpMethodProxyRequest An object representing the proxy request to be made
+     * @param url The remote URL
      * @param httpServletResponse An object by which we can send the proxied response back to the client
      * @param digest
      * @throws IOException Can be thrown by the {@link HttpClient}.executeMethod
      * @throws ServletException Can be thrown to indicate that another error has occurred
      */
-    private void executeProxyRequest(HttpMethod httpMethodProxyRequest,
+    private void executeProxyRequest(HttpMethod httpMethodProxyRequest, URL url,
             HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse,
             String user, String password, ProxyInfo proxyInfo) throws IOException, ServletException {
 
+        // the credentials are kept in a state for this request only,
+        // the client and its state are shared by all the requests
+        HttpState httpState = null;
         if (user != null && password != null) {
             UsernamePasswordCredentials upc = new UsernamePasswordCredentials(user, password);
-            httpClient.getState().setCredentials(AuthScope.ANY, upc);
+            httpState = new HttpState();
+            httpState.setCredentials(AuthScope.ANY, upc);
         }
 
         httpMethodProxyRequest.setFollowRedirects(false);
 
         InputStream inputStreamServerResponse = null;
-        ByteArrayOutputStream baos = null;
+
+        // responses fetched with the credentials of the client are never shared
+        String coalescingKey = user == null && password == null ? getCoalescingKey(url,
+                httpServletRequest) : null;
+        CoalescedResponse coalescedResponse = null;
+        boolean coalescedComplete = false;
         
         try {
 
+            // //////////////////////////////////////////////////////////
+            // Serve fresh cached responses, revalidate the stale ones
+            // //////////////////////////////////////////////////////////
+
+            // responses fetched with the credentials of the client are never shared
+            String cacheKey = user == null && password == null ? getCacheKey(url,
+                    httpServletRequest) : null;
+            String variantKey = null;
+            CachedResponse cachedResponse = null;
+
+            if (cacheKey != null) {
+                variantKey = getVariantKey(cacheKey, httpServletRequest);
+                cachedResponse = responseCache.get(variantKey);
+                if (cachedResponse != null && cachedResponse.isVaryMarker()) {
+                    cachedResponse = null;
+                }
+                if (cachedResponse != null) {
+                    if (cachedResponse.isFresh(System.currentTimeMillis())
+                            && !HttpCacheSupport.isRevalidationRequested(httpServletRequest)) {
+                        sendCachedResponse(cachedResponse, httpServletRequest, httpServletResponse);
+                        return;
+                    } else if (cachedResponse.isRevalidable()) {
+                        setConditionalHeaders(httpMethodProxyRequest, cachedResponse);
+                    } else {
+                        cachedResponse = null;
+                    }
+                }
+            }
+
+            // //////////////////////////////////////////////////////////
+            // Join an identical request in progress or lead a new one
+            // //////////////////////////////////////////////////////////
+
+            if (coalescingKey != null) {
+                CoalescedResponse leading = new CoalescedResponse(maxCoalescedSize,
+                        proxyConfig.getSoTimeout() + proxyConfig.getConnectionTimeout());
+                CoalescedResponse inProgress = coalescedResponses.putIfAbsent(coalescingKey, leading);
+                if (inProgress == null) {
+                    coalescedResponse = leading;
+                } else {
+                    CoalescedResponse.Follower follower = inProgress.join();
+                    if (follower != null) {
+                        if (follower.sendTo(httpServletResponse)) {
+                            return;
+                        }
+                        // the leader didn't share the response: execute this request
+                    } else if (coalescedResponses.replace(coalescingKey, inProgress, leading)) {
+                        // too late to join: lead the next identical requests
+                        coalescedResponse = leading;
+                    }
+                }
+            }
+
             // //////////////////////////
             // Execute the request
             // //////////////////////////
 
-            int intProxyResponseCode = httpClient.executeMethod(httpMethodProxyRequest);
+            int intProxyResponseCode = httpClient.executeMethod(null, httpMethodProxyRequest,
+                    httpState);
 
             onRemoteResponse(httpMethodProxyRequest);
 
@@ -504,6 +799,21 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
 
                 return;
 
+            } else if (intProxyResponseCode == HttpServletResponse.SC_NOT_MODIFIED
+                    && cachedResponse != null) {
+
+                // ///////////////////////////////////////////////////////////
+                // The cached response is still valid: refresh and send it
+                // ///////////////////////////////////////////////////////////
+
+                long now = System.currentTimeMillis();
+                cachedResponse = cachedResponse.revalidate(HttpCacheSupport.getExpiration(
+                        httpMethodProxyRequest, now, defaultCacheTimeToLive));
+                responseCache.put(variantKey, cachedResponse);
+                sendCachedResponse(cachedResponse, httpServletRequest, httpServletResponse);
+
+                return;
+
             } else if (intProxyResponseCode == HttpServletResponse.SC_NOT_MODIFIED) {
 
                 // ///////////////////////////////////////////////////////////////
@@ -533,6 +843,47 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
 
             Header[] headerArrayResponse = httpMethodProxyRequest.getResponseHeaders();
 
+            boolean storeResponse = cacheKey != null
+                    && HttpCacheSupport.isStorable(httpMethodProxyRequest);
+            boolean shareResponse = coalescedResponse != null
+                    && intProxyResponseCode == HttpServletResponse.SC_OK;
+            List<String> sharedHeaderNames = storeResponse || shareResponse ? new ArrayList<String>() : null;
+            List<String> sharedHeaderValues = storeResponse || shareResponse ? new ArrayList<String>() : null;
+
+            // ////////////////////////////////////////////////////////////////
+            // Content coding: the remote compressed body is passed through to
+            // the clients accepting gzip and decompressed for the others,
+            // the uncompressed ones are compressed if worth it
+            // ////////////////////////////////////////////////////////////////
+
+            inputStreamServerResponse = httpMethodProxyRequest
+            		.getResponseBodyAsStream();
+
+            long contentLength = httpMethodProxyRequest instanceof HttpMethodBase ?
+            		((HttpMethodBase) httpMethodProxyRequest).getResponseContentLength() : -1;
+
+            String remoteEncoding = HttpCacheSupport.getHeader(httpMethodProxyRequest,
+                    Utils.HTTP_HEADER_CONTENT_ENCODING);
+            if (remoteEncoding != null) {
+                remoteEncoding = remoteEncoding.trim().toLowerCase();
+            }
+            boolean clientGzip = compressionEnabled && acceptsGzip(httpServletRequest);
+            boolean decode = false;
+            boolean encode = false;
+            if (isPartial(httpServletRequest, intProxyResponseCode)) {
+                // a byte range of a representation can't be decoded or
+                // encoded on its own: passed through as is
+            } else if (inputStreamServerResponse != null && remoteEncoding != null
+                    && !remoteEncoding.equals(IDENTITY)) {
+                boolean gzipped = remoteEncoding.equals(GzipResponseWrapper.GZIP)
+                        || remoteEncoding.equals("x-gzip");
+                decode = (gzipped || remoteEncoding.equals(DEFLATE)) && !(gzipped && clientGzip);
+                encode = decode && clientGzip;
+            } else if (inputStreamServerResponse != null && clientGzip) {
+                encode = isCompressible(HttpCacheSupport.getHeader(httpMethodProxyRequest,
+                        Utils.CONTENT_TYPE_HEADER_NAME), contentLength);
+            }
+
             for (Header header : headerArrayResponse) {
 
                 // /////////////////////////
@@ -543,41 +894,91 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
                         && header.getValue().toLowerCase().contains("gzip"))
                     continue;
                 else if (header.getName().equalsIgnoreCase(Utils.HTTP_HEADER_CONTENT_ENCODING)
-                        && header.getValue().toLowerCase().contains("gzip"))
+                        && (decode || inputStreamServerResponse == null))
+                    continue;
+                else if (header.getName().equalsIgnoreCase(Utils.CONTENT_LENGTH_HEADER_NAME)
+                        && (decode || encode))
                     continue;
                 else if (header.getName().equalsIgnoreCase(Utils.HTTP_HEADER_TRANSFER_ENCODING))
                     continue;
 //                else if (header.getName().equalsIgnoreCase(Utils.HTTP_HEADER_WWW_AUTHENTICATE))
 //                    continue;                
-                else
-                    httpServletResponse.setHeader(header.getName(), header.getValue());
+                else {
+                    // the body decoded or encoded by the proxy is a different
+                    // representation: the entity tag is weakened
+                    String value = header.getValue();
+                    boolean eTag = header.getName().equalsIgnoreCase(HttpCacheSupport.ETAG_HEADER);
+                    if (eTag && decode) {
+                        value = HttpCacheSupport.toWeakETag(value);
+                    }
+                    httpServletResponse.setHeader(header.getName(),
+                            eTag && encode ? HttpCacheSupport.toWeakETag(value) : value);
+                    if (sharedHeaderNames != null && isCacheableHeader(header.getName())) {
+                        sharedHeaderNames.add(header.getName());
+                        sharedHeaderValues.add(value);
+                    }
+                }
+            }
+
+            if (compressionEnabled && inputStreamServerResponse != null) {
+                httpServletResponse.addHeader(HttpCacheSupport.VARY_HEADER, "Accept-Encoding");
             }
 
             // ///////////////////////////////////
             // Send the content to the client
             // ///////////////////////////////////
-            
-            inputStreamServerResponse = httpMethodProxyRequest
-            		.getResponseBodyAsStream();
+
+            if (decode) {
+                inputStreamServerResponse = DEFLATE.equals(remoteEncoding) ? new InflaterInputStream(
+                        inputStreamServerResponse) : new GZIPInputStream(inputStreamServerResponse);
+                contentLength = -1;
+            }
+
+            HttpServletResponse clientResponse = httpServletResponse;
+            GzipResponseWrapper gzipResponse = null;
+            if (encode) {
+                gzipResponse = new GzipResponseWrapper(httpServletResponse, bufferPool.getBufferSize());
+                clientResponse = gzipResponse;
+                contentLength = -1;
+            }
+
+            // the body read from the remote server is copied for the coalesced requests
+            if(shareResponse){
+            	coalescedResponse.start(intProxyResponseCode,
+            			sharedHeaderNames.toArray(new String[sharedHeaderNames.size()]),
+            			sharedHeaderValues.toArray(new String[sharedHeaderValues.size()]),
+            			inputStreamServerResponse != null ? contentLength : 0);
+            	clientResponse = coalescedResponse.tee(clientResponse);
+            }else if(coalescedResponse != null){
+            	coalescedResponse.abort();
+            }
             
             if(inputStreamServerResponse != null){
-                byte[] b = new byte[proxyConfig.getDefaultStreamByteSize()];
-                
-                baos = new ByteArrayOutputStream(b.length);
-                
-                int read = 0;
-    		    while((read = inputStreamServerResponse.read(b)) > 0){ 
-    		      	baos.write(b, 0, read);
-    		        baos.flush();
-    		    }
-    	            
-    		    baos.writeTo(httpServletResponse.getOutputStream());
+                if(storeResponse){
+                	byte[] body = cacheResponseBody(inputStreamServerResponse, clientResponse, contentLength);
+                	if(body != null){
+                		storeResponse(cacheKey, httpMethodProxyRequest, httpServletRequest,
+                				sharedHeaderNames, sharedHeaderValues, body);
+                	}
+                }else if(bufferResponse){
+                	bufferResponseBody(inputStreamServerResponse, clientResponse, contentLength);
+                }else{
+                	streamResponseBody(inputStreamServerResponse, clientResponse, contentLength);
+                }
             }
+            if(gzipResponse != null){
+            	gzipResponse.finish();
+            }
+            coalescedComplete = true;
             
         } catch (HttpException e) {
             if (LOGGER.isLoggable(Level.SEVERE))
                 LOGGER.log(Level.SEVERE, "Error executing HTTP method ", e);
         } finally {
+            if (coalescedResponse != null) {
+                coalescedResponses.remove(coalescingKey, coalescedResponse);
+                coalescedResponse.finish(coalescedComplete);
+            }
 			try {
 	        	if(inputStreamServerResponse != null)
 	        		inputStreamServerResponse.close();
@@ -587,23 +988,357 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
 							"Error closing request input stream ", e);
 				throw new ServletException(e.getMessage());
 			}
-			
-			try {
-	        	if(baos != null){
-	        		baos.flush();
-	        		baos.close();
-	        	}
-			} catch (IOException e) {
-				if (LOGGER.isLoggable(Level.SEVERE))
-					LOGGER.log(Level.SEVERE,
-							"Error closing response stream ", e);
-				throw new ServletException(e.getMessage());
-			}
         	
             httpMethodProxyRequest.releaseConnection();
         }
     }
 
+    /**
+     * Pipes the remote response to the client as it arrives using a pooled buffer
+     * 
+     * @param inputStreamServerResponse remote response body
+     * @param httpServletResponse response to the client
+     * @param contentLength remote content length or -1 if unknown
+     * @throws IOException
+     */
+    private void streamResponseBody(InputStream inputStreamServerResponse,
+            HttpServletResponse httpServletResponse, long contentLength) throws IOException {
+
+        if (contentLength >= 0) {
+            setContentLength(httpServletResponse, contentLength);
+        }
+
+        OutputStream outputStreamClientResponse = httpServletResponse.getOutputStream();
+        byte[] buffer = bufferPool.acquire();
+        try {
+            int read = 0;
+            while ((read = inputStreamServerResponse.read(buffer)) != -1) {
+                outputStreamClientResponse.write(buffer, 0, read);
+            }
+            outputStreamClientResponse.flush();
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Reads the whole remote response in memory and then writes it to the client
+     * 
+     * @param inputStreamServerResponse remote response body
+     * @param httpServletResponse response to the client
+     * @param contentLength remote content length or -1 if unknown
+     * @throws IOException
+     */
+    private void bufferResponseBody(InputStream inputStreamServerResponse,
+            HttpServletResponse httpServletResponse, long contentLength) throws IOException {
+
+        int initialSize = contentLength >= 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength
+                : bufferPool.getBufferSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(initialSize);
+        byte[] buffer = bufferPool.acquire();
+        try {
+            int read = 0;
+            while ((read = inputStreamServerResponse.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+
+        setContentLength(httpServletResponse, baos.size());
+        baos.writeTo(httpServletResponse.getOutputStream());
+        httpServletResponse.getOutputStream().flush();
+    }
+
+    /**
+     * Reads the remote response in memory, to be cached, and writes it to the client.
+     * Bodies over {@link #maxCacheableSize} are streamed and not cached.
+     * 
+     * @param inputStreamServerResponse remote response body
+     * @param httpServletResponse response to the client
+     * @param contentLength remote content length or -1 if unknown
+     * @return the body or null if it's too big to be cached
+     * @throws IOException
+     */
+    private byte[] cacheResponseBody(InputStream inputStreamServerResponse,
+            HttpServletResponse httpServletResponse, long contentLength) throws IOException {
+
+        if (contentLength > maxCacheableSize) {
+            streamResponseBody(inputStreamServerResponse, httpServletResponse, contentLength);
+            return null;
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                contentLength >= 0 ? (int) contentLength : bufferPool.getBufferSize());
+        byte[] buffer = bufferPool.acquire();
+        try {
+            int read = 0;
+            while ((read = inputStreamServerResponse.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+                if (baos.size() > maxCacheableSize) {
+                    // too big to be cached: send what has been read and stream the rest
+                    if (contentLength >= 0) {
+                        setContentLength(httpServletResponse, contentLength);
+                    }
+                    OutputStream outputStreamClientResponse = httpServletResponse.getOutputStream();
+                    baos.writeTo(outputStreamClientResponse);
+                    while ((read = inputStreamServerResponse.read(buffer)) != -1) {
+                        outputStreamClientResponse.write(buffer, 0, read);
+                    }
+                    outputStreamClientResponse.flush();
+                    return null;
+                }
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+
+        byte[] body = baos.toByteArray();
+        setContentLength(httpServletResponse, body.length);
+        httpServletResponse.getOutputStream().write(body);
+        httpServletResponse.getOutputStream().flush();
+        return body;
+    }
+
+    /**
+     * Obtain the key identifying the concurrent requests that can share a
+     * remote response. Requests sending credentials to the remote server are
+     * never coalesced.
+     * 
+     * @param url remote URL
+     * @param httpServletRequest
+     * @return the key or null if the request can't be coalesced
+     */
+    private String getCoalescingKey(URL url, HttpServletRequest httpServletRequest) {
+        RequestTypeMatcher matcher = coalescedRequestsMatcher;
+        if (matcher == null || url == null
+                || !"GET".equalsIgnoreCase(httpServletRequest.getMethod())
+                || HttpCacheSupport.hasCredentials(httpServletRequest)) {
+            return null;
+        }
+        String urlExtForm = url.toExternalForm();
+        if (!matcher.matches(urlExtForm)) {
+            return null;
+        }
+        // the headers changing the remote response must be the same
+        StringBuilder key = new StringBuilder(urlExtForm);
+        for (String header : COALESCING_HEADERS) {
+            String value = httpServletRequest.getHeader(header);
+            key.append('\n').append(value != null ? value : "");
+        }
+        if (compressionEnabled && acceptsGzip(httpServletRequest)) {
+            key.append('\n').append(GzipResponseWrapper.GZIP);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Obtain the cache key of a request. Requests sending credentials to the
+     * remote server are never cached.
+     * 
+     * @param url remote URL
+     * @param httpServletRequest
+     * @return the key or null if the response to the request can't be cached
+     */
+    private String getCacheKey(URL url, HttpServletRequest httpServletRequest) {
+        if (responseCache == null || url == null
+                || !HttpCacheSupport.isCacheableRequest(httpServletRequest)) {
+            return null;
+        }
+        String urlExtForm = url.toExternalForm();
+        if (!proxyConfig.getPolicy().getCacheableMatcher().matches(urlExtForm)) {
+            return null;
+        }
+        String key = HttpCacheSupport.getKey(httpServletRequest.getMethod().toUpperCase(), urlExtForm);
+        // the stored body can be compressed for the clients accepting gzip
+        return compressionEnabled && acceptsGzip(httpServletRequest) ? key + "\n"
+                + GzipResponseWrapper.GZIP : key;
+    }
+
+    /**
+     * Obtain the key of the cached variant for the request, if the cached
+     * resource has variants selected by request headers
+     * 
+     * @param cacheKey key of the resource
+     * @param httpServletRequest
+     * @return the key of the variant or the key of the resource
+     */
+    private String getVariantKey(String cacheKey, HttpServletRequest httpServletRequest) {
+        CachedResponse marker = responseCache.get(cacheKey);
+        if (marker != null && marker.isVaryMarker()) {
+            return HttpCacheSupport.getVariantKey(cacheKey, marker.getVaryHeaders(),
+                    httpServletRequest);
+        }
+        return cacheKey;
+    }
+
+    /**
+     * Store a remote response in the cache if it's fresh or can be revalidated
+     */
+    private void storeResponse(String cacheKey, HttpMethod httpMethodProxyRequest,
+            HttpServletRequest httpServletRequest, List<String> headerNames,
+            List<String> headerValues, byte[] body) {
+
+        long expiresAt = HttpCacheSupport.getExpiration(httpMethodProxyRequest,
+                System.currentTimeMillis(), defaultCacheTimeToLive);
+        CachedResponse response = new CachedResponse(httpMethodProxyRequest.getStatusCode(),
+                headerNames.toArray(new String[headerNames.size()]),
+                headerValues.toArray(new String[headerValues.size()]), body, expiresAt,
+                HttpCacheSupport.getHeader(httpMethodProxyRequest, HttpCacheSupport.ETAG_HEADER),
+                HttpCacheSupport.getHeader(httpMethodProxyRequest,
+                        HttpCacheSupport.LAST_MODIFIED_HEADER));
+
+        if (!response.isFresh(System.currentTimeMillis()) && !response.isRevalidable()) {
+            return;
+        }
+
+        String[] varyHeaders = HttpCacheSupport.getVaryHeaders(httpMethodProxyRequest);
+        if (varyHeaders.length > 0) {
+            responseCache.put(cacheKey, CachedResponse.varyMarker(varyHeaders, expiresAt));
+            responseCache.put(HttpCacheSupport.getVariantKey(cacheKey, varyHeaders,
+                    httpServletRequest), response);
+        } else {
+            responseCache.put(cacheKey, response);
+        }
+    }
+
+    /**
+     * Send a cached response to the client, answering with 304 if the client
+     * conditional headers match it
+     */
+    private void sendCachedResponse(CachedResponse cachedResponse,
+            HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse)
+            throws IOException {
+
+        String ifNoneMatch = httpServletRequest.getHeader(HttpCacheSupport.IF_NONE_MATCH_HEADER);
+        String ifModifiedSince = httpServletRequest
+                .getHeader(HttpCacheSupport.IF_MODIFIED_SINCE_HEADER);
+        boolean notModified = ifNoneMatch != null ? cachedResponse.getETag() != null
+                && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(cachedResponse
+                        .getETag())) : ifModifiedSince != null
+                && ifModifiedSince.equals(cachedResponse.getLastModified());
+
+        for (int i = 0; i < cachedResponse.getHeaderCount(); i++) {
+            httpServletResponse.setHeader(cachedResponse.getHeaderName(i),
+                    cachedResponse.getHeaderValue(i));
+        }
+
+        if (notModified) {
+            httpServletResponse.setIntHeader(Utils.CONTENT_LENGTH_HEADER_NAME, 0);
+            httpServletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        httpServletResponse.setStatus(cachedResponse.getStatus());
+        byte[] body = cachedResponse.getBody();
+
+        String contentType = null;
+        String eTag = null;
+        boolean encoded = false;
+        for (int i = 0; i < cachedResponse.getHeaderCount(); i++) {
+            if (cachedResponse.getHeaderName(i).equalsIgnoreCase(Utils.CONTENT_TYPE_HEADER_NAME)) {
+                contentType = cachedResponse.getHeaderValue(i);
+            } else if (cachedResponse.getHeaderName(i).equalsIgnoreCase(
+                    HttpCacheSupport.ETAG_HEADER)) {
+                eTag = cachedResponse.getHeaderValue(i);
+            } else if (cachedResponse.getHeaderName(i).equalsIgnoreCase(
+                    Utils.HTTP_HEADER_CONTENT_ENCODING)) {
+                encoded = true;
+            }
+        }
+        if (compressionEnabled) {
+            httpServletResponse.addHeader(HttpCacheSupport.VARY_HEADER, "Accept-Encoding");
+        }
+        if (!encoded && compressionEnabled && acceptsGzip(httpServletRequest)
+                && isCompressible(contentType, body.length)) {
+            if (eTag != null) {
+                httpServletResponse.setHeader(HttpCacheSupport.ETAG_HEADER,
+                        HttpCacheSupport.toWeakETag(eTag));
+            }
+            GzipResponseWrapper gzipResponse = new GzipResponseWrapper(httpServletResponse,
+                    bufferPool.getBufferSize());
+            gzipResponse.getOutputStream().write(body);
+            gzipResponse.finish();
+            return;
+        }
+
+        setContentLength(httpServletResponse, body.length);
+        httpServletResponse.getOutputStream().write(body);
+        httpServletResponse.getOutputStream().flush();
+    }
+
+    /**
+     * @param httpServletRequest
+     * @return true if the client accepts gzip compressed responses
+     */
+    private static boolean acceptsGzip(HttpServletRequest httpServletRequest) {
+        return Utils.acceptsEncoding(
+                httpServletRequest.getHeader(Utils.HTTP_HEADER_ACCEPT_ENCODING),
+                GzipResponseWrapper.GZIP);
+    }
+
+    /**
+     * Check if a response is worth to be compressed
+     * 
+     * @param contentType response content type, can be null
+     * @param contentLength response length or -1 if unknown
+     * @return true if the content type is compressible and the response is not too small
+     */
+    private boolean isCompressible(String contentType, long contentLength) {
+        if (contentType == null || (contentLength >= 0 && contentLength < compressionMinSize)) {
+            return false;
+        }
+        String mimeType = contentType.toLowerCase();
+        for (String compressible : compressibleMimeTypes) {
+            if (mimeType.startsWith(compressible.toLowerCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replace the client conditional headers with the validators of the cached response
+     */
+    private void setConditionalHeaders(HttpMethod httpMethodProxyRequest,
+            CachedResponse cachedResponse) {
+        httpMethodProxyRequest.removeRequestHeader(HttpCacheSupport.IF_NONE_MATCH_HEADER);
+        httpMethodProxyRequest.removeRequestHeader(HttpCacheSupport.IF_MODIFIED_SINCE_HEADER);
+        if (cachedResponse.getETag() != null) {
+            httpMethodProxyRequest.setRequestHeader(HttpCacheSupport.IF_NONE_MATCH_HEADER,
+                    cachedResponse.getETag());
+        }
+        if (cachedResponse.getLastModified() != null) {
+            httpMethodProxyRequest.setRequestHeader(HttpCacheSupport.IF_MODIFIED_SINCE_HEADER,
+                    cachedResponse.getLastModified());
+        }
+    }
+
+    /**
+     * @param headerName
+     * @return true if the header can be stored with a cached response
+     */
+    private static boolean isCacheableHeader(String headerName) {
+        return !headerName.equalsIgnoreCase(Utils.CONTENT_LENGTH_HEADER_NAME)
+                && !headerName.equalsIgnoreCase("Set-Cookie")
+                && !Utils.isHopByHopHeader(headerName);
+    }
+
+    /**
+     * Sets the content length of the client response, also for sizes over 2GB
+     * 
+     * @param httpServletResponse
+     * @param contentLength
+     */
+    private void setContentLength(HttpServletResponse httpServletResponse, long contentLength) {
+        if (contentLength <= Integer.MAX_VALUE) {
+            httpServletResponse.setContentLength((int) contentLength);
+        } else {
+            httpServletResponse.setHeader(Utils.CONTENT_LENGTH_HEADER_NAME,
+                    Long.toString(contentLength));
+        }
+    }
+
     /**
      * Retrieves all of the headers from the servlet request and sets them on the proxy request
      * 
@@ -633,6 +1368,14 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
             if (stringHeaderName.equalsIgnoreCase(Utils.CONTENT_LENGTH_HEADER_NAME))
                 continue;
 
+            // ////////////////////////////////////////////////////////////////
+            // Hop-by-hop headers apply to the client connection only and
+            // would prevent the reuse of the pooled connections
+            // ////////////////////////////////////////////////////////////////
+
+            if (Utils.isHopByHopHeader(stringHeaderName))
+                continue;
+
             // ////////////////////////////////////////////////////////////////////////
             // As per the Java Servlet API 2.5 documentation:
             // Some headers, such as Accept-Language can be sent by clients
@@ -656,12 +1399,12 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
                     stringHeaderValue = Utils.getProxyHostAndPort(proxyInfo);
                 }
 
-                // ////////////////////////
-                // Skip GZIP Responses
-                // ////////////////////////
+                // ////////////////////////////////////////////////////
+                // Skip GZIP Responses, unless the proxy handles them
+                // ////////////////////////////////////////////////////
 
                 if (stringHeaderName.equalsIgnoreCase(Utils.HTTP_HEADER_ACCEPT_ENCODING)
-                        && stringHeaderValue.toLowerCase().contains("gzip"))
+                        && (compressionEnabled || stringHeaderValue.toLowerCase().contains("gzip")))
                     continue;
                 if (stringHeaderName.equalsIgnoreCase(Utils.HTTP_HEADER_CONTENT_ENCODING)
                         && stringHeaderValue.toLowerCase().contains("gzip"))
@@ -679,8 +1422,26 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
             }
         }
 
+        if (compressionEnabled) {
+            // the ranges must refer to the identity representation the client
+            // asked them for
+            httpMethodProxyRequest.setRequestHeader(Utils.HTTP_HEADER_ACCEPT_ENCODING,
+                    httpServletRequest.getHeader(RANGE_HEADER) != null ? IDENTITY
+                            : ACCEPTED_ENCODINGS);
+        }
+
         return proxyInfo;
     }
+
+    /**
+     * @param httpServletRequest client request
+     * @param statusCode of the remote response
+     * @return true if the response is, or may be, a part of the representation
+     */
+    private static boolean isPartial(HttpServletRequest httpServletRequest, int statusCode) {
+        return statusCode == HttpServletResponse.SC_PARTIAL_CONTENT
+                || httpServletRequest.getHeader(RANGE_HEADER) != null;
+    }
     
     /**
      * @return int the maximum file upload size.
@@ -689,6 +1450,13 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
         return maxFileUploadSize;
     }
 
+    /**
+     * @param maxFileUploadSize the size over which the uploaded files are stored on disk
+     */
+    public void setMaxFileUploadSize(int maxFileUploadSize) {
+        this.maxFileUploadSize = maxFileUploadSize;
+    }
+
 	/**
 	 * @return the callbacks
 	 */
@@ -704,6 +1472,201 @@ public class ProxyServiceImpl implements ProxyService, Serializable{
 		configureCallbacks();
 	}
 
+	/**
+	 * @return the bufferResponse
+	 */
+	public boolean isBufferResponse() {
+		return bufferResponse;
+	}
+
+	/**
+	 * @param bufferResponse true to read the whole remote response before sending it to the client
+	 */
+	public void setBufferResponse(boolean bufferResponse) {
+		this.bufferResponse = bufferResponse;
+	}
+
+	/**
+	 * @return the streamMultipart
+	 */
+	public boolean isStreamMultipart() {
+		return streamMultipart;
+	}
+
+	/**
+	 * @param streamMultipart false to store uploaded files on disk before forwarding them
+	 */
+	public void setStreamMultipart(boolean streamMultipart) {
+		this.streamMultipart = streamMultipart;
+	}
+
+	/**
+	 * @return the maxConnectionsPerRoute
+	 */
+	public Map<String, Integer> getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	/**
+	 * @param maxConnectionsPerRoute maximum connections by remote server URL
+	 */
+	public void setMaxConnectionsPerRoute(Map<String, Integer> maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		configureRouteLimits();
+	}
+
+	/**
+	 * @return the idleConnectionTimeout
+	 */
+	public long getIdleConnectionTimeout() {
+		return idleConnectionTimeout;
+	}
+
+	/**
+	 * @param idleConnectionTimeout milliseconds after which an idle connection is closed, 0 to keep them open
+	 */
+	public void setIdleConnectionTimeout(long idleConnectionTimeout) {
+		this.idleConnectionTimeout = idleConnectionTimeout;
+		configureIdleConnectionEvictor();
+	}
+
+	/**
+	 * @return the idleConnectionCheckInterval
+	 */
+	public long getIdleConnectionCheckInterval() {
+		return idleConnectionCheckInterval;
+	}
+
+	/**
+	 * @param idleConnectionCheckInterval milliseconds between the checks for idle connections
+	 */
+	public void setIdleConnectionCheckInterval(long idleConnectionCheckInterval) {
+		this.idleConnectionCheckInterval = idleConnectionCheckInterval;
+		configureIdleConnectionEvictor();
+	}
+
+	/**
+	 * @return the responseCache
+	 */
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * @param responseCache cache for the remote responses, null to disable it
+	 */
+	public void setResponseCache(ResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
+
+	/**
+	 * @return the maxCacheableSize
+	 */
+	public int getMaxCacheableSize() {
+		return maxCacheableSize;
+	}
+
+	/**
+	 * @param maxCacheableSize maximum size in bytes of a cached response body
+	 */
+	public void setMaxCacheableSize(int maxCacheableSize) {
+		this.maxCacheableSize = maxCacheableSize;
+	}
+
+	/**
+	 * @return the defaultCacheTimeToLive
+	 */
+	public long getDefaultCacheTimeToLive() {
+		return defaultCacheTimeToLive;
+	}
+
+	/**
+	 * @param defaultCacheTimeToLive milliseconds a response without expiration headers is fresh
+	 */
+	public void setDefaultCacheTimeToLive(long defaultCacheTimeToLive) {
+		this.defaultCacheTimeToLive = defaultCacheTimeToLive;
+	}
+
+	/**
+	 * @return the compressionEnabled
+	 */
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	/**
+	 * @param compressionEnabled true to request and send compressed responses
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	/**
+	 * @return the compressionMinSize
+	 */
+	public int getCompressionMinSize() {
+		return compressionMinSize;
+	}
+
+	/**
+	 * @param compressionMinSize minimum size in bytes of a response compressed by the proxy
+	 */
+	public void setCompressionMinSize(int compressionMinSize) {
+		this.compressionMinSize = compressionMinSize;
+	}
+
+	/**
+	 * @return the compressibleMimeTypes
+	 */
+	public Set<String> getCompressibleMimeTypes() {
+		return compressibleMimeTypes;
+	}
+
+	/**
+	 * @param compressibleMimeTypes prefixes of the MIME types compressed by the proxy
+	 */
+	public void setCompressibleMimeTypes(Set<String> compressibleMimeTypes) {
+		this.compressibleMimeTypes = compressibleMimeTypes;
+	}
+
+	/**
+	 * @return the coalescedRequests
+	 */
+	public Set<String> getCoalescedRequests() {
+		return coalescedRequests;
+	}
+
+	/**
+	 * @param coalescedRequests regular expressions for the URLs of the GET requests to coalesce
+	 */
+	public void setCoalescedRequests(Set<String> coalescedRequests) {
+		this.coalescedRequests = coalescedRequests;
+		if (coalescedRequests == null || coalescedRequests.isEmpty()) {
+			this.coalescedRequestsMatcher = null;
+		} else {
+			List<Pattern> patterns = new ArrayList<Pattern>(coalescedRequests.size());
+			for (String regex : coalescedRequests) {
+				patterns.add(Pattern.compile(regex));
+			}
+			this.coalescedRequestsMatcher = new RequestTypeMatcher(patterns);
+		}
+	}
+
+	/**
+	 * @return the maxCoalescedSize
+	 */
+	public int getMaxCoalescedSize() {
+		return maxCoalescedSize;
+	}
+
+	/**
+	 * @param maxCoalescedSize maximum bytes of a shared response retained for the requests joining it late
+	 *        and for the requests sending it slower than the others
+	 */
+	public void setMaxCoalescedSize(int maxCoalescedSize) {
+		this.maxCoalescedSize = maxCoalescedSize;
+	}
+
 	/**
 	 * @return the proxyHelper
 	 */
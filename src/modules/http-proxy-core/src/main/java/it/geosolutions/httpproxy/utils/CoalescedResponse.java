@@ -0,0 +1,363 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Remote response shared by identical concurrent requests. The first request
+ * (the leader) executes the remote request and copies the body it sends to its
+ * client in this object, the following requests (the followers) join it and
+ * replay the status, the headers and the body to their clients while they
+ * arrive.<br/>
+ * The body is retained for late joiners up to <code>maxBufferedSize</code>
+ * bytes: over that size no more followers can join and the chunks are released
+ * as soon as all the followers have sent them. The bytes retained for the
+ * followers never exceed <code>maxBufferedSize</code>: the slowest followers
+ * are detached and fail instead of making the leader buffer the whole body.
+ */
+public final class CoalescedResponse {
+
+    private enum State {
+        WAITING, STARTED, ABORTED, COMPLETED, FAILED
+    }
+
+    private final int maxBufferedSize;
+
+    private final long timeout;
+
+    private State state = State.WAITING;
+
+    private boolean joinable = true;
+
+    private final List<Follower> followers = new ArrayList<Follower>();
+
+    private int status;
+
+    private String[] headerNames;
+
+    private String[] headerValues;
+
+    private long contentLength = -1;
+
+    /**
+     * Chunks of the body, null once sent by all the followers
+     */
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+
+    /**
+     * Chunks before this index have been released
+     */
+    private int released;
+
+    private long bufferedSize;
+
+    private long retainedSize;
+
+    /**
+     * @param maxBufferedSize maximum bytes retained for the followers joining late
+     *        or sending the body slower than the others
+     * @param timeout maximum milliseconds a follower waits for the leader
+     */
+    public CoalescedResponse(int maxBufferedSize, long timeout) {
+        this.maxBufferedSize = maxBufferedSize;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Join the response as follower
+     * 
+     * @return the follower or null if the response doesn't accept more followers
+     */
+    public synchronized Follower join() {
+        if (!joinable || state == State.ABORTED || state == State.FAILED) {
+            return null;
+        }
+        Follower follower = new Follower();
+        followers.add(follower);
+        return follower;
+    }
+
+    /**
+     * Called by the leader when the remote response can be shared
+     * 
+     * @param status response status
+     * @param headerNames names of the headers to replay
+     * @param headerValues values of the headers to replay
+     * @param contentLength content length or -1 if unknown
+     */
+    public synchronized void start(int status, String[] headerNames, String[] headerValues,
+            long contentLength) {
+        if (state != State.WAITING) {
+            return;
+        }
+        this.status = status;
+        this.headerNames = headerNames;
+        this.headerValues = headerValues;
+        this.contentLength = contentLength;
+        this.state = State.STARTED;
+        notifyAll();
+    }
+
+    /**
+     * Called by the leader when the remote response can't be shared: the
+     * followers must execute their own request
+     */
+    public synchronized void abort() {
+        if (state == State.WAITING) {
+            state = State.ABORTED;
+            joinable = false;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Called by the leader when it ends
+     * 
+     * @param success false if the body has not been completely read
+     */
+    public synchronized void finish(boolean success) {
+        if (state == State.WAITING) {
+            state = State.ABORTED;
+        } else if (state == State.STARTED) {
+            state = success ? State.COMPLETED : State.FAILED;
+        }
+        joinable = false;
+        releaseSentChunks();
+        notifyAll();
+    }
+
+    /**
+     * Append a piece of the body sent by the leader
+     */
+    private synchronized void append(byte[] b, int off, int len) {
+        if (state != State.STARTED || len <= 0) {
+            return;
+        }
+        if (followers.isEmpty() && !joinable) {
+            // nobody is listening anymore
+            return;
+        }
+        byte[] chunk = new byte[len];
+        System.arraycopy(b, off, chunk, 0, len);
+        chunks.add(chunk);
+        bufferedSize += len;
+        retainedSize += len;
+        if (joinable && bufferedSize > maxBufferedSize) {
+            joinable = false;
+        }
+        releaseSentChunks();
+        // the leader doesn't wait for the slowest followers: detach them
+        while (retainedSize > maxBufferedSize && !followers.isEmpty()) {
+            Follower slowest = followers.get(0);
+            for (Follower follower : followers) {
+                if (follower.index < slowest.index) {
+                    slowest = follower;
+                }
+            }
+            slowest.detached = true;
+            followers.remove(slowest);
+            releaseSentChunks();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Release the chunks sent by all the followers, possible only when no
+     * more followers can join
+     */
+    private void releaseSentChunks() {
+        if (joinable) {
+            return;
+        }
+        int sent = chunks.size();
+        for (Follower follower : followers) {
+            sent = Math.min(sent, follower.index);
+        }
+        for (; released < sent; released++) {
+            retainedSize -= chunks.get(released).length;
+            chunks.set(released, null);
+        }
+    }
+
+    /**
+     * Wait for the next chunk of the follower
+     * 
+     * @return the chunk or null at the end of the body
+     */
+    private synchronized byte[] nextChunk(Follower follower) throws IOException {
+        while (follower.index >= chunks.size() && state == State.STARTED && !follower.detached) {
+            await();
+        }
+        if (follower.detached) {
+            throw new IOException("The request fell behind the shared remote response");
+        }
+        if (follower.index < chunks.size()) {
+            byte[] chunk = chunks.get(follower.index);
+            follower.index++;
+            releaseSentChunks();
+            return chunk;
+        }
+        if (state == State.FAILED) {
+            throw new IOException("The shared remote response has not been completely read");
+        }
+        return null;
+    }
+
+    /**
+     * Leave the response so the chunks are released when the remaining
+     * followers have sent them
+     */
+    private synchronized void leave(Follower follower) {
+        followers.remove(follower);
+        releaseSentChunks();
+    }
+
+    private void await() throws IOException {
+        try {
+            long start = System.currentTimeMillis();
+            wait(timeout);
+            if (timeout > 0 && System.currentTimeMillis() - start >= timeout) {
+                throw new IOException("Timeout waiting for the shared remote response");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Request joining the shared response
+     */
+    public final class Follower {
+
+        /**
+         * Index of the next chunk to send
+         */
+        private int index;
+
+        /**
+         * True if the follower fell behind and its chunks have been released
+         */
+        private boolean detached;
+
+        private Follower() {
+        }
+
+        /**
+         * Replay the response to the client of the follower
+         * 
+         * @param response client response
+         * @return false if the leader aborted and the follower must execute its own request
+         * @throws IOException
+         */
+        public boolean sendTo(HttpServletResponse response) throws IOException {
+            try {
+                synchronized (CoalescedResponse.this) {
+                    while (state == State.WAITING) {
+                        await();
+                    }
+                    if (state == State.ABORTED) {
+                        return false;
+                    }
+                    response.setStatus(status);
+                    for (int i = 0; i < headerNames.length; i++) {
+                        response.setHeader(headerNames[i], headerValues[i]);
+                    }
+                    if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+                        response.setContentLength((int) contentLength);
+                    }
+                }
+                OutputStream out = response.getOutputStream();
+                byte[] chunk;
+                while ((chunk = nextChunk(this)) != null) {
+                    out.write(chunk);
+                }
+                out.flush();
+                return true;
+            } finally {
+                leave(this);
+            }
+        }
+    }
+
+    /**
+     * Wrap the leader client response so the body written to it is also
+     * appended to this shared response
+     * 
+     * @param response leader client response
+     * @return the wrapped response
+     */
+    public HttpServletResponse tee(HttpServletResponse response) {
+        return new TeeResponse(response);
+    }
+
+    /**
+     * Leader response copying the body
+     */
+    private class TeeResponse extends HttpServletResponseWrapper {
+
+        private ServletOutputStream outputStream;
+
+        public TeeResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                final ServletOutputStream delegate = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        write(new byte[] { (byte) b }, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        append(b, off, len);
+                        delegate.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        delegate.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        delegate.close();
+                    }
+                };
+            }
+            return outputStream;
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+
+/**
+ * Part source reading an uploaded {@link FileItem} from its storage (memory or
+ * disk) instead of loading the whole content with {@link FileItem#get()}.
+ */
+public class FileItemPartSource implements PartSource {
+
+    private final FileItem fileItem;
+
+    /**
+     * @param fileItem the uploaded item
+     */
+    public FileItemPartSource(FileItem fileItem) {
+        this.fileItem = fileItem;
+    }
+
+    public long getLength() {
+        return fileItem.getSize();
+    }
+
+    public String getFileName() {
+        return fileItem.getName();
+    }
+
+    public InputStream createInputStream() throws IOException {
+        return fileItem.getInputStream();
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.utils;
+
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response compressing with gzip the body written to it. The content length
+ * set by the caller is ignored because it refers to the uncompressed body.
+ * {@link #finish()} must be called when the whole body has been written.
+ */
+public class GzipResponseWrapper extends HttpServletResponseWrapper {
+
+    public static final String GZIP = "gzip";
+
+    private final int bufferSize;
+
+    private GZIPOutputStream gzipOutputStream;
+
+    private ServletOutputStream outputStream;
+
+    /**
+     * @param response response to the client
+     * @param bufferSize size of the compression buffer
+     */
+    public GzipResponseWrapper(HttpServletResponse response, int bufferSize) {
+        super(response);
+        this.bufferSize = bufferSize;
+        response.setHeader(Utils.HTTP_HEADER_CONTENT_ENCODING, GZIP);
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        // the compressed length is unknown
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (!Utils.CONTENT_LENGTH_HEADER_NAME.equalsIgnoreCase(name)) {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (!Utils.CONTENT_LENGTH_HEADER_NAME.equalsIgnoreCase(name)) {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if (!Utils.CONTENT_LENGTH_HEADER_NAME.equalsIgnoreCase(name)) {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        if (!Utils.CONTENT_LENGTH_HEADER_NAME.equalsIgnoreCase(name)) {
+            super.addIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            gzipOutputStream = new GZIPOutputStream(super.getOutputStream(), bufferSize);
+            outputStream = new ServletOutputStream() {
+
+                @Override
+                public void write(int b) throws IOException {
+                    gzipOutputStream.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    gzipOutputStream.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    gzipOutputStream.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    finish();
+                }
+            };
+        }
+        return outputStream;
+    }
+
+    /**
+     * Write the end of the compressed body
+     * 
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        getOutputStream();
+        gzipOutputStream.finish();
+        getResponse().getOutputStream().flush();
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable snapshot of the proxy configuration. White lists are parsed and
+ * request type expressions are compiled once, when the configuration is loaded,
+ * so the proxy callbacks can read them on every request without locking or
+ * allocating.
+ */
+public final class ProxyPolicy {
+
+    private final Set<String> hostnameWhitelist;
+
+    private final Set<String> mimetypeWhitelist;
+
+    private final Set<String> reqtypeWhitelist;
+
+    private final List<Pattern> reqtypePatterns;
+
+    private final RequestTypeMatcher reqtypeMatcher;
+
+    private final Set<String> cacheableWhitelist;
+
+    private final RequestTypeMatcher cacheableMatcher;
+
+    private final Set<String> methodsWhitelist;
+
+    private final Set<String> hostsWhitelist;
+
+    private final int soTimeout;
+
+    private final int connectionTimeout;
+
+    private final int maxTotalConnections;
+
+    private final int defaultMaxConnectionsPerHost;
+
+    private final int defaultStreamByteSize;
+
+    /**
+     * Build a new policy. The sets are copied, null sets are handled as empty
+     * white lists.
+     * 
+     * @param hostnameWhitelist
+     * @param mimetypeWhitelist
+     * @param reqtypeWhitelist regular expressions for the allowed request types
+     * @param methodsWhitelist
+     * @param hostsWhitelist
+     * @param soTimeout
+     * @param connectionTimeout
+     * @param maxTotalConnections
+     * @param defaultMaxConnectionsPerHost
+     * @param defaultStreamByteSize
+     * 
+     * @throws java.util.regex.PatternSyntaxException if a request type is not a valid expression
+     */
+    public ProxyPolicy(Set<String> hostnameWhitelist, Set<String> mimetypeWhitelist,
+            Set<String> reqtypeWhitelist, Set<String> methodsWhitelist,
+            Set<String> hostsWhitelist, int soTimeout, int connectionTimeout,
+            int maxTotalConnections, int defaultMaxConnectionsPerHost, int defaultStreamByteSize) {
+        this(hostnameWhitelist, mimetypeWhitelist, reqtypeWhitelist, null, methodsWhitelist,
+                hostsWhitelist, soTimeout, connectionTimeout, maxTotalConnections,
+                defaultMaxConnectionsPerHost, defaultStreamByteSize);
+    }
+
+    /**
+     * Build a new policy with cacheable requests. The sets are copied, null
+     * sets are handled as empty white lists.
+     * 
+     * @param hostnameWhitelist
+     * @param mimetypeWhitelist
+     * @param reqtypeWhitelist regular expressions for the allowed request types
+     * @param cacheableWhitelist regular expressions for the requests whose responses can be cached
+     * @param methodsWhitelist
+     * @param hostsWhitelist
+     * @param soTimeout
+     * @param connectionTimeout
+     * @param maxTotalConnections
+     * @param defaultMaxConnectionsPerHost
+     * @param defaultStreamByteSize
+     * 
+     * @throws java.util.regex.PatternSyntaxException if a request type is not a valid expression
+     */
+    public ProxyPolicy(Set<String> hostnameWhitelist, Set<String> mimetypeWhitelist,
+            Set<String> reqtypeWhitelist, Set<String> cacheableWhitelist,
+            Set<String> methodsWhitelist, Set<String> hostsWhitelist, int soTimeout,
+            int connectionTimeout, int maxTotalConnections, int defaultMaxConnectionsPerHost,
+            int defaultStreamByteSize) {
+        this.hostnameWhitelist = copy(hostnameWhitelist);
+        this.mimetypeWhitelist = copy(mimetypeWhitelist);
+        this.reqtypeWhitelist = copy(reqtypeWhitelist);
+        this.methodsWhitelist = copy(methodsWhitelist);
+        this.hostsWhitelist = copy(hostsWhitelist);
+        this.soTimeout = soTimeout;
+        this.connectionTimeout = connectionTimeout;
+        this.maxTotalConnections = maxTotalConnections;
+        this.defaultMaxConnectionsPerHost = defaultMaxConnectionsPerHost;
+        this.defaultStreamByteSize = defaultStreamByteSize;
+
+        List<Pattern> patterns = new ArrayList<Pattern>(this.reqtypeWhitelist.size());
+        for (String regex : this.reqtypeWhitelist) {
+            patterns.add(Pattern.compile(regex));
+        }
+        this.reqtypePatterns = Collections.unmodifiableList(patterns);
+        this.reqtypeMatcher = new RequestTypeMatcher(patterns);
+
+        this.cacheableWhitelist = copy(cacheableWhitelist);
+        List<Pattern> cacheablePatterns = new ArrayList<Pattern>(this.cacheableWhitelist.size());
+        for (String regex : this.cacheableWhitelist) {
+            cacheablePatterns.add(Pattern.compile(regex));
+        }
+        this.cacheableMatcher = new RequestTypeMatcher(cacheablePatterns);
+    }
+
+    private static Set<String> copy(Set<String> set) {
+        if (set == null || set.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new HashSet<String>(set));
+    }
+
+    /**
+     * @return the hostnameWhitelist
+     */
+    public Set<String> getHostnameWhitelist() {
+        return hostnameWhitelist;
+    }
+
+    /**
+     * @return the mimetypeWhitelist
+     */
+    public Set<String> getMimetypeWhitelist() {
+        return mimetypeWhitelist;
+    }
+
+    /**
+     * @return the reqtypeWhitelist
+     */
+    public Set<String> getReqtypeWhitelist() {
+        return reqtypeWhitelist;
+    }
+
+    /**
+     * @return the compiled reqtypeWhitelist expressions
+     */
+    public List<Pattern> getReqtypePatterns() {
+        return reqtypePatterns;
+    }
+
+    /**
+     * @return the matcher for the reqtypeWhitelist expressions, shared by all
+     *         the requests using this policy
+     */
+    public RequestTypeMatcher getReqtypeMatcher() {
+        return reqtypeMatcher;
+    }
+
+    /**
+     * @return the cacheableWhitelist
+     */
+    public Set<String> getCacheableWhitelist() {
+        return cacheableWhitelist;
+    }
+
+    /**
+     * @return the matcher for the cacheableWhitelist expressions
+     */
+    public RequestTypeMatcher getCacheableMatcher() {
+        return cacheableMatcher;
+    }
+
+    /**
+     * @return the methodsWhitelist
+     */
+    public Set<String> getMethodsWhitelist() {
+        return methodsWhitelist;
+    }
+
+    /**
+     * @return the hostsWhitelist
+     */
+    public Set<String> getHostsWhitelist() {
+        return hostsWhitelist;
+    }
+
+    /**
+     * @return the soTimeout
+     */
+    public int getSoTimeout() {
+        return soTimeout;
+    }
+
+    /**
+     * @return the connectionTimeout
+     */
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * @return the maxTotalConnections
+     */
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    /**
+     * @return the defaultMaxConnectionsPerHost
+     */
+    public int getDefaultMaxConnectionsPerHost() {
+        return defaultMaxConnectionsPerHost;
+    }
+
+    /**
+     * @return the defaultStreamByteSize
+     */
+    public int getDefaultStreamByteSize() {
+        return defaultStreamByteSize;
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Thread safe matcher for the request type white list. All the expressions are
+ * compiled once in a single alternation, so an URL is checked in one pass
+ * without any shared state.
+ * 
+ * Expressions using back references can't be merged (group numbers would
+ * change) and are checked one by one after the alternation.
+ */
+public final class RequestTypeMatcher {
+
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\([1-9]|k<)");
+
+    /**
+     * Alternation of the mergeable expressions, null if there are none
+     */
+    private final Pattern combined;
+
+    /**
+     * Expressions that can't be merged in {@link #combined}
+     */
+    private final List<Pattern> others;
+
+    /**
+     * @param patterns the request type expressions
+     */
+    public RequestTypeMatcher(Collection<Pattern> patterns) {
+        StringBuilder alternation = new StringBuilder();
+        List<Pattern> separated = new ArrayList<Pattern>();
+        for (Pattern pattern : patterns) {
+            if (pattern.flags() != 0 || BACK_REFERENCE.matcher(pattern.pattern()).find()) {
+                separated.add(pattern);
+            } else {
+                if (alternation.length() > 0) {
+                    alternation.append('|');
+                }
+                alternation.append("(?:").append(pattern.pattern()).append(')');
+            }
+        }
+        this.combined = alternation.length() > 0 ? Pattern.compile(alternation.toString()) : null;
+        this.others = Collections.unmodifiableList(separated);
+    }
+
+    /**
+     * Check if an URL matches any of the request type expressions
+     * 
+     * @param url the URL in external form
+     * @return true if the URL is allowed
+     */
+    public boolean matches(String url) {
+        if (combined != null && combined.matcher(url).matches()) {
+            return true;
+        }
+        for (Pattern pattern : others) {
+            if (pattern.matcher(url).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of fixed size byte arrays used to copy streams between the
+ * remote server and the client without allocating a new buffer for each
+ * proxied request.
+ */
+public final class StreamBufferPool {
+
+    /**
+     * Size in bytes of every buffer handed out by this pool
+     */
+    private final int bufferSize;
+
+    /**
+     * Maximum number of idle buffers retained by this pool
+     */
+    private final int maxPooled;
+
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @param bufferSize size of the buffers
+     * @param maxPooled maximum number of idle buffers to retain
+     */
+    public StreamBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("The buffer size must be greater than 0");
+        }
+        this.bufferSize = bufferSize;
+        this.maxPooled = Math.max(maxPooled, 0);
+    }
+
+    /**
+     * Obtain a buffer from the pool or allocate a new one if the pool is empty.
+     * The buffer must be returned with {@link #release(byte[])} when done.
+     *
+     * @return a buffer of {@link #getBufferSize()} bytes
+     */
+    public byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            return buffer;
+        }
+        return new byte[bufferSize];
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers of a different size or exceeding the
+     * pool capacity are left to the garbage collector.
+     *
+     * @param buffer
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the bufferSize
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.util.Streams;
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.util.EncodingUtil;
+
+/**
+ * Multipart request entity that re-emits the parts of an incoming multipart
+ * request to the remote server while they are read from the client, using the
+ * commons-fileupload streaming API.
+ * 
+ * The entity has an unknown length (the request is sent chunked) and can be
+ * written only once. Only one buffer from the {@link StreamBufferPool} is used
+ * to copy each file, so the memory used does not depend on the file size.
+ */
+public class StreamingMultipartRequestEntity extends MultipartRequestEntity {
+
+    private static final byte[] EXTRA_BYTES = EncodingUtil.getAsciiBytes("--");
+
+    private static final byte[] CRLF_BYTES = EncodingUtil.getAsciiBytes("\r\n");
+
+    private final FileItemIterator items;
+
+    private final StreamBufferPool bufferPool;
+
+    /**
+     * @param items the parts of the client request, not read yet
+     * @param bufferPool the pool used to obtain the copy buffer
+     * @param params the method params
+     */
+    public StreamingMultipartRequestEntity(FileItemIterator items, StreamBufferPool bufferPool,
+            HttpMethodParams params) {
+        super(new Part[] {}, params);
+        this.items = items;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * The parts can be read only once
+     */
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    /**
+     * The length of the parts is unknown until the client request is read
+     */
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Read each part from the client request and write it to the remote server
+     */
+    @Override
+    public void writeRequest(OutputStream out) throws IOException {
+        try {
+            while (items.hasNext()) {
+                FileItemStream item = items.next();
+                InputStream in = item.openStream();
+                try {
+                    if (item.isFormField()) {
+                        new BoundaryStringPart(item.getFieldName(), Streams.asString(in)).send(out);
+                    } else {
+                        new BoundaryFilePart(item.getFieldName(), new StreamPartSource(
+                                item.getName(), in), item.getContentType()).send(out);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (FileUploadException e) {
+            throw new IOException(e);
+        }
+
+        out.write(EXTRA_BYTES);
+        out.write(getMultipartBoundary());
+        out.write(EXTRA_BYTES);
+        out.write(CRLF_BYTES);
+    }
+
+    /**
+     * Form field sent with the boundary of this entity
+     */
+    private class BoundaryStringPart extends StringPart {
+
+        public BoundaryStringPart(String name, String value) {
+            super(name, value);
+        }
+
+        @Override
+        protected byte[] getPartBoundary() {
+            return getMultipartBoundary();
+        }
+    }
+
+    /**
+     * File sent with the boundary of this entity and copied with a pooled buffer
+     */
+    private class BoundaryFilePart extends FilePart {
+
+        public BoundaryFilePart(String name, PartSource source, String contentType) {
+            super(name, source, contentType, null);
+            // keep the content type sent by the client
+            setCharSet(null);
+        }
+
+        @Override
+        protected byte[] getPartBoundary() {
+            return getMultipartBoundary();
+        }
+
+        @Override
+        protected void sendData(OutputStream out) throws IOException {
+            InputStream in = getSource().createInputStream();
+            byte[] buffer = bufferPool.acquire();
+            try {
+                int read = 0;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Part source for a stream of unknown length
+     */
+    private static class StreamPartSource implements PartSource {
+
+        private final String fileName;
+
+        private final InputStream in;
+
+        public StreamPartSource(String fileName, InputStream in) {
+            this.fileName = fileName;
+            this.in = in;
+        }
+
+        public long getLength() {
+            return -1;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public InputStream createInputStream() throws IOException {
+            return in;
+        }
+    }
+
+}
@@ -73,6 +73,13 @@ public final class Utils {
 
     public static final int DEFAULT_PROXY_PORT = 80;
 
+    /**
+     * Hop-by-hop headers, meaningful only for a single connection (RFC 2616, section 13.5.1)
+     */
+    private static final String[] HOP_BY_HOP_HEADERS = { "Connection", "Keep-Alive",
+            "Proxy-Authenticate", "Proxy-Authorization", "Proxy-Connection", "TE", "Trailer",
+            "Upgrade" };
+
     /**
      * Default private constructor to enforce singleton.
      */
@@ -122,6 +129,52 @@ public final class Utils {
         }
     }
 
+    /**
+     * Check if the client accepts a content coding in the <code>Accept-Encoding</code> header
+     * 
+     * @param acceptEncoding value of the <code>Accept-Encoding</code> header, can be null
+     * @param coding content coding, as <code>gzip</code>
+     * @return true if the coding is accepted with a quality greater than 0
+     */
+    public static final boolean acceptsEncoding(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String token : acceptEncoding.split(",")) {
+            String[] params = token.split(";");
+            String name = params[0].trim();
+            if (name.equalsIgnoreCase(coding) || name.equals("*")) {
+                for (int i = 1; i < params.length; i++) {
+                    String param = params[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            return Float.parseFloat(param.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if a header must not be forwarded by the proxy
+     * 
+     * @param headerName
+     * @return true if the header is an hop-by-hop header
+     */
+    public static final boolean isHopByHopHeader(String headerName) {
+        for (String hopByHop : HOP_BY_HOP_HEADERS) {
+            if (hopByHop.equalsIgnoreCase(headerName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * @param property
      * @return Set<String>
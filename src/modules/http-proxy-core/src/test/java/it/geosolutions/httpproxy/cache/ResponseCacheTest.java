@@ -0,0 +1,162 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.cache;
+
+import java.io.File;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Response cache test
+ */
+public class ResponseCacheTest extends Assert {
+
+    /**
+     * Method with the response headers set by the test
+     */
+    private static class ResponseMethod extends GetMethod {
+
+        void setCacheControl(String value) {
+            getResponseHeaderGroup().setHeaders(
+                    new Header[] { new Header(HttpCacheSupport.CACHE_CONTROL_HEADER, value) });
+        }
+    }
+
+    private static CachedResponse response(int bodySize, long expiresAt) {
+        return new CachedResponse(200, new String[] { "Content-Type" },
+                new String[] { "text/xml" }, new byte[bodySize], expiresAt, "\"v1\"", null);
+    }
+
+    /**
+     * The least recently used responses are moved to the second level
+     */
+    @Test
+    public void testMemoryEviction() {
+        MemoryResponseCache secondLevel = new MemoryResponseCache();
+        MemoryResponseCache cache = new MemoryResponseCache();
+        cache.setSecondLevel(secondLevel);
+        long entrySize = response(1000, 0).getSize();
+        cache.setMaxSize(entrySize * 2);
+
+        cache.put("a", response(1000, 0));
+        cache.put("b", response(1000, 0));
+        assertNotNull(cache.get("a"));
+        cache.put("c", response(1000, 0));
+
+        assertEquals(2, cache.getCount());
+        assertEquals(entrySize * 2, cache.getSize());
+        assertNotNull(secondLevel.get("b"));
+        assertNull(secondLevel.get("a"));
+
+        // promoted back from the second level
+        assertNotNull(cache.get("b"));
+        assertEquals(2, cache.getCount());
+    }
+
+    /**
+     * Responses survive a round trip to disk and are evicted over the maximum size
+     */
+    @Test
+    public void testDisk() throws Exception {
+        File directory = File.createTempFile("responses", "");
+        directory.delete();
+        DiskResponseCache cache = new DiskResponseCache(directory);
+        try {
+            cache.put("GET http://localhost/wms", response(100, 1234));
+            CachedResponse read = cache.get("GET http://localhost/wms");
+            assertNotNull(read);
+            assertEquals(1234, read.getExpiresAt());
+            assertEquals("\"v1\"", read.getETag());
+            assertEquals("text/xml", read.getHeaderValue(0));
+            assertEquals(100, read.getBody().length);
+            assertNull(cache.get("GET http://localhost/wfs"));
+
+            cache.setMaxSize(cache.getSize());
+            cache.put("GET http://localhost/wfs", response(100, 1234));
+            assertTrue(cache.getSize() <= cache.getMaxSize());
+        } finally {
+            cache.clear();
+            directory.delete();
+        }
+    }
+
+    /**
+     * Freshness from the response headers
+     */
+    @Test
+    public void testExpiration() {
+        long now = System.currentTimeMillis();
+        ResponseMethod method = new ResponseMethod();
+
+        assertEquals(now + 5000, HttpCacheSupport.getExpiration(method, now, 5000));
+
+        method.setCacheControl("public, max-age=60");
+        assertEquals(now + 60000, HttpCacheSupport.getExpiration(method, now, 5000));
+
+        method.setCacheControl("max-age=60, s-maxage=10");
+        assertEquals(now + 10000, HttpCacheSupport.getExpiration(method, now, 5000));
+
+        method.setCacheControl("no-cache");
+        assertEquals(now, HttpCacheSupport.getExpiration(method, now, 5000));
+    }
+
+    /**
+     * Requests with credentials or cookies of the client must not be shared
+     */
+    @Test
+    public void testCacheableRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET",
+                "/proxy/geostore/rest/misc/category");
+        assertTrue(HttpCacheSupport.isCacheableRequest(request));
+
+        request.addHeader(HttpCacheSupport.COOKIE_HEADER, "JSESSIONID=1234");
+        assertFalse(HttpCacheSupport.isCacheableRequest(request));
+
+        request = new MockHttpServletRequest("GET", "/proxy/geostore/rest/misc/category");
+        request.addHeader(HttpCacheSupport.AUTHORIZATION_HEADER, "Basic YWRtaW46YWRtaW4=");
+        assertFalse(HttpCacheSupport.isCacheableRequest(request));
+
+        // the proxy sends the user and password parameters as credentials
+        request = new MockHttpServletRequest("GET", "/proxy/geostore/rest/misc/category");
+        request.addParameter(HttpCacheSupport.USER_PARAM, "admin");
+        assertTrue(HttpCacheSupport.hasCredentials(request));
+        assertFalse(HttpCacheSupport.isCacheableRequest(request));
+        request = new MockHttpServletRequest("GET", "/proxy/geostore/rest/misc/category");
+        request.addParameter(HttpCacheSupport.PASSWORD_PARAM, "admin");
+        assertFalse(HttpCacheSupport.isCacheableRequest(request));
+
+        assertFalse(HttpCacheSupport.isCacheableRequest(new MockHttpServletRequest("POST",
+                "/proxy/geostore/rest/misc/category")));
+    }
+
+    /**
+     * The entity tags of the bodies compressed or decompressed by the proxy are weak
+     */
+    @Test
+    public void testWeakETag() {
+        assertEquals("W/\"1234\"", HttpCacheSupport.toWeakETag("\"1234\""));
+        assertEquals("W/\"1234\"", HttpCacheSupport.toWeakETag("W/\"1234\""));
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Coalesced response test
+ */
+public class CoalescedResponseTest extends Assert {
+
+    /**
+     * Followers receive the status, the headers and the body of the leader
+     */
+    @Test
+    public void testFanOut() throws Exception {
+        final CoalescedResponse shared = new CoalescedResponse(1024, 10000);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final MockHttpServletResponse[] followers = { new MockHttpServletResponse(),
+                    new MockHttpServletResponse() };
+            Future<?>[] results = new Future<?>[followers.length];
+            for (int i = 0; i < followers.length; i++) {
+                final CoalescedResponse.Follower follower = shared.join();
+                assertNotNull(follower);
+                final MockHttpServletResponse response = followers[i];
+                results[i] = executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        return follower.sendTo(response);
+                    }
+                });
+            }
+
+            MockHttpServletResponse leader = new MockHttpServletResponse();
+            shared.start(200, new String[] { "Content-Type" }, new String[] { "text/xml" }, 6);
+            OutputStream out = shared.tee(leader).getOutputStream();
+            out.write("<a/>".getBytes());
+            out.write("\r\n".getBytes());
+            shared.finish(true);
+
+            // finished: joining is closed
+            assertNull(shared.join());
+
+            for (int i = 0; i < followers.length; i++) {
+                assertEquals(Boolean.TRUE, results[i].get());
+                assertEquals(200, followers[i].getStatus());
+                assertEquals("text/xml", followers[i].getHeader("Content-Type"));
+                assertEquals(6, followers[i].getContentLength());
+                assertEquals("<a/>\r\n", followers[i].getContentAsString());
+            }
+            assertEquals("<a/>\r\n", leader.getContentAsString());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Followers execute their own request when the leader doesn't share its response
+     */
+    @Test
+    public void testAbort() throws Exception {
+        CoalescedResponse shared = new CoalescedResponse(1024, 10000);
+        CoalescedResponse.Follower follower = shared.join();
+        assertNotNull(follower);
+        shared.abort();
+        HttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(follower.sendTo(response));
+        assertNull(shared.join());
+    }
+
+    /**
+     * Late joiners are refused over the maximum size
+     */
+    @Test
+    public void testMaxBufferedSize() throws Exception {
+        CoalescedResponse shared = new CoalescedResponse(4, 10000);
+        shared.start(200, new String[0], new String[0], -1);
+        OutputStream out = shared.tee(new MockHttpServletResponse()).getOutputStream();
+        out.write(new byte[4]);
+        assertNotNull(shared.join());
+        out.write(new byte[1]);
+        assertNull(shared.join());
+    }
+
+    /**
+     * Followers falling behind over the maximum size are detached and fail
+     * while the others receive the whole body
+     */
+    @Test
+    public void testSlowFollower() throws Exception {
+        CoalescedResponse shared = new CoalescedResponse(4, 10000);
+        CoalescedResponse.Follower slow = shared.join();
+        final CoalescedResponse.Follower fast = shared.join();
+        shared.start(200, new String[0], new String[0], 8);
+        final MockHttpServletResponse fastResponse = new MockHttpServletResponse();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> result = executor.submit(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    return fast.sendTo(fastResponse);
+                }
+            });
+            OutputStream out = shared.tee(new MockHttpServletResponse()).getOutputStream();
+            for (int i = 0; i < 8; i++) {
+                out.write(new byte[] { 'a' });
+                // let the fast follower send the chunk
+                long deadline = System.currentTimeMillis() + 10000;
+                while (fastResponse.getContentAsByteArray().length <= i
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+            }
+            shared.finish(true);
+            assertEquals(Boolean.TRUE, result.get());
+            assertEquals("aaaaaaaa", fastResponse.getContentAsString());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // the slow follower has been detached when the retained bytes exceeded the maximum
+        try {
+            slow.sendTo(new MockHttpServletResponse());
+            fail("The slow follower must fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Gzip response test
+ */
+public class GzipResponseWrapperTest extends Assert {
+
+    /**
+     * The body is compressed and the uncompressed content length is dropped
+     */
+    @Test
+    public void testCompress() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        GzipResponseWrapper gzipResponse = new GzipResponseWrapper(response, 512);
+        byte[] body = "<WMT_MS_Capabilities version=\"1.1.1\"/>".getBytes("UTF-8");
+        gzipResponse.setContentLength(body.length);
+        gzipResponse.setHeader("Content-Type", "application/vnd.ogc.wms_xml");
+        gzipResponse.getOutputStream().write(body);
+        gzipResponse.finish();
+
+        assertEquals("gzip", response.getHeader("content-encoding"));
+        assertEquals("application/vnd.ogc.wms_xml", response.getHeader("Content-Type"));
+        assertNull(response.getHeader("Content-Length"));
+
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        IOUtils.copy(new GZIPInputStream(new ByteArrayInputStream(
+                response.getContentAsByteArray())), uncompressed);
+        assertArrayEquals(body, uncompressed.toByteArray());
+    }
+
+    /**
+     * Accept-Encoding parsing
+     */
+    @Test
+    public void testAcceptsEncoding() {
+        assertTrue(Utils.acceptsEncoding("gzip, deflate", "gzip"));
+        assertTrue(Utils.acceptsEncoding("deflate, GZIP;q=0.5", "gzip"));
+        assertTrue(Utils.acceptsEncoding("*", "gzip"));
+        assertFalse(Utils.acceptsEncoding("gzip;q=0, deflate", "gzip"));
+        assertFalse(Utils.acceptsEncoding("identity", "gzip"));
+        assertFalse(Utils.acceptsEncoding(null, "gzip"));
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Request type matcher test
+ */
+public class RequestTypeMatcherTest extends Assert {
+
+    private static final String[] REQ_TYPES = { ".*[Gg]et[Cc]apabilities.*",
+            ".*[Gg]et[Ff]eature[Ii]nfo.*", ".*csw.*", ".*geostore.*", "(.*)/(\\1)/.*" };
+
+    private static final String[] URLS = {
+            "http://localhost/geoserver/wms?request=GetCapabilities",
+            "http://localhost/geoserver/wms?request=getFeatureInfo",
+            "http://localhost/geonetwork/srv/csw?request=GetRecords",
+            "http://localhost/geostore/rest/resources",
+            "http://localhost/geoserver/wms?request=GetMap",
+            "a/a/b" };
+
+    /**
+     * The matcher must give the same verdicts than the single expressions
+     */
+    @Test
+    public void testMatches() {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String reqType : REQ_TYPES) {
+            patterns.add(Pattern.compile(reqType));
+        }
+        RequestTypeMatcher matcher = new RequestTypeMatcher(patterns);
+
+        for (String url : URLS) {
+            boolean expected = false;
+            for (Pattern pattern : patterns) {
+                expected = expected || pattern.matcher(url).matches();
+            }
+            assertEquals(url, expected, matcher.matches(url));
+        }
+        assertFalse(matcher.matches("http://localhost/geoserver/wms?request=GetMap"));
+        assertTrue(matcher.matches("a/a/b"));
+    }
+
+    /**
+     * Without expressions nothing is allowed
+     */
+    @Test
+    public void testEmpty() {
+        RequestTypeMatcher matcher = new RequestTypeMatcher(new ArrayList<Pattern>());
+        assertFalse(matcher.matches("http://localhost/geoserver/wms?request=GetCapabilities"));
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright (C) 2007 - 2013 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.httpproxy.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Streaming multipart entity test
+ */
+public class StreamingMultipartRequestEntityTest extends Assert {
+
+    private static final String BOUNDARY = "AaB03x";
+
+    /**
+     * The parts written to the remote server must be the same parts read from the client
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteRequest() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("line ").append(i).append("\r\n");
+        }
+        String body = "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"field\"\r\n\r\n"
+                + "value\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"test.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n"
+                + content + "\r\n"
+                + "--" + BOUNDARY + "--\r\n";
+        MockHttpServletRequest request = multipartRequest(body, BOUNDARY);
+
+        StreamingMultipartRequestEntity entity = new StreamingMultipartRequestEntity(
+                new ServletFileUpload().getItemIterator(request), new StreamBufferPool(64, 1),
+                new HttpMethodParams());
+        assertEquals(-1, entity.getContentLength());
+        assertFalse(entity.isRepeatable());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeRequest(out);
+
+        // parse again the forwarded request
+        String contentType = entity.getContentType();
+        String boundary = contentType.substring(contentType.indexOf("boundary=") + 9);
+        MockHttpServletRequest forwarded = multipartRequest(out.toString("ISO-8859-1"), boundary);
+        List<FileItem> items = new ServletFileUpload(new DiskFileItemFactory())
+                .parseRequest(forwarded);
+
+        assertEquals(2, items.size());
+        assertTrue(items.get(0).isFormField());
+        assertEquals("field", items.get(0).getFieldName());
+        assertEquals("value", items.get(0).getString());
+        assertFalse(items.get(1).isFormField());
+        assertEquals("test.txt", items.get(1).getName());
+        assertEquals("text/plain", items.get(1).getContentType());
+        assertEquals(content.toString(), items.get(1).getString());
+    }
+
+    private MockHttpServletRequest multipartRequest(String body, String boundary)
+            throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/proxy/");
+        request.setContentType("multipart/form-data; boundary=" + boundary);
+        request.setContent(body.getBytes("ISO-8859-1"));
+        return request;
+    }
+
+}
@@ -24,11 +24,15 @@ import it.geosolutions.httpproxy.service.ProxyService;
 import it.geosolutions.opensdi2.service.URLFacade;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
 /**
  * URL Facade based on proxy service
@@ -58,6 +62,56 @@ public class URLFacadeImpl implements URLFacade {
 	 */
 	private static final String URL_NAME = "url";
 
+	/**
+	 * Bulkhead and circuit breaker by wrapped url
+	 */
+	private final ConcurrentMap<String, UpstreamGuard> guards = new ConcurrentHashMap<String, UpstreamGuard>();
+
+	/**
+	 * Maximum concurrent calls by wrapped url. 0 or less for no limit
+	 */
+	private int maxConcurrentCalls = 50;
+
+	/**
+	 * Maximum calls waiting for a free slot by wrapped url
+	 */
+	private int maxQueuedCalls = 10;
+
+	/**
+	 * Maximum milliseconds a call waits for a free slot
+	 */
+	private long queueTimeout = 5000;
+
+	/**
+	 * Percentage of failed calls opening the circuit of a wrapped url
+	 */
+	private int failureRateThreshold = 50;
+
+	/**
+	 * Milliseconds after which a call is counted as failed. 0 or less to ignore latency
+	 */
+	private long slowCallThreshold = 30000;
+
+	/**
+	 * Calls needed in the window to evaluate the failure rate
+	 */
+	private int minimumCalls = 10;
+
+	/**
+	 * Milliseconds of the window the failure rate is evaluated on
+	 */
+	private long windowDuration = 60000;
+
+	/**
+	 * Milliseconds an open circuit rejects the calls before probing the upstream
+	 */
+	private long openStateDuration = 30000;
+
+	/**
+	 * Calls let through to probe an upstream after the open state
+	 */
+	private int halfOpenProbes = 1;
+
 	/**
 	 * Handle a request in the URL wrapped
 	 * 
@@ -81,15 +135,35 @@ public class URLFacadeImpl implements URLFacade {
 			}
 			request.setAttribute(URL_NAME, finalURL);
 
+			UpstreamGuard guard = getGuard(urlWrapped);
+			UpstreamGuard.Call call = guard.acquire();
+			if (call == null) {
+				// fast fail: the upstream is tripped or saturated
+				long retryAfter = guard.getRetryAfter();
+				if (retryAfter > 0) {
+					response.setHeader("Retry-After",
+							Long.toString((retryAfter + 999) / 1000));
+				}
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+						"Service '" + urlWrapped + "' temporarily unavailable");
+				return;
+			}
+
+			StatusResponseWrapper statusResponse = new StatusResponseWrapper(response);
+			boolean failed = true;
+			long start = System.currentTimeMillis();
 			try {
 				// customized or default proxy
 				if(customizedProxies != null && customizedProxies.containsKey(urlWrapped)){
-					customizedProxies.get(urlWrapped).execute(request, response);
+					customizedProxies.get(urlWrapped).execute(request, statusResponse);
 				}else{
-					proxy.execute(request, response);
+					proxy.execute(request, statusResponse);
 				}
+				failed = statusResponse.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
 			} catch (ServletException e) {
 				throw new IOException(e);
+			} finally {
+				guard.release(call, System.currentTimeMillis() - start, failed);
 			}
 		}else{
 			throw new IOException("Url not wrapped in this facade");
@@ -97,6 +171,41 @@ public class URLFacadeImpl implements URLFacade {
 		
 	}
 
+	/**
+	 * Obtain the guard of a wrapped url
+	 * 
+	 * @param urlWrapped
+	 * @return the guard for the url
+	 */
+	protected UpstreamGuard getGuard(String urlWrapped) {
+		UpstreamGuard guard = guards.get(urlWrapped);
+		if (guard == null) {
+			guard = new UpstreamGuard(maxConcurrentCalls, maxQueuedCalls, queueTimeout,
+					failureRateThreshold, slowCallThreshold, minimumCalls, windowDuration,
+					openStateDuration, halfOpenProbes);
+			UpstreamGuard previous = guards.putIfAbsent(urlWrapped, guard);
+			if (previous != null) {
+				guard = previous;
+			}
+		}
+		return guard;
+	}
+
+	/**
+	 * Bulkhead and circuit breaker state of the wrapped urls
+	 * 
+	 * @return status by wrapped url
+	 */
+	public Map<String, Map<String, Object>> getUpstreamStatus() {
+		Map<String, Map<String, Object>> status = new LinkedHashMap<String, Map<String, Object>>();
+		if (urlsWrapped != null) {
+			for (String urlWrapped : urlsWrapped.keySet()) {
+				status.put(urlWrapped, getGuard(urlWrapped).getStatus());
+			}
+		}
+		return status;
+	}
+
 	/**
 	 * @return the proxy
 	 */
@@ -140,6 +249,142 @@ public class URLFacadeImpl implements URLFacade {
 		this.customizedProxies = customizedProxies;
 	}
 	
+	/**
+	 * @return the maxConcurrentCalls
+	 */
+	public int getMaxConcurrentCalls() {
+		return maxConcurrentCalls;
+	}
+
+	/**
+	 * @param maxConcurrentCalls maximum concurrent calls by wrapped url
+	 */
+	public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+		this.maxConcurrentCalls = maxConcurrentCalls;
+		guards.clear();
+	}
+
+	/**
+	 * @return the maxQueuedCalls
+	 */
+	public int getMaxQueuedCalls() {
+		return maxQueuedCalls;
+	}
+
+	/**
+	 * @param maxQueuedCalls maximum queued calls by wrapped url
+	 */
+	public void setMaxQueuedCalls(int maxQueuedCalls) {
+		this.maxQueuedCalls = maxQueuedCalls;
+		guards.clear();
+	}
+
+	/**
+	 * @return the queueTimeout
+	 */
+	public long getQueueTimeout() {
+		return queueTimeout;
+	}
+
+	/**
+	 * @param queueTimeout maximum milliseconds waiting for a free slot
+	 */
+	public void setQueueTimeout(long queueTimeout) {
+		this.queueTimeout = queueTimeout;
+		guards.clear();
+	}
+
+	/**
+	 * @return the failureRateThreshold
+	 */
+	public int getFailureRateThreshold() {
+		return failureRateThreshold;
+	}
+
+	/**
+	 * @param failureRateThreshold failed calls percentage opening the circuit, greater than 0 and at most 100
+	 */
+	public void setFailureRateThreshold(int failureRateThreshold) {
+		UpstreamGuard.checkFailureRateThreshold(failureRateThreshold);
+		this.failureRateThreshold = failureRateThreshold;
+		guards.clear();
+	}
+
+	/**
+	 * @return the slowCallThreshold
+	 */
+	public long getSlowCallThreshold() {
+		return slowCallThreshold;
+	}
+
+	/**
+	 * @param slowCallThreshold milliseconds after which a call is counted as failed
+	 */
+	public void setSlowCallThreshold(long slowCallThreshold) {
+		this.slowCallThreshold = slowCallThreshold;
+		guards.clear();
+	}
+
+	/**
+	 * @return the minimumCalls
+	 */
+	public int getMinimumCalls() {
+		return minimumCalls;
+	}
+
+	/**
+	 * @param minimumCalls calls needed to evaluate the failure rate
+	 */
+	public void setMinimumCalls(int minimumCalls) {
+		this.minimumCalls = minimumCalls;
+		guards.clear();
+	}
+
+	/**
+	 * @return the windowDuration
+	 */
+	public long getWindowDuration() {
+		return windowDuration;
+	}
+
+	/**
+	 * @param windowDuration milliseconds of the failure rate window
+	 */
+	public void setWindowDuration(long windowDuration) {
+		this.windowDuration = windowDuration;
+		guards.clear();
+	}
+
+	/**
+	 * @return the openStateDuration
+	 */
+	public long getOpenStateDuration() {
+		return openStateDuration;
+	}
+
+	/**
+	 * @param openStateDuration milliseconds the circuit stays open
+	 */
+	public void setOpenStateDuration(long openStateDuration) {
+		this.openStateDuration = openStateDuration;
+		guards.clear();
+	}
+
+	/**
+	 * @return the halfOpenProbes
+	 */
+	public int getHalfOpenProbes() {
+		return halfOpenProbes;
+	}
+
+	/**
+	 * @param halfOpenProbes calls let through when half open
+	 */
+	public void setHalfOpenProbes(int halfOpenProbes) {
+		this.halfOpenProbes = halfOpenProbes;
+		guards.clear();
+	}
+
 	/**
 	 * Check if an URL is a wrapped one
 	 * 
@@ -151,4 +396,45 @@ public class URLFacadeImpl implements URLFacade {
 		return urlsWrapped != null && urlsWrapped.containsKey(url);
 	}
 
+	/**
+	 * Response wrapper keeping the status sent by the proxy
+	 */
+	private static class StatusResponseWrapper extends HttpServletResponseWrapper {
+
+		private int status = SC_OK;
+
+		public StatusResponseWrapper(HttpServletResponse response) {
+			super(response);
+		}
+
+		@Override
+		public void setStatus(int sc) {
+			this.status = sc;
+			super.setStatus(sc);
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		public void setStatus(int sc, String sm) {
+			this.status = sc;
+			super.setStatus(sc, sm);
+		}
+
+		@Override
+		public void sendError(int sc) throws IOException {
+			this.status = sc;
+			super.sendError(sc);
+		}
+
+		@Override
+		public void sendError(int sc, String msg) throws IOException {
+			this.status = sc;
+			super.sendError(sc, msg);
+		}
+
+		public int getStatus() {
+			return status;
+		}
+	}
+
 }
@@ -0,0 +1,342 @@
+/*
+ *  OpenSDI Manager 2
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.service.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Isolation of a single upstream of the URL facade. Combines a bulkhead,
+ * limiting the concurrent and queued calls to the upstream, and a circuit
+ * breaker that rejects the calls while the upstream error rate or latency is
+ * over the configured thresholds.<br/>
+ * When the circuit is open the calls are rejected until
+ * <code>openStateDuration</code> elapses, then a limited number of probe
+ * calls is let through (half open state): the circuit is closed again if all
+ * of them succeed or reopened otherwise.
+ */
+public class UpstreamGuard {
+
+	/**
+	 * Circuit breaker states
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	/**
+	 * A call admitted by {@link UpstreamGuard#acquire()}. It records if the call
+	 * is a probe and the circuit state it was admitted in, so a call ending
+	 * after the state changed is not mistaken for a call of the new state.
+	 */
+	public static final class Call {
+
+		private final boolean probe;
+
+		private final long generation;
+
+		private Call(boolean probe, long generation) {
+			this.probe = probe;
+			this.generation = generation;
+		}
+
+		/**
+		 * @return true if the call is a probe of the half open state
+		 */
+		public boolean isProbe() {
+			return probe;
+		}
+	}
+
+	private final int maxConcurrentCalls;
+
+	private final int maxQueuedCalls;
+
+	private final long queueTimeout;
+
+	private final int failureRateThreshold;
+
+	private final long slowCallThreshold;
+
+	private final int minimumCalls;
+
+	private final long windowDuration;
+
+	private final long openStateDuration;
+
+	private final int halfOpenProbes;
+
+	/**
+	 * Bulkhead permits, null when the concurrent calls are not limited
+	 */
+	private final Semaphore permits;
+
+	private final AtomicInteger activeCalls = new AtomicInteger();
+
+	private final AtomicInteger queuedCalls = new AtomicInteger();
+
+	private final AtomicLong rejectedCalls = new AtomicLong();
+
+	// circuit breaker state, guarded by this
+
+	private State state = State.CLOSED;
+
+	/**
+	 * Incremented on every state change
+	 */
+	private long generation;
+
+	private long windowStart = System.currentTimeMillis();
+
+	private int windowCalls;
+
+	private int windowFailures;
+
+	private long openedAt;
+
+	private int probesInFlight;
+
+	private int probesSucceeded;
+
+	/**
+	 * @param maxConcurrentCalls maximum concurrent calls to the upstream, 0 or less for no limit
+	 * @param maxQueuedCalls maximum calls waiting for a free slot when the concurrent calls limit is reached
+	 * @param queueTimeout maximum milliseconds a call waits for a free slot
+	 * @param failureRateThreshold failed calls percentage opening the circuit, greater than 0 and at most 100
+	 * @param slowCallThreshold milliseconds after which a call is counted as failed, 0 or less to ignore latency
+	 * @param minimumCalls calls in the window needed to evaluate the failure rate
+	 * @param windowDuration milliseconds of the window the failure rate is evaluated on
+	 * @param openStateDuration milliseconds the circuit stays open before probing the upstream
+	 * @param halfOpenProbes calls let through in the half open state
+	 */
+	public UpstreamGuard(int maxConcurrentCalls, int maxQueuedCalls, long queueTimeout,
+			int failureRateThreshold, long slowCallThreshold, int minimumCalls,
+			long windowDuration, long openStateDuration, int halfOpenProbes) {
+		checkFailureRateThreshold(failureRateThreshold);
+		this.maxConcurrentCalls = maxConcurrentCalls;
+		this.maxQueuedCalls = Math.max(maxQueuedCalls, 0);
+		this.queueTimeout = Math.max(queueTimeout, 0);
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallThreshold = slowCallThreshold;
+		this.minimumCalls = Math.max(minimumCalls, 1);
+		this.windowDuration = windowDuration;
+		this.openStateDuration = openStateDuration;
+		this.halfOpenProbes = Math.max(halfOpenProbes, 1);
+		this.permits = maxConcurrentCalls > 0 ? new Semaphore(maxConcurrentCalls, true) : null;
+	}
+
+	/**
+	 * @param failureRateThreshold failed calls percentage opening the circuit
+	 * @throws IllegalArgumentException if the threshold is not greater than 0 and at most 100
+	 */
+	static void checkFailureRateThreshold(int failureRateThreshold) {
+		if (failureRateThreshold <= 0 || failureRateThreshold > 100) {
+			throw new IllegalArgumentException("The failure rate threshold must be greater than 0 and at most 100, found "
+					+ failureRateThreshold);
+		}
+	}
+
+	/**
+	 * Try to start a call to the upstream. If this method returns a call the
+	 * caller must invoke {@link #release(Call, long, boolean)} with it when the
+	 * call ends.
+	 * 
+	 * @return the admitted call or null if it must be rejected
+	 */
+	public Call acquire() {
+		Call call = allowCall();
+		if (call == null) {
+			rejectedCalls.incrementAndGet();
+			return null;
+		}
+		if (!acquirePermit()) {
+			releaseProbe(call);
+			rejectedCalls.incrementAndGet();
+			return null;
+		}
+		activeCalls.incrementAndGet();
+		return call;
+	}
+
+	/**
+	 * End a call started with {@link #acquire()}
+	 * 
+	 * @param call returned by {@link #acquire()}
+	 * @param elapsed milliseconds spent in the call
+	 * @param failed true if the upstream failed
+	 */
+	public void release(Call call, long elapsed, boolean failed) {
+		activeCalls.decrementAndGet();
+		if (permits != null) {
+			permits.release();
+		}
+		boolean slow = slowCallThreshold > 0 && elapsed > slowCallThreshold;
+		onResult(call, failed || slow);
+	}
+
+	/**
+	 * Check the circuit state and reserve a probe when half open
+	 */
+	private synchronized Call allowCall() {
+		long now = System.currentTimeMillis();
+		if (state == State.OPEN) {
+			if (now - openedAt < openStateDuration) {
+				return null;
+			}
+			state = State.HALF_OPEN;
+			generation++;
+			probesInFlight = 0;
+			probesSucceeded = 0;
+		}
+		if (state == State.HALF_OPEN) {
+			if (probesInFlight + probesSucceeded >= halfOpenProbes) {
+				return null;
+			}
+			probesInFlight++;
+			return new Call(true, generation);
+		}
+		return new Call(false, generation);
+	}
+
+	/**
+	 * Give back a probe reserved by {@link #allowCall()} for a call rejected by the bulkhead
+	 */
+	private synchronized void releaseProbe(Call call) {
+		if (call.probe && call.generation == generation && probesInFlight > 0) {
+			probesInFlight--;
+		}
+	}
+
+	/**
+	 * Wait for a bulkhead slot if the queue is not full
+	 */
+	private boolean acquirePermit() {
+		if (permits == null || permits.tryAcquire()) {
+			return true;
+		}
+		if (queuedCalls.incrementAndGet() > maxQueuedCalls) {
+			queuedCalls.decrementAndGet();
+			return false;
+		}
+		try {
+			return permits.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			queuedCalls.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Record the result of a call and update the circuit state
+	 */
+	private synchronized void onResult(Call call, boolean failed) {
+		long now = System.currentTimeMillis();
+		if (call.generation != generation) {
+			// late result of a call admitted before the last state change
+			return;
+		}
+		if (call.probe) {
+			probesInFlight--;
+			if (failed) {
+				open(now);
+			} else if (++probesSucceeded >= halfOpenProbes) {
+				state = State.CLOSED;
+				generation++;
+				resetWindow(now);
+			}
+			return;
+		}
+		if (now - windowStart > windowDuration) {
+			resetWindow(now);
+		}
+		windowCalls++;
+		if (failed) {
+			windowFailures++;
+		}
+		if (windowCalls >= minimumCalls
+				&& windowFailures * 100 >= failureRateThreshold * windowCalls) {
+			open(now);
+		}
+	}
+
+	private void open(long now) {
+		state = State.OPEN;
+		generation++;
+		openedAt = now;
+		probesInFlight = 0;
+		probesSucceeded = 0;
+		resetWindow(now);
+	}
+
+	private void resetWindow(long now) {
+		windowStart = now;
+		windowCalls = 0;
+		windowFailures = 0;
+	}
+
+	/**
+	 * @return the circuit state
+	 */
+	public synchronized State getState() {
+		if (state == State.OPEN
+				&& System.currentTimeMillis() - openedAt >= openStateDuration) {
+			return State.HALF_OPEN;
+		}
+		return state;
+	}
+
+	/**
+	 * Milliseconds until the open circuit lets a probe through
+	 * 
+	 * @return the remaining milliseconds or 0 if the circuit is not open
+	 */
+	public synchronized long getRetryAfter() {
+		if (state != State.OPEN) {
+			return 0;
+		}
+		return Math.max(openStateDuration - (System.currentTimeMillis() - openedAt), 0);
+	}
+
+	/**
+	 * Snapshot of the guard state for monitoring
+	 * 
+	 * @return map with the state, the bulkhead usage and the window counters
+	 */
+	public synchronized Map<String, Object> getStatus() {
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		status.put("state", getState().name());
+		status.put("activeCalls", activeCalls.get());
+		status.put("queuedCalls", queuedCalls.get());
+		status.put("maxConcurrentCalls", maxConcurrentCalls);
+		status.put("windowCalls", windowCalls);
+		status.put("windowFailures", windowFailures);
+		status.put("rejectedCalls", rejectedCalls.get());
+		status.put("retryAfter", getRetryAfter());
+		return status;
+	}
+
+}
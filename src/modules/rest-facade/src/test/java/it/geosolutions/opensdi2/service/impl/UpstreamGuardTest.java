@@ -0,0 +1,169 @@
+/*
+ *  OpenSDI Manager 2
+ *  Copyright (C) 2014 GeoSolutions S.A.S.
+ *  http://www.geo-solutions.it
+ *
+ *  GPLv3 + Classpath exception
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.geosolutions.opensdi2.service.impl;
+
+import it.geosolutions.opensdi2.service.impl.UpstreamGuard.Call;
+import it.geosolutions.opensdi2.service.impl.UpstreamGuard.State;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Bulkhead and circuit breaker test
+ */
+public class UpstreamGuardTest extends Assert {
+
+	private static final long OPEN_STATE_DURATION = 100;
+
+	/**
+	 * A threshold out of (0, 100] would open the circuit without failures
+	 */
+	@Test
+	public void testInvalidThreshold() {
+		for (int threshold : new int[] { 0, -1, 101 }) {
+			try {
+				new UpstreamGuard(0, 0, 0, threshold, 0, 4, 1000, OPEN_STATE_DURATION, 1);
+				fail("Threshold " + threshold + " accepted");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * The circuit opens on failures, lets a probe through after the open state
+	 * duration and closes when the probe succeeds
+	 */
+	@Test
+	public void testTransitions() throws InterruptedException {
+		UpstreamGuard guard = newGuard(0, 0, 1);
+
+		// 2 failures of 4 calls reach the 50% threshold
+		release(guard, false);
+		release(guard, false);
+		release(guard, true);
+		assertEquals(State.CLOSED, guard.getState());
+		release(guard, true);
+		assertEquals(State.OPEN, guard.getState());
+		assertNull(guard.acquire());
+		assertTrue(guard.getRetryAfter() > 0);
+
+		Thread.sleep(OPEN_STATE_DURATION + 20);
+		assertEquals(State.HALF_OPEN, guard.getState());
+		Call probe = guard.acquire();
+		assertNotNull(probe);
+		assertTrue(probe.isProbe());
+		// only one probe at a time
+		assertNull(guard.acquire());
+
+		// a failed probe reopens the circuit
+		guard.release(probe, 0, true);
+		assertEquals(State.OPEN, guard.getState());
+
+		Thread.sleep(OPEN_STATE_DURATION + 20);
+		probe = guard.acquire();
+		guard.release(probe, 0, false);
+		assertEquals(State.CLOSED, guard.getState());
+		Call call = guard.acquire();
+		assertFalse(call.isProbe());
+		guard.release(call, 0, false);
+	}
+
+	/**
+	 * A call admitted while closed that ends in the half open state is not a
+	 * probe and can't close the circuit
+	 */
+	@Test
+	public void testLateResult() throws InterruptedException {
+		UpstreamGuard guard = newGuard(0, 0, 1);
+		Call late = guard.acquire();
+		for (int i = 0; i < 4; i++) {
+			release(guard, true);
+		}
+		assertEquals(State.OPEN, guard.getState());
+		Thread.sleep(OPEN_STATE_DURATION + 20);
+		Call probe = guard.acquire();
+		assertNotNull(probe);
+
+		guard.release(late, 0, false);
+		assertEquals(State.HALF_OPEN, guard.getState());
+		// the probe is still in flight
+		assertNull(guard.acquire());
+
+		guard.release(probe, 0, false);
+		assertEquals(State.CLOSED, guard.getState());
+	}
+
+	/**
+	 * Calls over the concurrent limit wait in the queue, calls over the queue
+	 * limit are rejected
+	 */
+	@Test
+	public void testBulkhead() throws InterruptedException {
+		final UpstreamGuard guard = newGuard(1, 1, 5000);
+		Call first = guard.acquire();
+		assertNotNull(first);
+
+		final CountDownLatch queued = new CountDownLatch(1);
+		final Call[] waiting = new Call[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				queued.countDown();
+				waiting[0] = guard.acquire();
+			}
+		};
+		thread.start();
+		queued.await();
+		while (!Integer.valueOf(1).equals(guard.getStatus().get("queuedCalls"))) {
+			Thread.sleep(5);
+		}
+
+		// the queue is full
+		assertNull(guard.acquire());
+		assertEquals(1L, guard.getStatus().get("rejectedCalls"));
+
+		guard.release(first, 0, false);
+		thread.join(TimeUnit.SECONDS.toMillis(5));
+		assertNotNull(waiting[0]);
+		assertEquals(1, guard.getStatus().get("activeCalls"));
+		guard.release(waiting[0], 0, false);
+		assertEquals(0, guard.getStatus().get("activeCalls"));
+		// a bulkhead rejection doesn't count as a failure
+		assertEquals(State.CLOSED, guard.getState());
+	}
+
+	private static UpstreamGuard newGuard(int maxConcurrentCalls, int maxQueuedCalls,
+			long queueTimeout) {
+		return new UpstreamGuard(maxConcurrentCalls, maxQueuedCalls, queueTimeout, 50, 0, 4,
+				60000, OPEN_STATE_DURATION, 1);
+	}
+
+	private static void release(UpstreamGuard guard, boolean failed) {
+		Call call = guard.acquire();
+		assertNotNull(call);
+		guard.release(call, 0, failed);
+	}
+
+}
@@ -64,10 +64,10 @@ public class OpenIdConnectLoginService implements OAuth2LoginService {
         ResponseType responseType = new ResponseType();
         responseType.add(ResponseType.Value.CODE);
         try {
-	        String loginUrl = configuration.getValue("loginUrl", "").toString();
-			String clientId = configuration.getValue("clientId", "").toString();
-			String returnUrl = configuration.getValue("returnUrl", "").toString();
-			String authorizations = configuration.getValue("authorizations", "openid email profile").toString();
+	        String loginUrl = configuration.getString("loginUrl", "");
+			String clientId = configuration.getString("clientId", "");
+			String returnUrl = configuration.getString("returnUrl", "");
+			String authorizations = configuration.getString("authorizations", "openid email profile");
 			if(!loginUrl.isEmpty() && !clientId.isEmpty() && !returnUrl.isEmpty()) {
 				AuthorizationRequest req = new AuthorizationRequest(
 		                new URL(loginUrl),
@@ -95,10 +95,10 @@ public class OpenIdConnectLoginService implements OAuth2LoginService {
 	@Override
 	public AccessToken getToken(OSDIConfigurationKVP configuration, String code) {
 		
-		String clientId = configuration.getValue("clientId", "").toString();
-		String clientSecret = configuration.getValue("clientSecret", "").toString();
-		String returnUrl = configuration.getValue("returnUrl", "").toString();
-		String tokenUrl = configuration.getValue("tokenUrl", "").toString();
+		String clientId = configuration.getString("clientId", "");
+		String clientSecret = configuration.getString("clientSecret", "");
+		String returnUrl = configuration.getString("returnUrl", "");
+		String tokenUrl = configuration.getString("tokenUrl", "");
 		
 		try {
 			if(!tokenUrl.isEmpty() && !clientId.isEmpty() && !clientSecret.isEmpty() && !returnUrl.isEmpty()) {